@@ -0,0 +1,88 @@
+package org.chinaxing.bench;
+
+import org.chinaxing.IoURing;
+import org.chinaxing.SubmissionBatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cost of the submit path: REQUESTS random 4K direct reads per call, submitted batchSize at a time
+ * through a {@link SubmissionBatch}, against one JNI prepare per request and a single submit.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchSubmitBenchmark {
+	static final int BLOCK = 4096;
+	static final int REQUESTS = 128;
+
+	@Param({"1", "8", "32", "128"})
+	public int batchSize;
+
+	IoURing ring;
+	SubmissionBatch batch;
+	ByteBuffer[] buffers;
+	long[] offsets;
+	long[] reqIds;
+	long[] rets;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		ring = new IoURing(REQUESTS, 0);
+		batch = ring.newBatch(batchSize);
+		buffers = new ByteBuffer[REQUESTS];
+		for (int i = 0; i < REQUESTS; i++) {
+			buffers[i] = ByteBuffer.allocateDirect(BLOCK);
+		}
+		offsets = new long[REQUESTS];
+		reqIds = new long[REQUESTS];
+		rets = new long[REQUESTS];
+	}
+
+	@Benchmark
+	public long batched(BenchFile f) throws Exception {
+		f.random(offsets, BLOCK);
+		for (int i = 0; i < REQUESTS; i++) {
+			buffers[i].clear();
+			batch.read(f.fd, offsets[i], buffers[i]);
+			if (batch.isFull()) {
+				batch.submit();
+			}
+		}
+		batch.submit();
+		return Engines.reap(ring, reqIds, rets, REQUESTS);
+	}
+
+	@Benchmark
+	public long perRequest(BenchFile f) throws Exception {
+		f.random(offsets, BLOCK);
+		for (int i = 0; i < REQUESTS; i++) {
+			buffers[i].clear();
+			ring.prepareRead(f.fd, offsets[i], buffers[i]);
+		}
+		ring.submit();
+		return Engines.reap(ring, reqIds, rets, REQUESTS);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		ring.shutdown();
+	}
+}
@@ -0,0 +1,73 @@
+package org.chinaxing.bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * file all engines run against, filled with random bytes before the trial.
+ *
+ * created in -Dbench.dir (default java.io.tmpdir), point it at /dev/shm for tmpfs
+ * or at a local disk for device numbers. page cache is not dropped.
+ */
+@State(Scope.Benchmark)
+public class BenchFile {
+	@Param("268435456")
+	public long fileSize;
+
+	public File file;
+	public FileChannel channel;
+	public FileDescriptor fd;
+	private RandomAccessFile raf;
+
+	@Setup(Level.Trial)
+	public void create() throws IOException {
+		File dir = new File(System.getProperty("bench.dir", System.getProperty("java.io.tmpdir")));
+		file = File.createTempFile("io-uring-bench", ".dat", dir);
+		file.deleteOnExit();
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		fd = raf.getFD();
+		ByteBuffer chunk = ByteBuffer.allocateDirect(1 << 20);
+		byte[] bytes = new byte[chunk.capacity()];
+		ThreadLocalRandom.current().nextBytes(bytes);
+		chunk.put(bytes);
+		for (long pos = 0; pos < fileSize; pos += chunk.capacity()) {
+			chunk.clear();
+			chunk.limit((int) Math.min(chunk.capacity(), fileSize - pos));
+			while (chunk.hasRemaining()) {
+				channel.write(chunk, pos + chunk.position());
+			}
+		}
+		channel.force(true);
+	}
+
+	/**
+	 * fill offsets with random block aligned offsets
+	 */
+	public long[] random(long[] offsets, int block) {
+		ThreadLocalRandom r = ThreadLocalRandom.current();
+		long blocks = fileSize / block;
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = r.nextLong(blocks) * block;
+		}
+		return offsets;
+	}
+
+	@TearDown(Level.Trial)
+	public void delete() throws IOException {
+		raf.close();
+		file.delete();
+	}
+}
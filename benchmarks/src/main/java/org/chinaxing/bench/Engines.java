@@ -0,0 +1,302 @@
+package org.chinaxing.bench;
+
+import org.chinaxing.AsyncIO;
+import org.chinaxing.FixedBufferPool;
+import org.chinaxing.FixedBufferPool.FixedBuffer;
+import org.chinaxing.IoURing;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * io engines compared by the suites, each move queueDepth blocks per benchmark call
+ * and return when all of them completed:
+ * ring and AsyncIO keep queueDepth requests in flight, FileChannel and mmap do them one by one,
+ * AsynchronousFileChannel hand them to its thread pool.
+ *
+ * buffers are heap, direct, or registered fixed buffers. engines without fixed buffers use direct for FIXED.
+ */
+public class Engines {
+	public static final int MAX_BLOCK = 128 * 1024;
+
+	public enum BufferKind {
+		HEAP, DIRECT, FIXED
+	}
+
+	@State(Scope.Thread)
+	public abstract static class Engine {
+		@Param({"1", "4", "16", "64", "256"})
+		public int queueDepth;
+
+		@Param({"HEAP", "DIRECT", "FIXED"})
+		public BufferKind bufferKind;
+
+		// offsets of the next call, filled by the benchmark
+		public long[] offsets;
+		ByteBuffer[] buffers;
+		// next offset of sequential access
+		private long cursor;
+
+		void allocate() {
+			offsets = new long[queueDepth];
+			buffers = new ByteBuffer[queueDepth];
+			for (int i = 0; i < queueDepth; i++) {
+				buffers[i] = bufferKind == BufferKind.HEAP ? ByteBuffer.allocate(MAX_BLOCK) : ByteBuffer.allocateDirect(MAX_BLOCK);
+			}
+		}
+
+		ByteBuffer buffer(int i, int len) {
+			ByteBuffer b = buffers[i];
+			b.clear().limit(len);
+			return b;
+		}
+
+		/**
+		 * fill offsets with the next blocks of a sequential scan, wrap at the end of file
+		 */
+		public long[] sequential(BenchFile f, int len) {
+			for (int i = 0; i < offsets.length; i++) {
+				if (cursor + len > f.fileSize) {
+					cursor = 0;
+				}
+				offsets[i] = cursor;
+				cursor += len;
+			}
+			return offsets;
+		}
+
+		/**
+		 * read or write len bytes at each of offsets
+		 * @return bytes transferred
+		 */
+		public abstract long transfer(BenchFile f, boolean write, int len) throws Exception;
+	}
+
+	/**
+	 * raw {@link IoURing}: prepare all, one submit, reap in batches
+	 */
+	@State(Scope.Thread)
+	public static class Ring extends Engine {
+		IoURing ring;
+		FixedBufferPool pool;
+		FixedBuffer[] fixed;
+		long[] reqIds;
+		long[] rets;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			ring = new IoURing(queueDepth, 0);
+			allocate();
+			reqIds = new long[queueDepth];
+			rets = new long[queueDepth];
+			if (bufferKind == BufferKind.FIXED) {
+				pool = new FixedBufferPool(ring, MAX_BLOCK, queueDepth);
+				fixed = new FixedBuffer[queueDepth];
+				for (int i = 0; i < queueDepth; i++) {
+					fixed[i] = pool.lease();
+				}
+			}
+		}
+
+		@Override
+		public long transfer(BenchFile f, boolean write, int len) throws IOException {
+			for (int i = 0; i < queueDepth; i++) {
+				if (bufferKind == BufferKind.FIXED) {
+					if (write) {
+						ring.prepareWriteFixed(f.fd, offsets[i], fixed[i], 0, len);
+					} else {
+						ring.prepareReadFixed(f.fd, offsets[i], fixed[i], 0, len);
+					}
+				} else if (write) {
+					ring.prepareWrite(f.fd, offsets[i], buffer(i, len));
+				} else {
+					ring.prepareRead(f.fd, offsets[i], buffer(i, len));
+				}
+			}
+			ring.submit();
+			return reap(ring, reqIds, rets, queueDepth);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			if (pool != null) {
+				pool.close();
+			}
+			ring.shutdown();
+		}
+	}
+
+	/**
+	 * {@link AsyncIO}: futures completed by its completion loop
+	 */
+	@State(Scope.Thread)
+	public static class Async extends Engine {
+		AsyncIO io;
+		FixedBuffer[] fixed;
+		CompletableFuture<?>[] futures;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			io = new AsyncIO("bench", queueDepth, 0);
+			allocate();
+			futures = new CompletableFuture<?>[queueDepth];
+			if (bufferKind == BufferKind.FIXED) {
+				FixedBufferPool pool = io.registerFixedBuffers(MAX_BLOCK, queueDepth);
+				fixed = new FixedBuffer[queueDepth];
+				for (int i = 0; i < queueDepth; i++) {
+					fixed[i] = pool.lease();
+				}
+			}
+		}
+
+		@Override
+		public long transfer(BenchFile f, boolean write, int len) throws IOException {
+			for (int i = 0; i < queueDepth; i++) {
+				if (bufferKind == BufferKind.FIXED) {
+					futures[i] = write ? io.prepareWriteFixed(f.fd, offsets[i], fixed[i], 0, len)
+						: io.prepareReadFixed(f.fd, offsets[i], fixed[i], 0, len);
+				} else {
+					futures[i] = write ? io.prepareWrite(f.fd, offsets[i], buffer(i, len))
+						: io.prepareRead(f.fd, offsets[i], buffer(i, len));
+				}
+			}
+			io.submit();
+			return join(futures);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			io.shutdown();
+		}
+	}
+
+	/**
+	 * positional FileChannel read/write, one at a time
+	 */
+	@State(Scope.Thread)
+	public static class Channel extends Engine {
+		@Setup(Level.Trial)
+		public void setup() {
+			allocate();
+		}
+
+		@Override
+		public long transfer(BenchFile f, boolean write, int len) throws IOException {
+			long bytes = 0;
+			for (int i = 0; i < queueDepth; i++) {
+				ByteBuffer b = buffer(i, len);
+				while (b.hasRemaining()) {
+					int n = write ? f.channel.write(b, offsets[i] + b.position()) : f.channel.read(b, offsets[i] + b.position());
+					if (n < 0) {
+						break;
+					}
+				}
+				bytes += b.position();
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * AsynchronousFileChannel, queueDepth requests handed to its pool at once
+	 */
+	@State(Scope.Thread)
+	public static class AsyncChannel extends Engine {
+		AsynchronousFileChannel channel;
+		Future<?>[] futures;
+
+		@Setup(Level.Trial)
+		public void setup(BenchFile f) throws IOException {
+			channel = AsynchronousFileChannel.open(f.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			allocate();
+			futures = new Future<?>[queueDepth];
+		}
+
+		@Override
+		public long transfer(BenchFile f, boolean write, int len) throws Exception {
+			for (int i = 0; i < queueDepth; i++) {
+				futures[i] = write ? channel.write(buffer(i, len), offsets[i]) : channel.read(buffer(i, len), offsets[i]);
+			}
+			long bytes = 0;
+			for (Future<?> fu : futures) {
+				bytes += ((Number) fu.get()).longValue();
+			}
+			return bytes;
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			channel.close();
+		}
+	}
+
+	/**
+	 * copy between a mapping of the file and the buffers, writes are not msync'ed
+	 */
+	@State(Scope.Thread)
+	public static class Mmap extends Engine {
+		MappedByteBuffer map;
+
+		@Setup(Level.Trial)
+		public void setup(BenchFile f) throws IOException {
+			map = f.channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(f.fileSize, Integer.MAX_VALUE));
+			allocate();
+		}
+
+		@Override
+		public long transfer(BenchFile f, boolean write, int len) {
+			long bytes = 0;
+			for (int i = 0; i < queueDepth; i++) {
+				ByteBuffer m = map.duplicate();
+				m.limit((int) offsets[i] + len).position((int) offsets[i]);
+				if (write) {
+					m.put(buffer(i, len));
+				} else {
+					buffer(i, len).put(m);
+				}
+				bytes += len;
+			}
+			return bytes;
+		}
+	}
+
+	static long reap(IoURing ring, long[] reqIds, long[] rets, int n) throws IOException {
+		long bytes = 0;
+		int done = 0;
+		while (done < n) {
+			int k = ring.reapCQEntries(reqIds, rets, true);
+			for (int j = 0; j < k; j++) {
+				if (rets[j] < 0) {
+					throw new IOException("errno: " + -rets[j]);
+				}
+				bytes += rets[j];
+			}
+			done += k;
+		}
+		return bytes;
+	}
+
+	static long join(CompletableFuture<?>[] futures) throws IOException {
+		long bytes = 0;
+		for (CompletableFuture<?> f : futures) {
+			long res = (Long) f.join();
+			if (res < 0) {
+				throw new IOException("errno: " + -res);
+			}
+			bytes += res;
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,58 @@
+package org.chinaxing.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * random 4K reads, queueDepth of them per call
+ *
+ * <pre>
+ *   java -jar target/benchmarks.jar RandomRead -p queueDepth=64 -p bufferKind=DIRECT
+ * </pre>
+ * score is calls per second, times queueDepth for IOPS
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RandomReadBenchmark {
+	static final int BLOCK = 4096;
+
+	@Benchmark
+	public long ioUring(BenchFile f, Engines.Ring e) throws Exception {
+		f.random(e.offsets, BLOCK);
+		return e.transfer(f, false, BLOCK);
+	}
+
+	@Benchmark
+	public long asyncIO(BenchFile f, Engines.Async e) throws Exception {
+		f.random(e.offsets, BLOCK);
+		return e.transfer(f, false, BLOCK);
+	}
+
+	@Benchmark
+	public long fileChannel(BenchFile f, Engines.Channel e) throws Exception {
+		f.random(e.offsets, BLOCK);
+		return e.transfer(f, false, BLOCK);
+	}
+
+	@Benchmark
+	public long asyncFileChannel(BenchFile f, Engines.AsyncChannel e) throws Exception {
+		f.random(e.offsets, BLOCK);
+		return e.transfer(f, false, BLOCK);
+	}
+
+	@Benchmark
+	public long mmap(BenchFile f, Engines.Mmap e) throws Exception {
+		f.random(e.offsets, BLOCK);
+		return e.transfer(f, false, BLOCK);
+	}
+}
@@ -0,0 +1,84 @@
+package org.chinaxing.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * sequential 128K reads and writes, queueDepth consecutive blocks per call.
+ * score is calls per second, times queueDepth * 128K for bandwidth
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SequentialBenchmark {
+	static final int BLOCK = 128 * 1024;
+
+	@Benchmark
+	public long ioUringRead(BenchFile f, Engines.Ring e) throws Exception {
+		e.sequential(f, BLOCK);
+		return e.transfer(f, false, BLOCK);
+	}
+
+	@Benchmark
+	public long ioUringWrite(BenchFile f, Engines.Ring e) throws Exception {
+		e.sequential(f, BLOCK);
+		return e.transfer(f, true, BLOCK);
+	}
+
+	@Benchmark
+	public long asyncIORead(BenchFile f, Engines.Async e) throws Exception {
+		e.sequential(f, BLOCK);
+		return e.transfer(f, false, BLOCK);
+	}
+
+	@Benchmark
+	public long asyncIOWrite(BenchFile f, Engines.Async e) throws Exception {
+		e.sequential(f, BLOCK);
+		return e.transfer(f, true, BLOCK);
+	}
+
+	@Benchmark
+	public long fileChannelRead(BenchFile f, Engines.Channel e) throws Exception {
+		e.sequential(f, BLOCK);
+		return e.transfer(f, false, BLOCK);
+	}
+
+	@Benchmark
+	public long fileChannelWrite(BenchFile f, Engines.Channel e) throws Exception {
+		e.sequential(f, BLOCK);
+		return e.transfer(f, true, BLOCK);
+	}
+
+	@Benchmark
+	public long asyncFileChannelRead(BenchFile f, Engines.AsyncChannel e) throws Exception {
+		e.sequential(f, BLOCK);
+		return e.transfer(f, false, BLOCK);
+	}
+
+	@Benchmark
+	public long asyncFileChannelWrite(BenchFile f, Engines.AsyncChannel e) throws Exception {
+		e.sequential(f, BLOCK);
+		return e.transfer(f, true, BLOCK);
+	}
+
+	@Benchmark
+	public long mmapRead(BenchFile f, Engines.Mmap e) throws Exception {
+		e.sequential(f, BLOCK);
+		return e.transfer(f, false, BLOCK);
+	}
+
+	@Benchmark
+	public long mmapWrite(BenchFile f, Engines.Mmap e) throws Exception {
+		e.sequential(f, BLOCK);
+		return e.transfer(f, true, BLOCK);
+	}
+}
@@ -0,0 +1,84 @@
+package org.chinaxing.bench;
+
+import org.chinaxing.AsyncIO;
+import org.chinaxing.ShardedAsyncIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 4 threads of random 4K reads sharing one ring (shards=1) or on a ring each ({@link ShardedAsyncIO}),
+ * each thread keep IN_FLIGHT reads in flight
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ShardedBenchmark {
+	static final int BLOCK = 4096;
+	static final int IN_FLIGHT = 16;
+
+	@State(Scope.Benchmark)
+	public static class Rings {
+		@Param({"1", "4"})
+		public int shards;
+
+		@Param({"64", "256"})
+		public int ringDepth;
+
+		ShardedAsyncIO io;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			io = new ShardedAsyncIO("bench", shards, ringDepth, 0, ShardedAsyncIO.Routing.THREAD, true);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			io.shutdown();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Reader {
+		ByteBuffer[] buffers = new ByteBuffer[IN_FLIGHT];
+		long[] offsets = new long[IN_FLIGHT];
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[IN_FLIGHT];
+
+		@Setup(Level.Trial)
+		public void setup() {
+			for (int i = 0; i < IN_FLIGHT; i++) {
+				buffers[i] = ByteBuffer.allocateDirect(BLOCK);
+			}
+		}
+	}
+
+	@Benchmark
+	public long randomRead(BenchFile f, Rings rings, Reader r) throws Exception {
+		AsyncIO io = rings.io.shard();
+		f.random(r.offsets, BLOCK);
+		for (int i = 0; i < IN_FLIGHT; i++) {
+			r.buffers[i].clear();
+			r.futures[i] = io.prepareRead(f.fd, r.offsets[i], r.buffers[i]);
+		}
+		io.submit();
+		return Engines.join(r.futures);
+	}
+}
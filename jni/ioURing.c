@@ -1,5 +1,8 @@
 #include <stdlib.h>
+#include <string.h>
 #include <errno.h>
+#include <unistd.h>
+#include <sys/syscall.h>
 #include "liburing.h"
 #include "ioURing.h"
 
@@ -7,7 +10,7 @@
 #define GET_SQE(env, self, flags)                                      \
     struct io_uring_sqe * sqe = io_uring_get_sqe(GET_RING(env, self)); \
     if(!sqe) return -1;                                                \
-    if (!flags) io_uring_sqe_set_flags(sqe, (unsigned)flags)
+    if (flags) io_uring_sqe_set_flags(sqe, (unsigned)flags)
 
 #define MSEC_TO_TS(ts, msec)                      \
     do {                                          \
@@ -17,12 +20,24 @@
 
 #define SUPPORT_OP_CODE(op_code) (io_uring_probe_p && io_uring_opcode_supported((struct io_uring_probe *)io_uring_probe_p, op_code))
 
+/*
+ * iovec of the readv/writev a READ/WRITE falls back to, built before the SQE is taken
+ * and freed if there is no SQE for it
+ */
 #define BUILD_IO_VEC_1(buf, len)                        \
     struct iovec* vecs = malloc(sizeof(struct iovec));  \
     if (!vecs)  return -errno;                          \
     vecs->iov_base = (void*)buf;                        \
     vecs->iov_len = (unsigned)len
 
+#define GET_SQE_OR_FREE(env, self, flags, vecs)                        \
+    struct io_uring_sqe * sqe = io_uring_get_sqe(GET_RING(env, self)); \
+    if(!sqe) {                                                         \
+        free(vecs);                                                    \
+        return -1;                                                     \
+    }                                                                  \
+    if (flags) io_uring_sqe_set_flags(sqe, (unsigned)flags)
+
 
 static struct iovec * build_iovecs(JNIEnv *env, jlongArray buffers, jlongArray lens, jsize cnt) {
     struct iovec* vecs = malloc(cnt * sizeof(struct iovec));
@@ -39,6 +54,21 @@ static struct iovec * build_iovecs(JNIEnv *env, jlongArray buffers, jlongArray l
     return vecs;
 }
 
+static struct iovec * build_iovecs_int(JNIEnv *env, jlongArray buffers, jintArray lens, jsize cnt) {
+    struct iovec* vecs = malloc(cnt * sizeof(struct iovec));
+    if (vecs) {
+        jlong* buffer_ptr= (*env)->GetLongArrayElements(env, buffers, NULL);
+        jint* len_ptr = (*env)->GetIntArrayElements(env, lens, NULL);
+        for(int i =0 ; i < cnt; i++) {
+            vecs[i].iov_base = (void*)buffer_ptr[i];
+            vecs[i].iov_len = (unsigned)len_ptr[i];
+        }
+        (*env)->ReleaseLongArrayElements(env, buffers, buffer_ptr, JNI_ABORT);
+        (*env)->ReleaseIntArrayElements(env, lens, len_ptr, JNI_ABORT);
+    }
+    return vecs;
+}
+
 jfieldID ring_fid;
 jlong io_uring_probe_p;
 
@@ -48,11 +78,72 @@ JNIEXPORT void JNICALL Java_org_chinaxing_IoURingNative_initIDs(JNIEnv * env, jc
     io_uring_probe_p = (jlong)io_uring_get_probe();
 }
 
-JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_init0(JNIEnv * env, jobject self, jint entries, jlong flags)
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_init0(JNIEnv * env, jobject self, jint entries, jlong flags, jint sqThreadCpu, jint sqThreadIdle, jint cqEntries, jint wqFd)
 {
     struct io_uring * ring = malloc(sizeof(struct io_uring));
     (*env)->SetLongField(env, self, ring_fid, (jlong)ring);
-    return (jint)io_uring_queue_init(entries, ring, flags);
+    struct io_uring_params p;
+    memset(&p, 0, sizeof(p));
+    p.flags = (unsigned)flags;
+    if (sqThreadCpu >= 0) {
+        p.sq_thread_cpu = (unsigned)sqThreadCpu;
+    }
+    if (sqThreadIdle > 0) {
+        p.sq_thread_idle = (unsigned)sqThreadIdle;
+    }
+    if (cqEntries > 0) {
+        p.cq_entries = (unsigned)cqEntries;
+    }
+    if (wqFd >= 0) {
+        p.wq_fd = (unsigned)wqFd;
+    }
+    return (jint)io_uring_queue_init_params(entries, ring, &p);
+}
+
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_features(JNIEnv * env, jobject self)
+{
+    struct io_uring * ring = GET_RING(env, self);
+    return (jint)ring->features;
+}
+
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_cqEntries(JNIEnv * env, jobject self)
+{
+    struct io_uring * ring = GET_RING(env, self);
+    return (jint)ring->cq.ring_entries;
+}
+
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_ringFd(JNIEnv * env, jobject self)
+{
+    struct io_uring * ring = GET_RING(env, self);
+    return ring->ring_fd;
+}
+
+/*
+ * addresses of the mmapped SQ/CQ fields, order must keep in sync with DirectRing
+ */
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_ringLayout(JNIEnv * env, jobject self, jlongArray layout)
+{
+    struct io_uring * ring = GET_RING(env, self);
+    jlong l[] = {
+        (jlong)ring->sq.khead, (jlong)ring->sq.ktail, (jlong)*ring->sq.kring_mask, (jlong)*ring->sq.kring_entries,
+        (jlong)ring->sq.kflags, (jlong)ring->sq.array, (jlong)ring->sq.sqes,
+        (jlong)ring->cq.khead, (jlong)ring->cq.ktail, (jlong)*ring->cq.kring_mask, (jlong)*ring->cq.kring_entries,
+        (jlong)ring->cq.cqes, (jlong)ring->flags,
+        (jlong)(SUPPORT_OP_CODE(IORING_OP_READ) && SUPPORT_OP_CODE(IORING_OP_WRITE))
+    };
+    jsize n = (jsize)(sizeof(l) / sizeof(l[0]));
+    if ((*env)->GetArrayLength(env, layout) < n) return -EINVAL;
+    (*env)->SetLongArrayRegion(env, layout, 0, n, l);
+    return 0;
+}
+
+/*
+ * raw io_uring_enter, SQ/CQ indexes are maintained by the java side
+ */
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_enter0(JNIEnv * env, jclass clz, jint ringFd, jint toSubmit, jint minComplete, jint flags, jlong arg, jint argSize)
+{
+    int ret = (int)syscall(__NR_io_uring_enter, ringFd, (unsigned)toSubmit, (unsigned)minComplete, (unsigned)flags, (void*)arg, (size_t)argSize);
+    return ret < 0 ? -errno : ret;
 }
 
 JNIEXPORT void JNICALL Java_org_chinaxing_IoURingNative_exit0(JNIEnv * env, jobject self)
@@ -71,7 +162,10 @@ JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_registerBuffers(JNIEnv *
     if(!vecs) {
         return -1;
     }
-    return io_uring_register_buffers(GET_RING(env, self), vecs, (unsigned)cnt);
+    // kernel copy the iovecs when register, release it here
+    int ret = io_uring_register_buffers(GET_RING(env, self), vecs, (unsigned)cnt);
+    free(vecs);
+    return ret;
 }
 
 JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_unregisterBuffers(JNIEnv * env, jobject self)
@@ -87,6 +181,29 @@ JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_registerFiles(JNIEnv * e
     return io_uring_register_files(GET_RING(env, self), (int*)fds_, cnt);
 }
 
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_registerFilesUpdate(JNIEnv * env, jobject self, jint off, jintArray fds)
+{
+    jsize cnt = (*env)->GetArrayLength(env, fds);
+    jint fds_[cnt];
+    (*env)->GetIntArrayRegion(env, fds, 0, cnt, fds_);
+    return io_uring_register_files_update(GET_RING(env, self), (unsigned)off, (int*)fds_, cnt);
+}
+
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_registerBufRing(JNIEnv * env, jobject self, jlong ringAddr, jint entries, jint bgid)
+{
+    struct io_uring_buf_reg reg;
+    memset(&reg, 0, sizeof(reg));
+    reg.ring_addr = (__u64)ringAddr;
+    reg.ring_entries = (__u32)entries;
+    reg.bgid = (__u16)bgid;
+    return io_uring_register_buf_ring(GET_RING(env, self), &reg, 0);
+}
+
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_unregisterBufRing(JNIEnv * env, jobject self, jint bgid)
+{
+    return io_uring_unregister_buf_ring(GET_RING(env, self), bgid);
+}
+
 JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_unregisterFiles(JNIEnv * env, jobject self)
 {
     return io_uring_unregister_files(GET_RING(env, self));
@@ -94,23 +211,26 @@ JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_unregisterFiles(JNIEnv *
 
 JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_prepareRead(JNIEnv * env, jobject self, jlong reqId, jlong flags, jint fd, jlong bufptr, jint len, jlong offset)
 {
-    GET_SQE(env, self, flags);
     if (SUPPORT_OP_CODE(IORING_OP_READ)) {
+        GET_SQE(env, self, flags);
         io_uring_prep_read(sqe, (int)fd, (void*) bufptr, (unsigned)len, (off_t)offset);
+        io_uring_sqe_set_data(sqe, (void*)reqId);
     } else {
         // fallback to readv
         BUILD_IO_VEC_1(bufptr, len);
+        GET_SQE_OR_FREE(env, self, flags, vecs);
         io_uring_prep_readv(sqe, (int)fd, vecs, 1, (off_t)offset);
+        io_uring_sqe_set_data(sqe, (void*)reqId);
     }
-    io_uring_sqe_set_data(sqe, (void*)reqId);
     return 0;
 }
 
 JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_prepareReads(JNIEnv * env, jobject self, jlong reqId, jlong flags, jint fd, jlongArray bufptrs, jintArray lens, jlong offset)
 {
-    GET_SQE(env, self, flags);
     jsize nr_vecs =  (*env)->GetArrayLength(env, bufptrs);
-    struct iovec * vecs = build_iovecs(env, bufptrs, lens, nr_vecs);
+    struct iovec * vecs = build_iovecs_int(env, bufptrs, lens, nr_vecs);
+    if (!vecs) return -errno;
+    GET_SQE_OR_FREE(env, self, flags, vecs);
     io_uring_prep_readv(sqe, (int)fd, vecs, (unsigned)nr_vecs, (off_t)offset);
     io_uring_sqe_set_data(sqe, (void*)reqId);
     return 0;
@@ -119,30 +239,33 @@ JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_prepareReads(JNIEnv * en
 JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_prepareReadFixed(JNIEnv * env, jobject self, jlong reqId, jlong flags, jint fd, jlong bufptr, jint len, jlong offset, jint bufIndex)
 {
     GET_SQE(env, self, flags);
-    io_uring_prep_write_fixed(sqe, (int)fd, (void*)bufptr, (unsigned)len, (off_t)offset, (int) bufIndex);
+    io_uring_prep_read_fixed(sqe, (int)fd, (void*)bufptr, (unsigned)len, (off_t)offset, (int) bufIndex);
     io_uring_sqe_set_data(sqe, (void*)reqId);
     return 0;
 }
 
 JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_prepareWrite(JNIEnv * env, jobject self, jlong reqId, jlong flags, jint fd, jlong bufptr, jint len, jlong offset)
 {
-    GET_SQE(env, self, flags);
     if (SUPPORT_OP_CODE(IORING_OP_WRITE)) {
+        GET_SQE(env, self, flags);
         io_uring_prep_write(sqe, (int)fd, (void*) bufptr, (unsigned)len, (off_t)offset);
+        io_uring_sqe_set_data(sqe, (void*)reqId);
     } else {
-        // fallback to readv
+        // fallback to writev
         BUILD_IO_VEC_1(bufptr, len);
+        GET_SQE_OR_FREE(env, self, flags, vecs);
         io_uring_prep_writev(sqe, (int)fd, vecs, 1, (off_t)offset);
+        io_uring_sqe_set_data(sqe, (void*)reqId);
     }
-    io_uring_sqe_set_data(sqe, (void*)reqId);
     return 0;
 }
 
 JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_prepareWrites(JNIEnv * env, jobject self, jlong reqId, jlong flags, jint fd, jlongArray bufptr, jintArray len, jlong offset)
 {
-    GET_SQE(env, self, flags);
     jsize nr_vecs =  (*env)->GetArrayLength(env, bufptr);
-    struct iovec * vecs = build_iovecs(env, bufptr, len, nr_vecs);
+    struct iovec * vecs = build_iovecs_int(env, bufptr, len, nr_vecs);
+    if (!vecs) return -errno;
+    GET_SQE_OR_FREE(env, self, flags, vecs);
     io_uring_prep_writev(sqe, (int)fd, vecs, (unsigned)nr_vecs, (off_t)offset);
     io_uring_sqe_set_data(sqe, (void*)reqId);
     return 0;
@@ -164,6 +287,98 @@ JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_prepareFsync(JNIEnv * en
     return 0;
 }
 
+/*
+ * layout of one descriptor of SubmissionBatch / SubmitQueue, must keep in sync with the java side
+ */
+struct sqe_desc {
+    __u8  opcode;
+    __u8  flags;
+    __u16 buf_index;
+    __s32 fd;
+    __u64 addr;
+    __u32 len;
+    __u32 rw_flags;
+    __u64 off;
+    __u64 user_data;
+    __u16 ioprio;
+    __u16 resv;
+    // fd of splice/tee input, in addr is the input offset
+    __s32 splice_fd_in;
+};
+
+static void prep_sqe(struct io_uring_sqe * sqe, const struct sqe_desc * d)
+{
+    io_uring_prep_rw(d->opcode, sqe, d->fd, (void*)d->addr, d->len, d->off);
+    sqe->ioprio = d->ioprio;
+    sqe->rw_flags = d->rw_flags;
+    sqe->buf_index = d->buf_index;
+    sqe->splice_fd_in = d->splice_fd_in;
+    sqe->flags = d->flags;
+    sqe->user_data = d->user_data;
+}
+
+/*
+ * take an SQE for d and prepare it as is. READ/WRITE on kernels without them are
+ * turned into READV/WRITEV by the java side, with an iovec freed with the request
+ * @return 0, -1 if SQ full
+ */
+static int prep_desc(struct io_uring * ring, const struct sqe_desc * d)
+{
+    struct io_uring_sqe * sqe = io_uring_get_sqe(ring);
+    if (!sqe) return -1;
+    prep_sqe(sqe, d);
+    return 0;
+}
+
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_prepare(JNIEnv * env, jobject self, jint opcode, jint flags, jint ioprio, jint fd, jlong addr, jint len, jlong offset, jint rwFlags, jint bufIndex, jlong reqId)
+{
+    struct sqe_desc d = {
+        .opcode = (__u8)opcode, .flags = (__u8)flags, .buf_index = (__u16)bufIndex, .fd = fd,
+        .addr = (__u64)addr, .len = (__u32)len, .rw_flags = (__u32)rwFlags, .off = (__u64)offset, .user_data = (__u64)reqId,
+        .ioprio = (__u16)ioprio
+    };
+    return prep_desc(GET_RING(env, self), &d);
+}
+
+#define IS_LINKED(d) ((d)->flags & (IOSQE_IO_LINK | IOSQE_IO_HARDLINK))
+
+/*
+ * length of the linked chain start at d, count + 1 if the chain is not terminated within count
+ */
+static int chain_len(const struct sqe_desc * d, int count)
+{
+    int n = 1;
+    while (n <= count && IS_LINKED(&d[n - 1])) n++;
+    return n;
+}
+
+/*
+ * a linked chain is prepared all or nothing, a chain split by SQ full would be submitted
+ * as two chains and lose its ordering
+ */
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_prepareBatch(JNIEnv * env, jobject self, jlong descs, jint count, jintArray submitRet)
+{
+    struct io_uring * ring = GET_RING(env, self);
+    struct sqe_desc * d = (struct sqe_desc *)descs;
+    int i;
+    for(i = 0; i < count; i++, d++) {
+        if (IS_LINKED(d) && (i == 0 || !IS_LINKED(d - 1))) {
+            int n = chain_len(d, count - i);
+            if (n > count - i || io_uring_sq_space_left(ring) < (unsigned)n) break;
+        }
+        if (prep_desc(ring, d) != 0) break;
+    }
+    if (submitRet && i > 0) {
+        jint ret = io_uring_submit(ring);
+        (*env)->SetIntArrayRegion(env, submitRet, 0, 1, &ret);
+    }
+    return i;
+}
+
+/*
+ * with SQPOLL, io_uring_submit only publish the SQ tail, and enter the kernel
+ * just when the SQ thread went idle (IORING_SQ_NEED_WAKEUP), so no syscall while it is awake
+ */
 JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_submit(JNIEnv * env, jobject self)
 {
     return io_uring_submit(GET_RING(env, self));
@@ -220,6 +435,34 @@ JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_peekCQEntries(JNIEnv * e
     return cnt;
 }
 
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_reapCQEntries(JNIEnv * env, jobject self, jlongArray reqIds, jlongArray retCodes, jintArray cqeFlags, jint n, jint waitNr)
+{
+    struct io_uring * ring = GET_RING(env, self);
+    struct io_uring_cqe* cqe_ptr[n];
+    if (waitNr > 0) {
+        int ret = io_uring_wait_cqe_nr(ring, cqe_ptr, waitNr);
+        if (ret) return ret;
+    }
+    int cnt = io_uring_peek_batch_cqe(ring, cqe_ptr, n);
+    if (cnt) {
+        jlong reqIds_[cnt];
+        jlong res_[cnt];
+        jint flags_[cnt];
+        for(int i=0; i<cnt; i++) {
+            reqIds_[i] = cqe_ptr[i]->user_data;
+            res_[i] = cqe_ptr[i]->res;
+            flags_[i] = cqe_ptr[i]->flags;
+        }
+        io_uring_cq_advance(ring, cnt);
+        (*env)->SetLongArrayRegion(env, reqIds, 0, cnt, reqIds_);
+        (*env)->SetLongArrayRegion(env, retCodes, 0, cnt, res_);
+        if (cqeFlags) {
+            (*env)->SetIntArrayRegion(env, cqeFlags, 0, cnt, flags_);
+        }
+    }
+    return cnt;
+}
+
 JNIEXPORT void JNICALL Java_org_chinaxing_IoURingNative_advanceCQ(JNIEnv * env, jobject self, jint n)
 {
     struct io_uring * ring = GET_RING(env, self);
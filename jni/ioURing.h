@@ -18,10 +18,50 @@ JNIEXPORT void JNICALL Java_org_chinaxing_IoURingNative_initIDs
 /*
  * Class:     org_chinaxing_IoURingNative
  * Method:    init0
- * Signature: (IJ)I
+ * Signature: (IJIIII)I
  */
 JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_init0
-  (JNIEnv *, jobject, jint, jlong);
+  (JNIEnv *, jobject, jint, jlong, jint, jint, jint, jint);
+
+/*
+ * Class:     org_chinaxing_IoURingNative
+ * Method:    ringFd
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_ringFd
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     org_chinaxing_IoURingNative
+ * Method:    features
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_features
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     org_chinaxing_IoURingNative
+ * Method:    cqEntries
+ * Signature: ()I
+ */
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_cqEntries
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     org_chinaxing_IoURingNative
+ * Method:    ringLayout
+ * Signature: ([J)I
+ */
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_ringLayout
+  (JNIEnv *, jobject, jlongArray);
+
+/*
+ * Class:     org_chinaxing_IoURingNative
+ * Method:    enter0
+ * Signature: (IIIIJI)I
+ */
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_enter0
+  (JNIEnv *, jclass, jint, jint, jint, jint, jlong, jint);
 
 /*
  * Class:     org_chinaxing_IoURingNative
@@ -55,6 +95,14 @@ JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_unregisterBuffers
 JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_registerFiles
   (JNIEnv *, jobject, jintArray);
 
+/*
+ * Class:     org_chinaxing_IoURingNative
+ * Method:    registerFilesUpdate
+ * Signature: (I[I)I
+ */
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_registerFilesUpdate
+  (JNIEnv *, jobject, jint, jintArray);
+
 /*
  * Class:     org_chinaxing_IoURingNative
  * Method:    unregisterFiles
@@ -63,6 +111,22 @@ JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_registerFiles
 JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_unregisterFiles
   (JNIEnv *, jobject);
 
+/*
+ * Class:     org_chinaxing_IoURingNative
+ * Method:    registerBufRing
+ * Signature: (JII)I
+ */
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_registerBufRing
+  (JNIEnv *, jobject, jlong, jint, jint);
+
+/*
+ * Class:     org_chinaxing_IoURingNative
+ * Method:    unregisterBufRing
+ * Signature: (I)I
+ */
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_unregisterBufRing
+  (JNIEnv *, jobject, jint);
+
 /*
  * Class:     org_chinaxing_IoURingNative
  * Method:    prepareRead
@@ -119,6 +183,22 @@ JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_prepareWriteFixed
 JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_prepareFsync
   (JNIEnv *, jobject, jlong, jlong, jint, jlong);
 
+/*
+ * Class:     org_chinaxing_IoURingNative
+ * Method:    prepare
+ * Signature: (IIIIJIJIIJ)I
+ */
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_prepare
+  (JNIEnv *, jobject, jint, jint, jint, jint, jlong, jint, jlong, jint, jint, jlong);
+
+/*
+ * Class:     org_chinaxing_IoURingNative
+ * Method:    prepareBatch
+ * Signature: (JI[I)I
+ */
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_prepareBatch
+  (JNIEnv *, jobject, jlong, jint, jintArray);
+
 /*
  * Class:     org_chinaxing_IoURingNative
  * Method:    submit
@@ -167,6 +247,14 @@ JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_peekCQEntries
 JNIEXPORT void JNICALL Java_org_chinaxing_IoURingNative_advanceCQ
   (JNIEnv *, jobject, jint);
 
+/*
+ * Class:     org_chinaxing_IoURingNative
+ * Method:    reapCQEntries
+ * Signature: ([J[J[III)I
+ */
+JNIEXPORT jint JNICALL Java_org_chinaxing_IoURingNative_reapCQEntries
+  (JNIEnv *, jobject, jlongArray, jlongArray, jintArray, jint, jint);
+
 #ifdef __cplusplus
 }
 #endif
@@ -0,0 +1,239 @@
+package org.chinaxing;
+
+import org.chinaxing.exception.PrepareRWException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Bounded in-flight budget of an {@link AsyncIO}
+ *
+ * every request takes a permit per SQE before it is prepared and gives it back when its (last) CQE
+ * is reaped, so the ring never has more requests in flight than it can hold and
+ * completions never overflow the CQ:
+ * 1) without IORING_FEAT_NODROP the budget is the CQ size, kernel drop CQEs beyond it
+ * 2) with NODROP the budget is the request table less one SQ of headroom for cancels
+ *
+ * when the budget is used up, a caller is either parked after flushing what it queued
+ * ({@link Policy#PARK}), or its request is put in an overflow list and prepared
+ * by the completion loop when permits come back ({@link Policy#QUEUE}).
+ * the completion loop itself never parks, its requests always go to the overflow list.
+ */
+public class AdmissionController {
+	public enum Policy {
+		// flush and park the caller until there is room
+		PARK,
+		// return the future at once, prepare the request later
+		QUEUE
+	}
+
+	private static class Deferred {
+		final int permits;
+		final Runnable prepare;
+		final Consumer<? super RuntimeException> failed;
+
+		Deferred(int permits, Runnable prepare, Consumer<? super RuntimeException> failed) {
+			this.permits = permits;
+			this.prepare = prepare;
+			this.failed = failed;
+		}
+	}
+
+	private final int budget;
+	private final Policy policy;
+	// submit requests queued but not yet in the kernel, so they can complete
+	private final Runnable flush;
+	private final BooleanSupplier inCompletionLoop;
+	private final AtomicInteger permits;
+	private final ConcurrentLinkedQueue<Thread> parked = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<Deferred> overflow = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean draining = new AtomicBoolean();
+	// set by shutdown, nothing is admitted after it
+	private volatile boolean shutdown;
+
+	AdmissionController(int budget, Policy policy, Runnable flush, BooleanSupplier inCompletionLoop) {
+		if (budget <= 0) {
+			throw new IllegalArgumentException("budget: " + budget);
+		}
+		this.budget = budget;
+		this.policy = policy;
+		this.flush = flush;
+		this.inCompletionLoop = inCompletionLoop;
+		this.permits = new AtomicInteger(budget);
+	}
+
+	public int budget() {
+		return budget;
+	}
+
+	public Policy policy() {
+		return policy;
+	}
+
+	/**
+	 * requests in flight, in permits
+	 */
+	public int inFlight() {
+		return budget - permits.get();
+	}
+
+	/**
+	 * requests waiting in the overflow list
+	 */
+	public int overflowed() {
+		return overflow.size();
+	}
+
+	/**
+	 * run prepare holding n permits, now or later by the policy.
+	 * if prepare throws, the permits are returned, and the error is thrown when run now
+	 * or completes future exceptionally when run later
+	 */
+	void admit(int n, CompletableFuture<?> future, Runnable prepare) {
+		admit(n, future::completeExceptionally, prepare);
+	}
+
+	/**
+	 * like {@link #admit(int, CompletableFuture, Runnable)} for requests without a future,
+	 * failed gets the error of prepare when run later
+	 */
+	void admit(int n, Consumer<? super RuntimeException> failed, Runnable prepare) {
+		if (n > budget) {
+			throw new IllegalArgumentException("request of " + n + " SQEs larger than budget " + budget);
+		}
+		checkShutdown();
+		if (tryAcquireInOrder(n)) {
+			run(n, prepare);
+			return;
+		}
+		if (policy == Policy.PARK && !inCompletionLoop.getAsBoolean()) {
+			park(n);
+			run(n, prepare);
+			return;
+		}
+		Deferred d = new Deferred(n, prepare, failed);
+		overflow.add(d);
+		// raced with shutdown, which may have walked the list already
+		if (shutdown && overflow.remove(d)) {
+			checkShutdown();
+		}
+		// permits may come back before the request is in the list
+		if (drain() > 0 && !inCompletionLoop.getAsBoolean()) {
+			flush.run();
+		}
+	}
+
+	/**
+	 * give back n permits of completed requests, wake parked callers and prepare overflowed requests
+	 * @return number of overflowed requests prepared
+	 */
+	int release(int n) {
+		if (n <= 0) {
+			return 0;
+		}
+		permits.addAndGet(n);
+		int prepared = drain();
+		for (Thread t : parked) {
+			LockSupport.unpark(t);
+		}
+		return prepared;
+	}
+
+	/**
+	 * stop admitting: overflowed requests fail, parked callers wake up and throw {@link PrepareRWException}
+	 */
+	void shutdown() {
+		shutdown = true;
+		Deferred d;
+		while ((d = overflow.poll()) != null) {
+			d.failed.accept(new PrepareRWException("admission shut down"));
+		}
+		for (Thread t : parked) {
+			LockSupport.unpark(t);
+		}
+	}
+
+	private void checkShutdown() {
+		if (shutdown) {
+			throw new PrepareRWException("admission shut down");
+		}
+	}
+
+	// don't overtake the overflow list, its requests were there first
+	private boolean tryAcquireInOrder(int n) {
+		return overflow.isEmpty() && tryAcquire(n);
+	}
+
+	boolean tryAcquire(int n) {
+		while (true) {
+			int p = permits.get();
+			if (p < n) {
+				return false;
+			}
+			if (permits.compareAndSet(p, p - n)) {
+				return true;
+			}
+		}
+	}
+
+	private void park(int n) {
+		flush.run();
+		Thread t = Thread.currentThread();
+		while (!tryAcquireInOrder(n)) {
+			checkShutdown();
+			parked.add(t);
+			// recheck after enqueued, a release or shutdown in between already walked the list
+			boolean acquired = tryAcquireInOrder(n);
+			if (!acquired && !shutdown) {
+				LockSupport.park(this);
+			}
+			parked.remove(t);
+			if (acquired) {
+				return;
+			}
+		}
+	}
+
+	private void run(int n, Runnable prepare) {
+		try {
+			prepare.run();
+		} catch (RuntimeException e) {
+			permits.addAndGet(n);
+			throw e;
+		}
+	}
+
+	// prepare overflowed requests in order while permits last, one drainer at a time
+	private int drain() {
+		int prepared = 0;
+		while (true) {
+			if (!draining.compareAndSet(false, true)) {
+				return prepared;
+			}
+			try {
+				Deferred d;
+				while (!shutdown && (d = overflow.peek()) != null && tryAcquire(d.permits)) {
+					overflow.poll();
+					try {
+						run(d.permits, d.prepare);
+						prepared++;
+					} catch (RuntimeException e) {
+						d.failed.accept(e);
+					}
+				}
+			} finally {
+				draining.set(false);
+			}
+			// a request added or permits released while we held the flag
+			Deferred head = overflow.peek();
+			if (head == null || permits.get() < head.permits) {
+				return prepared;
+			}
+		}
+	}
+}
@@ -1,63 +1,378 @@
 package org.chinaxing;
 
-import org.chinaxing.IoURing.IOResult;
+import org.chinaxing.FixedBufferPool.FixedBuffer;
 import org.chinaxing.exception.IoURingException;
+import org.chinaxing.exception.SubmitException;
 
 import java.io.FileDescriptor;
-import java.util.Map;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * capabilities:
  *
  * 1) submit io request and get a Future
- *    each Future associate a request-Id internally
+ *    each Future associate a request-Id internally, cancel the Future cancel the request in kernel
  * 2) when sync with Future , trigger fetch io result
  * 3) future can be completed by internal Io-Completion-Reap EventLoop
  *
  * parameters like buffer requirement same as {@link IoURing}
+ *
+ * prepare and submit are thread safe, requests go through the {@link SubmitQueue} of the ring
+ * and are turned into SQEs by whichever thread submitting at the moment.
  */
 public class AsyncIO {
-	// use Integer as Future result data Type, because most of io-result return int
-	private final Map<Long, CompletableFuture<Long>> ioRequestFutures = new ConcurrentHashMap<>();
+	/**
+	 * callback of requests completing more than once (multishot), called on the completion loop per CQE
+	 */
+	public interface CompletionHandler {
+		/**
+		 * @param cqeFlags see {@link IoURing.CqeFlags}, no {@link IoURing.CqeFlags#MORE} on the last completion
+		 */
+		void completed(long res, int cqeFlags);
+	}
+
+	// request-Id of the NOP which wakeup completion loop when shutdown
+	private static final long WAKEUP_REQ_ID = 0;
+	// tries without progress to get the wakeup NOP into a full SQ, before shutdown fails
+	private static final int MAX_WAKEUP_STALLS = 10000;
+	private static final long ECANCELED = 125;
+	// result of a handler whose request was admitted later and failed to prepare
+	private static final long EBUSY = 16;
+	// submit queue capacity per SQ entry
+	private static final int SUBMIT_QUEUE_PER_ENTRY = 4;
+	// attachment of cancel requests, they take no admission permit
+	private static final Object CANCEL = new Object();
+	// idle pipes kept for transfer
+	private static final int MAX_IDLE_PIPES = 16;
 	private final IoURing ring;
+	private final AdmissionController admission;
 	private final String name;
+	// max completions reaped by one native call, CQ is twice of SQ by default
+	private final int reapBatch;
+	private final IoCompletionLoopThread completionLoop;
+	private final PipePool pipes;
+	private volatile boolean running = true;
+	// the loop exits the ring only once the thread that woke it is out of the submit
+	private final CountDownLatch wakeupSubmitted = new CountDownLatch(1);
 
 	public AsyncIO(String name, int queueDepth, int flags) {
+		this(name, new IoURing(queueDepth, flags));
+	}
+
+	/**
+	 * run on a created ring, the ring is owned by this AsyncIO and exited when shutdown
+	 */
+	public AsyncIO(String name, IoURing ring) {
+		this(name, ring, AdmissionController.Policy.PARK);
+	}
+
+	/**
+	 * @param policy what to do with requests beyond the in-flight budget, see {@link AdmissionController}
+	 */
+	public AsyncIO(String name, IoURing ring, AdmissionController.Policy policy) {
 		this.name = name;
-		ring = new IoURing(queueDepth, flags);
-		new IoCompletionLoopThread().start();
+		this.ring = ring;
+		this.reapBatch = ring.queueDepth() * 2;
+		ring.enableSubmitQueue(ring.queueDepth() * SUBMIT_QUEUE_PER_ENTRY);
+		// keep one SQ of request slots for cancels, and the CQ from overflow if kernel may drop CQEs
+		int budget = ring.maxInFlight() - ring.queueDepth();
+		if (!ring.hasFeature(IoURing.Features.NODROP)) {
+			budget = Math.min(budget, ring.cqEntries());
+		}
+		this.admission = new AdmissionController(budget, policy, ring::submit, this::inCompletionLoop);
+		this.pipes = new PipePool(ring, MAX_IDLE_PIPES);
+		completionLoop = new IoCompletionLoopThread();
+		completionLoop.start();
+	}
+
+	public IoURing ring() {
+		return ring;
+	}
+
+	public AdmissionController admission() {
+		return admission;
+	}
+
+	/**
+	 * record metrics of the ring and register them to JMX as org.chinaxing:type=IoURing,name=name,
+	 * unregistered when shutdown
+	 */
+	public RingMetrics enableMetrics() {
+		RingMetrics metrics = ring.enableMetrics();
+		metrics.registerMBean(name);
+		return metrics;
 	}
 
 	public CompletableFuture<Long> prepareRead(FileDescriptor fd, long offset, byte[] buf, int bufPos, int len) {
-		long reqId = ring.prepareRead(fd, offset, buf, bufPos, len);
-		CompletableFuture<Long> future = new CompletableFuture<>();
-		ioRequestFutures.put(reqId, future);
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareRead(fd, offset, buf, bufPos, len, future)));
 		return future;
 	}
 
 	public CompletableFuture<Long> prepareReads(FileDescriptor fd, long offset, byte[][] buf, int[] bufPos, int[] len) {
-		long reqId = ring.prepareReads(fd, offset, buf, bufPos, len);
-		CompletableFuture<Long> future = new CompletableFuture<>();
-		ioRequestFutures.put(reqId, future);
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareReads(fd, offset, buf, bufPos, len, future)));
 		return future;
 	}
 
 	public CompletableFuture<Long> prepareWrite(FileDescriptor fd, long offset, byte[] buf, int bufPos, int len) {
-		long reqId = ring.prepareWrite(fd, offset, buf, bufPos, len);
-		CompletableFuture<Long> future = new CompletableFuture<>();
-		ioRequestFutures.put(reqId, future);
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareWrite(fd, offset, buf, bufPos, len, future)));
 		return future;
 	}
 
 	public CompletableFuture<Long> prepareWrites(FileDescriptor fd, long offset, byte[][] buf, int[] bufPos, int[] len) {
-		long reqId = ring.prepareWrites(fd, offset, buf, bufPos, len);
-		CompletableFuture<Long> future = new CompletableFuture<>();
-		ioRequestFutures.put(reqId, future);
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareWrites(fd, offset, buf, bufPos, len, future)));
+		return future;
+	}
+
+	/**
+	 * zero copy read for direct buffer, see {@link IoURing#prepareRead(FileDescriptor, long, ByteBuffer)}
+	 */
+	public CompletableFuture<Long> prepareRead(FileDescriptor fd, long offset, ByteBuffer dst) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareRead(fd, offset, dst, future)));
 		return future;
 	}
 
+	/**
+	 * read with a deadline, completes with -ECANCELED if not done within timeout,
+	 * see {@link IoURing#prepareRead(FileDescriptor, long, ByteBuffer, long, Object)}
+	 */
+	public CompletableFuture<Long> prepareRead(FileDescriptor fd, long offset, ByteBuffer dst, long timeout, TimeUnit unit) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(2, future, () -> future.issued(ring.prepareRead(fd, offset, dst, unit.toNanos(timeout), future)));
+		return future;
+	}
+
+	public CompletableFuture<Long> prepareReads(FileDescriptor fd, long offset, ByteBuffer[] dsts) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareReads(fd, offset, dsts, future)));
+		return future;
+	}
+
+	/**
+	 * zero copy write for direct buffer, see {@link IoURing#prepareWrite(FileDescriptor, long, ByteBuffer)}
+	 */
+	public CompletableFuture<Long> prepareWrite(FileDescriptor fd, long offset, ByteBuffer src) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareWrite(fd, offset, src, future)));
+		return future;
+	}
+
+	/**
+	 * write with a deadline, completes with -ECANCELED if not done within timeout
+	 */
+	public CompletableFuture<Long> prepareWrite(FileDescriptor fd, long offset, ByteBuffer src, long timeout, TimeUnit unit) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(2, future, () -> future.issued(ring.prepareWrite(fd, offset, src, unit.toNanos(timeout), future)));
+		return future;
+	}
+
+	public CompletableFuture<Long> prepareWrites(FileDescriptor fd, long offset, ByteBuffer[] srcs) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareWrites(fd, offset, srcs, future)));
+		return future;
+	}
+
+	/**
+	 * read into raw memory, e.g. MemorySegment.address(), see {@link IoURing#prepareRead(FileDescriptor, long, long, int)}
+	 */
+	public CompletableFuture<Long> prepareRead(FileDescriptor fd, long offset, long address, int len) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareRead(fd, offset, address, len, future)));
+		return future;
+	}
+
+	/**
+	 * write from raw memory, e.g. MemorySegment.address(), see {@link IoURing#prepareWrite(FileDescriptor, long, long, int)}
+	 */
+	public CompletableFuture<Long> prepareWrite(FileDescriptor fd, long offset, long address, int len) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareWrite(fd, offset, address, len, future)));
+		return future;
+	}
+
+	public CompletableFuture<Long> prepareFsync(FileDescriptor fd, int fsyncFlags) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareFsync(fd, fsyncFlags, future)));
+		return future;
+	}
+
+	/**
+	 * new chain of requests run one after another in kernel, e.g. write, write, fsync, see {@link LinkedChain}
+	 */
+	public LinkedChain newChain() {
+		return new LinkedChain(this, false, ring.queueDepth());
+	}
+
+	/**
+	 * new chain of at most maxLinks links
+	 */
+	public LinkedChain newChain(int maxLinks) {
+		return new LinkedChain(this, false, maxLinks);
+	}
+
+	/**
+	 * new chain with IOSQE_IO_HARDLINK, a link start even the previous one failed
+	 */
+	public LinkedChain newHardChain() {
+		return new LinkedChain(this, true, ring.queueDepth());
+	}
+
+	/**
+	 * accept on a listening socket, result is the fd of the new connection or -errno
+	 */
+	public CompletableFuture<Long> prepareAccept(FileDescriptor fd) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareAccept(fd, future)));
+		return future;
+	}
+
+	public CompletableFuture<Long> prepareConnect(FileDescriptor fd, InetSocketAddress remote) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareConnect(fd, remote, future)));
+		return future;
+	}
+
+	public CompletableFuture<Long> prepareRecv(FileDescriptor fd, ByteBuffer dst, int flags) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareRecv(fd, dst, flags, future)));
+		return future;
+	}
+
+	/**
+	 * recv with a deadline, completes with -ECANCELED if nothing received within timeout
+	 */
+	public CompletableFuture<Long> prepareRecv(FileDescriptor fd, ByteBuffer dst, int flags, long timeout, TimeUnit unit) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(2, future, () -> future.issued(ring.prepareRecv(fd, dst, flags, unit.toNanos(timeout), future)));
+		return future;
+	}
+
+	public CompletableFuture<Long> prepareSend(FileDescriptor fd, ByteBuffer src, int flags) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareSend(fd, src, flags, future)));
+		return future;
+	}
+
+	/**
+	 * send with a deadline, completes with -ECANCELED if not sent within timeout
+	 */
+	public CompletableFuture<Long> prepareSend(FileDescriptor fd, ByteBuffer src, int flags, long timeout, TimeUnit unit) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(2, future, () -> future.issued(ring.prepareSend(fd, src, flags, unit.toNanos(timeout), future)));
+		return future;
+	}
+
+	public CompletableFuture<Long> prepareRecvMsg(FileDescriptor fd, long msghdr, int flags) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareRecvMsg(fd, msghdr, flags, future)));
+		return future;
+	}
+
+	public CompletableFuture<Long> prepareSendMsg(FileDescriptor fd, long msghdr, int flags) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareSendMsg(fd, msghdr, flags, future)));
+		return future;
+	}
+
+	public CompletableFuture<Long> preparePollAdd(FileDescriptor fd, int events) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.preparePollAdd(fd, events, future)));
+		return future;
+	}
+
+	public CompletableFuture<Long> prepareClose(FileDescriptor fd) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareClose(fd, future)));
+		return future;
+	}
+
+	/**
+	 * splice(2) between two fds without copying to user space, one of them must be a pipe,
+	 * see {@link IoURing#prepareSplice(FileDescriptor, long, FileDescriptor, long, int, int)}
+	 */
+	public CompletableFuture<Long> prepareSplice(FileDescriptor in, long inOffset, FileDescriptor out, long outOffset, int len, int flags) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareSplice(in, inOffset, out, outOffset, len, flags, future)));
+		return future;
+	}
+
+	public CompletableFuture<Long> prepareTee(FileDescriptor in, FileDescriptor out, int len, int flags) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareTee(in, out, len, flags, future)));
+		return future;
+	}
+
+	/**
+	 * copy len bytes from src to dst in kernel, file to socket (sendfile) or file to file,
+	 * by linked splices through a pooled pipe, see {@link SpliceTransfer}.
+	 * submitted by itself, no {@link #submit()} needed
+	 * @param srcOffset -1 if src is a socket or pipe
+	 * @param dstOffset -1 if dst is a socket or pipe
+	 * @return future of the bytes copied, less than len only at end of src, or -errno
+	 */
+	public CompletableFuture<Long> transfer(FileDescriptor src, long srcOffset, FileDescriptor dst, long dstOffset, long len) {
+		CompletableFuture<Long> future = new SpliceTransfer(this, pipes, src, srcOffset, dst, dstOffset, len).start();
+		if (!inCompletionLoop()) {
+			ring.submit();
+		}
+		return future;
+	}
+
+	/**
+	 * register a provided buffer group to the underline ring, see {@link BufferRing}
+	 */
+	public BufferRing registerBufferRing(int groupId, int count, int bufferSize) {
+		return ring.registerBufferRing(groupId, count, bufferSize);
+	}
+
+	/**
+	 * handler called with the fd of every accepted connection, see {@link IoURing#prepareMultishotAccept}.
+	 * admitted later and failed to prepare, the handler completes once with -EBUSY
+	 */
+	public void prepareMultishotAccept(FileDescriptor fd, CompletionHandler handler) {
+		admission.admit(1, e -> complete(handler, -EBUSY, 0), () -> ring.prepareMultishotAccept(fd, handler));
+	}
+
+	/**
+	 * handler called for every chunk received into a buffer of buffers, see {@link IoURing#prepareMultishotRecv}
+	 */
+	public void prepareMultishotRecv(FileDescriptor fd, BufferRing buffers, CompletionHandler handler) {
+		admission.admit(1, e -> complete(handler, -EBUSY, 0), () -> ring.prepareMultishotRecv(fd, buffers, handler));
+	}
+
+	/**
+	 * register count * bufferSize bytes of fixed buffers to the underline ring
+	 */
+	public FixedBufferPool registerFixedBuffers(int bufferSize, int count) {
+		return new FixedBufferPool(ring, bufferSize, count);
+	}
+
+	public CompletableFuture<Long> prepareReadFixed(FileDescriptor fd, long offset, FixedBuffer buf, int bufPos, int len) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareReadFixed(fd, offset, buf, bufPos, len, future)));
+		return future;
+	}
+
+	public CompletableFuture<Long> prepareWriteFixed(FileDescriptor fd, long offset, FixedBuffer buf, int bufPos, int len) {
+		IoFuture future = new IoFuture(this);
+		admission.admit(1, future, () -> future.issued(ring.prepareWriteFixed(fd, offset, buf, bufPos, len, future)));
+		return future;
+	}
+
+    /**
+     * @deprecated completion loop mark reaped CQEs seen itself, advance CQ again will drop completions
+     */
+    @Deprecated
     public void seen(int n) {
         ring.seenCQEntry(n);
 
@@ -66,8 +381,104 @@ public class AsyncIO {
         return ring.submit();
     }
 
+    /**
+     * admit a request of sqes SQEs whose completion goes to a handler (no future), prepare it now or
+     * when permits come back. an error of admission or prepare, now or later, goes to failed, not thrown
+     * @return false if failed already
+     */
+    boolean admit(int sqes, Runnable prepare, Consumer<? super RuntimeException> failed) {
+        try {
+            admission.admit(sqes, failed, prepare);
+            return true;
+        } catch (RuntimeException e) {
+            failed.accept(e);
+            return false;
+        }
+    }
+
+    /**
+     * {@link #admit(int, Runnable, Consumer)} then submit, unless on the completion loop which submits after the batch
+     */
+    void admitAndSubmit(int sqes, Runnable prepare, Consumer<? super RuntimeException> failed) {
+        if (admit(sqes, prepare, failed) && !inCompletionLoop()) {
+            ring.submit();
+        }
+    }
+
+    /**
+     * cancel an in-flight request, its future completes with -ECANCELED unless it completed already.
+     * {@link IoFuture#cancel(boolean)} call this
+     */
+    public void cancelRequest(long reqId) {
+        try {
+            ring.prepareCancel(reqId, CANCEL);
+            if (!inCompletionLoop()) {
+                ring.submit();
+            }
+        } catch (IoURingException e) {
+            // no room for the cancel, the request still completes by itself
+        }
+    }
+
+    /**
+     * requests prepared on the completion loop (e.g. in future callbacks) are submitted
+     * by the loop after each reap batch, no {@link #submit()} needed there
+     */
+    public boolean inCompletionLoop() {
+        return Thread.currentThread() == completionLoop;
+    }
+
+    private static void complete(CompletionHandler handler, long res, int flags) {
+        try {
+            handler.completed(res, flags);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * stop the completion loop and exit the ring. requests not completed are dropped:
+     * their futures are cancelled and their handlers complete with -ECANCELED
+     * @throws SubmitException if the wakeup of the loop can't be submitted, the loop is left running
+     */
     public void shutdown() {
-        ring.shutdown();
+        if (!running) {
+            return;
+        }
+        // while the ring is up, closed pipes are unregistered from its file table
+        pipes.close();
+        running = false;
+        // parked callers and overflowed requests would wait for permits that never come back
+        admission.shutdown();
+        RingMetrics metrics = ring.metrics();
+        if (metrics != null) {
+            metrics.unregisterMBean();
+        }
+        try {
+            SubmissionBatch wakeup = ring.newBatch(1);
+            wakeup.add(IoURing.Op.NOP, 0, -1, 0, 0, 0, 0, 0, WAKEUP_REQ_ID);
+            // the loop never exits without the NOP. SQ full: push it to the kernel, or give the SQ thread
+            // time to take it, until there is room
+            int stalls = 0;
+            while (wakeup.submit() == 0) {
+                if (ring.submit() > 0) {
+                    stalls = 0;
+                } else if (++stalls > MAX_WAKEUP_STALLS) {
+                    throw new SubmitException("no room in SQ for the wakeup of " + name);
+                } else {
+                    Thread.yield();
+                }
+            }
+        } finally {
+            wakeupSubmitted.countDown();
+        }
+        if (Thread.currentThread() != completionLoop) {
+            try {
+                completionLoop.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     /**
@@ -85,19 +496,77 @@ public class AsyncIO {
 			pollCQ();
 		}
 
+		/**
+		 * block for at least one completion, then reap a batch of them in one go,
+		 * the future (or multishot handler) of each request is its attachment in the ring.
+		 * the ring is exited by this thread when loop stopped
+		 */
+		@SuppressWarnings("unchecked")
 		private void pollCQ() {
-			while (true) {
+			long[] reqIds = new long[reapBatch], retCodes = new long[reapBatch];
+			int[] cqeFlags = new int[reapBatch];
+			Object[] futures = new Object[reapBatch];
+			boolean woken = false;
+			while (!woken) {
 				try {
-					IOResult result = ring.waitCQEntry();
-					CompletableFuture<Long> future = ioRequestFutures.get(result.reqId);
-					if (future != null) {
-                                            future.complete(result.res);
+					int n = ring.reapCQEntries(reqIds, retCodes, cqeFlags, futures, true);
+					int released = 0;
+					for (int i = 0; i < n; i++) {
+						Object attachment = futures[i];
+						futures[i] = null;
+						// stop with this batch, not before: the ring must not go while shutdown is still submitting
+						if (reqIds[i] == WAKEUP_REQ_ID) {
+							woken = true;
+							continue;
+						}
+						// NOP of the submit queue, no request behind it
+						if (reqIds[i] == SubmitQueue.PADDING_REQ_ID) {
+							continue;
+						}
+						if (attachment != CANCEL && !IoURing.CqeFlags.hasMore(cqeFlags[i])) {
+							released++;
+						}
+						if (attachment instanceof IoFuture) {
+							((IoFuture) attachment).completed(retCodes[i]);
+						} else if (attachment instanceof CompletableFuture) {
+							((CompletableFuture<Long>) attachment).complete(retCodes[i]);
+						} else if (attachment instanceof CompletionHandler) {
+							complete((CompletionHandler) attachment, retCodes[i], cqeFlags[i]);
+						}
+					}
+					// overflowed requests get in with the permits given back
+					admission.release(released);
+					// requests issued by callbacks of this batch, one submit for all of them
+					if (n > 0 && !woken) {
+						ring.submit();
 					}
-					ring.seenCQEntry(1);
 				}catch (IoURingException e) {
 					e.printStackTrace();
 				}
 			}
+			boolean interrupted = false;
+			while (true) {
+				try {
+					wakeupSubmitted.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			ring.shutdown(this::dropped);
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		// request not completed when the ring exited, no CQE will come for it
+		@SuppressWarnings("unchecked")
+		private void dropped(Object attachment) {
+			if (attachment instanceof CompletableFuture) {
+				((CompletableFuture<Long>) attachment).completeExceptionally(new CancellationException("AsyncIO `" + name + "` shut down"));
+			} else if (attachment instanceof CompletionHandler) {
+				complete((CompletionHandler) attachment, -ECANCELED, 0);
+			}
 		}
 	}
 
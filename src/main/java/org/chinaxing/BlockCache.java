@@ -0,0 +1,518 @@
+package org.chinaxing;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Off-heap page cache in front of O_DIRECT files
+ *
+ * O_DIRECT skip the kernel page cache, so hot blocks are cached here instead, in fixed-size pages
+ * carved from large direct slabs (block aligned, read by the ring without copy).
+ *
+ * <h2>Index</h2>
+ * (file, page number) -> page, split into lock-striped hash maps. a hit pins the page under its stripe lock
+ * and bumps an access counter, nothing else, eviction never runs on the hit path.
+ *
+ * <h2>Eviction (S3-FIFO)</h2>
+ * 1) a new page goes to a small FIFO (10% of the pages), or to the main FIFO if its key is in the ghost FIFO
+ * 2) tail of small: moved to main if accessed since inserted, else evicted and its key remembered in ghost
+ * 3) tail of main: back to the head with one access less if accessed (CLOCK), else evicted
+ * 4) pinned pages are skipped
+ * pages read once (scans) leave through the small FIFO without pushing the hot ones out of main.
+ *
+ * <h2>Misses</h2>
+ * the first miss of a page insert it loading and issue one ring read, concurrent misses of the same page
+ * wait for that read (single flight). a failed read is not cached, the next acquire reads again.
+ *
+ * it is a read cache: writes go around it (e.g. a write through the ring), then {@link #invalidate(int, long)}.
+ * a page must be released after use, it can be evicted and reused right after.
+ */
+public class BlockCache implements AutoCloseable {
+	public static final int DEFAULT_STRIPES = 64;
+	// bits of the page number in a key, file id above it
+	private static final int PAGE_BITS = 40;
+	private static final int MAX_FILES = 1 << (63 - PAGE_BITS);
+	private static final int SMALL_PERCENT = 10;
+	private static final int MAX_FREQ = 3;
+	private static final long NO_KEY = -1;
+	// max bytes of one slab, pages are carved from slabs
+	private static final int SLAB_SIZE = 1 << 30;
+
+	/**
+	 * read of one page, completes done with bytes read or -errno, or fail it if the read can't be issued
+	 */
+	interface Loader {
+		void load(FileDescriptor fd, long offset, long address, int len, Frame done);
+	}
+
+	public static class Stats {
+		// acquire of a page loaded already
+		public final long hits;
+		// acquire which read the page
+		public final long misses;
+		// acquire which waited for the read of another miss
+		public final long joined;
+		public final long evictions;
+
+		public Stats(long hits, long misses, long joined, long evictions) {
+			this.hits = hits;
+			this.misses = misses;
+			this.joined = joined;
+			this.evictions = evictions;
+		}
+
+		public double hitRate() {
+			long total = hits + misses + joined;
+			return total == 0 ? 0 : (double) (hits + joined) / total;
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + hits + ", misses=" + misses + ", joined=" + joined
+				+ ", hitRate=" + hitRate() + ", evictions=" + evictions;
+		}
+	}
+
+	/**
+	 * one page of memory, holds a file page while mapped in the index
+	 */
+	final class Frame implements AsyncIO.CompletionHandler {
+		final ByteBuffer buf;
+		final long address;
+		// key of the page held, NO_KEY if not mapped, written under the stripe lock
+		volatile long key = NO_KEY;
+		// key the read in flight was issued for, key may be cleared by invalidate meanwhile
+		volatile long readKey = NO_KEY;
+		final AtomicInteger pins = new AtomicInteger();
+		// accesses since inserted, 0..MAX_FREQ, bumped by hits without lock so an update may be lost
+		volatile int freq;
+		// completed with this frame when the page is read
+		volatile CompletableFuture<Frame> loaded;
+		// bytes read, less than pageSize at end of file
+		volatile int length;
+
+		Frame(ByteBuffer buf) {
+			this.buf = buf;
+			this.address = IoURing.address(buf);
+		}
+
+		@Override
+		public void completed(long res, int cqeFlags) {
+			if (res < 0) {
+				failed(new IOException("read page of " + Long.toHexString(readKey) + " errno: " + -res));
+			} else {
+				loaded(this, (int) res);
+			}
+		}
+
+		void failed(Throwable e) {
+			BlockCache.this.failed(this, e);
+		}
+	}
+
+	/**
+	 * a pinned page, valid until {@link #release()}
+	 */
+	public static final class Page implements AutoCloseable {
+		private final Frame frame;
+		private final long pageNo;
+		private boolean released;
+
+		Page(Frame frame, long pageNo) {
+			this.frame = frame;
+			this.pageNo = pageNo;
+		}
+
+		public long pageNo() {
+			return pageNo;
+		}
+
+		/**
+		 * bytes of the page read, less than the page size only at end of file
+		 */
+		public int length() {
+			return frame.length;
+		}
+
+		/**
+		 * view of [0, length), independent position and limit
+		 */
+		public ByteBuffer buffer() {
+			ByteBuffer b = frame.buf.duplicate();
+			b.limit(frame.length);
+			return b;
+		}
+
+		public long address() {
+			return frame.address;
+		}
+
+		/**
+		 * unpin, the page may be evicted then
+		 */
+		public void release() {
+			if (!released) {
+				released = true;
+				frame.pins.decrementAndGet();
+			}
+		}
+
+		@Override
+		public void close() {
+			release();
+		}
+	}
+
+	private static final class Stripe {
+		final HashMap<Long, Frame> map = new HashMap<>();
+	}
+
+	private final Loader loader;
+	private final int pageSize;
+	private final List<ByteBuffer> slabs = new ArrayList<>();
+	private final Frame[] frames;
+	private final Stripe[] stripes;
+	private final Map<Integer, FileDescriptor> files = new ConcurrentHashMap<>();
+	private final AtomicInteger nextFile = new AtomicInteger();
+	// free frames and the FIFOs, guarded by evictLock, which is taken before a stripe lock
+	private final Object evictLock = new Object();
+	private final ArrayDeque<Frame> free = new ArrayDeque<>();
+	private final ArrayDeque<Frame> small = new ArrayDeque<>();
+	private final ArrayDeque<Frame> main = new ArrayDeque<>();
+	private final LinkedHashSet<Long> ghost = new LinkedHashSet<>();
+	private final int smallTarget;
+	private final int ghostCapacity;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder joined = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * pages are read by the ring of io, aligned so the files can be opened by {@link DirectIO#open}
+	 * @param pageSize multiple of {@link DirectBufferArena#ALIGNMENT}
+	 * @param pages capacity of the cache
+	 */
+	public BlockCache(AsyncIO io, int pageSize, int pages) {
+		this(ringLoader(io), pageSize, pages, DEFAULT_STRIPES);
+	}
+
+	BlockCache(Loader loader, int pageSize, int pages, int stripes) {
+		if (pageSize <= 0 || pageSize % DirectBufferArena.ALIGNMENT != 0 || pageSize > SLAB_SIZE) {
+			throw new IllegalArgumentException("pageSize " + pageSize);
+		}
+		if (pages <= 0 || Integer.bitCount(stripes) != 1) {
+			throw new IllegalArgumentException("pages " + pages + " stripes " + stripes);
+		}
+		this.loader = loader;
+		this.pageSize = pageSize;
+		this.frames = new Frame[pages];
+		int perSlab = SLAB_SIZE / pageSize;
+		for (int i = 0; i < pages; i += perSlab) {
+			int n = Math.min(perSlab, pages - i);
+			ByteBuffer slab = ByteBuffer.allocateDirect(n * pageSize + DirectBufferArena.ALIGNMENT);
+			slabs.add(slab);
+			int pad = DirectIO.padding(IoURing.address(slab), DirectBufferArena.ALIGNMENT);
+			for (int j = 0; j < n; j++) {
+				slab.limit(pad + (j + 1) * pageSize).position(pad + j * pageSize);
+				Frame f = frames[i + j] = new Frame(slab.slice());
+				free.add(f);
+			}
+		}
+		this.stripes = new Stripe[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.stripes[i] = new Stripe();
+		}
+		this.smallTarget = Math.max(1, pages * SMALL_PERCENT / 100);
+		this.ghostCapacity = pages - smallTarget;
+	}
+
+	private static Loader ringLoader(AsyncIO io) {
+		IoURing ring = io.ring();
+		return (fd, offset, address, len, done) ->
+			io.admitAndSubmit(1, () -> ring.prepareRead(fd, offset, address, len, done), done::failed);
+	}
+
+	public int pageSize() {
+		return pageSize;
+	}
+
+	public int capacity() {
+		return frames.length;
+	}
+
+	/**
+	 * add a file to the cache, by fd e.g. of {@link DirectIO#open}, the cache don't own it
+	 * @return id of the file in {@link #acquire(int, long)}
+	 */
+	public int register(FileDescriptor fd) {
+		int id = nextFile.getAndIncrement();
+		if (id >= MAX_FILES) {
+			throw new IllegalStateException("too many files: " + id);
+		}
+		files.put(id, fd);
+		return id;
+	}
+
+	/**
+	 * remove a file and drop its pages, pages still pinned stay valid until released
+	 */
+	public void unregister(int file) {
+		files.remove(file);
+		invalidate(file);
+	}
+
+	/**
+	 * pin page pageNo of file (bytes [pageNo * pageSize, +pageSize)), reading it on a miss.
+	 * the future fails with IOException if the read fails, with IllegalStateException if every page is pinned or loading
+	 */
+	public CompletableFuture<Page> acquire(int file, long pageNo) {
+		FileDescriptor fd = files.get(file);
+		if (fd == null) {
+			throw new IllegalArgumentException("file not registered: " + file);
+		}
+		long key = key(file, pageNo);
+		Stripe s = stripe(key);
+		// taken with the pin, a frame whose read failed may be reused right after
+		CompletableFuture<Frame> loaded = pin(s, key);
+		if (loaded == null) {
+			Frame fresh;
+			try {
+				fresh = allocate();
+			} catch (IllegalStateException e) {
+				CompletableFuture<Page> f = new CompletableFuture<>();
+				f.completeExceptionally(e);
+				return f;
+			}
+			synchronized (s) {
+				Frame f = s.map.get(key);
+				if (f == null) {
+					fresh.key = key;
+					fresh.readKey = key;
+					fresh.freq = 0;
+					fresh.length = 0;
+					fresh.loaded = new CompletableFuture<>();
+					fresh.pins.set(1);
+					s.map.put(key, fresh);
+				} else {
+					loaded = pinned(f);
+				}
+			}
+			if (loaded == null) {
+				loaded = fresh.loaded;
+				misses.increment();
+				try {
+					loader.load(fd, pageNo * pageSize, fresh.address, pageSize, fresh);
+				} catch (RuntimeException e) {
+					fresh.failed(e);
+				}
+			} else {
+				synchronized (evictLock) {
+					free.add(fresh);
+				}
+			}
+		}
+		return loaded.thenApply(frame -> new Page(frame, pageNo));
+	}
+
+	/**
+	 * @return null if not in the index
+	 */
+	private CompletableFuture<Frame> pin(Stripe s, long key) {
+		synchronized (s) {
+			Frame f = s.map.get(key);
+			return f == null ? null : pinned(f);
+		}
+	}
+
+	// under the stripe lock
+	private CompletableFuture<Frame> pinned(Frame f) {
+		f.pins.incrementAndGet();
+		if (f.freq < MAX_FREQ) {
+			f.freq++;
+		}
+		CompletableFuture<Frame> loaded = f.loaded;
+		if (loaded.isDone()) {
+			hits.increment();
+		} else {
+			joined.increment();
+		}
+		return loaded;
+	}
+
+	private void loaded(Frame f, int length) {
+		f.length = length;
+		long key = f.key;
+		synchronized (evictLock) {
+			if (key != NO_KEY && ghost.remove(key)) {
+				main.add(f);
+			} else {
+				small.add(f);
+			}
+		}
+		f.loaded.complete(f);
+	}
+
+	private void failed(Frame f, Throwable e) {
+		CompletableFuture<Frame> loading = f.loaded;
+		if (loading.isDone()) {
+			return;
+		}
+		long key = f.key;
+		if (key != NO_KEY) {
+			Stripe s = stripe(key);
+			synchronized (s) {
+				if (s.map.get(key) == f) {
+					s.map.remove(key);
+				}
+				f.key = NO_KEY;
+			}
+		}
+		// no one else can pin it now, the waiters get the error instead of a page
+		f.pins.set(0);
+		synchronized (evictLock) {
+			free.add(f);
+		}
+		loading.completeExceptionally(e);
+	}
+
+	/**
+	 * a free frame, evicting one if none
+	 * @throws IllegalStateException if all pages are pinned or loading
+	 */
+	private Frame allocate() {
+		synchronized (evictLock) {
+			Frame f = free.poll();
+			if (f != null) {
+				return f;
+			}
+			// pinned frames put back to small in a row, when all of small is pinned evict from main
+			int skipped = 0;
+			// each pass lower the freq of a frame, so the scan ends unless frames are pinned
+			for (int budget = (MAX_FREQ + 2) * frames.length; budget > 0; budget--) {
+				boolean fromSmall = (small.size() >= smallTarget && skipped < small.size()) || main.isEmpty();
+				ArrayDeque<Frame> q = fromSmall ? small : main;
+				f = q.poll();
+				if (f == null) {
+					break;
+				}
+				if (fromSmall) {
+					skipped = f.pins.get() > 0 ? skipped + 1 : 0;
+				}
+				if (f.pins.get() > 0) {
+					q.add(f);
+				} else if (f.freq > 0) {
+					if (fromSmall) {
+						f.freq = 0;
+					} else {
+						f.freq--;
+					}
+					main.add(f);
+				} else if (evict(f, fromSmall)) {
+					return f;
+				} else {
+					q.add(f);
+				}
+			}
+		}
+		throw new IllegalStateException("no page to evict, " + frames.length + " pages pinned or loading");
+	}
+
+	// under evictLock
+	private boolean evict(Frame f, boolean fromSmall) {
+		long key = f.key;
+		if (key != NO_KEY) {
+			Stripe s = stripe(key);
+			synchronized (s) {
+				if (f.pins.get() > 0) {
+					return false;
+				}
+				// else invalidated meanwhile
+				if (f.key == key) {
+					s.map.remove(key);
+					f.key = NO_KEY;
+				}
+			}
+			if (fromSmall) {
+				ghost.add(key);
+				if (ghost.size() > ghostCapacity) {
+					Iterator<Long> it = ghost.iterator();
+					it.next();
+					it.remove();
+				}
+			}
+			evictions.increment();
+		}
+		return true;
+	}
+
+	/**
+	 * drop a page, e.g. after writing the file under it, the next acquire read it again
+	 */
+	public void invalidate(int file, long pageNo) {
+		long key = key(file, pageNo);
+		Stripe s = stripe(key);
+		synchronized (s) {
+			Frame f = s.map.remove(key);
+			if (f != null) {
+				f.key = NO_KEY;
+			}
+		}
+	}
+
+	/**
+	 * drop all pages of file
+	 */
+	public void invalidate(int file) {
+		for (Stripe s : stripes) {
+			synchronized (s) {
+				Iterator<Frame> it = s.map.values().iterator();
+				while (it.hasNext()) {
+					Frame f = it.next();
+					if (f.key >>> PAGE_BITS == file) {
+						it.remove();
+						f.key = NO_KEY;
+					}
+				}
+			}
+		}
+	}
+
+	static long key(int file, long pageNo) {
+		if (pageNo < 0 || pageNo >= (1L << PAGE_BITS)) {
+			throw new IllegalArgumentException("pageNo " + pageNo);
+		}
+		return ((long) file << PAGE_BITS) | pageNo;
+	}
+
+	private Stripe stripe(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return stripes[(int) (h ^ (h >>> 32)) & (stripes.length - 1)];
+	}
+
+	public Stats stats() {
+		return new Stats(hits.sum(), misses.sum(), joined.sum(), evictions.sum());
+	}
+
+	/**
+	 * free the slabs, pages must be released and reads completed before
+	 */
+	@Override
+	public void close() {
+		for (ByteBuffer slab : slabs) {
+			IoURing.freeDirect(slab);
+		}
+		slabs.clear();
+	}
+}
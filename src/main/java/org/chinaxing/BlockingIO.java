@@ -0,0 +1,164 @@
+package org.chinaxing;
+
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Blocking calls over an {@link AsyncIO}, for thread-per-request code (virtual threads in particular)
+ *
+ * a call prepares its request, flushes the submit queue and parks the calling thread,
+ * the completion loop unparks it directly with the result, no future involved:
+ * 1) the waiter is the request attachment, one per thread and reused by every call of the thread
+ * 2) submits are combined by the {@link SubmitQueue}: while a thread is in io_uring_enter, requests
+ *    published by other threads are picked up by it, they park without a syscall of their own
+ * 3) admission is the one of the AsyncIO, with {@link AdmissionController.Policy#PARK} callers park there too
+ *
+ * results follow the ring: bytes transferred, 0 for end of file/stream, -errno on error.
+ * an interrupt cancels the request in kernel, the call still waits for its completion
+ * (the buffer is in use until then), returns its result (-ECANCELED if cancelled) and keeps the interrupt status.
+ * must not be called on the completion loop, it would wait for itself.
+ */
+public class BlockingIO {
+	private static final ThreadLocal<Waiter> WAITERS = new ThreadLocal<Waiter>() {
+		@Override
+		protected Waiter initialValue() {
+			return new Waiter(Thread.currentThread());
+		}
+	};
+
+	/**
+	 * attachment of a blocking request, completed on the completion loop
+	 */
+	static final class Waiter implements AsyncIO.CompletionHandler {
+		private final Thread thread;
+		// written by whichever thread prepared the request
+		private volatile long reqId;
+		private long res;
+		// admission or prepare failed
+		private RuntimeException error;
+		private volatile boolean done;
+
+		Waiter(Thread thread) {
+			this.thread = thread;
+		}
+
+		@Override
+		public void completed(long res, int cqeFlags) {
+			this.res = res;
+			done = true;
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * prepare the request of a waiter, return its request-Id
+	 */
+	private interface Prepare {
+		long prepare(IoURing ring, Waiter w);
+	}
+
+	private final AsyncIO io;
+	private final IoURing ring;
+
+	public BlockingIO(AsyncIO io) {
+		this.io = io;
+		this.ring = io.ring();
+	}
+
+	public AsyncIO asyncIO() {
+		return io;
+	}
+
+	/**
+	 * read into dst [position, limit) at offset, position advanced by bytes read
+	 */
+	public long read(FileDescriptor fd, long offset, ByteBuffer dst) {
+		return call(1, (r, w) -> r.prepareRead(fd, offset, dst, w));
+	}
+
+	public long read(FileDescriptor fd, long offset, byte[] buf, int bufPos, int len) {
+		return call(1, (r, w) -> r.prepareRead(fd, offset, buf, bufPos, len, w));
+	}
+
+	public long read(FileDescriptor fd, long offset, ByteBuffer[] dsts) {
+		return call(1, (r, w) -> r.prepareReads(fd, offset, dsts, w));
+	}
+
+	/**
+	 * write src [position, limit) at offset, position advanced by bytes written
+	 */
+	public long write(FileDescriptor fd, long offset, ByteBuffer src) {
+		return call(1, (r, w) -> r.prepareWrite(fd, offset, src, w));
+	}
+
+	public long write(FileDescriptor fd, long offset, byte[] buf, int bufPos, int len) {
+		return call(1, (r, w) -> r.prepareWrite(fd, offset, buf, bufPos, len, w));
+	}
+
+	public long write(FileDescriptor fd, long offset, ByteBuffer[] srcs) {
+		return call(1, (r, w) -> r.prepareWrites(fd, offset, srcs, w));
+	}
+
+	/**
+	 * @param fsyncFlags 0 or {@link IoURing.FsyncFlags#DATASYNC}
+	 */
+	public long fsync(FileDescriptor fd, int fsyncFlags) {
+		return call(1, (r, w) -> r.prepareFsync(fd, fsyncFlags, w));
+	}
+
+	/**
+	 * accept on a listening socket, result is the fd of the new connection or -errno
+	 */
+	public long accept(FileDescriptor fd) {
+		return call(1, (r, w) -> r.prepareAccept(fd, w));
+	}
+
+	public long recv(FileDescriptor fd, ByteBuffer dst, int flags) {
+		return call(1, (r, w) -> r.prepareRecv(fd, dst, flags, w));
+	}
+
+	/**
+	 * recv with a deadline, -ECANCELED if nothing received within timeoutNanos
+	 */
+	public long recv(FileDescriptor fd, ByteBuffer dst, int flags, long timeoutNanos) {
+		return call(2, (r, w) -> r.prepareRecv(fd, dst, flags, timeoutNanos, w));
+	}
+
+	public long send(FileDescriptor fd, ByteBuffer src, int flags) {
+		return call(1, (r, w) -> r.prepareSend(fd, src, flags, w));
+	}
+
+	private long call(int sqes, Prepare prepare) {
+		if (io.inCompletionLoop()) {
+			throw new IllegalStateException("blocking call on the completion loop");
+		}
+		final Waiter w = WAITERS.get();
+		w.done = false;
+		w.reqId = 0;
+		w.error = null;
+		io.admitAndSubmit(sqes, () -> w.reqId = prepare.prepare(ring, w), e -> {
+			// thrown to the caller once woken
+			w.error = e;
+			w.completed(0, 0);
+		});
+		boolean interrupted = false;
+		while (!w.done) {
+			LockSupport.park(this);
+			if (Thread.interrupted() && !interrupted && !w.done) {
+				interrupted = true;
+				// reqId is 0 while an overflowed request is not prepared yet, nothing to cancel
+				if (w.reqId != 0) {
+					io.cancelRequest(w.reqId);
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (w.error != null) {
+			throw w.error;
+		}
+		return w.res;
+	}
+}
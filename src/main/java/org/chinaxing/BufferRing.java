@@ -0,0 +1,139 @@
+package org.chinaxing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Provided buffer ring (IORING_REGISTER_PBUF_RING)
+ *
+ * a shared pool of equal size buffers handed to the kernel by a ring of struct io_uring_buf,
+ * recv with IOSQE_BUFFER_SELECT take a buffer only when data arrive and report its id in the CQE,
+ * so idle connections hold no buffer.
+ *
+ * ring memory is owned by java, buffers are given back by writing the entry and
+ * publishing the tail, no syscall and no JNI call.
+ *
+ * <pre>
+ *  struct io_uring_buf { u64 addr; u32 len; u16 bid; u16 resv; }   // resv of bufs[0] is the tail
+ * </pre>
+ */
+public class BufferRing implements AutoCloseable {
+	private static final int PAGE_SIZE = 4096;
+	private static final int ENTRY_SIZE = 16;
+	private static final int ADDR = 0, LEN = 8, BID = 12, TAIL = 14;
+
+	private final IoURing ring;
+	private final int groupId;
+	private final int count;
+	private final int mask;
+	private final int bufferSize;
+	private final ByteBuffer entries;
+	private final long entriesAddress;
+	private final long slabAddress;
+	// per buffer view of the slab, a buffer is owned by one consumer between CQE and recycle
+	private final ByteBuffer[] views;
+	private short tail;
+	private volatile boolean closed;
+
+	/**
+	 * @param count number of buffers, power of two, at most 32768
+	 */
+	BufferRing(IoURing ring, int groupId, int count, int bufferSize) {
+		if (count <= 0 || count > 32768 || (count & (count - 1)) != 0) {
+			throw new IllegalArgumentException("count must be power of two <= 32768: " + count);
+		}
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize: " + bufferSize);
+		}
+		this.ring = ring;
+		this.groupId = groupId;
+		this.count = count;
+		this.mask = count - 1;
+		this.bufferSize = bufferSize;
+		// ring must be page aligned, over allocate one page
+		ByteBuffer raw = ByteBuffer.allocateDirect(count * ENTRY_SIZE + PAGE_SIZE);
+		int skew = (int) (IoURing.address(raw) & (PAGE_SIZE - 1));
+		raw.position(skew == 0 ? 0 : PAGE_SIZE - skew);
+		raw.limit(raw.position() + count * ENTRY_SIZE);
+		this.entries = raw.slice().order(ByteOrder.nativeOrder());
+		this.entriesAddress = IoURing.address(entries);
+
+		ByteBuffer slab = ByteBuffer.allocateDirect(count * bufferSize);
+		this.slabAddress = IoURing.address(slab);
+		this.views = new ByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			slab.limit((i + 1) * bufferSize).position(i * bufferSize);
+			views[i] = slab.slice();
+		}
+		ring.registerBufRing(entriesAddress, count, groupId);
+		for (int i = 0; i < count; i++) {
+			put(i);
+		}
+		publish();
+	}
+
+	IoURing ring() {
+		return ring;
+	}
+
+	public int groupId() {
+		return groupId;
+	}
+
+	public int count() {
+		return count;
+	}
+
+	public int bufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * view of buffer bid holding len bytes received, valid until {@link #recycle(int)}
+	 */
+	public ByteBuffer buffer(int bid, int len) {
+		ByteBuffer b = views[bid];
+		b.clear().limit(len);
+		return b;
+	}
+
+	/**
+	 * give buffer bid back to the kernel
+	 */
+	public synchronized void recycle(int bid) {
+		if (bid < 0 || bid >= count) {
+			throw new IndexOutOfBoundsException("bid: " + bid);
+		}
+		if (closed) {
+			return;
+		}
+		put(bid);
+		publish();
+	}
+
+	private void put(int bid) {
+		int base = (tail & mask) * ENTRY_SIZE;
+		entries.putLong(base + ADDR, slabAddress + (long) bid * bufferSize);
+		entries.putInt(base + LEN, bufferSize);
+		entries.putShort(base + BID, (short) bid);
+		tail++;
+	}
+
+	private void publish() {
+		// entries must be visible before the new tail
+		IoURing.storeFence();
+		entries.putShort(TAIL, tail);
+	}
+
+	/**
+	 * unregister the buffer group, requests using it must be completed
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		ring.unregisterBufRing(groupId);
+	}
+}
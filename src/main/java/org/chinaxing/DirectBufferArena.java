@@ -0,0 +1,267 @@
+package org.chinaxing;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Off-heap buffer arena
+ *
+ * used by {@link IoURing} for the bounce buffers of byte[] read/write,
+ * replace per-request ByteBuffer.allocateDirect + cleaner().clean()
+ *
+ * <h2>Layout</h2>
+ * 1) buffers are power-of-two size classes, from 512B up to 1MB
+ * 2) each size class carve its buffers from large direct chunks (4MB by default)
+ * 3) free buffers are cached per thread, overflow goes to a shared free list of the size class.
+ *    caches of dead threads are given back to the shared free lists before a new chunk is carved
+ * 4) request larger than the max size class fallback to allocateDirect
+ *
+ * chunks start at an {@link #ALIGNMENT} boundary, so a buffer is aligned to min(size class, ALIGNMENT),
+ * which make the bounce buffers usable for O_DIRECT (see {@link IoURing.Params#directIO(int)}).
+ * chunks are never returned to the os, the arena only grows up to the peak usage.
+ *
+ * buffer returned by {@link #allocate(int)} has position 0 and limit of the requested length,
+ * capacity is the size class, it must be given back by {@link #free(ByteBuffer)} exactly once.
+ */
+public class DirectBufferArena {
+	public static final int MIN_CLASS_SHIFT = 9;
+	public static final int MAX_CLASS_SHIFT = 20;
+	public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+	public static final int ALIGNMENT = 4096;
+	private static final int NUM_CLASSES = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+	// max cached buffers per size class per thread
+	private static final int THREAD_CACHE_SIZE = 64;
+
+	private static final DirectBufferArena SHARED = new DirectBufferArena(DEFAULT_CHUNK_SIZE);
+
+	/**
+	 * arena shared by all IoURing instance which not specify one
+	 */
+	public static DirectBufferArena shared() {
+		return SHARED;
+	}
+
+	public static class Stats {
+		// allocation served from thread cache or shared free list
+		public final long hits;
+		// allocation need carve a new chunk or fallback to allocateDirect
+		public final long misses;
+		// bytes handed out and not freed yet (size class bytes)
+		public final long outstandingBytes;
+		// bytes of all chunks allocated by the arena
+		public final long reservedBytes;
+
+		public Stats(long hits, long misses, long outstandingBytes, long reservedBytes) {
+			this.hits = hits;
+			this.misses = misses;
+			this.outstandingBytes = outstandingBytes;
+			this.reservedBytes = reservedBytes;
+		}
+
+		public double hitRate() {
+			long total = hits + misses;
+			return total == 0 ? 0 : (double) hits / total;
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + hits + ", misses=" + misses + ", hitRate=" + hitRate()
+				+ ", outstandingBytes=" + outstandingBytes + ", reservedBytes=" + reservedBytes;
+		}
+	}
+
+	/**
+	 * free list of one size class shared by all threads
+	 */
+	private static class SharedFreeList {
+		private ByteBuffer[] buffers = new ByteBuffer[THREAD_CACHE_SIZE];
+		private int size;
+
+		synchronized int take(ByteBuffer[] dst, int max) {
+			int n = Math.min(size, max);
+			for (int i = 0; i < n; i++) {
+				dst[i] = buffers[--size];
+				buffers[size] = null;
+			}
+			return n;
+		}
+
+		synchronized void give(ByteBuffer[] src, int from, int n) {
+			if (size + n > buffers.length) {
+				ByteBuffer[] nb = new ByteBuffer[Math.max(buffers.length << 1, size + n)];
+				System.arraycopy(buffers, 0, nb, 0, size);
+				buffers = nb;
+			}
+			for (int i = from; i < from + n; i++) {
+				buffers[size++] = src[i];
+				src[i] = null;
+			}
+		}
+	}
+
+	private static class ThreadCache {
+		final ByteBuffer[][] buffers = new ByteBuffer[NUM_CLASSES][THREAD_CACHE_SIZE];
+		final int[] counts = new int[NUM_CLASSES];
+		// weak, the cache must not keep a dead thread
+		final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+		final AtomicBoolean reclaimed = new AtomicBoolean();
+
+		boolean isOwnerDead() {
+			Thread t = owner.get();
+			return t == null || !t.isAlive();
+		}
+	}
+
+	private final int chunkSize;
+	private final SharedFreeList[] sharedFreeLists = new SharedFreeList[NUM_CLASSES];
+	// caches of every thread which used the arena, until reclaimed
+	private final ConcurrentLinkedQueue<ThreadCache> caches = new ConcurrentLinkedQueue<>();
+	private final ThreadLocal<ThreadCache> threadCache = new ThreadLocal<ThreadCache>() {
+		@Override
+		protected ThreadCache initialValue() {
+			ThreadCache tc = new ThreadCache();
+			caches.add(tc);
+			return tc;
+		}
+	};
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final AtomicLong outstandingBytes = new AtomicLong();
+	private final AtomicLong reservedBytes = new AtomicLong();
+
+	public DirectBufferArena(int chunkSize) {
+		if (chunkSize < (1 << MAX_CLASS_SHIFT) || Integer.bitCount(chunkSize) != 1) {
+			throw new IllegalArgumentException("chunkSize must be power of two and >= " + (1 << MAX_CLASS_SHIFT));
+		}
+		this.chunkSize = chunkSize;
+		for (int i = 0; i < NUM_CLASSES; i++) {
+			sharedFreeLists[i] = new SharedFreeList();
+		}
+	}
+
+	/**
+	 * size class index of len, -1 if len exceed max size class
+	 */
+	static int sizeClass(int len) {
+		if (len <= (1 << MIN_CLASS_SHIFT)) {
+			return 0;
+		}
+		if (len > (1 << MAX_CLASS_SHIFT)) {
+			return -1;
+		}
+		return 32 - Integer.numberOfLeadingZeros(len - 1) - MIN_CLASS_SHIFT;
+	}
+
+	private static int classSize(int sc) {
+		return 1 << (sc + MIN_CLASS_SHIFT);
+	}
+
+	public ByteBuffer allocate(int len) {
+		int sc = sizeClass(len);
+		if (sc < 0) {
+			misses.increment();
+			outstandingBytes.addAndGet(len);
+			return ByteBuffer.allocateDirect(len);
+		}
+		ThreadCache tc = threadCache.get();
+		ByteBuffer[] cached = tc.buffers[sc];
+		if (tc.counts[sc] == 0) {
+			// refill half of the thread cache from shared free list
+			tc.counts[sc] = sharedFreeLists[sc].take(cached, THREAD_CACHE_SIZE >> 1);
+			if (tc.counts[sc] == 0 && reclaimDeadCaches() > 0) {
+				tc.counts[sc] = sharedFreeLists[sc].take(cached, THREAD_CACHE_SIZE >> 1);
+			}
+			if (tc.counts[sc] == 0) {
+				misses.increment();
+				tc.counts[sc] = carve(sc, cached);
+			} else {
+				hits.increment();
+			}
+		} else {
+			hits.increment();
+		}
+		ByteBuffer buf = cached[--tc.counts[sc]];
+		cached[tc.counts[sc]] = null;
+		outstandingBytes.addAndGet(buf.capacity());
+		buf.clear();
+		buf.limit(len);
+		return buf;
+	}
+
+	public void free(ByteBuffer buf) {
+		int cap = buf.capacity();
+		outstandingBytes.addAndGet(-cap);
+		int sc = sizeClass(cap);
+		if (sc < 0 || classSize(sc) != cap) {
+			IoURing.freeDirect(buf);
+			return;
+		}
+		ThreadCache tc = threadCache.get();
+		ByteBuffer[] cached = tc.buffers[sc];
+		if (tc.counts[sc] == THREAD_CACHE_SIZE) {
+			// thread cache full, move top half to shared free list
+			int half = THREAD_CACHE_SIZE >> 1;
+			sharedFreeLists[sc].give(cached, half, THREAD_CACHE_SIZE - half);
+			tc.counts[sc] = half;
+		}
+		cached[tc.counts[sc]++] = buf;
+	}
+
+	/**
+	 * move the buffers cached by dead threads to the shared free lists.
+	 * a thread is done with its cache when it is not alive any more
+	 * @return number of buffers moved
+	 */
+	private int reclaimDeadCaches() {
+		int moved = 0;
+		for (Iterator<ThreadCache> it = caches.iterator(); it.hasNext(); ) {
+			ThreadCache tc = it.next();
+			if (!tc.isOwnerDead() || !tc.reclaimed.compareAndSet(false, true)) {
+				continue;
+			}
+			it.remove();
+			for (int sc = 0; sc < NUM_CLASSES; sc++) {
+				int n = tc.counts[sc];
+				if (n > 0) {
+					sharedFreeLists[sc].give(tc.buffers[sc], 0, n);
+					tc.counts[sc] = 0;
+					moved += n;
+				}
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * allocate a new chunk for size class, keep up to half thread cache of the buffers in dst,
+	 * rest goes to the shared free list
+	 * @return number of buffers put in dst
+	 */
+	private int carve(int sc, ByteBuffer[] dst) {
+		int size = classSize(sc);
+		ByteBuffer chunk = ByteBuffer.allocateDirect(chunkSize + ALIGNMENT);
+		reservedBytes.addAndGet(chunkSize + ALIGNMENT);
+		int pad = DirectIO.padding(IoURing.address(chunk), ALIGNMENT);
+		int cnt = chunkSize / size;
+		ByteBuffer[] slices = new ByteBuffer[cnt];
+		for (int i = 0; i < cnt; i++) {
+			chunk.limit(pad + (i + 1) * size).position(pad + i * size);
+			slices[i] = chunk.slice();
+		}
+		int keep = Math.min(cnt, THREAD_CACHE_SIZE >> 1);
+		System.arraycopy(slices, 0, dst, 0, keep);
+		if (cnt > keep) {
+			sharedFreeLists[sc].give(slices, keep, cnt - keep);
+		}
+		return keep;
+	}
+
+	public Stats stats() {
+		return new Stats(hits.sum(), misses.sum(), outstandingBytes.get(), reservedBytes.get());
+	}
+}
@@ -0,0 +1,106 @@
+package org.chinaxing;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * O_DIRECT helpers: open files bypassing the page cache, and aligned buffers to read/write them
+ *
+ * with O_DIRECT the kernel DMA straight into the user buffer, so offset, length and buffer address
+ * must all be multiple of the logical block size, else the request fails with -EINVAL.
+ * a ring in {@link IoURing.Params#directIO(int)} mode checks it when requests are prepared.
+ */
+public final class DirectIO {
+	public static final int DEFAULT_BLOCK_SIZE = 4096;
+	// com.sun.nio.file.ExtendedOpenOption.DIRECT, jdk10+
+	private static final OpenOption DIRECT;
+	private static final Method BLOCK_SIZE;
+
+	static {
+		OpenOption direct = null;
+		Method blockSize = null;
+		try {
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			Class<? extends Enum> c = (Class<? extends Enum>) Class.forName("com.sun.nio.file.ExtendedOpenOption");
+			@SuppressWarnings("unchecked")
+			Object o = Enum.valueOf(c, "DIRECT");
+			direct = (OpenOption) o;
+			blockSize = java.nio.file.FileStore.class.getMethod("getBlockSize");
+		} catch (ReflectiveOperationException | IllegalArgumentException e) {
+			// jdk8/9, O_DIRECT not reachable from java
+		}
+		DIRECT = direct;
+		BLOCK_SIZE = blockSize;
+	}
+
+	private DirectIO() {
+	}
+
+	/**
+	 * whether {@link #open} is supported by this jdk
+	 */
+	public static boolean isSupported() {
+		return DIRECT != null;
+	}
+
+	/**
+	 * open path with O_DIRECT, e.g. open(path, READ, WRITE, CREATE), pass the fd by {@link IoURing#descriptorOf}.
+	 * reads/writes through the returned FileChannel itself must be aligned too
+	 * @throws UnsupportedOperationException before jdk10, or if the file system don't support O_DIRECT
+	 */
+	public static FileChannel open(Path path, OpenOption... options) throws IOException {
+		if (DIRECT == null) {
+			throw new UnsupportedOperationException("O_DIRECT needs jdk10+");
+		}
+		OpenOption[] opts = Arrays.copyOf(options, options.length + 1);
+		opts[options.length] = DIRECT;
+		return FileChannel.open(path, opts);
+	}
+
+	/**
+	 * block size of the file store of path, the alignment O_DIRECT I/O on it need.
+	 * {@link #DEFAULT_BLOCK_SIZE} if the jdk can't tell
+	 */
+	public static int blockSize(Path path) throws IOException {
+		if (BLOCK_SIZE == null) {
+			return DEFAULT_BLOCK_SIZE;
+		}
+		try {
+			return (int) (long) (Long) BLOCK_SIZE.invoke(Files.getFileStore(path));
+		} catch (ReflectiveOperationException e) {
+			return DEFAULT_BLOCK_SIZE;
+		}
+	}
+
+	/**
+	 * direct buffer of size bytes at an address multiple of alignment, a slice of a larger buffer,
+	 * it is freed by GC and must not be given to {@link DirectBufferArena#free}
+	 * @param alignment power of two
+	 */
+	public static ByteBuffer allocate(int size, int alignment) {
+		if (alignment <= 0 || Integer.bitCount(alignment) != 1) {
+			throw new IllegalArgumentException("alignment " + alignment);
+		}
+		ByteBuffer buf = ByteBuffer.allocateDirect(size + alignment - 1);
+		int pad = padding(IoURing.address(buf), alignment);
+		buf.limit(pad + size).position(pad);
+		return buf.slice();
+	}
+
+	public static boolean isAligned(long value, int alignment) {
+		return (value & (alignment - 1)) == 0;
+	}
+
+	/**
+	 * bytes from address up to the next multiple of alignment
+	 */
+	static int padding(long address, int alignment) {
+		return (int) (-address & (alignment - 1));
+	}
+}
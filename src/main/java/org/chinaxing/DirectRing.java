@@ -0,0 +1,291 @@
+package org.chinaxing;
+
+import sun.misc.Unsafe;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Java view of the SQ and CQ a ring share with the kernel (mmapped when the ring is set up)
+ *
+ * SQEs are written and CQEs read in place, the only native call left is io_uring_enter,
+ * and with SQPOLL it is made only to wake the poll thread up, see {@link IoURing.Params#directRings()}.
+ *
+ * <h2>Ordering</h2>
+ * 1) SQ: SQEs and the SQ array are plain stores, published by a release store of the SQ tail,
+ *    room is checked by an acquire load of the SQ head (kernel consume SQEs by advancing it)
+ * 2) SQPOLL: full fence between publishing the tail and reading IORING_SQ_NEED_WAKEUP,
+ *    or the poll thread may go to sleep without seeing the new tail
+ * 3) CQ: acquire load of the CQ tail, plain loads of the CQEs, then a release store of the CQ head
+ *    so the kernel reuse the slots only after they are read
+ *
+ * like liburing, the SQ side is single producer (prepare/submit by one thread at a time,
+ * the {@link SubmitQueue} drainer) and the CQ side single consumer. liburing must not prepare or submit
+ * SQEs on the same ring, it keeps its own SQ tail.
+ */
+final class DirectRing {
+	private static final Unsafe U = IoURing.unsafe();
+
+	// index in RingBackend.ringLayout
+	static final int SQ_HEAD = 0, SQ_TAIL = 1, SQ_MASK = 2, SQ_ENTRIES = 3, SQ_FLAGS = 4, SQ_ARRAY = 5, SQES = 6,
+		CQ_HEAD = 7, CQ_TAIL = 8, CQ_MASK = 9, CQ_ENTRIES = 10, CQES = 11, SETUP_FLAGS = 12, RW_SUPPORTED = 13,
+		LAYOUT_SIZE = 14;
+
+	// struct io_uring_sqe, 64 bytes
+	static final int SQE_SIZE = 64;
+	static final int SQE_OPCODE = 0, SQE_FLAGS = 1, SQE_IOPRIO = 2, SQE_FD = 4, SQE_OFF = 8, SQE_ADDR = 16,
+		SQE_LEN = 24, SQE_RW_FLAGS = 28, SQE_USER_DATA = 32, SQE_BUF_INDEX = 40, SQE_SPLICE_FD_IN = 44;
+	// struct io_uring_cqe, 16 bytes
+	static final int CQE_SIZE = 16;
+	static final int CQE_USER_DATA = 0, CQE_RES = 8, CQE_FLAGS = 12;
+
+	private static final int ENTER_GETEVENTS = 1, ENTER_SQ_WAKEUP = 2, ENTER_EXT_ARG = 8;
+	private static final int SQ_NEED_WAKEUP = 1, SQ_CQ_OVERFLOW = 2;
+	private static final int ETIME = 62;
+	// struct io_uring_getevents_arg { u64 sigmask; u32 sigmask_sz; u32 pad; u64 ts; } then the timespec
+	private static final int GETEVENTS_ARG_SIZE = 24, TIMESPEC = 24;
+	private static final int LINKED = IoURing.SqeFlags.IO_LINK | IoURing.SqeFlags.IO_HARDLINK;
+
+	private final RingBackend backend;
+	private final int ringFd;
+	private final long sqHead, sqTail, sqFlags, sqArray, sqes;
+	private final int sqMask, sqEntries;
+	private final long cqHead, cqTail, cqes;
+	private final int cqMask;
+	private final boolean sqPoll, ioPoll;
+	// tail of SQEs written, published to the kernel on submit
+	private int sqeTail;
+	// getevents arg of timed waits, created on first use by the CQ side
+	private ByteBuffer waitArg;
+
+	/**
+	 * @return null if the kernel lack IORING_OP_READ/WRITE, such old kernels stay on liburing
+	 */
+	static DirectRing create(RingBackend backend) {
+		long[] layout = new long[LAYOUT_SIZE];
+		if (backend.ringLayout(layout) != 0 || layout[RW_SUPPORTED] == 0) {
+			return null;
+		}
+		return new DirectRing(layout, backend);
+	}
+
+	DirectRing(long[] layout, RingBackend backend) {
+		this.backend = backend;
+		this.ringFd = backend != null ? backend.ringFd() : -1;
+		this.sqHead = layout[SQ_HEAD];
+		this.sqTail = layout[SQ_TAIL];
+		this.sqMask = (int) layout[SQ_MASK];
+		this.sqEntries = (int) layout[SQ_ENTRIES];
+		this.sqFlags = layout[SQ_FLAGS];
+		this.sqArray = layout[SQ_ARRAY];
+		this.sqes = layout[SQES];
+		this.cqHead = layout[CQ_HEAD];
+		this.cqTail = layout[CQ_TAIL];
+		this.cqMask = (int) layout[CQ_MASK];
+		this.cqes = layout[CQES];
+		this.sqPoll = (layout[SETUP_FLAGS] & IoURing.Flags.SQPOLL) != 0;
+		this.ioPoll = (layout[SETUP_FLAGS] & IoURing.Flags.IOPOLL) != 0;
+		// SQEs left in the SQ by whoever used it before
+		this.sqeTail = U.getIntVolatile(null, sqTail);
+	}
+
+	int sqEntries() {
+		return sqEntries;
+	}
+
+	/**
+	 * free SQ entries, SQEs written but not yet consumed by the kernel take room
+	 */
+	int spaceLeft() {
+		return sqEntries - (sqeTail - U.getIntVolatile(null, sqHead));
+	}
+
+	/**
+	 * write one SQE, not visible to the kernel until {@link #submit()}
+	 * @return false if SQ is full
+	 */
+	boolean prepare(int opcode, int flags, int ioprio, int fd, long addr, int len, long offset, int rwFlags, int bufIndex, long userData) {
+		if (spaceLeft() <= 0) {
+			return false;
+		}
+		int idx = sqeTail & sqMask;
+		long sqe = sqes + (long) idx * SQE_SIZE;
+		U.setMemory(sqe, SQE_SIZE, (byte) 0);
+		U.putByte(sqe + SQE_OPCODE, (byte) opcode);
+		U.putByte(sqe + SQE_FLAGS, (byte) flags);
+		U.putShort(sqe + SQE_IOPRIO, (short) ioprio);
+		U.putInt(sqe + SQE_FD, fd);
+		U.putLong(sqe + SQE_OFF, offset);
+		U.putLong(sqe + SQE_ADDR, addr);
+		U.putInt(sqe + SQE_LEN, len);
+		U.putInt(sqe + SQE_RW_FLAGS, rwFlags);
+		U.putLong(sqe + SQE_USER_DATA, userData);
+		U.putShort(sqe + SQE_BUF_INDEX, (short) bufIndex);
+		U.putInt(sqArray + (long) idx * 4, idx);
+		sqeTail++;
+		return true;
+	}
+
+	/**
+	 * write SQEs of count descriptors at descs (see {@link SubmissionBatch}),
+	 * a linked chain all or nothing, stop when SQ is full
+	 * @return number of SQEs written
+	 */
+	int prepareBatch(long descs, int count) {
+		int i;
+		for (i = 0; i < count; i++) {
+			long d = descs + (long) i * SubmissionBatch.DESC_SIZE;
+			if (linked(d) && (i == 0 || !linked(d - SubmissionBatch.DESC_SIZE))) {
+				int n = chainLength(d, count - i);
+				if (n > count - i || spaceLeft() < n) {
+					break;
+				}
+			}
+			if (!prepare(U.getByte(d + SubmissionBatch.OPCODE) & 0xff, U.getByte(d + SubmissionBatch.FLAGS) & 0xff,
+				U.getShort(d + SubmissionBatch.IOPRIO) & 0xffff, U.getInt(d + SubmissionBatch.FD),
+				U.getLong(d + SubmissionBatch.ADDR), U.getInt(d + SubmissionBatch.LEN),
+				U.getLong(d + SubmissionBatch.OFFSET), U.getInt(d + SubmissionBatch.RW_FLAGS),
+				U.getShort(d + SubmissionBatch.BUF_INDEX) & 0xffff, U.getLong(d + SubmissionBatch.USER_DATA))) {
+				break;
+			}
+			int fdIn = U.getInt(d + SubmissionBatch.SPLICE_FD_IN);
+			if (fdIn != 0) {
+				U.putInt(sqes + (long) ((sqeTail - 1) & sqMask) * SQE_SIZE + SQE_SPLICE_FD_IN, fdIn);
+			}
+		}
+		return i;
+	}
+
+	private static boolean linked(long desc) {
+		return (U.getByte(desc + SubmissionBatch.FLAGS) & LINKED) != 0;
+	}
+
+	// length of the chain start at desc, count + 1 if not terminated within count
+	private static int chainLength(long desc, int count) {
+		int n = 1;
+		while (n <= count && linked(desc + (long) (n - 1) * SubmissionBatch.DESC_SIZE)) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * publish written SQEs and enter the kernel to consume them, with SQPOLL enter only if the poll thread sleep
+	 * @return number of SQEs handed to the kernel, or -errno
+	 */
+	int submit() {
+		// release: SQEs are visible before the tail
+		U.putOrderedInt(null, sqTail, sqeTail);
+		// SQEs not consumed yet, including those a failed enter left
+		int pending = sqeTail - U.getIntVolatile(null, sqHead);
+		if (sqPoll) {
+			U.fullFence();
+			if ((U.getIntVolatile(null, sqFlags) & SQ_NEED_WAKEUP) != 0) {
+				int ret = backend.enter(ringFd, 0, 0, ENTER_SQ_WAKEUP, 0, 0);
+				if (ret < 0) {
+					return ret;
+				}
+			}
+			return pending;
+		}
+		if (pending == 0) {
+			return 0;
+		}
+		return backend.enter(ringFd, pending, 0, ioPoll ? ENTER_GETEVENTS : 0, 0, 0);
+	}
+
+	/**
+	 * wait for at least waitNr CQEs (no wait if 0), then copy up to count CQEs and mark them seen
+	 * @param cqeFlags may be null
+	 * @return number of CQEs copied, or -errno of the wait
+	 */
+	int reap(long[] reqIds, long[] retCodes, int[] cqeFlags, int count, int waitNr) {
+		// only this side write the CQ head
+		int head = U.getInt(cqHead);
+		int tail = U.getIntVolatile(null, cqTail);
+		while (tail == head && (waitNr > 0 || needEnterForCQ())) {
+			int ret = backend.enter(ringFd, 0, waitNr, ENTER_GETEVENTS, 0, 0);
+			if (ret < 0) {
+				return ret;
+			}
+			tail = U.getIntVolatile(null, cqTail);
+			if (waitNr == 0) {
+				break;
+			}
+		}
+		int n = copy(head, Math.min(tail - head, count), reqIds, retCodes, cqeFlags);
+		if (n > 0) {
+			// release: slots are read before the kernel may overwrite them
+			U.putOrderedInt(null, cqHead, head + n);
+		}
+		return n;
+	}
+
+	private int copy(int head, int n, long[] reqIds, long[] retCodes, int[] cqeFlags) {
+		for (int i = 0; i < n; i++) {
+			long cqe = cqes + (long) ((head + i) & cqMask) * CQE_SIZE;
+			reqIds[i] = U.getLong(cqe + CQE_USER_DATA);
+			retCodes[i] = U.getInt(cqe + CQE_RES);
+			if (cqeFlags != null) {
+				cqeFlags[i] = U.getInt(cqe + CQE_FLAGS);
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * copy up to count CQEs without marking them seen, see {@link #advance(int)}
+	 */
+	int peek(long[] reqIds, long[] retCodes, int count) {
+		int head = U.getInt(cqHead);
+		return copy(head, Math.min(U.getIntVolatile(null, cqTail) - head, count), reqIds, retCodes, null);
+	}
+
+	/**
+	 * mark n CQEs seen
+	 */
+	void advance(int n) {
+		U.putOrderedInt(null, cqHead, U.getInt(cqHead) + n);
+	}
+
+	/**
+	 * wait until at least waitNr CQEs are in the CQ
+	 * @param timeoutNanos negative to wait forever, else need IORING_FEAT_EXT_ARG (5.11)
+	 * @return 0, -ETIME if timed out, or -errno
+	 */
+	int await(int waitNr, long timeoutNanos) {
+		long deadline = System.nanoTime() + timeoutNanos;
+		while (U.getIntVolatile(null, cqTail) - U.getInt(cqHead) < waitNr) {
+			int ret;
+			if (timeoutNanos < 0) {
+				ret = backend.enter(ringFd, 0, waitNr, ENTER_GETEVENTS, 0, 0);
+			} else {
+				long left = deadline - System.nanoTime();
+				if (left <= 0) {
+					return -ETIME;
+				}
+				ret = backend.enter(ringFd, 0, waitNr, ENTER_GETEVENTS | ENTER_EXT_ARG, timeoutArg(left), GETEVENTS_ARG_SIZE);
+			}
+			if (ret < 0 && ret != -ETIME) {
+				return ret;
+			}
+		}
+		return 0;
+	}
+
+	private long timeoutArg(long nanos) {
+		if (waitArg == null) {
+			waitArg = ByteBuffer.allocateDirect(GETEVENTS_ARG_SIZE + 16);
+		}
+		long arg = IoURing.address(waitArg);
+		U.setMemory(arg, GETEVENTS_ARG_SIZE, (byte) 0);
+		U.putLong(arg + 16, arg + TIMESPEC);
+		U.putLong(arg + TIMESPEC, nanos / 1000000000L);
+		U.putLong(arg + TIMESPEC + 8, nanos % 1000000000L);
+		return arg;
+	}
+
+	// completions are only found by entering the kernel: IOPOLL, or CQEs overflowed and kept by kernel
+	private boolean needEnterForCQ() {
+		return ioPoll || (U.getIntVolatile(null, sqFlags) & SQ_CQ_OVERFLOW) != 0;
+	}
+}
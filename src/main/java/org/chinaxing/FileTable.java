@@ -0,0 +1,208 @@
+package org.chinaxing;
+
+import org.chinaxing.exception.RegisterException;
+
+import java.io.FileDescriptor;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sparse registered file table of a ring
+ *
+ * all slots are registered as -1 up front, files are put into free slots
+ * with io_uring_register_files_update when registered and cleared when unregistered,
+ * so opening/closing a file never re-register the whole table.
+ * SQEs against a registered file refer to its slot with IOSQE_FIXED_FILE,
+ * kernel skip the per-io fget/fput of the file.
+ *
+ * a slot is owned by the FileDescriptor object, not the fd number: fd numbers are reused after close,
+ * while the registered slot still point to the old file. unregister a file before close it,
+ * the slot hold a reference of the file in kernel until cleared.
+ *
+ * a cleared slot is reused only after requests queued before it was cleared are submitted:
+ * they refer to the slot by number, and must not reach the kernel pointing to another file.
+ *
+ * in auto mode (SQPOLL on kernel without {@link IoURing.Features#SQPOLL_NONFIXED}) files are
+ * registered on first use, and slots of closed FileDescriptors are reclaimed when the table is full.
+ */
+public class FileTable {
+	private final IoURing owner;
+	private final RingBackend ring;
+	private final int capacity;
+	private final boolean auto;
+	// slot -> registered fd, -1 if free, guarded by this
+	private final int[] fds;
+	private final FileDescriptor[] owners;
+	// lookup of the io path, no lock
+	private final ConcurrentHashMap<FileDescriptor, Integer> slots = new ConcurrentHashMap<>();
+	// submit fence of the clear of each slot, the slot is free once submitted past it
+	private final long[] fences;
+	// lowest slot may be free
+	private int hint;
+
+	FileTable(IoURing owner, RingBackend ring, int capacity, boolean auto) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity: " + capacity);
+		}
+		this.owner = owner;
+		this.ring = ring;
+		this.capacity = capacity;
+		this.auto = auto;
+		this.fds = new int[capacity];
+		this.owners = new FileDescriptor[capacity];
+		this.fences = new long[capacity];
+		for (int i = 0; i < capacity; i++) {
+			fds[i] = -1;
+		}
+		int ret = ring.registerFiles(fds);
+		if (ret != 0) {
+			throw new RegisterException("register files ret: " + ret);
+		}
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * number of registered files
+	 */
+	public int size() {
+		return slots.size();
+	}
+
+	/**
+	 * register fd into a free slot, no-op if already registered
+	 * @return slot of fd
+	 */
+	public int register(FileDescriptor fd) {
+		int slot = register0(fd);
+		if (slot < 0) {
+			throw new RegisterException("file table full: " + capacity);
+		}
+		return slot;
+	}
+
+	public int register(FileChannel ch) {
+		return register(IoURing.descriptorOf(ch));
+	}
+
+	/**
+	 * clear slot of fd
+	 * @return false if fd is not registered
+	 */
+	public synchronized boolean unregister(FileDescriptor fd) {
+		Integer slot = slots.remove(fd);
+		if (slot == null) {
+			return false;
+		}
+		clear(slot);
+		return true;
+	}
+
+	public boolean unregister(FileChannel ch) {
+		return unregister(IoURing.descriptorOf(ch));
+	}
+
+	/**
+	 * @return slot of fd, -1 if not registered
+	 */
+	public int slotOf(FileDescriptor fd) {
+		Integer slot = slots.get(fd);
+		return slot == null ? -1 : slot;
+	}
+
+	public int slotOf(FileChannel ch) {
+		return slotOf(IoURing.descriptorOf(ch));
+	}
+
+	/**
+	 * slot SQEs against fd use, register it first in auto mode
+	 * @return slot, -1 if fd is passed as is
+	 */
+	int resolve(FileDescriptor fd) {
+		Integer slot = slots.get(fd);
+		if (slot != null) {
+			return slot;
+		}
+		return auto ? register0(fd) : -1;
+	}
+
+	private synchronized int register0(FileDescriptor fd) {
+		int raw = IoURing.fdOf(fd);
+		if (raw < 0) {
+			return -1;
+		}
+		Integer slot = slots.get(fd);
+		if (slot != null) {
+			return slot;
+		}
+		int s = freeSlot();
+		if (s < 0 && auto) {
+			reclaim();
+			s = freeSlot();
+		}
+		if (s < 0 && hint < capacity) {
+			// cleared slots wait for the submit queue
+			owner.submit();
+			s = freeSlot();
+		}
+		if (s < 0) {
+			return -1;
+		}
+		update(s, raw);
+		owners[s] = fd;
+		slots.put(fd, s);
+		return s;
+	}
+
+	private int freeSlot() {
+		int waiting = -1;
+		for (int i = hint; i < capacity; i++) {
+			if (fds[i] >= 0) {
+				continue;
+			}
+			if (owner.submittedPast(fences[i])) {
+				hint = waiting < 0 ? i + 1 : waiting;
+				return i;
+			}
+			if (waiting < 0) {
+				waiting = i;
+			}
+		}
+		hint = waiting < 0 ? capacity : waiting;
+		return -1;
+	}
+
+	/**
+	 * clear slots whose owner is closed
+	 */
+	private void reclaim() {
+		for (int i = 0; i < capacity; i++) {
+			if (fds[i] >= 0 && IoURing.fdOf(owners[i]) != fds[i]) {
+				slots.remove(owners[i]);
+				clear(i);
+			}
+		}
+	}
+
+	private void clear(int slot) {
+		update(slot, -1);
+		fences[slot] = owner.submitFence();
+		owners[slot] = null;
+		hint = Math.min(hint, slot);
+	}
+
+	private void update(int slot, int fd) {
+		// the table went with the ring, e.g. a request dropped by shutdown gives back its file
+		if (owner.isShutdown()) {
+			fds[slot] = fd;
+			return;
+		}
+		int ret = ring.registerFilesUpdate(slot, new int[]{ fd });
+		if (ret < 0) {
+			throw new RegisterException("update file slot " + slot + " ret: " + ret);
+		}
+		fds[slot] = fd;
+	}
+}
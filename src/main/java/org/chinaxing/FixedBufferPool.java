@@ -0,0 +1,161 @@
+package org.chinaxing;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pool of registered (fixed) buffers
+ *
+ * one big slab of direct memory is split into equal size buffers,
+ * and each of them registered to the ring as a fixed buffer (io_uring_register_buffers),
+ * so the kernel pin the pages once instead of per-io.
+ *
+ * a leased {@link FixedBuffer} is used with {@link IoURing#prepareReadFixed} / {@link IoURing#prepareWriteFixed}
+ * (or the AsyncIO counterpart), and must be given back by {@link #release(FixedBuffer)} after the io completed.
+ *
+ * a ring can have only one set of registered buffers, so only one pool per ring.
+ */
+public class FixedBufferPool implements AutoCloseable {
+	private static final int PAGE_SIZE = 4096;
+
+	public static class FixedBuffer {
+		final FixedBufferPool pool;
+		// index of the buffer in the registered buffer table
+		public final int index;
+		public final long address;
+		public final int capacity;
+		private final ByteBuffer buffer;
+		// set while the buffer is out of the pool, a second release is rejected
+		private final AtomicBoolean leased = new AtomicBoolean();
+
+		FixedBuffer(FixedBufferPool pool, int index, ByteBuffer buffer) {
+			this.pool = pool;
+			this.index = index;
+			this.buffer = buffer;
+			this.address = IoURing.address(buffer);
+			this.capacity = buffer.capacity();
+		}
+
+		/**
+		 * view of the registered memory, position and limit are free for caller to use
+		 */
+		public ByteBuffer buffer() {
+			return buffer;
+		}
+	}
+
+	private final IoURing ring;
+	private final int bufferSize;
+	private final ByteBuffer slab;
+	private final FixedBuffer[] buffers;
+	private final BlockingQueue<FixedBuffer> free;
+	private volatile boolean closed;
+
+	/**
+	 * allocate count * bufferSize bytes and register them to ring
+	 * @param ring the ring which buffers registered to
+	 * @param bufferSize size of each buffer, rounded up to page size
+	 * @param count number of buffers
+	 * @throws IllegalArgumentException if the pool is larger than a direct buffer can be
+	 */
+	public FixedBufferPool(IoURing ring, int bufferSize, int count) {
+		if (bufferSize <= 0 || count <= 0) {
+			throw new IllegalArgumentException("bufferSize: " + bufferSize + ", count: " + count);
+		}
+		long size = ((long) bufferSize + PAGE_SIZE - 1) & -PAGE_SIZE;
+		// one direct buffer holds the pool and the alignment page
+		if (size * count > Integer.MAX_VALUE - PAGE_SIZE) {
+			throw new IllegalArgumentException("pool too large, bufferSize: " + size + ", count: " + count);
+		}
+		this.ring = ring;
+		this.bufferSize = (int) size;
+		// over allocate one page so every buffer start page aligned
+		ByteBuffer raw = ByteBuffer.allocateDirect(this.bufferSize * count + PAGE_SIZE);
+		int skew = (int) (IoURing.address(raw) & (PAGE_SIZE - 1));
+		raw.position(skew == 0 ? 0 : PAGE_SIZE - skew);
+		this.slab = raw.slice();
+		this.buffers = new FixedBuffer[count];
+		this.free = new ArrayBlockingQueue<>(count);
+		ByteBuffer[] views = new ByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			slab.limit((i + 1) * this.bufferSize).position(i * this.bufferSize);
+			views[i] = slab.slice();
+			buffers[i] = new FixedBuffer(this, i, views[i]);
+			free.add(buffers[i]);
+		}
+		slab.clear();
+		ring.registerBuffers(views);
+	}
+
+	public IoURing ring() {
+		return ring;
+	}
+
+	public int bufferSize() {
+		return bufferSize;
+	}
+
+	public int available() {
+		return free.size();
+	}
+
+	/**
+	 * @return a free buffer, or null if all buffers leased
+	 */
+	public FixedBuffer lease() {
+		checkOpen();
+		return leased(free.poll());
+	}
+
+	/**
+	 * wait up to timeout for a free buffer
+	 * @return a free buffer, or null if timeout
+	 */
+	public FixedBuffer lease(long timeout, TimeUnit unit) throws InterruptedException {
+		checkOpen();
+		return leased(free.poll(timeout, unit));
+	}
+
+	private static FixedBuffer leased(FixedBuffer buf) {
+		if (buf != null && !buf.leased.compareAndSet(false, true)) {
+			throw new IllegalStateException("buffer " + buf.index + " leased twice");
+		}
+		return buf;
+	}
+
+	/**
+	 * give back a leased buffer
+	 * @throws IllegalStateException if the buffer is not leased (e.g. released twice) or the pool is closed
+	 */
+	public void release(FixedBuffer buf) {
+		if (buf.pool != this) {
+			throw new IllegalArgumentException("buffer " + buf.index + " not belong to this pool");
+		}
+		checkOpen();
+		if (!buf.leased.compareAndSet(true, false)) {
+			throw new IllegalStateException("buffer " + buf.index + " not leased");
+		}
+		buf.buffer.clear();
+		free.add(buf);
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("pool closed");
+		}
+	}
+
+	/**
+	 * unregister buffers from the ring, all leased buffers must be released and no io in-flight
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			ring.unregisterBuffers();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package org.chinaxing;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram of non-negative longs (latency in ns, batch sizes), HdrHistogram style
+ *
+ * <h2>Buckets</h2>
+ * 1) values below 16 have a bucket each
+ * 2) above, every power of two [2^e, 2^(e+1)) is split into 16 linear sub-buckets,
+ *    so a value is known within 1/16 (6.25%)
+ * 3) values of 2^48 (about 3 days in ns) and beyond go to the last bucket
+ *
+ * record is allocation free and lock free, counts are striped by thread so concurrent
+ * recorders rarely share a cache line. {@link #snapshot()} merge the stripes, it is not atomic
+ * against concurrent record, a record in progress may be missed.
+ */
+public class Histogram {
+	private static final int SUB_BITS = 4;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int MAX_EXP = 47;
+	static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB;
+
+	private final int stripeMask;
+	// stripe i own [i * BUCKETS, (i + 1) * BUCKETS)
+	private final AtomicLongArray counts;
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	public Histogram() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param stripes rounded up to power of two, at most 16
+	 */
+	public Histogram(int stripes) {
+		int n = Integer.highestOneBit(Math.max(1, Math.min(16, stripes) - 1)) << 1;
+		if (stripes <= 1) {
+			n = 1;
+		}
+		this.stripeMask = n - 1;
+		this.counts = new AtomicLongArray(n * BUCKETS);
+	}
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		int stripe = (int) Thread.currentThread().getId() & stripeMask;
+		counts.getAndIncrement(stripe * BUCKETS + index(value));
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	static int index(long value) {
+		if (value < SUB) {
+			return (int) value;
+		}
+		int e = 63 - Long.numberOfLeadingZeros(value);
+		if (e > MAX_EXP) {
+			return BUCKETS - 1;
+		}
+		int sub = (int) (value >>> (e - SUB_BITS)) & (SUB - 1);
+		return (e - SUB_BITS + 1) * SUB + sub;
+	}
+
+	// smallest value falling in bucket index
+	static long lowest(int index) {
+		if (index < SUB) {
+			return index;
+		}
+		int e = index / SUB + SUB_BITS - 1;
+		int sub = index % SUB;
+		return (1L << e) | ((long) sub << (e - SUB_BITS));
+	}
+
+	// largest value falling in bucket index
+	static long highest(int index) {
+		return index == BUCKETS - 1 ? Long.MAX_VALUE : lowest(index + 1) - 1;
+	}
+
+	public Snapshot snapshot() {
+		long[] merged = new long[BUCKETS];
+		long count = 0;
+		for (int s = 0; s <= stripeMask; s++) {
+			int base = s * BUCKETS;
+			for (int i = 0; i < BUCKETS; i++) {
+				long c = counts.get(base + i);
+				merged[i] += c;
+				count += c;
+			}
+		}
+		return new Snapshot(merged, count, sum.sum(), max.get());
+	}
+
+	/**
+	 * immutable merged counts
+	 */
+	public static class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		public long count() {
+			return count;
+		}
+
+		public long max() {
+			return max;
+		}
+
+		public double mean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * @param percentile in [0, 100]
+		 * @return highest value of the bucket holding the percentile, at most {@link #max()}, 0 if empty
+		 */
+		public long percentile(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(highest(i), max);
+				}
+			}
+			return max;
+		}
+	}
+}
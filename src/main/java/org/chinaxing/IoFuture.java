@@ -0,0 +1,77 @@
+package org.chinaxing;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Future of one request issued by an {@link AsyncIO}, completed with the result of its CQE
+ *
+ * cancel it cancel the request in kernel with IORING_OP_ASYNC_CANCEL, the future is still completed
+ * by the CQE of the request only: it turns cancelled when the request completes with -ECANCELED,
+ * or completes with the result if the request finished first. until then the kernel may still
+ * read/write the buffers of the request, don't reuse or free them before the future is done.
+ * futures derived from it (thenApply ...) don't propagate cancel back to it.
+ */
+public class IoFuture extends CompletableFuture<Long> {
+	private static final long ECANCELED = 125;
+
+	private final AsyncIO io;
+	// 0 until the request is prepared
+	private volatile long reqId;
+	private volatile boolean cancelRequested;
+
+	IoFuture(AsyncIO io) {
+		this.io = io;
+	}
+
+	/**
+	 * request-Id of the request, 0 if not prepared yet
+	 */
+	public long requestId() {
+		return reqId;
+	}
+
+	IoFuture issued(long reqId) {
+		this.reqId = reqId;
+		// cancelled before the request-Id is known
+		if (cancelRequested) {
+			io.cancelRequest(reqId);
+		}
+		return this;
+	}
+
+	/**
+	 * request the cancel of the request, the future is not done when it returns,
+	 * see {@link IoFuture}
+	 * @return false if the future is done already
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (isDone()) {
+			return false;
+		}
+		cancelRequested = true;
+		long id = reqId;
+		if (id != 0) {
+			io.cancelRequest(id);
+		}
+		return true;
+	}
+
+	/**
+	 * whether {@link #cancel(boolean)} was called
+	 */
+	public boolean isCancelRequested() {
+		return cancelRequested;
+	}
+
+	/**
+	 * complete with the result of the CQE of the request, cancelled if it was cancelled by request
+	 */
+	void completed(long res) {
+		if (res == -ECANCELED && cancelRequested) {
+			super.cancel(false);
+		} else {
+			complete(res);
+		}
+	}
+}
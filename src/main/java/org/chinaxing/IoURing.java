@@ -1,24 +1,30 @@
 package org.chinaxing;
 
+import org.chinaxing.FixedBufferPool.FixedBuffer;
 import org.chinaxing.exception.PrepareRWException;
+import org.chinaxing.exception.RegisterException;
 import org.chinaxing.exception.SubmitException;
 import org.chinaxing.exception.WaitCQEException;
 import sun.misc.Unsafe;
-import sun.nio.ch.DirectBuffer;
 
 import java.io.FileDescriptor;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
-import java.util.Map;
+import java.nio.ByteOrder;
+import java.nio.channels.Channel;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * IoURing high level interface
  *
  * capabilities:
  *
- * 0) setup and customize IOURing instance
+ * 0) setup and customize IOURing instance, see {@link Params}
  *    a) io-poll for (nvme + xfs)
  *    b) sq-poll     (reduce syscall)
  *
@@ -47,7 +53,7 @@ import java.util.concurrent.atomic.AtomicLong;
  * 5) query or wait completion of submitted requests in the Queue.
  */
 public class IoURing {
-    private final IoURingNative _native;
+    private final RingBackend _native;
 	
 	
 	public static class Flags {
@@ -64,7 +70,246 @@ public class IoURing {
         public static final int CLAMP  = (1 << 4);
         public static final int ATTACH_WQ = (1 << 5);
     }
+
+    /**
+     * features reported by the kernel (IORING_FEAT_*), see {@link #features()}
+     */
+    public static class Features {
+        public static final int SINGLE_MMAP = (1 << 0);
+        public static final int NODROP = (1 << 1);
+        public static final int SUBMIT_STABLE = (1 << 2);
+        public static final int RW_CUR_POS = (1 << 3);
+        public static final int CUR_PERSONALITY = (1 << 4);
+        public static final int FAST_POLL = (1 << 5);
+        public static final int POLL_32BITS = (1 << 6);
+        // SQPOLL work on non fixed files (5.11+)
+        public static final int SQPOLL_NONFIXED = (1 << 7);
+    }
+
+    /**
+     * setup parameters of a ring (struct io_uring_params)
+     *
+     * <pre>
+     *   new IoURing(new IoURing.Params(256).sqPoll(2000).sqThreadCpu(3))
+     * </pre>
+     */
+    public static class Params {
+        private final int queueDepth;
+        private int flags;
+        private int sqThreadCpu = -1;
+        private int sqThreadIdle;
+        private int cqEntries;
+        private IoURing attachTo;
+        private DirectBufferArena arena;
+        private int fixedFiles;
+        private boolean directRings;
+        private int blockSize;
+
+        public Params(int queueDepth) {
+            this.queueDepth = queueDepth;
+        }
+
+        /**
+         * add raw setup flags, see {@link Flags}
+         */
+        public Params flags(int flags) {
+            this.flags |= flags;
+            return this;
+        }
+
+        /**
+         * kernel thread poll the SQ, submit need no syscall while it is awake
+         * @param idleMs ms without new SQE before the thread go to sleep, 0 for kernel default
+         */
+        public Params sqPoll(int idleMs) {
+            this.flags |= Flags.SQPOLL;
+            this.sqThreadIdle = idleMs;
+            return this;
+        }
+
+        /**
+         * pin the SQ poll thread to cpu
+         */
+        public Params sqThreadCpu(int cpu) {
+            this.flags |= Flags.SQ_AFF;
+            this.sqThreadCpu = cpu;
+            return this;
+        }
+
+        /**
+         * busy poll completions of the device instead of interrupts, files must be opened with O_DIRECT, see {@link DirectIO#open}
+         */
+        public Params ioPoll() {
+            this.flags |= Flags.IOPOLL;
+            return this;
+        }
+
+        /**
+         * CQ size, default twice of queueDepth
+         */
+        public Params cqEntries(int entries) {
+            this.flags |= Flags.CQSIZE;
+            this.cqEntries = entries;
+            return this;
+        }
+
+        /**
+         * clamp SQ/CQ size to the kernel max instead of failing
+         */
+        public Params clamp() {
+            this.flags |= Flags.CLAMP;
+            return this;
+        }
+
+        /**
+         * share the async worker pool (and SQ poll thread) of another ring
+         */
+        public Params attachTo(IoURing ring) {
+            this.flags |= Flags.ATTACH_WQ;
+            this.attachTo = ring;
+            return this;
+        }
+
+        /**
+         * arena of bounce buffers, default the arena of attached ring or {@link DirectBufferArena#shared()}
+         */
+        public Params arena(DirectBufferArena arena) {
+            this.arena = arena;
+            return this;
+        }
+
+        /**
+         * create a {@link FileTable} of slots, default none unless SQPOLL need fixed files
+         */
+        public Params fixedFiles(int slots) {
+            this.fixedFiles = slots;
+            return this;
+        }
+
+        /**
+         * write SQEs and read CQEs in the mmapped rings from java, JNI only for io_uring_enter, see {@link DirectRing}.
+         * with {@link #sqPoll(int)} submit and reap make no JNI call while the poll thread is awake.
+         * ignored on kernels without IORING_OP_READ/WRITE (before 5.6), see {@link IoURing#hasDirectRings()}
+         */
+        public Params directRings() {
+            this.directRings = true;
+            return this;
+        }
+
+        /**
+         * O_DIRECT mode, files of the ring are opened by {@link DirectIO#open}: offset, length and memory of
+         * every read/write must be multiple of blockSize, checked when prepared instead of failing with -EINVAL.
+         * heap buffers and byte[] bounce through arena buffers, which are aligned (at most 1MB each)
+         * @param blockSize logical block size of the device, power of two from 512 to {@link DirectBufferArena#ALIGNMENT}
+         */
+        public Params directIO(int blockSize) {
+            if (blockSize < 512 || blockSize > DirectBufferArena.ALIGNMENT || Integer.bitCount(blockSize) != 1) {
+                throw new IllegalArgumentException("blockSize " + blockSize);
+            }
+            this.blockSize = blockSize;
+            return this;
+        }
+    }
     
+    /**
+     * SQE opcodes (enum io_uring_op)
+     */
+    public static class Op {
+        public static final int NOP = 0;
+        public static final int READV = 1;
+        public static final int WRITEV = 2;
+        public static final int FSYNC = 3;
+        public static final int READ_FIXED = 4;
+        public static final int WRITE_FIXED = 5;
+        public static final int POLL_ADD = 6;
+        public static final int SENDMSG = 9;
+        public static final int RECVMSG = 10;
+        public static final int TIMEOUT = 11;
+        public static final int ACCEPT = 13;
+        public static final int ASYNC_CANCEL = 14;
+        public static final int LINK_TIMEOUT = 15;
+        public static final int CONNECT = 16;
+        public static final int CLOSE = 19;
+        public static final int READ = 22;
+        public static final int WRITE = 23;
+        public static final int SEND = 26;
+        public static final int RECV = 27;
+        public static final int SPLICE = 30;
+        public static final int TEE = 33;
+    }
+
+    /**
+     * flags of {@link #prepareSplice} / {@link #prepareTee} (SPLICE_F_*)
+     */
+    public static class SpliceFlags {
+        public static final int MOVE = (1 << 0);
+        public static final int NONBLOCK = (1 << 1);
+        // more data will follow, e.g. hold back a partial TCP segment
+        public static final int MORE = (1 << 2);
+        // input fd is a registered file slot, set by the ring itself
+        public static final int FD_IN_FIXED = (1 << 31);
+    }
+
+    /**
+     * flags of {@link #prepareFsync}
+     */
+    public static class FsyncFlags {
+        // fdatasync, skip metadata not needed to read the data back
+        public static final int DATASYNC = (1 << 0);
+    }
+
+    /**
+     * sqe ioprio flags of accept/recv
+     */
+    public static class Ioprio {
+        public static final int ACCEPT_MULTISHOT = (1 << 0);
+        public static final int RECV_MULTISHOT = (1 << 1);
+    }
+
+    /**
+     * CQE flags (IORING_CQE_F_*), see {@link #reapCQEntries(long[], long[], int[], Object[], boolean)}
+     */
+    public static class CqeFlags {
+        // upper 16 bits is the id of the selected buffer
+        public static final int BUFFER = (1 << 0);
+        // more CQEs will be posted for the same SQE
+        public static final int MORE = (1 << 1);
+        public static final int SOCK_NONEMPTY = (1 << 2);
+        public static final int BUFFER_SHIFT = 16;
+
+        public static int bufferId(int flags) {
+            return flags >>> BUFFER_SHIFT;
+        }
+
+        public static boolean hasMore(int flags) {
+            return (flags & MORE) != 0;
+        }
+    }
+
+    /**
+     * poll events of {@link #preparePollAdd}
+     */
+    public static class Poll {
+        public static final int IN = 0x1;
+        public static final int PRI = 0x2;
+        public static final int OUT = 0x4;
+        public static final int ERR = 0x8;
+        public static final int HUP = 0x10;
+        public static final int RDHUP = 0x2000;
+    }
+
+    /**
+     * SQE flags (IOSQE_*)
+     */
+    public static class SqeFlags {
+        public static final int FIXED_FILE = (1 << 0);
+        public static final int IO_DRAIN = (1 << 1);
+        public static final int IO_LINK = (1 << 2);
+        public static final int IO_HARDLINK = (1 << 3);
+        public static final int ASYNC = (1 << 4);
+        public static final int BUFFER_SELECT = (1 << 5);
+    }
+
     public static class IOResult {
     	public final long reqId;
     	public final long res;
@@ -74,152 +319,1472 @@ public class IoURing {
 			this.res = res;
 		}
 	}
-    
-    public static class ReadIOCtx {
-    	public final long reqId;
-    	// user supplied read dest byte[]
-    	public final byte[][] outputBytes;
-    	public final int[] outputOffset;
-		// underline directBuffer io_uring used
-    	public final ByteBuffer[] directBuffer;
-	
-		public ReadIOCtx(long reqId, byte[][] buf, int[] offset, ByteBuffer[] dBuf) {
-			this.reqId = reqId;
-			this.outputBytes = buf;
-			this.outputOffset = offset;
-			this.directBuffer = dBuf;
+    
+    public static class IOCtx {
+		public final long reqId;
+		// underline directBuffer io_uring used
+		public final ByteBuffer[] directBuffer;
+		// user attachment of the request
+		Object attachment;
+		// struct iovec[] of readv/writev, kernel read it when the request is issued
+		ByteBuffer iovecs;
+
+		public IOCtx(long reqId, ByteBuffer[] dBuf) {
+			this.reqId = reqId;
+			this.directBuffer = dBuf;
+		}
+
+		public void prepareResult(long res) {
+		}
+	}
+
+    public static class ReadIOCtx extends IOCtx {
+    	// user supplied read dest byte[]
+    	public final byte[][] outputBytes;
+    	public final int[] outputOffset;
+	
+		public ReadIOCtx(long reqId, byte[][] buf, int[] offset, ByteBuffer[] dBuf) {
+			super(reqId, dBuf);
+			this.outputBytes = buf;
+			this.outputOffset = offset;
+		}
+	
+		@Override
+		public void prepareResult(long res) {
+			long remain = res;
+			for(int i=0; i< directBuffer.length; i++) {
+				long dl = directBuffer[i].limit();
+				long cl = Math.min(remain, dl);
+				directBuffer[i].get(outputBytes[i], outputOffset[i], (int) cl);
+				if((remain -= cl) <= 0) {
+					break;
+				}
+			}
+		}
+	}
+ 
+    /**
+     * ctx of read/write against caller owned ByteBuffers,
+     * hold the buffers until completion, and advance their position by the result
+     */
+    public static class ByteBufferIOCtx extends IOCtx {
+		public final ByteBuffer[] buffers;
+		// copy bounce buffer back to heap buffers when read
+		private final boolean read;
+
+		public ByteBufferIOCtx(long reqId, ByteBuffer[] buffers, boolean read, ByteBuffer[] dBuf) {
+			super(reqId, dBuf);
+			this.buffers = buffers;
+			this.read = read;
+		}
+
+		@Override
+		public void prepareResult(long res) {
+			long remain = res;
+			for (int i = 0; i < buffers.length && remain > 0; i++) {
+				ByteBuffer b = buffers[i];
+				int cl = (int) Math.min(remain, b.remaining());
+				ByteBuffer bounce = directBuffer.length == 0 ? null : directBuffer[i];
+				if (bounce != null && read) {
+					bounce.limit(cl);
+					b.put(bounce);
+				} else {
+					b.position(b.position() + cl);
+				}
+				remain -= cl;
+			}
+		}
+	}
+
+	private static final int EINTR = 4;
+	private static final int EBUSY = 16;
+
+	// sizeof(struct iovec)
+	private static final int IOVEC_SIZE = 16;
+	// sizeof(struct __kernel_timespec)
+	private static final int TIMESPEC_SIZE = 16;
+
+	private static final ByteBuffer[] NO_BOUNCE = new ByteBuffer[0];
+
+	private static final int DEFAULT_FIXED_FILES = 1024;
+
+	// max in-flight requests per SQ entry, CQ is twice of SQ, and kernel may keep overflowed CQEs
+	private static final int IN_FLIGHT_PER_ENTRY = 4;
+
+	// in-flight requests, value is the IOCtx when request hold buffers, or the attachment
+	private final RequestTable<Object> requests;
+	private final DirectBufferArena arena;
+	private final int queueDepth;
+	private final int features;
+	// kernel has IORING_OP_READ/WRITE (5.6+), otherwise they go as READV/WRITEV of one iovec
+	private final boolean rwSupported;
+	// registered files used by SQEs, null if files are passed by fd
+	private volatile FileTable files;
+	// request and its LINK_TIMEOUT or two linked splices, prepared together. also splices alone, they need a descriptor
+	private final ThreadLocal<SubmissionBatch> pairs = ThreadLocal.withInitial(() -> new SubmissionBatch(this, 2));
+	// linked chains, a chain is built into it and prepared at once
+	private final ThreadLocal<SubmissionBatch> chains = ThreadLocal.withInitial(() -> new SubmissionBatch(this, queueDepth()));
+	// MPSC queue in front of the SQ, null when prepare/submit are single threaded
+	private volatile SubmitQueue submitQueue;
+	// SQEs put into the SQ and taken by the kernel without submit queue, written by the single preparing thread
+	private volatile long sqPrepared, sqSubmitted;
+	// null until enableMetrics
+	private volatile RingMetrics metrics;
+	// java access to SQ/CQ, null if SQEs and CQEs go through liburing
+	private final DirectRing direct;
+	// O_DIRECT alignment of reads/writes, 0 if not checked
+	private final int blockSize;
+	// set before the ring is exited, requests are refused from then on
+	private volatile boolean shutdown;
+    
+    public IoURing(int queueDepth, int flags) {
+        this(new Params(queueDepth).flags(flags));
+    }
+
+    public IoURing(int queueDepth, int flags, DirectBufferArena arena) {
+        this(new Params(queueDepth).flags(flags).arena(arena));
+    }
+
+    /**
+     * create a ring share the async worker pool of another ring (IORING_SETUP_ATTACH_WQ)
+     */
+    public IoURing(int queueDepth, int flags, IoURing attachTo) {
+        this(new Params(queueDepth).flags(flags).attachTo(attachTo));
+    }
+
+    /**
+     * with SQPOLL on kernels without {@link Features#SQPOLL_NONFIXED} (before 5.11),
+     * files are registered on first use and every SQE refer to them by IOSQE_FIXED_FILE
+     */
+    public IoURing(Params params) {
+        IoURing attachTo = params.attachTo;
+        this.arena = params.arena != null ? params.arena
+            : attachTo != null ? attachTo.arena : DirectBufferArena.shared();
+        this.queueDepth = params.queueDepth;
+        this.blockSize = params.blockSize;
+        this.requests = new RequestTable<>(queueDepth * IN_FLIGHT_PER_ENTRY);
+        this._native = RingBackend.create(queueDepth, params.flags, params.sqThreadCpu, params.sqThreadIdle,
+            params.cqEntries, attachTo != null ? attachTo.ringFd() : -1);
+        this._native.init();
+        this.features = _native.features();
+        long[] layout = new long[DirectRing.LAYOUT_SIZE];
+        this.rwSupported = _native.ringLayout(layout) == 0 && layout[DirectRing.RW_SUPPORTED] != 0;
+        this.direct = params.directRings ? _native.directRing() : null;
+        boolean needFixedFiles = (params.flags & Flags.SQPOLL) != 0 && (features & Features.SQPOLL_NONFIXED) == 0;
+        if (needFixedFiles || params.fixedFiles > 0) {
+            int slots = params.fixedFiles > 0 ? params.fixedFiles : DEFAULT_FIXED_FILES;
+            try {
+                this.files = new FileTable(this, _native, slots, needFixedFiles);
+            } catch (RegisterException e) {
+                _native.exit();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * start recording counters and latency histograms, see {@link RingMetrics}
+     * @return metrics of this ring, the same one if already enabled
+     */
+    public synchronized RingMetrics enableMetrics() {
+        if (metrics == null) {
+            metrics = new RingMetrics(this, requests.capacity());
+        }
+        return metrics;
+    }
+
+    /**
+     * @return null if not enabled
+     */
+    public RingMetrics metrics() {
+        return metrics;
+    }
+
+    SubmitQueue submitQueue() {
+        return submitQueue;
+    }
+
+    /**
+     * position of requests prepared so far, in the submit queue or the SQ without it, see {@link #submittedPast(long)}
+     */
+    long submitFence() {
+        SubmitQueue queue = submitQueue;
+        return queue == null ? sqPrepared : queue.position();
+    }
+
+    /**
+     * whether requests prepared before fence are submitted to kernel
+     */
+    boolean submittedPast(long fence) {
+        SubmitQueue queue = submitQueue;
+        return queue == null ? sqSubmitted >= fence : queue.submitted() >= fence;
+    }
+
+    /**
+     * whether SQ/CQ are accessed from java, see {@link Params#directRings()}
+     */
+    public boolean hasDirectRings() {
+        return direct != null;
+    }
+
+    /**
+     * alignment of reads/writes in O_DIRECT mode, 0 if not in it, see {@link Params#directIO(int)}
+     */
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /**
+     * create the registered file table of this ring, no-op if already created
+     * @param slots max files registered at the same time
+     * @return the file table
+     */
+    public FileTable enableFileTable(int slots) {
+        return enableFileTable(slots, false);
+    }
+
+    /**
+     * @param auto register files on first use and reclaim slots of closed files when full,
+     *             like the table of SQPOLL on kernels without {@link Features#SQPOLL_NONFIXED}
+     */
+    public synchronized FileTable enableFileTable(int slots, boolean auto) {
+        if (files == null) {
+            files = new FileTable(this, _native, slots, auto);
+        }
+        return files;
+    }
+
+    /**
+     * registered file table, requests against files registered in it use IOSQE_FIXED_FILE
+     * @return null if not enabled
+     */
+    public FileTable fileTable() {
+        return files;
+    }
+
+    public int queueDepth() {
+        return queueDepth;
+    }
+
+    public int cqEntries() {
+        return _native.cqEntries();
+    }
+
+    /**
+     * max requests in flight, prepare beyond it throws {@link PrepareRWException}
+     */
+    public int maxInFlight() {
+        return requests.capacity();
+    }
+
+    /**
+     * IORING_FEAT_* supported by the kernel, see {@link Features}
+     */
+    public int features() {
+        return features;
+    }
+
+    public boolean hasFeature(int feature) {
+        return (features & feature) == feature;
+    }
+
+    public int ringFd() {
+        return _native.ringFd();
+    }
+    
+    /**
+     * exit the ring, buffers of requests not completed are freed, no request is taken after it
+     */
+    public void shutdown() {
+        shutdown(null);
+    }
+
+    /**
+     * @param dropped given the attachment of every request not completed, after the ring is exited
+     */
+    void shutdown(Consumer<Object> dropped) {
+        shutdown = true;
+        this._native.exit();
+        requests.drain(v -> {
+            Object attachment = v;
+            if (v instanceof IOCtx) {
+                attachment = ((IOCtx) v).attachment;
+                freeCtx((IOCtx) v);
+            }
+            if (dropped != null && attachment != null) {
+                dropped.accept(attachment);
+            }
+        });
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public DirectBufferArena arena() {
+        return arena;
+    }
+
+    /**
+     * let any thread prepare and submit requests
+     *
+     * requests are put into a lock-free {@link SubmitQueue} instead of the SQ,
+     * {@link #submit()} drain it into the SQ by one thread at a time.
+     * must be called before any request prepared, no-op if already enabled.
+     * @param capacity max requests queued and not drained
+     */
+    public synchronized void enableSubmitQueue(int capacity) {
+        if (submitQueue == null) {
+            submitQueue = new SubmitQueue(capacity);
+        }
+    }
+    
+
+    private static Unsafe unsafe;
+	static {
+		try {
+			Field f = Unsafe.class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = (Unsafe) f.get(null);
+		}catch (NoSuchFieldException | IllegalAccessException t) {
+			throw new RuntimeException(t);
+		}
+	}
+	
+	private static final long _FD_OFFSET;
+	// java.nio.Buffer.address, read by Unsafe so sun.nio.ch.DirectBuffer need not be exported
+	private static final long _BUFFER_ADDRESS_OFFSET;
+	static {
+		try {
+			_FD_OFFSET = unsafe.objectFieldOffset(FileDescriptor.class.getDeclaredField("fd"));
+			_BUFFER_ADDRESS_OFFSET = unsafe.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+		}catch (NoSuchFieldException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * native address of index 0 of a direct buffer
+	 */
+	static long address(ByteBuffer buf) {
+		return unsafe.getLong(buf, _BUFFER_ADDRESS_OFFSET);
+	}
+
+	// Unsafe.invokeCleaner of jdk9+, or DirectBuffer.cleaner of jdk8, looked up so neither need compiling against
+	private static final Method _INVOKE_CLEANER, _CLEANER, _CLEAN;
+	static {
+		Method invokeCleaner = null, cleaner = null, clean = null;
+		try {
+			invokeCleaner = Unsafe.class.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (NoSuchMethodException e) {
+			try {
+				cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+				clean = cleaner.getReturnType().getMethod("clean");
+			} catch (ReflectiveOperationException e1) {
+				throw new RuntimeException(e1);
+			}
+		}
+		_INVOKE_CLEANER = invokeCleaner;
+		_CLEANER = cleaner;
+		_CLEAN = clean;
+	}
+
+	/**
+	 * free the memory of a direct buffer now instead of when it is collected
+	 */
+	static void freeDirect(ByteBuffer buf) {
+		try {
+			if (_INVOKE_CLEANER != null) {
+				_INVOKE_CLEANER.invoke(unsafe, buf);
+			} else {
+				_CLEAN.invoke(_CLEANER.invoke(buf));
+			}
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("free direct buffer", e);
+		}
+	}
+	
+    
+    private int getFd(FileDescriptor fd) {
+    	return fdOf(fd);
+    }
+
+    static int fdOf(FileDescriptor fd) {
+    	return unsafe.getInt(fd, _FD_OFFSET);
+    }
+
+    // fd closed by the ring, the descriptor read as closed like one closed by java
+    private static void invalidate(FileDescriptor fd) {
+    	unsafe.putIntVolatile(fd, _FD_OFFSET, -1);
+    }
+
+    /**
+     * FileDescriptor of an open fd, the caller own the fd
+     */
+    static FileDescriptor newDescriptor(int fd) {
+    	FileDescriptor d = new FileDescriptor();
+    	unsafe.putInt(d, _FD_OFFSET, fd);
+    	return d;
+    }
+
+    // offset of the FileDescriptor field "fd" of channel classes
+    private static final ConcurrentHashMap<Class<?>, Long> CHANNEL_FD_OFFSETS = new ConcurrentHashMap<>();
+
+    /**
+     * FileDescriptor of a jdk FileChannel / SocketChannel / ServerSocketChannel ...
+     */
+    public static FileDescriptor descriptorOf(Channel ch) {
+    	Long off = CHANNEL_FD_OFFSETS.get(ch.getClass());
+    	if (off == null) {
+    		off = channelFdOffset(ch.getClass());
+    		CHANNEL_FD_OFFSETS.put(ch.getClass(), off);
+    	}
+    	if (off < 0) {
+    		throw new IllegalArgumentException("unsupported channel: " + ch.getClass().getName());
+    	}
+    	return (FileDescriptor) unsafe.getObject(ch, off);
+    }
+
+    private static long channelFdOffset(Class<?> c) {
+    	for (; c != null; c = c.getSuperclass()) {
+    		try {
+    			Field f = c.getDeclaredField("fd");
+    			if (f.getType() == FileDescriptor.class) {
+    				return unsafe.objectFieldOffset(f);
+    			}
+    		} catch (NoSuchFieldException e) {
+    			// try super class
+    		}
+    	}
+    	return -1;
+    }
+
+    static Unsafe unsafe() {
+    	return unsafe;
+    }
+
+    static void storeFence() {
+    	unsafe.storeFence();
+    }
+
+    static long objectFieldOffset(Field f) {
+    	return unsafe.objectFieldOffset(f);
+    }
+
+    static Object getObject(Object o, long offset) {
+    	return unsafe.getObject(o, offset);
+    }
+
+    /**
+     * registered file slot SQEs must use for fd
+     * @return slot, -1 if fd is passed as is
+     */
+    int fixedFileSlot(FileDescriptor fd) {
+    	FileTable ft = files;
+    	return ft == null ? -1 : ft.resolve(fd);
+    }
+
+    long nextRequestId() {
+    	return acquire(null);
+    }
+
+    /**
+     * new batch of capacity requests against this ring, see {@link SubmissionBatch}
+     */
+    public SubmissionBatch newBatch(int capacity) {
+    	return new SubmissionBatch(this, capacity);
+    }
+
+	// empty batch of queue depth of the calling thread, cleared by the caller after use
+	SubmissionBatch chainBatch() {
+		return chains.get();
+	}
+
+    /**
+     * turn batch descriptors into SQEs, optionally submit them, in one native call
+     * @return number of descriptors consumed from the batch
+     */
+    int prepareBatch(SubmissionBatch batch, boolean submit) {
+    	SubmitQueue queue = submitQueue;
+    	if (queue != null) {
+    		return queueBatch(queue, batch, submit);
+    	}
+    	int[] submitRet = batch.submitRet;
+    	submitRet[0] = 0;
+    	RingMetrics m = metrics;
+    	if (m != null) {
+    		recordPrepared(m, batch.descriptors(), 0, batch.size());
+    	}
+    	int n;
+    	if (direct != null) {
+    		n = direct.prepareBatch(batch.address(), batch.size());
+    		if (submit && n > 0) {
+    			submitRet[0] = direct.submit();
+    		}
+    	} else {
+    		n = _native.prepareBatch(batch.address(), batch.size(), submit ? submitRet : null);
+    	}
+    	sqPrepared += n;
+    	if (submitRet[0] > 0) {
+    		sqSubmitted += submitRet[0];
+    	}
+    	if (m != null) {
+    		// left in the batch, recorded again when prepared
+    		recordUnprepared(m, batch.descriptors(), n, batch.size() - n);
+    		if (submitRet[0] > 0) {
+    			m.submitted(submitRet[0]);
+    		}
+    	}
+    	// prepared SQEs stay in the SQ even if submit failed, never prepare them twice
+    	batch.consumed(n);
+    	if (submitRet[0] < 0) {
+    		throw new SubmitException("ret: " + submitRet[0]);
+    	}
+    	return n;
+    }
+
+    private int queueBatch(SubmitQueue queue, SubmissionBatch batch, boolean submit) {
+    	ByteBuffer descs = batch.descriptors();
+    	int n = 0;
+    	while (n < batch.size()) {
+    		int chain = SubmissionBatch.chainLength(descs, n, batch.size());
+    		RingMetrics m = metrics;
+    		if (m != null) {
+    			recordPrepared(m, descs, n, chain);
+    		}
+    		boolean offered = chain == 1
+    			? queue.offer(descs, n * SubmissionBatch.DESC_SIZE)
+    			: queue.offerAll(descs, n * SubmissionBatch.DESC_SIZE, chain);
+    		if (offered) {
+    			n += chain;
+    			continue;
+    		}
+    		if (m != null) {
+    			recordUnprepared(m, descs, n, chain);
+    		}
+    		if (!queue.makeRoom(this)) {
+    			break;
+    		}
+    	}
+    	batch.consumed(n);
+    	if (submit) {
+    		queue.drain(this);
+    	}
+    	return n;
+    }
+
+    // recorded before the descriptors are published, the CQE may be reaped right after
+    private static void recordPrepared(RingMetrics m, ByteBuffer descs, int from, int n) {
+    	for (int i = from; i < from + n; i++) {
+    		m.prepared(SubmissionBatch.userData(descs, i), SubmissionBatch.opcode(descs, i));
+    	}
+    }
+
+    private static void recordUnprepared(RingMetrics m, ByteBuffer descs, int from, int n) {
+    	for (int i = from; i < from + n; i++) {
+    		m.unprepared(SubmissionBatch.userData(descs, i));
+    	}
+    }
+
+    /**
+     * turn count descriptors at address into SQEs, see {@link SubmissionBatch}
+     * @return number of SQEs prepared, less than count if SQ full
+     */
+    int prepareDescriptors(long address, int count) {
+    	return direct != null ? direct.prepareBatch(address, count) : _native.prepareBatch(address, count, null);
+    }
+
+    /**
+     * submit SQEs prepared by {@link #prepareDescriptors(long, int)}
+     */
+    void submitPrepared() {
+    	int ret = direct != null ? direct.submit() : _native.submit();
+    	if (ret < 0) {
+    		throw new SubmitException("ret: " + ret);
+    	}
+    	RingMetrics m = metrics;
+    	if (m != null) {
+    		m.submitted(ret);
+    	}
+    }
+
+    /**
+     * prepare one SQE of reqId into the SQ, or into the submit queue if enabled
+     */
+    private void prep(int opcode, int sqeFlags, int fd, long addr, int len, long offset, int rwFlags, int bufIndex, long reqId) {
+    	prep(opcode, sqeFlags, 0, fd, addr, len, offset, rwFlags, bufIndex, reqId);
+    }
+
+    private void prep(int opcode, int sqeFlags, int ioprio, int fd, long addr, int len, long offset, int rwFlags, int bufIndex, long reqId) {
+    	// recorded before the SQE is published, the CQE may be reaped right after.
+    	// undone by prepareFailed
+    	RingMetrics m = metrics;
+    	if (m != null) {
+    		m.prepared(reqId, opcode);
+    	}
+    	if (!rwSupported && (opcode == Op.READ || opcode == Op.WRITE)) {
+    		opcode = opcode == Op.READ ? Op.READV : Op.WRITEV;
+    		addr = singleIovec(reqId, addr, len);
+    		len = 1;
+    	}
+    	SubmitQueue queue = submitQueue;
+    	if (queue != null) {
+    		while (!queue.offer(opcode, sqeFlags, ioprio, fd, addr, len, offset, rwFlags, bufIndex, reqId)) {
+    			// queue full, wait for the drainer or drain into the SQ. fail only if the SQ is full too
+    			if (!queue.makeRoom(this)) {
+    				throw prepareFailed(reqId, -EBUSY);
+    			}
+    		}
+    		return;
+    	}
+    	int ret = direct != null
+    		? (direct.prepare(opcode, sqeFlags, ioprio, fd, addr, len, offset, rwFlags, bufIndex, reqId) ? 0 : -1)
+    		: _native.prepare(opcode, sqeFlags, ioprio, fd, addr, len, offset, rwFlags, bufIndex, reqId);
+    	if (ret != 0) {
+    		throw prepareFailed(reqId, ret);
+    	}
+    	sqPrepared++;
+    }
+
+    /**
+     * prepare one SQE against a file, by registered slot if the ring use fixed files
+     */
+    private void prep(int opcode, FileDescriptor fd, long addr, int len, long offset, int bufIndex, long reqId) {
+    	prep(opcode, fd, addr, len, offset, 0, bufIndex, reqId);
+    }
+
+    private void prep(int opcode, FileDescriptor fd, long addr, int len, long offset, int rwFlags, int bufIndex, long reqId) {
+    	prep(opcode, 0, 0, fd, addr, len, offset, rwFlags, bufIndex, reqId);
+    }
+
+    private void prep(int opcode, int sqeFlags, int ioprio, FileDescriptor fd, long addr, int len, long offset, int rwFlags, int bufIndex, long reqId) {
+    	int slot = fixedFileSlot(fd);
+    	if (slot >= 0) {
+    		prep(opcode, sqeFlags | SqeFlags.FIXED_FILE, ioprio, slot, addr, len, offset, rwFlags, bufIndex, reqId);
+    	} else {
+    		prep(opcode, sqeFlags, ioprio, getFd(fd), addr, len, offset, rwFlags, bufIndex, reqId);
+    	}
+    }
+
+    /**
+     * read/write of one buffer, or readv/writev with iovecs hold by ctx
+     */
+    private void prepRW(boolean read, FileDescriptor fd, long[] bas, int[] lens, long offset, IOCtx ctx) {
+    	if (bas.length == 1) {
+    		prep(read ? Op.READ : Op.WRITE, fd, bas[0], lens[0], offset, 0, ctx.reqId);
+    		return;
+    	}
+    	prep(read ? Op.READV : Op.WRITEV, fd, iovecs(bas, lens, ctx), bas.length, offset, 0, ctx.reqId);
+    }
+
+    boolean rwSupported() {
+    	return rwSupported;
+    }
+
+    /**
+     * iovec of a READ/WRITE sent as READV/WRITEV, held by the IOCtx of reqId and freed with it
+     * @return address of the iovec
+     */
+    long singleIovec(long reqId, long addr, int len) {
+    	Object v = requests.get(reqId);
+    	IOCtx ctx;
+    	if (v instanceof IOCtx) {
+    		ctx = (IOCtx) v;
+    	} else {
+    		// request without buffers, the attachment moves into a ctx
+    		ctx = new IOCtx(reqId, NO_BOUNCE);
+    		track(reqId, ctx, v);
+    	}
+    	return iovecs(new long[]{ addr }, new int[]{ len }, ctx);
+    }
+
+    // struct iovec array in the arena, freed with ctx
+    private long iovecs(long[] bas, int[] lens, IOCtx ctx) {
+    	ByteBuffer iov = arena.allocate(bas.length * IOVEC_SIZE);
+    	ctx.iovecs = iov;
+    	ByteBuffer w = iov.duplicate().order(ByteOrder.nativeOrder());
+    	for (int i = 0; i < bas.length; i++) {
+    		w.putLong(i * IOVEC_SIZE, bas[i]);
+    		w.putLong(i * IOVEC_SIZE + 8, lens[i]);
+    	}
+    	return address(iov);
+    }
+    
+    /**
+     * high level wrappers
+     *
+     * READ/WRITE
+     *
+     * REQUEST/COMPLETION
+     */
+
+	public long prepareRead(FileDescriptor fd, long offset, byte[] bytes, int bufPos, int len) {
+		return prepareRead(fd, offset, bytes, bufPos, len, null);
+	}
+
+	/**
+	 * @param attachment returned with the completion by {@link #reapCQEntries(long[], long[], Object[], boolean)}
+	 */
+	public long prepareRead(FileDescriptor fd, long offset, byte[] bytes, int bufPos, int len, Object attachment) {
+		checkBounced(offset, len);
+		long reqId = acquire(attachment);
+		ByteBuffer buf = arena.allocate(len);
+		track(reqId, new ReadIOCtx(reqId, new byte[][]{bytes}, new int[]{ bufPos} , new ByteBuffer[]{ buf }), attachment);
+		prep(Op.READ, fd, address(buf), len, offset, 0, reqId);
+		return reqId;
+	}
+	
+	public long prepareReads(FileDescriptor fd, long offset, byte[][] bytes, int[] bufPos, int[] len) {
+		return prepareReads(fd, offset, bytes, bufPos, len, null);
+	}
+
+	public long prepareReads(FileDescriptor fd, long offset, byte[][] bytes, int[] bufPos, int[] len, Object attachment) {
+		checkBounced(offset, len);
+		long reqId = acquire(attachment);
+		long[] bas = new long[bytes.length];
+		ByteBuffer[] dbs = prepareDirectBuf(false, bytes, bufPos, len, bas);
+		IOCtx ctx = new ReadIOCtx(reqId, bytes, bufPos, dbs);
+		track(reqId, ctx, attachment);
+		prepRW(true, fd, bas, len, offset, ctx);
+		return reqId;
+	}
+	
+	
+	public long prepareWrite(FileDescriptor fd, long offset, byte[] bytes, int bufPos, int len) {
+		return prepareWrite(fd, offset, bytes, bufPos, len, null);
+	}
+
+	public long prepareWrite(FileDescriptor fd, long offset, byte[] bytes, int bufPos, int len, Object attachment) {
+		checkBounced(offset, len);
+		long reqId = acquire(attachment);
+		ByteBuffer buf = arena.allocate(len);
+		buf.put(bytes, bufPos, len);
+		track(reqId, new IOCtx(reqId, new ByteBuffer[]{ buf }), attachment);
+		prep(Op.WRITE, fd, address(buf), len, offset, 0, reqId);
+		return reqId;
+	}
+	
+	public long prepareWrites(FileDescriptor fd, long offset, byte[][] bytes, int[] bufPos, int[] len) {
+		return prepareWrites(fd, offset, bytes, bufPos, len, null);
+	}
+
+	public long prepareWrites(FileDescriptor fd, long offset, byte[][] bytes, int[] bufPos, int[] len, Object attachment) {
+		checkBounced(offset, len);
+		long reqId = acquire(attachment);
+		long[] bas = new long[bytes.length];
+		ByteBuffer[] dbs = prepareDirectBuf(true, bytes, bufPos, len, bas);
+		IOCtx ctx = new IOCtx(reqId, dbs);
+		track(reqId, ctx, attachment);
+		prepRW(false, fd, bas, len, offset, ctx);
+		return reqId;
+	}
+	
+	/**
+	 * read into dst [position, limit), position advanced by bytes read when completed.
+	 *
+	 * direct buffer is handed to kernel as is (zero copy), heap buffer bounce through a direct buffer.
+	 * dst must not be touched until the request completed.
+	 */
+	public long prepareRead(FileDescriptor fd, long offset, ByteBuffer dst) {
+		return prepareReads(fd, offset, new ByteBuffer[]{ dst }, null);
+	}
+
+	public long prepareRead(FileDescriptor fd, long offset, ByteBuffer dst, Object attachment) {
+		return prepareReads(fd, offset, new ByteBuffer[]{ dst }, attachment);
+	}
+
+	/**
+	 * scatter read into dsts, see {@link #prepareRead(FileDescriptor, long, ByteBuffer)}
+	 */
+	public long prepareReads(FileDescriptor fd, long offset, ByteBuffer[] dsts) {
+		return prepareReads(fd, offset, dsts, null);
+	}
+
+	public long prepareReads(FileDescriptor fd, long offset, ByteBuffer[] dsts, Object attachment) {
+		checkAligned(offset, dsts);
+		long reqId = acquire(attachment);
+		long[] bas = new long[dsts.length];
+		int[] lens = new int[dsts.length];
+		ByteBuffer[] bounce = prepareBufferAddress(false, dsts, bas, lens);
+		IOCtx ctx = new ByteBufferIOCtx(reqId, dsts, true, bounce);
+		track(reqId, ctx, attachment);
+		prepRW(true, fd, bas, lens, offset, ctx);
+		return reqId;
+	}
+
+	/**
+	 * write src [position, limit), position advanced by bytes written when completed.
+	 *
+	 * direct buffer is handed to kernel as is (zero copy), heap buffer bounce through a direct buffer.
+	 * src must not be touched until the request completed.
+	 */
+	public long prepareWrite(FileDescriptor fd, long offset, ByteBuffer src) {
+		return prepareWrites(fd, offset, new ByteBuffer[]{ src }, null);
+	}
+
+	public long prepareWrite(FileDescriptor fd, long offset, ByteBuffer src, Object attachment) {
+		return prepareWrites(fd, offset, new ByteBuffer[]{ src }, attachment);
+	}
+
+	/**
+	 * gather write from srcs, see {@link #prepareWrite(FileDescriptor, long, ByteBuffer)}
+	 */
+	public long prepareWrites(FileDescriptor fd, long offset, ByteBuffer[] srcs) {
+		return prepareWrites(fd, offset, srcs, null);
+	}
+
+	public long prepareWrites(FileDescriptor fd, long offset, ByteBuffer[] srcs, Object attachment) {
+		checkAligned(offset, srcs);
+		long reqId = acquire(attachment);
+		long[] bas = new long[srcs.length];
+		int[] lens = new int[srcs.length];
+		ByteBuffer[] bounce = prepareBufferAddress(true, srcs, bas, lens);
+		IOCtx ctx = new ByteBufferIOCtx(reqId, srcs, false, bounce);
+		track(reqId, ctx, attachment);
+		prepRW(false, fd, bas, lens, offset, ctx);
+		return reqId;
+	}
+
+	/**
+	 * read into raw memory [address, address + len), e.g. MemorySegment.address() on jdk21+.
+	 * caller must keep the memory alive until the request completed.
+	 */
+	public long prepareRead(FileDescriptor fd, long offset, long address, int len) {
+		return prepareRead(fd, offset, address, len, null);
+	}
+
+	public long prepareRead(FileDescriptor fd, long offset, long address, int len, Object attachment) {
+		checkAligned(offset, address, len);
+		long reqId = acquire(attachment);
+		prep(Op.READ, fd, address, len, offset, 0, reqId);
+		return reqId;
+	}
+
+	/**
+	 * write from raw memory [address, address + len), e.g. MemorySegment.address() on jdk21+.
+	 * caller must keep the memory alive until the request completed.
+	 */
+	public long prepareWrite(FileDescriptor fd, long offset, long address, int len) {
+		return prepareWrite(fd, offset, address, len, null);
+	}
+
+	public long prepareWrite(FileDescriptor fd, long offset, long address, int len, Object attachment) {
+		checkAligned(offset, address, len);
+		long reqId = acquire(attachment);
+		prep(Op.WRITE, fd, address, len, offset, 0, reqId);
+		return reqId;
+	}
+
+	/**
+	 * read into registered buffer, use IORING_OP_READ_FIXED
+	 * @param buf leased from the {@link FixedBufferPool} registered to this ring
+	 * @param bufPos start position in buf
+	 */
+	public long prepareReadFixed(FileDescriptor fd, long offset, FixedBuffer buf, int bufPos, int len) {
+		return prepareReadFixed(fd, offset, buf, bufPos, len, null);
+	}
+
+	public long prepareReadFixed(FileDescriptor fd, long offset, FixedBuffer buf, int bufPos, int len, Object attachment) {
+		checkFixedBuffer(buf, bufPos, len);
+		checkAligned(offset, buf.address + bufPos, len);
+		long reqId = acquire(attachment);
+		prep(Op.READ_FIXED, fd, buf.address + bufPos, len, offset, buf.index, reqId);
+		return reqId;
+	}
+
+	/**
+	 * write from registered buffer, use IORING_OP_WRITE_FIXED
+	 * @param buf leased from the {@link FixedBufferPool} registered to this ring
+	 * @param bufPos start position in buf
+	 */
+	public long prepareWriteFixed(FileDescriptor fd, long offset, FixedBuffer buf, int bufPos, int len) {
+		return prepareWriteFixed(fd, offset, buf, bufPos, len, null);
+	}
+
+	public long prepareWriteFixed(FileDescriptor fd, long offset, FixedBuffer buf, int bufPos, int len, Object attachment) {
+		checkFixedBuffer(buf, bufPos, len);
+		checkAligned(offset, buf.address + bufPos, len);
+		long reqId = acquire(attachment);
+		prep(Op.WRITE_FIXED, fd, buf.address + bufPos, len, offset, buf.index, reqId);
+		return reqId;
+	}
+
+	/**
+	 * read with a deadline, the read completes with -ECANCELED if not done in timeoutNanos.
+	 * the read and its IORING_OP_LINK_TIMEOUT are prepared together, see {@link #prepareRead(FileDescriptor, long, ByteBuffer)}
+	 */
+	public long prepareRead(FileDescriptor fd, long offset, ByteBuffer dst, long timeoutNanos, Object attachment) {
+		SubmissionBatch pair = pairs.get();
+		return withTimeout(pair, addReadWrite(pair, true, fd, offset, new ByteBuffer[]{ dst }, attachment), timeoutNanos);
+	}
+
+	/**
+	 * write with a deadline, see {@link #prepareRead(FileDescriptor, long, ByteBuffer, long, Object)}
+	 */
+	public long prepareWrite(FileDescriptor fd, long offset, ByteBuffer src, long timeoutNanos, Object attachment) {
+		SubmissionBatch pair = pairs.get();
+		return withTimeout(pair, addReadWrite(pair, false, fd, offset, new ByteBuffer[]{ src }, attachment), timeoutNanos);
+	}
+
+	/**
+	 * recv with a deadline, see {@link #prepareRead(FileDescriptor, long, ByteBuffer, long, Object)}
+	 */
+	public long prepareRecv(FileDescriptor fd, ByteBuffer dst, int flags, long timeoutNanos, Object attachment) {
+		SubmissionBatch pair = pairs.get();
+		return withTimeout(pair, addBuffer(pair, Op.RECV, true, fd, dst, flags, attachment), timeoutNanos);
+	}
+
+	/**
+	 * send with a deadline, see {@link #prepareRead(FileDescriptor, long, ByteBuffer, long, Object)}
+	 */
+	public long prepareSend(FileDescriptor fd, ByteBuffer src, int flags, long timeoutNanos, Object attachment) {
+		SubmissionBatch pair = pairs.get();
+		return withTimeout(pair, addBuffer(pair, Op.SEND, false, fd, src, flags, attachment), timeoutNanos);
+	}
+
+	// link the request just added to pair to a LINK_TIMEOUT, and prepare both or none
+	private long withTimeout(SubmissionBatch pair, long reqId, long timeoutNanos) {
+		long timeoutId;
+		try {
+			pair.link(false);
+			timeoutId = addLinkTimeout(pair, timeoutNanos);
+		} catch (RuntimeException e) {
+			pair.clear();
+			prepareFailed(reqId, 0);
+			throw e;
+		}
+		if (prepareBatch(pair, false) == 0) {
+			pair.clear();
+			prepareFailed(timeoutId, -EBUSY);
+			throw prepareFailed(reqId, -EBUSY);
+		}
+		return reqId;
+	}
+
+	/**
+	 * splice(2) len bytes from in to out without copying to user space, one of them must be a pipe.
+	 * result is bytes moved, 0 at end of input, see {@link AsyncIO#transfer} for file to file/socket
+	 * @param inOffset -1 for a pipe or socket, which have no offset
+	 * @param outOffset -1 for a pipe or socket
+	 * @param flags see {@link SpliceFlags}
+	 */
+	public long prepareSplice(FileDescriptor in, long inOffset, FileDescriptor out, long outOffset, int len, int flags) {
+		return prepareSplice(in, inOffset, out, outOffset, len, flags, null);
+	}
+
+	public long prepareSplice(FileDescriptor in, long inOffset, FileDescriptor out, long outOffset, int len, int flags, Object attachment) {
+		SubmissionBatch one = pairs.get();
+		long reqId = acquire(attachment);
+		try {
+			one.addSplice(Op.SPLICE, in, inOffset, out, outOffset, len, flags, reqId);
+		} catch (RuntimeException e) {
+			// e.g. no free slot in an auto file table
+			prepareFailed(reqId, 0);
+			throw e;
 		}
-	
-		public void prepareResult(long res) {
-			long remain = res;
-			for(int i=0; i< directBuffer.length; i++) {
-				long dl = directBuffer[i].capacity();
-				long cl = Math.min(remain, dl);
-				directBuffer[i].get(outputBytes[i], outputOffset[i], (int) cl);
-				if((remain -= cl) <= 0) {
-					break;
-				}
-			}
+		return prepareAll(one, reqId, -1);
+	}
+
+	/**
+	 * tee(2) len bytes from pipe in to pipe out, the bytes stay in in
+	 */
+	public long prepareTee(FileDescriptor in, FileDescriptor out, int len, int flags) {
+		return prepareTee(in, out, len, flags, null);
+	}
+
+	public long prepareTee(FileDescriptor in, FileDescriptor out, int len, int flags, Object attachment) {
+		SubmissionBatch one = pairs.get();
+		long reqId = acquire(attachment);
+		try {
+			one.addSplice(Op.TEE, in, 0, out, 0, len, flags, reqId);
+		} catch (RuntimeException e) {
+			// e.g. no free slot in an auto file table
+			prepareFailed(reqId, 0);
+			throw e;
 		}
+		return prepareAll(one, reqId, -1);
 	}
- 
-	private final AtomicLong requestID = new AtomicLong(0);
-	private final Map<Long, ReadIOCtx> readIOCtxMap = new ConcurrentHashMap<>();
-    
-    public IoURing(int queueDepth, int flags) {
-        this._native = new IoURingNative(queueDepth, flags);
-        this._native.init();
-    }
-    
-    public void shutdown() {
-        this._native.exit();
-        readIOCtxMap.clear();
-    }
-    
 
-    private static Unsafe unsafe;
-	static {
+	/**
+	 * in -> pipe -> out by two linked splices of len bytes, the second one runs only if the first moved all len bytes,
+	 * else it completes with -ECANCELED and the bytes moved stay in the pipe
+	 * @param pipeIn write end of the pipe, pipeOut its read end
+	 * @param outFlags flags of the second splice, e.g. {@link SpliceFlags#MORE} for a socket
+	 * @return request-Id of the first splice
+	 */
+	long prepareSplicePair(FileDescriptor in, long inOffset, FileDescriptor pipeIn, FileDescriptor pipeOut,
+		FileDescriptor out, long outOffset, int len, int outFlags, Object inAttachment, Object outAttachment) {
+		SubmissionBatch pair = pairs.get();
+		long inId = acquire(inAttachment);
+		long outId;
 		try {
-			Field f = Unsafe.class.getDeclaredField("theUnsafe");
-			f.setAccessible(true);
-			unsafe = (Unsafe) f.get(null);
-		}catch (NoSuchFieldException | IllegalAccessException t) {
-			throw new RuntimeException(t);
+			outId = acquire(outAttachment);
+		} catch (RuntimeException e) {
+			prepareFailed(inId, 0);
+			throw e;
 		}
+		try {
+			pair.addSplice(Op.SPLICE, in, inOffset, pipeIn, -1, len, 0, inId);
+			pair.link(false);
+			pair.addSplice(Op.SPLICE, pipeOut, -1, out, outOffset, len, outFlags, outId);
+		} catch (RuntimeException e) {
+			pair.clear();
+			prepareFailed(outId, 0);
+			prepareFailed(inId, 0);
+			throw e;
+		}
+		return prepareAll(pair, inId, outId);
 	}
-	
-	private static final long _FD_OFFSET;
-	static {
+
+	// prepare the one or two requests in batch, or none of them
+	private long prepareAll(SubmissionBatch batch, long reqId, long secondId) {
+		if (prepareBatch(batch, false) == 0) {
+			batch.clear();
+			if (secondId >= 0) {
+				prepareFailed(secondId, -EBUSY);
+			}
+			throw prepareFailed(reqId, -EBUSY);
+		}
+		return reqId;
+	}
+
+	/**
+	 * add an IORING_OP_LINK_TIMEOUT to batch, the last request in batch must be linked to it.
+	 * its own completion is -ETIME if fired, -ECANCELED if the request completed first
+	 */
+	long addLinkTimeout(SubmissionBatch batch, long timeoutNanos) {
+		if (timeoutNanos <= 0) {
+			throw new IllegalArgumentException("timeoutNanos: " + timeoutNanos);
+		}
+		if (batch.isFull()) {
+			throw new IllegalStateException("batch full: " + batch.capacity());
+		}
+		long reqId = acquire(null);
+		ByteBuffer ts = timespec(timeoutNanos);
+		// kernel may read the timespec when the SQE is consumed, keep it until completed
+		track(reqId, new IOCtx(reqId, new ByteBuffer[]{ ts }), null);
+		batch.add(Op.LINK_TIMEOUT, 0, -1, address(ts), 1, 0, 0, 0, reqId);
+		return reqId;
+	}
+
+	/**
+	 * a timer in the ring (IORING_OP_TIMEOUT), completes with -ETIME after timeoutNanos, e.g. a backoff
+	 * on the completion loop without another thread
+	 */
+	public long prepareTimeout(long timeoutNanos, Object attachment) {
+		if (timeoutNanos <= 0) {
+			throw new IllegalArgumentException("timeoutNanos: " + timeoutNanos);
+		}
+		long reqId = acquire(attachment);
+		ByteBuffer ts = timespec(timeoutNanos);
+		track(reqId, new IOCtx(reqId, new ByteBuffer[]{ ts }), attachment);
+		prep(Op.TIMEOUT, 0, -1, address(ts), 1, 0, 0, 0, reqId);
+		return reqId;
+	}
+
+	// struct __kernel_timespec in the arena
+	private ByteBuffer timespec(long nanos) {
+		ByteBuffer ts = arena.allocate(TIMESPEC_SIZE);
+		ByteBuffer w = ts.duplicate().order(ByteOrder.nativeOrder());
+		w.putLong(0, nanos / 1000000000L);
+		w.putLong(8, nanos % 1000000000L);
+		return ts;
+	}
+
+	/**
+	 * cancel an in-flight request by its request-Id (IORING_OP_ASYNC_CANCEL).
+	 * the target completes with -ECANCELED, this request completes with 0 if found,
+	 * -ENOENT if already completed, or -EALREADY if it can't be stopped any more
+	 */
+	public long prepareCancel(long targetReqId) {
+		return prepareCancel(targetReqId, null);
+	}
+
+	public long prepareCancel(long targetReqId, Object attachment) {
+		long reqId = acquire(attachment);
+		prep(Op.ASYNC_CANCEL, 0, -1, targetReqId, 0, 0, 0, 0, reqId);
+		return reqId;
+	}
+
+	/**
+	 * fsync(2) the file, or fdatasync(2) with {@link FsyncFlags#DATASYNC}
+	 */
+	public long prepareFsync(FileDescriptor fd, int fsyncFlags) {
+		return prepareFsync(fd, fsyncFlags, null);
+	}
+
+	public long prepareFsync(FileDescriptor fd, int fsyncFlags, Object attachment) {
+		long reqId = acquire(attachment);
+		prep(Op.FSYNC, fd, 0, 0, 0, fsyncFlags, 0, reqId);
+		return reqId;
+	}
+
+	/**
+	 * add a read/write of bufs [position, limit) to batch, buffers handled like {@link #prepareReads(FileDescriptor, long, ByteBuffer[])}
+	 * @return request-Id, release it by {@link #prepareFailed(long, int)} if the batch is dropped
+	 */
+	long addReadWrite(SubmissionBatch batch, boolean read, FileDescriptor fd, long offset, ByteBuffer[] bufs, Object attachment) {
+		if (batch.isFull()) {
+			throw new IllegalStateException("batch full: " + batch.capacity());
+		}
+		checkAligned(offset, bufs);
+		long reqId = acquire(attachment);
+		long[] bas = new long[bufs.length];
+		int[] lens = new int[bufs.length];
+		ByteBuffer[] bounce = prepareBufferAddress(!read, bufs, bas, lens);
+		IOCtx ctx = new ByteBufferIOCtx(reqId, bufs, read, bounce);
+		track(reqId, ctx, attachment);
+		if (bufs.length == 1) {
+			batch.addFile(read ? Op.READ : Op.WRITE, fd, bas[0], lens[0], offset, 0, 0, reqId);
+		} else {
+			batch.addFile(read ? Op.READV : Op.WRITEV, fd, iovecs(bas, lens, ctx), bufs.length, offset, 0, 0, reqId);
+		}
+		return reqId;
+	}
+
+	// recv/send of one buffer into batch
+	private long addBuffer(SubmissionBatch batch, int opcode, boolean read, FileDescriptor fd, ByteBuffer buf, int flags, Object attachment) {
+		if (batch.isFull()) {
+			throw new IllegalStateException("batch full: " + batch.capacity());
+		}
+		long reqId = acquire(attachment);
+		ByteBuffer[] bufs = new ByteBuffer[]{ buf };
+		long[] bas = new long[1];
+		int[] lens = new int[1];
+		ByteBuffer[] bounce = prepareBufferAddress(!read, bufs, bas, lens);
+		track(reqId, new ByteBufferIOCtx(reqId, bufs, read, bounce), attachment);
+		batch.addFile(opcode, fd, bas[0], lens[0], 0, flags, 0, reqId);
+		return reqId;
+	}
+
+	long addFsync(SubmissionBatch batch, FileDescriptor fd, int fsyncFlags, Object attachment) {
+		if (batch.isFull()) {
+			throw new IllegalStateException("batch full: " + batch.capacity());
+		}
+		long reqId = acquire(attachment);
+		batch.addFile(Op.FSYNC, fd, 0, 0, 0, fsyncFlags, 0, reqId);
+		return reqId;
+	}
+
+	/**
+	 * accept a connection on a listening socket, result is the fd of the new connection
+	 */
+	public long prepareAccept(FileDescriptor fd) {
+		return prepareAccept(fd, null);
+	}
+
+	public long prepareAccept(FileDescriptor fd, Object attachment) {
+		long reqId = acquire(attachment);
+		prep(Op.ACCEPT, fd, 0, 0, 0, 0, 0, reqId);
+		return reqId;
+	}
+
+	/**
+	 * connect a socket to remote, result is 0 or -errno
+	 */
+	public long prepareConnect(FileDescriptor fd, InetSocketAddress remote) {
+		return prepareConnect(fd, remote, null);
+	}
+
+	public long prepareConnect(FileDescriptor fd, InetSocketAddress remote, Object attachment) {
+		ByteBuffer addr = arena.allocate(SockAddr.MAX_SIZE);
+		int len;
+		long reqId;
 		try {
-			_FD_OFFSET = unsafe.objectFieldOffset(FileDescriptor.class.getDeclaredField("fd"));
-		}catch (NoSuchFieldException e) {
-			throw new RuntimeException(e);
+			len = SockAddr.write(addr, remote);
+			reqId = acquire(attachment);
+		} catch (RuntimeException e) {
+			arena.free(addr);
+			throw e;
 		}
+		track(reqId, new IOCtx(reqId, new ByteBuffer[]{ addr }), attachment);
+		// addrlen is passed in the offset field
+		prep(Op.CONNECT, fd, address(addr), 0, len, 0, 0, reqId);
+		return reqId;
 	}
-	
-    
-    private int getFd(FileDescriptor fd) {
-    	return unsafe.getInt(fd, _FD_OFFSET);
-    }
-    
-    /**
-     * high level wrappers
-     *
-     * READ/WRITE
-     *
-     * REQUEST/COMPLETION
-     */
 
-	public long prepareRead(FileDescriptor fd, long offset, byte[] bytes, int bufPos, int len) {
-		int fd0 = getFd(fd);
-		long reqId = requestID.incrementAndGet();
-		ByteBuffer buf = ByteBuffer.allocateDirect(len);
-		DirectBuffer dBuf = (DirectBuffer) buf;
-		int ret = _native.prepareRead(reqId, 0, fd0, dBuf.address(), len, offset);
+	/**
+	 * receive into dst [position, limit), position advanced by bytes received when completed
+	 * @param flags MSG_* flags of recv(2)
+	 */
+	public long prepareRecv(FileDescriptor fd, ByteBuffer dst, int flags) {
+		return prepareRecv(fd, dst, flags, null);
+	}
+
+	public long prepareRecv(FileDescriptor fd, ByteBuffer dst, int flags, Object attachment) {
+		return prepareBuffer(Op.RECV, true, fd, dst, flags, attachment);
+	}
+
+	/**
+	 * send src [position, limit), position advanced by bytes sent when completed
+	 * @param flags MSG_* flags of send(2)
+	 */
+	public long prepareSend(FileDescriptor fd, ByteBuffer src, int flags) {
+		return prepareSend(fd, src, flags, null);
+	}
+
+	public long prepareSend(FileDescriptor fd, ByteBuffer src, int flags, Object attachment) {
+		return prepareBuffer(Op.SEND, false, fd, src, flags, attachment);
+	}
+
+	private long prepareBuffer(int opcode, boolean read, FileDescriptor fd, ByteBuffer buf, int flags, Object attachment) {
+		long reqId = acquire(attachment);
+		ByteBuffer[] bufs = new ByteBuffer[]{ buf };
+		long[] bas = new long[1];
+		int[] lens = new int[1];
+		ByteBuffer[] bounce = prepareBufferAddress(!read, bufs, bas, lens);
+		track(reqId, new ByteBufferIOCtx(reqId, bufs, read, bounce), attachment);
+		prep(opcode, fd, bas[0], lens[0], 0, flags, 0, reqId);
+		return reqId;
+	}
+
+	/**
+	 * receive into a buffer picked by kernel from buffers when data arrive,
+	 * buffer id is in the CQE flags, see {@link CqeFlags#bufferId(int)} and {@link BufferRing#recycle(int)}
+	 */
+	public long prepareRecv(FileDescriptor fd, BufferRing buffers, int flags, Object attachment) {
+		checkBufferRing(buffers);
+		long reqId = acquire(attachment);
+		prep(Op.RECV, SqeFlags.BUFFER_SELECT, 0, fd, 0, buffers.bufferSize(), 0, flags, buffers.groupId(), reqId);
+		return reqId;
+	}
+
+	/**
+	 * one SQE receive repeatedly, one CQE with {@link CqeFlags#MORE} per received chunk in a buffer of buffers,
+	 * until a CQE without MORE (eof, error, or -ENOBUFS when buffers run out). kernel 6.0+
+	 * the request-Id and attachment stay in use until then, completions must be reaped
+	 * by {@link #reapCQEntries(long[], long[], int[], Object[], boolean)}.
+	 */
+	public long prepareMultishotRecv(FileDescriptor fd, BufferRing buffers, Object attachment) {
+		checkBufferRing(buffers);
+		long reqId = acquire(attachment);
+		prep(Op.RECV, SqeFlags.BUFFER_SELECT, Ioprio.RECV_MULTISHOT, fd, 0, 0, 0, 0, buffers.groupId(), reqId);
+		return reqId;
+	}
+
+	/**
+	 * one SQE accept repeatedly, one CQE with the new fd per connection, see {@link #prepareMultishotRecv}. kernel 5.19+
+	 */
+	public long prepareMultishotAccept(FileDescriptor fd, Object attachment) {
+		long reqId = acquire(attachment);
+		prep(Op.ACCEPT, 0, Ioprio.ACCEPT_MULTISHOT, fd, 0, 0, 0, 0, 0, reqId);
+		return reqId;
+	}
+
+	private void checkBufferRing(BufferRing buffers) {
+		if (buffers.ring() != this) {
+			throw new IllegalArgumentException("buffer group " + buffers.groupId() + " not registered to this ring");
+		}
+	}
+
+	/**
+	 * register a provided buffer ring (IORING_REGISTER_PBUF_RING) of count buffers of bufferSize. kernel 5.19+
+	 * @param groupId buffer group id used by SQEs
+	 */
+	public BufferRing registerBufferRing(int groupId, int count, int bufferSize) {
+		return new BufferRing(this, groupId, count, bufferSize);
+	}
+
+	void registerBufRing(long ringAddress, int entries, int groupId) {
+		int ret = _native.registerBufRing(ringAddress, entries, groupId);
 		if (ret != 0) {
-			dBuf.cleaner().clean();
-			throw new PrepareRWException("ret: " + ret);
+			throw new RegisterException("register buffer ring " + groupId + " ret: " + ret);
 		}
-		readIOCtxMap.put(reqId, new ReadIOCtx(reqId, new byte[][]{bytes}, new int[]{ bufPos} , new ByteBuffer[]{ buf }));
-		return reqId;
 	}
-	
-	public long prepareReads(FileDescriptor fd, long offset, byte[][] bytes, int[] bufPos, int[] len) {
-		int fd0 = getFd(fd);
-		long reqId = requestID.incrementAndGet();
-		long[] bas = new long[bytes.length];
-		ByteBuffer[] dbs = prepareDirectBuf(false, bytes, bufPos, len, bas);
-		int ret = _native.prepareReads(reqId, 0, fd0, bas, len, offset);
-		if(ret != 0) {
-			freeDirectBuffer(dbs);
-			throw new PrepareRWException("ret: " + ret);
+
+	void unregisterBufRing(int groupId) {
+		int ret = _native.unregisterBufRing(groupId);
+		if (ret != 0) {
+			throw new RegisterException("unregister buffer ring " + groupId + " ret: " + ret);
 		}
-		readIOCtxMap.put(reqId, new ReadIOCtx(reqId, bytes, bufPos, dbs));
+	}
+
+	/**
+	 * recvmsg(2) with a struct msghdr at msghdr, caller keep it and its buffers alive until completed
+	 */
+	public long prepareRecvMsg(FileDescriptor fd, long msghdr, int flags, Object attachment) {
+		long reqId = acquire(attachment);
+		prep(Op.RECVMSG, fd, msghdr, 1, 0, flags, 0, reqId);
 		return reqId;
 	}
-	
-	
-	public long prepareWrite(FileDescriptor fd, long offset, byte[] bytes, int bufPos, int len) {
-		int fd0 = getFd(fd);
-		long reqId = requestID.incrementAndGet();
-		ByteBuffer buf = ByteBuffer.allocateDirect(len);
-		buf.put(bytes, bufPos, len);
-		int ret = _native.prepareWrite(reqId, 0, fd0, ((DirectBuffer) buf).address(), len, offset);
-		if(ret != 0) {
-			((DirectBuffer)buf).cleaner().clean();
-			throw new PrepareRWException("ret: " + ret);
+
+	/**
+	 * sendmsg(2) with a struct msghdr at msghdr, caller keep it and its buffers alive until completed
+	 */
+	public long prepareSendMsg(FileDescriptor fd, long msghdr, int flags, Object attachment) {
+		long reqId = acquire(attachment);
+		prep(Op.SENDMSG, fd, msghdr, 1, 0, flags, 0, reqId);
+		return reqId;
+	}
+
+	/**
+	 * one shot poll of fd, result is the ready events
+	 * @param events mask of {@link Poll}
+	 */
+	public long preparePollAdd(FileDescriptor fd, int events) {
+		return preparePollAdd(fd, events, null);
+	}
+
+	public long preparePollAdd(FileDescriptor fd, int events, Object attachment) {
+		long reqId = acquire(attachment);
+		// poll32_events share the rw_flags field
+		prep(Op.POLL_ADD, fd, 0, 0, 0, events, 0, reqId);
+		return reqId;
+	}
+
+	/**
+	 * close fd in the ring, fd is owned by the ring from now on: it is unregistered from the {@link FileTable}
+	 * and invalidated, so it is not registered again and requests issued with it fail with -EBADF
+	 */
+	public long prepareClose(FileDescriptor fd, Object attachment) {
+		int raw = getFd(fd);
+		long reqId = acquire(attachment);
+		prep(Op.CLOSE, 0, raw, 0, 0, 0, 0, 0, reqId);
+		FileTable ft = files;
+		if (ft != null) {
+			ft.unregister(fd);
 		}
+		invalidate(fd);
 		return reqId;
 	}
-	
-	public long prepareWrites(FileDescriptor fd, long offset, byte[][] bytes, int[] bufPos, int[] len) {
-		int fd0 = getFd(fd);
-		long reqId = requestID.incrementAndGet();
-		long[] bas = new long[bytes.length];
-		ByteBuffer[] dbs = prepareDirectBuf(true, bytes, bufPos, len, bas);
-		int ret = _native.prepareWrites(reqId, 0, fd0, bas, len, offset);
-		if(ret != 0) {
-			freeDirectBuffer(dbs);
-			throw new PrepareRWException("ret: " + ret);
+
+	/**
+	 * take a request-Id, the SQE must be prepared with it or released by {@link #prepareFailed(long, int)}
+	 */
+	long acquire(Object attachment) {
+		if (shutdown) {
+			throw new PrepareRWException("ring shut down");
+		}
+		long reqId = requests.acquire(attachment);
+		if (reqId < 0) {
+			throw new PrepareRWException("too many in-flight requests: " + requests.capacity());
 		}
 		return reqId;
 	}
+
+	private void track(long reqId, IOCtx ctx, Object attachment) {
+		ctx.attachment = attachment;
+		requests.set(reqId, ctx);
+	}
+
+	/**
+	 * release request-Id and buffers of a request which SQE not prepared
+	 */
+	PrepareRWException prepareFailed(long reqId, int ret) {
+		RingMetrics m = metrics;
+		if (m != null) {
+			m.unprepared(reqId);
+		}
+		Object v = requests.release(reqId);
+		if (v instanceof IOCtx) {
+			freeCtx((IOCtx) v);
+		}
+		return new PrepareRWException("ret: " + ret);
+	}
+
+	private void checkFixedBuffer(FixedBuffer buf, int bufPos, int len) {
+		if (buf.pool.ring() != this) {
+			throw new IllegalArgumentException("buffer " + buf.index + " not registered to this ring");
+		}
+		if (bufPos < 0 || len < 0 || bufPos + len > buf.capacity) {
+			throw new IndexOutOfBoundsException("bufPos: " + bufPos + ", len: " + len + ", capacity: " + buf.capacity);
+		}
+	}
+
+	/**
+	 * in O_DIRECT mode, offset, len and address must be block aligned
+	 */
+	void checkAligned(long offset, long address, int len) {
+		if (blockSize != 0 && ((offset | address | len) & (blockSize - 1)) != 0) {
+			throw new IllegalArgumentException("O_DIRECT needs " + blockSize + " aligned I/O, offset: " + offset
+				+ ", address: 0x" + Long.toHexString(address) + ", len: " + len);
+		}
+	}
+
+	private void checkAligned(long offset, ByteBuffer[] bufs) {
+		if (blockSize == 0) {
+			return;
+		}
+		for (ByteBuffer b : bufs) {
+			if (b.isDirect()) {
+				checkAligned(offset, address(b) + b.position(), b.remaining());
+			} else {
+				checkBounced(offset, b.remaining());
+			}
+		}
+	}
+
+	private void checkBounced(long offset, int[] lens) {
+		if (blockSize == 0) {
+			return;
+		}
+		for (int len : lens) {
+			checkBounced(offset, len);
+		}
+	}
+
+	// bounce buffers are aligned up to the max size class, larger ones come from allocateDirect
+	private void checkBounced(long offset, int len) {
+		if (blockSize == 0) {
+			return;
+		}
+		if (len > (1 << DirectBufferArena.MAX_CLASS_SHIFT)) {
+			throw new IllegalArgumentException("O_DIRECT bounce buffer of " + len + " bytes, use an aligned direct buffer, see DirectIO.allocate");
+		}
+		checkAligned(offset, 0, len);
+	}
+
+	/**
+	 * register direct buffers as fixed buffers, index of buffer in the array is the buf_index
+	 * see {@link FixedBufferPool} for the high level usage
+	 */
+	public void registerBuffers(ByteBuffer[] buffers) {
+		long[] addrs = new long[buffers.length], lens = new long[buffers.length];
+		for (int i = 0; i < buffers.length; i++) {
+			addrs[i] = address(buffers[i]);
+			lens[i] = buffers[i].capacity();
+		}
+		int ret = _native.registerBuffers(addrs, lens);
+		if (ret != 0) {
+			throw new RegisterException("register buffers ret: " + ret);
+		}
+	}
+
+	public void unregisterBuffers() {
+		int ret = _native.unregisterBuffers();
+		if (ret != 0) {
+			throw new RegisterException("unregister buffers ret: " + ret);
+		}
+	}
 	
-	
-	
-	
+	/**
+	 * submit prepared requests, with submit queue enabled, drain the queue if no other thread is draining it
+	 * @return number of requests submitted
+	 */
 	public int submit() {
-     	int ret = _native.submit();
+		if (shutdown) {
+			throw new SubmitException("ring shut down");
+		}
+		SubmitQueue queue = submitQueue;
+		if (queue != null) {
+			return queue.drain(this);
+		}
+     	int ret = direct != null ? direct.submit() : _native.submit();
      	if(ret < 0) {
      		throw new SubmitException("ret: " + ret);
 		}
+		// the kernel takes SQEs in order, a fence is passed once this many are taken
+		sqSubmitted += ret;
+		RingMetrics m = metrics;
+		if (m != null) {
+			m.submitted(ret);
+		}
 		return ret;
      }
      
      public IOResult waitCQEntry() {
-		 IOResult result = waitCQEntries(1);
-		 postProcessRead(result);
-		 return result;
+		 // post processed by waitCQEntries
+		 return waitCQEntries(1);
      }
 	
 	public IOResult waitCQEntries(int nr) {
@@ -259,14 +1824,92 @@ public class IoURing {
 		 return result;
      }
      
+	/**
+	 * wait for at least one completion (if wait), then reap up to reqIds.length completions
+	 * in one native call and mark them seen, no {@link #seenCQEntry(int)} needed.
+	 *
+	 * results are filled into the caller supplied arrays, nothing allocated per completion.
+	 * @return number of completions reaped, 0 if interrupted
+	 */
+	public int reapCQEntries(long[] reqIds, long[] retCodes, boolean wait) {
+		return reapCQEntries(reqIds, retCodes, null, wait);
+	}
+
+	/**
+	 * same as {@link #reapCQEntries(long[], long[], boolean)}, also fill attachment of each request if attachments not null
+	 */
+	public int reapCQEntries(long[] reqIds, long[] retCodes, Object[] attachments, boolean wait) {
+		return reapCQEntries(reqIds, retCodes, null, attachments, wait);
+	}
+
+	/**
+	 * same as {@link #reapCQEntries(long[], long[], Object[], boolean)}, also fill CQE flags if cqeFlags not null.
+	 * request-Id of a CQE with {@link CqeFlags#MORE} stay in use for the coming CQEs.
+	 */
+	public int reapCQEntries(long[] reqIds, long[] retCodes, int[] cqeFlags, Object[] attachments, boolean wait) {
+		int max = Math.min(reqIds.length, retCodes.length);
+		if (attachments != null) {
+			max = Math.min(max, attachments.length);
+		}
+		if (cqeFlags != null) {
+			max = Math.min(max, cqeFlags.length);
+		}
+		int[] flags = cqeFlags != null ? cqeFlags : reapFlags(max);
+		int cnt = direct != null ? direct.reap(reqIds, retCodes, flags, max, wait ? 1 : 0)
+			: _native.reapCQEntries(reqIds, retCodes, flags, max, wait ? 1 : 0);
+		if (cnt < 0) {
+			if (cnt == -EINTR) {
+				return 0;
+			}
+			throw new WaitCQEException("ret: " + cnt);
+		}
+		RingMetrics m = metrics;
+		if (m != null && cnt > 0) {
+			m.reaped(cnt);
+		}
+		for (int i = 0; i < cnt; i++) {
+			Object attachment = reqIds[i] == SubmitQueue.PADDING_REQ_ID ? null
+				: CqeFlags.hasMore(flags[i]) ? requests.get(reqIds[i]) : postProcess(reqIds[i], retCodes[i]);
+			if (attachments != null) {
+				attachments[i] = attachment;
+			}
+		}
+		return cnt;
+	}
+     
+	// flags of CQEs when caller don't want them, only touched by the reaping thread
+	private int[] reapFlags = new int[0];
+
+	private int[] reapFlags(int n) {
+		if (reapFlags.length < n) {
+			reapFlags = new int[n];
+		}
+		return reapFlags;
+	}
+     
      private void postProcessRead(IOResult ioResult) {
-		 ReadIOCtx ctx = readIOCtxMap.remove(ioResult.reqId);
-		 if(ctx != null) {
-		 	if(ioResult.res > 0) {
-		 		ctx.prepareResult(ioResult.res);
+		 postProcess(ioResult.reqId, ioResult.res);
+     }
+
+	/**
+	 * release request-Id, copy read result and free bounce buffers
+	 * @return attachment of the request
+	 */
+     private Object postProcess(long reqId, long res) {
+		 RingMetrics m = metrics;
+		 if (m != null) {
+		 	m.completed(reqId, res);
+		 }
+		 Object v = requests.release(reqId);
+		 if(v instanceof IOCtx) {
+		 	IOCtx ctx = (IOCtx) v;
+		 	if(res > 0) {
+		 		ctx.prepareResult(res);
 			}
-			freeDirectBuffer(ctx.directBuffer);
+			freeCtx(ctx);
+			return ctx.attachment;
 		 }
+		 return v;
      }
      
      private ByteBuffer[] prepareDirectBuf(boolean copy, byte[][] bytes, int[] bufPos, int[] len, long[] bas) {
@@ -275,8 +1918,8 @@ public class IoURing {
 		 for(int i=0; i< cnt; i++) {
 			 byte[] b = bytes[i];
 			 int bl = len[i];
-			 ByteBuffer db = dbs[i] = ByteBuffer.allocateDirect(bl);
-			 bas[i] = ((DirectBuffer)db).address();
+			 ByteBuffer db = dbs[i] = arena.allocate(bl);
+			 bas[i] = address(db);
 			 if (copy) {
 			 	db.put(b, bufPos[i], len[i]);
 			 }
@@ -284,9 +1927,44 @@ public class IoURing {
 		 return dbs;
      }
 	
+	private void freeCtx(IOCtx ctx) {
+		freeDirectBuffer(ctx.directBuffer);
+		if (ctx.iovecs != null) {
+			arena.free(ctx.iovecs);
+		}
+	}
+
 	private void freeDirectBuffer(ByteBuffer[] dbs) {
 		for(int i=0; i< dbs.length; i++ ) {
-			((DirectBuffer)dbs[i]).cleaner().clean();
+			if (dbs[i] != null) {
+				arena.free(dbs[i]);
+			}
+		}
+	}
+
+	/**
+	 * fill address and length of buffers, heap buffer get a bounce buffer from arena
+	 * @return bounce buffers, element is null for direct buffer
+	 */
+	private ByteBuffer[] prepareBufferAddress(boolean copy, ByteBuffer[] bufs, long[] bas, int[] lens) {
+		ByteBuffer[] bounce = NO_BOUNCE;
+		for (int i = 0; i < bufs.length; i++) {
+			ByteBuffer b = bufs[i];
+			lens[i] = b.remaining();
+			if (b.isDirect()) {
+				bas[i] = address(b) + b.position();
+			} else {
+				if (bounce == NO_BOUNCE) {
+					bounce = new ByteBuffer[bufs.length];
+				}
+				ByteBuffer db = bounce[i] = arena.allocate(lens[i]);
+				bas[i] = address(db);
+				if (copy) {
+					db.put(b.duplicate());
+					db.flip();
+				}
+			}
 		}
+		return bounce;
 	}
 }
@@ -0,0 +1,461 @@
+package org.chinaxing;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link AsynchronousFileChannel} over an {@link AsyncIO}, a drop-in for
+ * {@code AsynchronousFileChannel.open} whose reads and writes are io_uring requests instead of
+ * blocking calls on a thread pool
+ *
+ * 1) read/write go through the ring as IORING_OP_READ/WRITE (readv/writev on old kernels),
+ *    direct buffers are handed to kernel as is, heap buffers bounce through a direct buffer
+ * 2) completion handlers run on the completion loop of the AsyncIO, a batch of CQEs is reaped by one call
+ *    and requests issued by the handlers are submitted once per batch. handlers must not block
+ * 3) futures of read/write can be cancelled: the future is cancelled at once and the request is cancelled
+ *    in kernel (IORING_OP_ASYNC_CANCEL). like {@link java.nio.channels.AsynchronousChannel} the buffer of a
+ *    cancelled request should be discarded, the kernel may still fill it until the request completes;
+ *    the channel keeps its bounce buffer and the file until then
+ * 4) force is an fsync/fdatasync on the ring, size/truncate/locks use the underline FileChannel
+ *
+ * requests issued before the channel is closed still complete: they may still wait in the submit queue,
+ * where nothing holds the file, so the file is unregistered and closed by the last of them to complete,
+ * not by {@link #close()} itself. the AsyncIO is shared, it is not shut down with the channel.
+ */
+public class IoURingFileChannel extends AsynchronousFileChannel {
+	private static final int ECANCELED = 125;
+
+	private final AsyncIO io;
+	private final IoURing ring;
+	private final FileChannel channel;
+	private final FileDescriptor fd;
+	private final boolean readable;
+	private final boolean writable;
+	private volatile BlockingIO blocking;
+	private final AtomicBoolean closed = new AtomicBoolean();
+	// requests using fd plus one of the channel itself until closed, fd is released at 0
+	private final AtomicInteger refs = new AtomicInteger(1);
+
+	private IoURingFileChannel(AsyncIO io, FileChannel channel, boolean readable, boolean writable) {
+		this.io = io;
+		this.ring = io.ring();
+		this.channel = channel;
+		this.fd = IoURing.descriptorOf(channel);
+		this.readable = readable;
+		this.writable = writable;
+	}
+
+	/**
+	 * open a file like {@link AsynchronousFileChannel#open(Path, OpenOption...)}, io done by io
+	 */
+	public static IoURingFileChannel open(AsyncIO io, Path file, OpenOption... options) throws IOException {
+		Set<OpenOption> set = new HashSet<>();
+		Collections.addAll(set, options);
+		return open(io, file, set);
+	}
+
+	/**
+	 * open a file like {@link AsynchronousFileChannel#open(Path, Set, java.util.concurrent.ExecutorService, FileAttribute[])},
+	 * io done by io instead of an executor
+	 */
+	public static IoURingFileChannel open(AsyncIO io, Path file, Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+		throws IOException {
+		if (options.contains(StandardOpenOption.APPEND)) {
+			throw new UnsupportedOperationException("APPEND not allowed");
+		}
+		boolean writable = options.contains(StandardOpenOption.WRITE);
+		boolean readable = options.contains(StandardOpenOption.READ) || !writable;
+		return new IoURingFileChannel(io, FileChannel.open(file, options, attrs), readable, writable);
+	}
+
+	public AsyncIO asyncIO() {
+		return io;
+	}
+
+	@Override
+	public long size() throws IOException {
+		ensureOpen();
+		return channel.size();
+	}
+
+	@Override
+	public AsynchronousFileChannel truncate(long size) throws IOException {
+		if (!writable) {
+			throw new NonWritableChannelException();
+		}
+		ensureOpen();
+		channel.truncate(size);
+		return this;
+	}
+
+	/**
+	 * fsync (metaData) or fdatasync on the ring, the caller blocks until it completes.
+	 * on the completion loop, which can't wait for itself, it is a plain blocking call
+	 */
+	@Override
+	public void force(boolean metaData) throws IOException {
+		if (!retain()) {
+			throw new ClosedChannelException();
+		}
+		try {
+			if (io.inCompletionLoop()) {
+				channel.force(metaData);
+				return;
+			}
+			long res = blocking().fsync(fd, metaData ? 0 : IoURing.FsyncFlags.DATASYNC);
+			if (res < 0) {
+				throw new IOException("fsync errno: " + -res);
+			}
+		} finally {
+			release();
+		}
+	}
+
+	private BlockingIO blocking() {
+		BlockingIO b = blocking;
+		if (b == null) {
+			blocking = b = new BlockingIO(io);
+		}
+		return b;
+	}
+
+	@Override
+	public <A> void read(ByteBuffer dst, long position, A attachment, CompletionHandler<Integer, ? super A> handler) {
+		if (handler == null) {
+			throw new NullPointerException("handler");
+		}
+		read(dst, position, new Request<A>(this, true, position, attachment, handler, null));
+	}
+
+	/**
+	 * read into dst [position, limit), position of dst advanced by bytes read, -1 at end of file
+	 */
+	@Override
+	public Future<Integer> read(ByteBuffer dst, long position) {
+		IoFuture future = new IoFuture(io);
+		read(dst, position, new Request<Void>(this, true, position, null, null, future));
+		return new Result(future);
+	}
+
+	private void read(ByteBuffer dst, long position, Request<?> request) {
+		if (dst.isReadOnly()) {
+			throw new IllegalArgumentException("Read-only buffer");
+		}
+		if (position < 0) {
+			throw new IllegalArgumentException("Negative position");
+		}
+		if (!readable) {
+			throw new NonReadableChannelException();
+		}
+		if (!dst.hasRemaining()) {
+			request.done(0);
+			return;
+		}
+		issue(request, () -> ring.prepareRead(fd, position, dst, request));
+	}
+
+	@Override
+	public <A> void write(ByteBuffer src, long position, A attachment, CompletionHandler<Integer, ? super A> handler) {
+		if (handler == null) {
+			throw new NullPointerException("handler");
+		}
+		write(src, position, new Request<A>(this, false, position, attachment, handler, null));
+	}
+
+	/**
+	 * write src [position, limit), position of src advanced by bytes written
+	 */
+	@Override
+	public Future<Integer> write(ByteBuffer src, long position) {
+		IoFuture future = new IoFuture(io);
+		write(src, position, new Request<Void>(this, false, position, null, null, future));
+		return new Result(future);
+	}
+
+	private void write(ByteBuffer src, long position, Request<?> request) {
+		if (position < 0) {
+			throw new IllegalArgumentException("Negative position");
+		}
+		if (!writable) {
+			throw new NonWritableChannelException();
+		}
+		if (!src.hasRemaining()) {
+			request.done(0);
+			return;
+		}
+		issue(request, () -> ring.prepareWrite(fd, position, src, request));
+	}
+
+	private interface Prepare {
+		long prepare();
+	}
+
+	private void issue(Request<?> request, Prepare prepare) {
+		if (!retain()) {
+			request.failed(new ClosedChannelException());
+			return;
+		}
+		io.admitAndSubmit(1, () -> {
+			if (closed.get()) {
+				// closed while waiting for admission
+				release();
+				request.failed(new ClosedChannelException());
+				return;
+			}
+			request.issued(prepare.prepare());
+		}, e -> {
+			release();
+			request.failed(new IOException("prepare " + (request.read ? "read" : "write") + " failed", e));
+		});
+	}
+
+	@Override
+	public <A> void lock(long position, long size, boolean shared, A attachment, CompletionHandler<FileLock, ? super A> handler) {
+		if (handler == null) {
+			throw new NullPointerException("handler");
+		}
+		lock(position, size, shared).whenComplete((lock, e) -> {
+			if (e == null) {
+				handler.completed(lock, attachment);
+			} else {
+				handler.failed(e instanceof CompletionException ? e.getCause() : e, attachment);
+			}
+		});
+	}
+
+	/**
+	 * no io_uring op for file locks, the blocking lock runs on the common pool
+	 */
+	@Override
+	public CompletableFuture<FileLock> lock(long position, long size, boolean shared) {
+		checkLock(shared);
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return new Lock(channel.lock(position, size, shared));
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+
+	@Override
+	public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+		checkLock(shared);
+		FileLock lock = channel.tryLock(position, size, shared);
+		return lock == null ? null : new Lock(lock);
+	}
+
+	private void checkLock(boolean shared) {
+		if (shared && !readable) {
+			throw new NonReadableChannelException();
+		}
+		if (!shared && !writable) {
+			throw new NonWritableChannelException();
+		}
+	}
+
+	/**
+	 * lock of the FileChannel, acquired by this channel
+	 */
+	private final class Lock extends FileLock {
+		private final FileLock lock;
+
+		Lock(FileLock lock) {
+			super(IoURingFileChannel.this, lock.position(), lock.size(), lock.isShared());
+			this.lock = lock;
+		}
+
+		@Override
+		public boolean isValid() {
+			return lock.isValid();
+		}
+
+		@Override
+		public void release() throws IOException {
+			lock.release();
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed.get();
+	}
+
+	private void ensureOpen() throws ClosedChannelException {
+		if (closed.get()) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	/**
+	 * close the channel, new requests fail with {@link ClosedChannelException}.
+	 * the file is unregistered and closed now if no request is in flight, else by the last one completed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed.compareAndSet(false, true) && refs.decrementAndGet() == 0) {
+			releaseFile();
+		}
+	}
+
+	/**
+	 * take a reference of fd for a request
+	 * @return false if the channel is closed
+	 */
+	private boolean retain() {
+		while (true) {
+			int r = refs.get();
+			if (r == 0 || closed.get()) {
+				return false;
+			}
+			if (refs.compareAndSet(r, r + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private void release() {
+		if (refs.decrementAndGet() == 0) {
+			try {
+				releaseFile();
+			} catch (IOException e) {
+				// nobody to report to, the channel is closed already
+			}
+		}
+	}
+
+	private void releaseFile() throws IOException {
+		FileTable files = ring.fileTable();
+		if (files != null) {
+			files.unregister(fd);
+		}
+		channel.close();
+	}
+
+	/**
+	 * one read/write, completed on the completion loop to either the handler or the future
+	 */
+	private static final class Request<A> implements AsyncIO.CompletionHandler {
+		private final IoURingFileChannel ch;
+		private final boolean read;
+		private final long position;
+		private final A attachment;
+		private final CompletionHandler<Integer, ? super A> handler;
+		private final IoFuture future;
+
+		Request(IoURingFileChannel ch, boolean read, long position, A attachment, CompletionHandler<Integer, ? super A> handler, IoFuture future) {
+			this.ch = ch;
+			this.read = read;
+			this.position = position;
+			this.attachment = attachment;
+			this.handler = handler;
+			this.future = future;
+		}
+
+		void issued(long reqId) {
+			if (future != null) {
+				future.issued(reqId);
+			}
+		}
+
+		@Override
+		public void completed(long res, int cqeFlags) {
+			ch.release();
+			if (res > 0) {
+				done((int) res);
+			} else if (res == 0) {
+				// end of file
+				done(read ? -1 : 0);
+			} else if (res == -ECANCELED && future != null && future.isCancelRequested()) {
+				future.completed(res);
+			} else {
+				failed(new IOException((read ? "read" : "write") + " at " + position + " errno: " + -res));
+			}
+		}
+
+		void done(int n) {
+			if (handler != null) {
+				handler.completed(n, attachment);
+			} else {
+				future.complete((long) n);
+			}
+		}
+
+		void failed(Throwable e) {
+			if (handler != null) {
+				handler.failed(e, attachment);
+			} else {
+				future.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Future of a read/write, an int view of its {@link IoFuture}.
+	 * cancel completes the view at once, the IoFuture waits for the CQE, which releases the buffers and the file
+	 */
+	private static final class Result implements Future<Integer> {
+		private final IoFuture future;
+		private final CompletableFuture<Integer> view;
+
+		Result(IoFuture future) {
+			this.future = future;
+			this.view = future.thenApply(Long::intValue);
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (view.isDone()) {
+				return view.isCancelled();
+			}
+			if (!view.cancel(mayInterruptIfRunning)) {
+				return false;
+			}
+			future.cancel(mayInterruptIfRunning);
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return view.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return view.isDone();
+		}
+
+		@Override
+		public Integer get() throws InterruptedException, ExecutionException {
+			return view.get();
+		}
+
+		@Override
+		public Integer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			return view.get(timeout, unit);
+		}
+	}
+}
@@ -5,9 +5,9 @@ package org.chinaxing;
  *
  * simply expose liburing api to java
  *
- * this is a low level and raw interface
+ * this is a low level and raw interface, the jni {@link RingBackend}
  */
-public class IoURingNative {
+public class IoURingNative implements RingBackend {
 	// holder of pointer of io_uring instance
 	private long _ring;
 
@@ -20,6 +20,17 @@ public class IoURingNative {
 
 	private final int queueDepth;
 	private final long flags;
+	// cpu of the SQ poll thread when SQ_AFF, -1 if not
+	private final int sqThreadCpu;
+	// ms before SQ poll thread go idle, 0 for kernel default
+	private final int sqThreadIdle;
+	// CQ size when CQSIZE, 0 for twice of queueDepth
+	private final int cqEntries;
+	// ring fd to share async workers with when ATTACH_WQ, -1 if not
+	private final int wqFd;
+	// created on first use, liburing must not touch the SQ after
+	private DirectRing directRing;
+	private boolean directRingCreated;
 	/**
 	 * Construct a IoURing instance
 	 *
@@ -28,19 +39,60 @@ public class IoURingNative {
 	 * @param flags
 	 */
 	public IoURingNative(int queueDepth, long flags) {
+		this(queueDepth, flags, -1);
+	}
+
+	public IoURingNative(int queueDepth, long flags, int wqFd) {
+		this(queueDepth, flags, -1, 0, 0, wqFd);
+	}
+
+	public IoURingNative(int queueDepth, long flags, int sqThreadCpu, int sqThreadIdle, int cqEntries, int wqFd) {
 		this.queueDepth = queueDepth;
 		this.flags = flags;
+		this.sqThreadCpu = sqThreadCpu;
+		this.sqThreadIdle = sqThreadIdle;
+		this.cqEntries = cqEntries;
+		this.wqFd = wqFd;
 	}
 
-    // int io_uring_queue_init(unsigned entries, struct io_uring *ring, unsigned flags)
-	private native int init0(int queueDepth, long flags);
+    // int io_uring_queue_init_params(unsigned entries, struct io_uring *ring, struct io_uring_params *p)
+	private native int init0(int queueDepth, long flags, int sqThreadCpu, int sqThreadIdle, int cqEntries, int wqFd);
 
 	public void init() {
-		int ret = init0(queueDepth, flags);
+		int ret = init0(queueDepth, flags, sqThreadCpu, sqThreadIdle, cqEntries, wqFd);
 		if (ret < 0) {
 			throw new RuntimeException("initialize ret :" + ret);
 		}
 	}
+	// fd of the io_uring instance
+	public native int ringFd();
+	// io_uring_params.features (IORING_FEAT_*) reported by the kernel
+	public native int features();
+	// actual CQ size
+	public native int cqEntries();
+	/**
+	 * addresses of the mmapped SQ/CQ, see {@link DirectRing} for the layout
+	 * @return 0 success, -EINVAL if layout too short
+	 */
+	public native int ringLayout(long[] layout);
+	/**
+	 * io_uring_enter(2) on ringFd, bypass liburing
+	 * @return SQEs consumed, or -errno
+	 */
+	private static native int enter0(int ringFd, int toSubmit, int minComplete, int flags, long arg, int argSize);
+
+	public int enter(int ringFd, int toSubmit, int minComplete, int flags, long arg, int argSize) {
+		return enter0(ringFd, toSubmit, minComplete, flags, arg, argSize);
+	}
+
+	public synchronized DirectRing directRing() {
+		if (!directRingCreated) {
+			directRing = DirectRing.create(this);
+			directRingCreated = true;
+		}
+		return directRing;
+	}
+
     //void io_uring_queue_exit(struct io_uring *ring)
 	private native void exit0();
 	public void exit() {
@@ -56,7 +108,14 @@ public class IoURingNative {
     public native int registerBuffers(long[] buffers, long[] bufferLengths); // 0 success
     public native int unregisterBuffers(); // 0 success
     public native int registerFiles(int[] fds);
+    // extern int io_uring_register_files_update(struct io_uring *ring, unsigned off, const int *files, unsigned nr_files)
+    // fd -1 clear the slot, return number of slots updated
+    public native int registerFilesUpdate(int offset, int[] fds);
     public native int unregisterFiles();
+    // extern int io_uring_register_buf_ring(struct io_uring *ring, struct io_uring_buf_reg *reg, unsigned int flags)
+    // ring memory is page aligned and owned by java, see BufferRing
+    public native int registerBufRing(long ringAddr, int entries, int bgid);
+    public native int unregisterBufRing(int bgid);
 
     /**  ------------- PREPARE READ/WRITE -----------
 	 *
@@ -87,6 +146,22 @@ public class IoURingNative {
 
 	public native int prepareFsync(long reqId, long flags, int fd, long syncFlags);
 
+	/**
+	 * prepare one SQE of any opcode (io_uring_prep_rw), as is. {@link IoURing} turns READ/WRITE into
+	 * READV/WRITEV on old kernel
+	 * @return 0 success, -1 if SQ is full
+	 */
+	public native int prepare(int opcode, int flags, int ioprio, int fd, long addr, int len, long offset, int rwFlags, int bufIndex, long reqId);
+
+	/**
+	 * prepare count SQEs from the descriptors at descs (see {@link SubmissionBatch} for layout),
+	 * prepared as is like {@link #prepare},
+	 * stop when SQ is full.
+	 * @param submitRet if not null, submit when any SQE prepared and store the submit result in submitRet[0]
+	 * @return number of SQEs prepared
+	 */
+	public native int prepareBatch(long descs, int count, int[] submitRet);
+
     /** ------------------------ REQUEST / RESPONSE ------------------ **/
     // extern struct io_uring_sqe *io_uring_get_sqe(struct io_uring *ring);
     // static inline void io_uring_sqe_set_flags(struct io_uring_sqe *sqe, unsigned flags)
@@ -113,4 +188,10 @@ public class IoURingNative {
     public native int waitCQEntries(long[] reqIds, long[] retCodes, int waitNr);
     public native int peekCQEntries(long[] reqIds, long[] retCodes, int count);
     public native void advanceCQ(int nr);
+	/**
+	 * wait for at least waitNr CQEs (no wait if 0), then copy up to count CQEs and mark them seen
+	 * @param cqeFlags filled with flags of each CQE if not null
+	 * @return number of CQEs copied, or negative errno of wait
+	 */
+    public native int reapCQEntries(long[] reqIds, long[] retCodes, int[] cqeFlags, int count, int waitNr);
 }
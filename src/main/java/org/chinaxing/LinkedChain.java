@@ -0,0 +1,202 @@
+package org.chinaxing;
+
+import org.chinaxing.exception.PrepareRWException;
+
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Requests linked by IOSQE_IO_LINK, the kernel start a link only after the previous one completed
+ *
+ * e.g. append a record and make it durable in one submit, without waiting the write in user space:
+ * <pre>
+ *   io.newChain()
+ *     .write(fd, pos, header)
+ *     .write(fd, pos + headerLen, body)
+ *     .fsync(fd, IoURing.FsyncFlags.DATASYNC)
+ *     .submit()     // future of per-link results
+ * </pre>
+ *
+ * a failed (or short read/write) link cancel the rest of the chain, their results are -ECANCELED,
+ * with {@link AsyncIO#newHardChain()} the rest still run.
+ * the chain is prepared all or nothing, it is never split between two submits.
+ * links only hold their arguments until the chain is admitted, request-Ids and bounce buffers
+ * are taken when it is prepared.
+ *
+ * not thread safe, build and submit from one thread.
+ */
+public class LinkedChain {
+	public static final int ECANCELED = 125;
+
+	private final AsyncIO io;
+	private final IoURing ring;
+	private final boolean hard;
+	private final int maxLinks;
+	private final List<Spec> links = new ArrayList<>();
+	private long[] reqIds;
+	private final CompletableFuture<long[]> future = new CompletableFuture<>();
+	private long[] results;
+	private int remaining;
+	private boolean submitted;
+
+	LinkedChain(AsyncIO io, boolean hard, int maxLinks) {
+		this.io = io;
+		this.ring = io.ring();
+		this.hard = hard;
+		// a chain must fit in the SQ
+		if (maxLinks <= 0 || maxLinks > ring.queueDepth()) {
+			throw new IllegalArgumentException("maxLinks must be in [1, " + ring.queueDepth() + "]: " + maxLinks);
+		}
+		this.maxLinks = maxLinks;
+	}
+
+	/**
+	 * write src [position, limit) at offset, position advanced by bytes written
+	 */
+	public LinkedChain write(FileDescriptor fd, long offset, ByteBuffer src) {
+		return writes(fd, offset, new ByteBuffer[]{ src });
+	}
+
+	/**
+	 * gather write srcs as one link (writev)
+	 */
+	public LinkedChain writes(FileDescriptor fd, long offset, ByteBuffer[] srcs) {
+		return add(new Spec(false, fd, offset, srcs, 0));
+	}
+
+	/**
+	 * read into dst [position, limit) at offset, position advanced by bytes read
+	 */
+	public LinkedChain read(FileDescriptor fd, long offset, ByteBuffer dst) {
+		return reads(fd, offset, new ByteBuffer[]{ dst });
+	}
+
+	/**
+	 * scatter read into dsts as one link (readv)
+	 */
+	public LinkedChain reads(FileDescriptor fd, long offset, ByteBuffer[] dsts) {
+		return add(new Spec(true, fd, offset, dsts, 0));
+	}
+
+	/**
+	 * @param fsyncFlags 0 or {@link IoURing.FsyncFlags#DATASYNC}
+	 */
+	public LinkedChain fsync(FileDescriptor fd, int fsyncFlags) {
+		return add(new Spec(false, fd, 0, null, fsyncFlags));
+	}
+
+	public int size() {
+		return links.size();
+	}
+
+	private LinkedChain add(Spec link) {
+		if (submitted) {
+			throw new IllegalStateException("chain submitted");
+		}
+		if (links.size() == maxLinks) {
+			throw new IllegalStateException("chain longer than max links: " + maxLinks);
+		}
+		links.add(link);
+		return this;
+	}
+
+	/**
+	 * submit the chain
+	 * @return future completed on the completion loop when every link completed,
+	 *   with results in link order: bytes transferred, 0, or -errno
+	 */
+	public CompletableFuture<long[]> submit() {
+		if (submitted) {
+			throw new IllegalStateException("chain submitted");
+		}
+		submitted = true;
+		int n = links.size();
+		results = new long[n];
+		remaining = n;
+		if (n == 0) {
+			future.complete(results);
+			return future;
+		}
+		try {
+			io.admission().admit(n, future, this::prepare);
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private void prepare() {
+		// per thread batch of the ring, empty between chains
+		SubmissionBatch batch = ring.chainBatch();
+		reqIds = new long[links.size()];
+		try {
+			for (int i = 0; i < reqIds.length; i++) {
+				if (i > 0) {
+					batch.link(hard);
+				}
+				Spec l = links.get(i);
+				reqIds[i] = l.bufs == null
+					? ring.addFsync(batch, l.fd, l.fsyncFlags, new Link(i))
+					: ring.addReadWrite(batch, l.read, l.fd, l.offset, l.bufs, new Link(i));
+			}
+			if (io.inCompletionLoop()) {
+				// submitted by the loop after this reap batch
+				batch.prepare();
+			} else {
+				batch.submit();
+			}
+		} catch (RuntimeException e) {
+			drop(batch);
+			throw e;
+		}
+		if (batch.size() > 0) {
+			drop(batch);
+			throw new PrepareRWException("submission queue full, chain of " + results.length + " not prepared");
+		}
+	}
+
+	// chain is never partially prepared, release every link added
+	private void drop(SubmissionBatch batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			ring.prepareFailed(reqIds[i], 0);
+		}
+		batch.clear();
+	}
+
+	// arguments of a link, fsync if bufs is null
+	private static final class Spec {
+		final boolean read;
+		final FileDescriptor fd;
+		final long offset;
+		final ByteBuffer[] bufs;
+		final int fsyncFlags;
+
+		Spec(boolean read, FileDescriptor fd, long offset, ByteBuffer[] bufs, int fsyncFlags) {
+			this.read = read;
+			this.fd = fd;
+			this.offset = offset;
+			this.bufs = bufs;
+			this.fsyncFlags = fsyncFlags;
+		}
+	}
+
+	private class Link implements AsyncIO.CompletionHandler {
+		private final int index;
+
+		Link(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public void completed(long res, int cqeFlags) {
+			// all links complete on the completion loop
+			results[index] = res;
+			if (--remaining == 0) {
+				future.complete(results);
+			}
+		}
+	}
+}
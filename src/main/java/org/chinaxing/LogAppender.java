@@ -0,0 +1,254 @@
+package org.chinaxing;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Group commit appender of a write-ahead log
+ *
+ * appenders copy records into a preallocated direct ring buffer and wait on a future,
+ * one leader write everything pending with a single writev at the log tail, linked to an fdatasync,
+ * and every record in that group completes from the same pair of CQEs:
+ * <pre>
+ *   append(r1) append(r2) append(r3)     -- concurrent, only copies
+ *        \        |        /
+ *      writev [r1 r2 r3] @ tail  ->(IO_LINK)->  fdatasync
+ *        /        |        \
+ *   r1, r2, r3 durable                   -- N appends, one fsync
+ * </pre>
+ * the thread appending into an idle log is the leader of the first group, later groups are
+ * started by the completion loop from the completion of the previous one, so one group is
+ * in flight at a time and it collect every record appended meanwhile.
+ *
+ * an append waits for room when the buffer is full, on the completion loop it fails instead.
+ * a failed or short write fail the log, pending and later appends complete exceptionally.
+ */
+public class LogAppender implements AutoCloseable {
+	private static class Waiter {
+		final long end;
+		final long offset;
+		final CompletableFuture<Long> future = new CompletableFuture<>();
+
+		Waiter(long end, long offset) {
+			this.end = end;
+			this.offset = offset;
+		}
+	}
+
+	private final AsyncIO io;
+	private final FileDescriptor fd;
+	private final long baseOffset;
+	private final ByteBuffer buffer;
+	private final int capacity;
+	private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+	// logical positions in the log since baseOffset, guarded by this
+	private long appended;
+	private long durable;
+	private boolean inFlight;
+	private IOException failure;
+	private boolean closed;
+
+	/**
+	 * @param offset file offset of the log tail, records are appended from there
+	 * @param bufferSize bytes appended but not yet durable, the largest possible group
+	 */
+	public LogAppender(AsyncIO io, FileDescriptor fd, long offset, int bufferSize) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize: " + bufferSize);
+		}
+		if (io.ring().queueDepth() < 2) {
+			throw new IllegalArgumentException("queue depth too small for write and fsync");
+		}
+		this.io = io;
+		this.fd = fd;
+		this.baseOffset = offset;
+		this.capacity = bufferSize;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * append record [position, limit), the record is copied and can be reused when returned
+	 * @return future of the file offset of the record, completed when it is durable
+	 */
+	public CompletableFuture<Long> append(ByteBuffer record) {
+		int len = record.remaining();
+		if (len > capacity) {
+			throw new IllegalArgumentException("record larger than buffer: " + len);
+		}
+		Waiter w;
+		ByteBuffer[] group = null;
+		long groupStart = 0;
+		synchronized (this) {
+			while (failure == null && !closed && capacity - (appended - durable) < len) {
+				if (io.inCompletionLoop()) {
+					return failed(new IOException("log buffer full"));
+				}
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return failed(new IOException("interrupted"));
+				}
+			}
+			if (failure != null) {
+				return failed(failure);
+			}
+			if (closed) {
+				throw new IllegalStateException("log closed");
+			}
+			put(appended, record);
+			w = new Waiter(appended + len, baseOffset + appended);
+			appended += len;
+			waiters.add(w);
+			if (!inFlight) {
+				inFlight = true;
+				groupStart = durable;
+				group = views(groupStart, appended);
+			}
+		}
+		if (group != null) {
+			commit(groupStart, group);
+		}
+		return w.future;
+	}
+
+	/**
+	 * file offset of the next record
+	 */
+	public synchronized long position() {
+		return baseOffset + appended;
+	}
+
+	/**
+	 * file offset up to which the log is durable
+	 */
+	public synchronized long durablePosition() {
+		return baseOffset + durable;
+	}
+
+	// one group in flight, started by the leader, or by the completion of the previous group
+	private void commit(final long start, ByteBuffer[] group) {
+		final long end = start + remaining(group);
+		CompletableFuture<long[]> f;
+		try {
+			f = io.newChain(2)
+				.writes(fd, baseOffset + start, group)
+				.fsync(fd, IoURing.FsyncFlags.DATASYNC)
+				.submit();
+		} catch (RuntimeException e) {
+			fail(new IOException("prepare log write failed", e));
+			return;
+		}
+		f.whenComplete((res, ex) -> {
+			if (ex != null) {
+				fail(new IOException("prepare log write failed", ex));
+			} else if (res[0] != end - start) {
+				fail(new IOException("log write at " + (baseOffset + start) + " ret: " + res[0]));
+			} else if (res[1] < 0) {
+				fail(new IOException("log fdatasync errno: " + -res[1]));
+			} else {
+				committed(end);
+			}
+		});
+	}
+
+	private void committed(long end) {
+		List<Waiter> done = new ArrayList<>();
+		ByteBuffer[] next = null;
+		long nextStart = end;
+		synchronized (this) {
+			durable = end;
+			while (!waiters.isEmpty() && waiters.peek().end <= end) {
+				done.add(waiters.poll());
+			}
+			if (appended > end && failure == null) {
+				next = views(end, appended);
+			} else {
+				inFlight = false;
+			}
+			notifyAll();
+		}
+		for (Waiter w : done) {
+			w.future.complete(w.offset);
+		}
+		if (next != null) {
+			commit(nextStart, next);
+		}
+	}
+
+	private void fail(IOException e) {
+		List<Waiter> done;
+		synchronized (this) {
+			if (failure == null) {
+				failure = e;
+			}
+			inFlight = false;
+			done = new ArrayList<>(waiters);
+			waiters.clear();
+			notifyAll();
+		}
+		for (Waiter w : done) {
+			w.future.completeExceptionally(e);
+		}
+	}
+
+	private void put(long pos, ByteBuffer record) {
+		int idx = (int) (pos % capacity);
+		ByteBuffer src = record.duplicate();
+		int first = Math.min(src.remaining(), capacity - idx);
+		ByteBuffer dst = buffer.duplicate();
+		dst.position(idx);
+		src.limit(src.position() + first);
+		dst.put(src);
+		if (first < record.remaining()) {
+			src.limit(record.limit());
+			dst.position(0);
+			dst.put(src);
+		}
+	}
+
+	// buffer [start, end) as one or two views, for it may wrap
+	private ByteBuffer[] views(long start, long end) {
+		int idx = (int) (start % capacity);
+		int len = (int) (end - start);
+		if (idx + len <= capacity) {
+			return new ByteBuffer[]{ view(idx, len) };
+		}
+		return new ByteBuffer[]{ view(idx, capacity - idx), view(0, idx + len - capacity) };
+	}
+
+	private ByteBuffer view(int idx, int len) {
+		ByteBuffer b = buffer.duplicate();
+		b.limit(idx + len).position(idx);
+		return b;
+	}
+
+	private static long remaining(ByteBuffer[] bufs) {
+		long n = 0;
+		for (ByteBuffer b : bufs) {
+			n += b.remaining();
+		}
+		return n;
+	}
+
+	private static CompletableFuture<Long> failed(IOException e) {
+		CompletableFuture<Long> f = new CompletableFuture<>();
+		f.completeExceptionally(e);
+		return f;
+	}
+
+	/**
+	 * stop taking appends, the group in flight still completes.
+	 * the file is not closed
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+}
@@ -0,0 +1,105 @@
+package org.chinaxing;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Pipe;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of pipes splices go through, see {@link AsyncIO#transfer}
+ *
+ * a pipe is given back only when empty, one left with bytes in it (transfer failed half way) is closed instead.
+ * pipes are created on demand, at most max are kept idle. a closed pipe is unregistered from the file table
+ * of the ring first, its slot must not outlive the fd.
+ */
+class PipePool {
+	/**
+	 * one pipe, in is the write end and out the read end, as seen by splice
+	 */
+	static final class Entry {
+		final IoURing ring;
+		final Pipe pipe;
+		final FileDescriptor in;
+		final FileDescriptor out;
+
+		Entry(IoURing ring, Pipe pipe) {
+			this.ring = ring;
+			this.pipe = pipe;
+			this.in = IoURing.descriptorOf(pipe.sink());
+			this.out = IoURing.descriptorOf(pipe.source());
+		}
+
+		void close() {
+			// an auto file table registers both ends by their first splice
+			FileTable files = ring.fileTable();
+			if (files != null) {
+				files.unregister(in);
+				files.unregister(out);
+			}
+			try {
+				pipe.sink().close();
+				pipe.source().close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+
+	private final ConcurrentLinkedQueue<Entry> idle = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+	private final IoURing ring;
+	private final int max;
+	private volatile boolean closed;
+
+	PipePool(IoURing ring, int max) {
+		this.ring = ring;
+		this.max = max;
+	}
+
+	Entry acquire() {
+		Entry e = idle.poll();
+		if (e != null) {
+			idleCount.decrementAndGet();
+			return e;
+		}
+		try {
+			return new Entry(ring, Pipe.open());
+		} catch (IOException ex) {
+			throw new UncheckedIOException("open pipe", ex);
+		}
+	}
+
+	/**
+	 * give back an empty pipe
+	 */
+	void release(Entry e) {
+		if (closed || idleCount.incrementAndGet() > max) {
+			idleCount.decrementAndGet();
+			e.close();
+			return;
+		}
+		idle.add(e);
+		// raced with close
+		if (closed && idle.remove(e)) {
+			e.close();
+		}
+	}
+
+	/**
+	 * close a pipe that may still have bytes in it
+	 */
+	void discard(Entry e) {
+		e.close();
+	}
+
+	void close() {
+		closed = true;
+		Entry e;
+		while ((e = idle.poll()) != null) {
+			idleCount.decrementAndGet();
+			e.close();
+		}
+	}
+}
@@ -0,0 +1,352 @@
+package org.chinaxing;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sequential reader of a file keeping a window of reads in flight ahead of the consumer
+ *
+ * the file is read in chunks of chunkSize into direct buffers of the ring arena, up to window chunks
+ * are in flight at once and handed over in file order, so the device always has queued work
+ * while the consumer is busy with the previous chunk:
+ * 1) the window start at 2 chunks and double every time a whole window is consumed in sequence,
+ *    up to maxWindow
+ * 2) {@link #position(long)} inside the chunks in flight is a skip, elsewhere it is a random access:
+ *    the chunks ahead are cancelled and dropped and the window is halved
+ * 3) a short read drops the chunks after it and reading resume at its end, a read of 0 is end of file
+ *
+ * one consumer at a time, like a stream. the fd is owned by the caller, not closed by {@link #close()}.
+ * must not be used on the completion loop, it would wait for itself.
+ */
+public class ReadAheadReader implements ReadableByteChannel {
+	public static final int DEFAULT_CHUNK_SIZE = 128 << 10;
+	public static final int DEFAULT_MAX_WINDOW = 16;
+	private static final int INITIAL_WINDOW = 2;
+
+	private final AsyncIO io;
+	private final IoURing ring;
+	private final FileDescriptor fd;
+	private final int chunkSize;
+	private final int maxWindow;
+	// circular, chunks[head] is the one being consumed, inFlight chunks from head are issued
+	private final Chunk[] chunks;
+	private int head;
+	private int inFlight;
+	private int window;
+	// chunks consumed since the window last changed
+	private int sequential;
+	// file offset of the next byte to the consumer, and of the next chunk to issue
+	private long position;
+	private long nextOffset;
+	private boolean eof;
+	private boolean closed;
+	// consumer parked for a chunk
+	private volatile Thread waiter;
+
+	/**
+	 * one chunk, completed on the completion loop
+	 */
+	private final class Chunk implements AsyncIO.CompletionHandler {
+		private ByteBuffer buf;
+		private long offset;
+		// written by whichever thread prepared the request
+		private volatile long reqId;
+		private long res;
+		// prepare failed
+		private RuntimeException error;
+		private volatile boolean done;
+
+		@Override
+		public void completed(long res, int cqeFlags) {
+			this.res = res;
+			done = true;
+			Thread t = waiter;
+			if (t != null) {
+				LockSupport.unpark(t);
+			}
+		}
+	}
+
+	public ReadAheadReader(AsyncIO io, FileDescriptor fd, long position) {
+		this(io, fd, position, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_WINDOW);
+	}
+
+	/**
+	 * @param fd e.g. {@link IoURing#descriptorOf(java.nio.channels.Channel)} of a FileChannel
+	 * @param position file offset to start reading at
+	 * @param chunkSize bytes of each read
+	 * @param maxWindow max reads in flight, one buffer of chunkSize each
+	 */
+	public ReadAheadReader(AsyncIO io, FileDescriptor fd, long position, int chunkSize, int maxWindow) {
+		if (chunkSize <= 0 || maxWindow <= 0) {
+			throw new IllegalArgumentException("chunkSize " + chunkSize + " maxWindow " + maxWindow);
+		}
+		this.io = io;
+		this.ring = io.ring();
+		this.fd = fd;
+		this.chunkSize = chunkSize;
+		this.maxWindow = maxWindow;
+		this.chunks = new Chunk[maxWindow];
+		this.window = Math.min(INITIAL_WINDOW, maxWindow);
+		this.position = position;
+		this.nextOffset = position;
+	}
+
+	public long position() {
+		return position;
+	}
+
+	/**
+	 * move to newPosition, a skip if it's in the chunks in flight, else restart reading there with a smaller window
+	 */
+	public ReadAheadReader position(long newPosition) throws IOException {
+		ensureOpen();
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("Negative position");
+		}
+		if (inFlight > 0 && newPosition >= chunks[head].offset && newPosition < nextOffset) {
+			position = newPosition;
+			return this;
+		}
+		drop(0);
+		window = Math.max(1, window >> 1);
+		sequential = 0;
+		position = nextOffset = newPosition;
+		eof = false;
+		return this;
+	}
+
+	/**
+	 * current size of the window, in chunks
+	 */
+	public int window() {
+		return window;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		ensureOpen();
+		int n = 0;
+		while (dst.hasRemaining()) {
+			// wait only while nothing is read, then return what is there
+			Chunk c = ready(n == 0);
+			if (c == null) {
+				break;
+			}
+			ByteBuffer src = c.buf;
+			int len = Math.min(src.remaining(), dst.remaining());
+			int limit = src.limit();
+			src.limit(src.position() + len);
+			dst.put(src);
+			src.limit(limit);
+			position += len;
+			n += len;
+		}
+		return n == 0 && dst.hasRemaining() ? -1 : n;
+	}
+
+	/**
+	 * head chunk positioned at the consumer, null at end of file, or if not completed and !wait
+	 */
+	private Chunk ready(boolean wait) throws IOException {
+		while (true) {
+			fill();
+			if (inFlight == 0) {
+				return null;
+			}
+			Chunk c = chunks[head];
+			if (!c.done) {
+				if (!wait) {
+					return null;
+				}
+				await(c);
+			}
+			if (c.error != null || c.res < 0) {
+				IOException e = c.error != null ? new IOException("prepare read failed", c.error)
+					: new IOException("read at " + c.offset + " errno: " + -c.res);
+				// a retry read again from the consumer
+				drop(0);
+				nextOffset = position;
+				throw e;
+			}
+			if (c.res == 0) {
+				drop(0);
+				eof = true;
+				return null;
+			}
+			long pos = position - c.offset;
+			if (pos < c.res) {
+				c.buf.limit((int) c.res).position((int) pos);
+				return c;
+			}
+			consumed(c);
+		}
+	}
+
+	private void consumed(Chunk c) {
+		if (c.res < chunkSize) {
+			// short read, chunks after it were issued at the wrong offsets
+			drop(1);
+			nextOffset = c.offset + c.res;
+		}
+		head = (head + 1) % maxWindow;
+		inFlight--;
+		if (++sequential >= window && window < maxWindow) {
+			window = Math.min(maxWindow, window << 1);
+			sequential = 0;
+		}
+	}
+
+	/**
+	 * issue chunks until the window is full, submitted together
+	 */
+	private void fill() {
+		if (eof || inFlight >= window) {
+			return;
+		}
+		if (io.inCompletionLoop()) {
+			throw new IllegalStateException("read ahead on the completion loop");
+		}
+		int issued = 0;
+		while (inFlight < window) {
+			int i = (head + inFlight) % maxWindow;
+			Chunk c = chunks[i];
+			if (c == null) {
+				c = chunks[i] = new Chunk();
+				c.buf = ring.arena().allocate(chunkSize);
+			}
+			final Chunk chunk = c;
+			chunk.offset = nextOffset;
+			chunk.done = false;
+			chunk.reqId = 0;
+			chunk.error = null;
+			nextOffset += chunkSize;
+			inFlight++;
+			issued++;
+			boolean admitted = io.admit(1, () -> chunk.reqId = ring.prepareRead(fd, chunk.offset, IoURing.address(chunk.buf), chunkSize, chunk), e -> {
+				// thrown to the consumer when it reach the chunk
+				chunk.error = e;
+				chunk.completed(0, 0);
+			});
+			if (!admitted) {
+				break;
+			}
+		}
+		if (issued > 0) {
+			io.submit();
+		}
+	}
+
+	/**
+	 * cancel the chunks from index from (relative to head) on and wait for them, their buffers are in use until then
+	 */
+	private void drop(int from) {
+		for (int i = from; i < inFlight; i++) {
+			Chunk c = chunks[(head + i) % maxWindow];
+			long id = c.reqId;
+			if (!c.done && id != 0) {
+				io.cancelRequest(id);
+			}
+		}
+		for (int i = from; i < inFlight; i++) {
+			await(chunks[(head + i) % maxWindow]);
+		}
+		inFlight = Math.min(inFlight, from);
+		nextOffset = inFlight == 0 ? position : chunks[head].offset + chunkSize;
+	}
+
+	private void await(Chunk c) {
+		waiter = Thread.currentThread();
+		boolean interrupted = false;
+		while (!c.done) {
+			LockSupport.park(this);
+			if (Thread.interrupted()) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	/**
+	 * cancel the chunks in flight, wait for them and give the buffers back, the fd is not closed
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		drop(0);
+		for (int i = 0; i < chunks.length; i++) {
+			if (chunks[i] != null) {
+				ring.arena().free(chunks[i].buf);
+				chunks[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * InputStream view, reading from it advance this reader
+	 */
+	public InputStream asInputStream() {
+		return new InputStream() {
+			private final byte[] one = new byte[1];
+
+			@Override
+			public int read() throws IOException {
+				int n = read(one, 0, 1);
+				return n < 0 ? -1 : one[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0) {
+					return 0;
+				}
+				return ReadAheadReader.this.read(ByteBuffer.wrap(b, off, len));
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				if (n <= 0) {
+					return 0;
+				}
+				position(position + n);
+				return n;
+			}
+
+			@Override
+			public int available() throws IOException {
+				ensureOpen();
+				if (inFlight == 0 || !chunks[head].done) {
+					return 0;
+				}
+				Chunk c = chunks[head];
+				return (int) Math.max(0, Math.min(Integer.MAX_VALUE, c.offset + c.res - position));
+			}
+
+			@Override
+			public void close() {
+				ReadAheadReader.this.close();
+			}
+		};
+	}
+}
@@ -0,0 +1,156 @@
+package org.chinaxing;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Slot-indexed table of in-flight requests
+ *
+ * a request-Id (the SQE user_data) encode slot and generation of the slot:
+ * <pre>
+ *   | 1 bit 0 | 31 bits generation | 32 bits slot |
+ * </pre>
+ * lookup is an array index plus a generation check, so a stale or foreign id never
+ * match the current occupant of the slot. generation start from 1, so 0 is never a valid id.
+ *
+ * free slots are recycled through a lock-free (tagged Treiber) stack,
+ * nothing is allocated per request.
+ */
+public class RequestTable<T> {
+	private static final long EMPTY = 0xffffffffL;
+
+	private final int capacity;
+	private final AtomicReferenceArray<T> values;
+	private final AtomicIntegerArray generations;
+	// next free slot of each free slot, -1 for end of the stack
+	private final AtomicIntegerArray next;
+	// | 32 bits ABA tag | 32 bits top slot |
+	private final AtomicLong freeHead;
+
+	public RequestTable(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity: " + capacity);
+		}
+		this.capacity = capacity;
+		this.values = new AtomicReferenceArray<>(capacity);
+		this.generations = new AtomicIntegerArray(capacity);
+		this.next = new AtomicIntegerArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			generations.set(i, 1);
+			next.set(i, i + 1 < capacity ? i + 1 : -1);
+		}
+		this.freeHead = new AtomicLong(0);
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	static int slot(long id) {
+		return (int) id;
+	}
+
+	private static int generation(long id) {
+		return (int) (id >>> 32);
+	}
+
+	private static long id(int generation, int slot) {
+		return ((long) generation << 32) | (slot & 0xffffffffL);
+	}
+
+	/**
+	 * take a free slot and put value in it
+	 * @return request-Id, -1 if all slots in use
+	 */
+	public long acquire(T value) {
+		int slot = pop();
+		if (slot < 0) {
+			return -1;
+		}
+		values.set(slot, value);
+		return id(generations.get(slot), slot);
+	}
+
+	/**
+	 * replace value of an acquired id
+	 */
+	public void set(long id, T value) {
+		values.set(slot(id), value);
+	}
+
+	/**
+	 * @return value of id, null if id is not in use
+	 */
+	public T get(long id) {
+		int slot = slot(id);
+		if (slot < 0 || slot >= capacity) {
+			return null;
+		}
+		int gen = generation(id);
+		if (generations.get(slot) != gen) {
+			return null;
+		}
+		T v = values.get(slot);
+		// slot may be released and re-acquired while reading
+		return generations.get(slot) == gen ? v : null;
+	}
+
+	/**
+	 * give back slot of id, only the first release of an id succeed
+	 * @return value of id, null if id is not in use
+	 */
+	public T release(long id) {
+		int slot = slot(id);
+		if (slot < 0 || slot >= capacity) {
+			return null;
+		}
+		int gen = generation(id);
+		int nextGen = gen == Integer.MAX_VALUE ? 1 : gen + 1;
+		if (gen <= 0 || !generations.compareAndSet(slot, gen, nextGen)) {
+			return null;
+		}
+		T v = values.getAndSet(slot, null);
+		push(slot);
+		return v;
+	}
+
+	/**
+	 * take out all values, only used when the table is dropped
+	 */
+	void drain(Consumer<? super T> action) {
+		for (int i = 0; i < capacity; i++) {
+			T v = values.getAndSet(i, null);
+			if (v != null) {
+				action.accept(v);
+			}
+		}
+	}
+
+	private int pop() {
+		while (true) {
+			long h = freeHead.get();
+			int top = (int) h;
+			if (top < 0) {
+				return -1;
+			}
+			int nxt = next.get(top);
+			long nh = (((h >>> 32) + 1) << 32) | (nxt < 0 ? EMPTY : nxt);
+			if (freeHead.compareAndSet(h, nh)) {
+				return top;
+			}
+		}
+	}
+
+	private void push(int slot) {
+		while (true) {
+			long h = freeHead.get();
+			next.set(slot, (int) h);
+			long nh = (((h >>> 32) + 1) << 32) | slot;
+			if (freeHead.compareAndSet(h, nh)) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package org.chinaxing;
+
+/**
+ * Native calls of one io_uring instance
+ *
+ * two implementations:
+ * 1) jni, {@link IoURingNative} over liburing, need liburingjni.so built from jni/
+ * 2) ffm, ForeignRing over raw syscalls by the Foreign Function and Memory api (jdk22+),
+ *    need no native build, SQ/CQ are always accessed by {@link DirectRing}
+ *
+ * picked by system property org.chinaxing.backend (jni or ffm),
+ * if not set jni is used when liburingjni can be loaded, ffm otherwise.
+ * results follow liburing: 0 or a count on success, -errno on error.
+ */
+interface RingBackend {
+	String BACKEND_PROPERTY = "org.chinaxing.backend";
+
+	/**
+	 * setup the ring
+	 * @throws RuntimeException if failed
+	 */
+	void init();
+
+	int ringFd();
+
+	int features();
+
+	int cqEntries();
+
+	/**
+	 * addresses of the mmapped SQ/CQ, see {@link DirectRing} for the layout
+	 */
+	int ringLayout(long[] layout);
+
+	/**
+	 * java view of the SQ/CQ, one per ring, null if not supported by the kernel
+	 */
+	DirectRing directRing();
+
+	/**
+	 * io_uring_enter(2), arg/argSize for IORING_ENTER_EXT_ARG, 0 if none
+	 */
+	int enter(int ringFd, int toSubmit, int minComplete, int flags, long arg, int argSize);
+
+	void exit();
+
+	int registerBuffers(long[] buffers, long[] bufferLengths);
+
+	int unregisterBuffers();
+
+	int registerFiles(int[] fds);
+
+	int registerFilesUpdate(int offset, int[] fds);
+
+	int unregisterFiles();
+
+	int registerBufRing(long ringAddr, int entries, int bgid);
+
+	int unregisterBufRing(int bgid);
+
+	/**
+	 * prepare one SQE of any opcode
+	 * @return 0 success, -1 if SQ is full
+	 */
+	int prepare(int opcode, int flags, int ioprio, int fd, long addr, int len, long offset, int rwFlags, int bufIndex, long reqId);
+
+	/**
+	 * prepare count SQEs from descriptors, see {@link SubmissionBatch}
+	 * @param submitRet if not null, submit when any SQE prepared and store the submit result in submitRet[0]
+	 * @return number of SQEs prepared
+	 */
+	int prepareBatch(long descs, int count, int[] submitRet);
+
+	int submit();
+
+	int waitCQEntryTimeout(long[] reqIds, long[] retCodes, long millis);
+
+	int waitCQEntries(long[] reqIds, long[] retCodes, int waitNr);
+
+	int peekCQEntries(long[] reqIds, long[] retCodes, int count);
+
+	void advanceCQ(int nr);
+
+	int reapCQEntries(long[] reqIds, long[] retCodes, int[] cqeFlags, int count, int waitNr);
+
+	/**
+	 * create (not init) a ring by the backend of {@link #BACKEND_PROPERTY}
+	 */
+	static RingBackend create(int queueDepth, long flags, int sqThreadCpu, int sqThreadIdle, int cqEntries, int wqFd) {
+		String backend = System.getProperty(BACKEND_PROPERTY, "");
+		if (backend.equals("ffm")) {
+			return foreign(queueDepth, flags, sqThreadCpu, sqThreadIdle, cqEntries, wqFd);
+		}
+		if (backend.isEmpty()) {
+			try {
+				return new IoURingNative(queueDepth, flags, sqThreadCpu, sqThreadIdle, cqEntries, wqFd);
+			} catch (LinkageError e) {
+				// liburingjni not found
+				try {
+					return foreign(queueDepth, flags, sqThreadCpu, sqThreadIdle, cqEntries, wqFd);
+				} catch (UnsupportedOperationException ignore) {
+					throw e;
+				}
+			}
+		}
+		if (!backend.equals("jni")) {
+			throw new IllegalArgumentException(BACKEND_PROPERTY + ": " + backend);
+		}
+		return new IoURingNative(queueDepth, flags, sqThreadCpu, sqThreadIdle, cqEntries, wqFd);
+	}
+
+	/**
+	 * ForeignRing is compiled only by jdk22+ (profile jdk22+), so looked up by name
+	 */
+	static RingBackend foreign(int queueDepth, long flags, int sqThreadCpu, int sqThreadIdle, int cqEntries, int wqFd) {
+		try {
+			return (RingBackend) Class.forName("org.chinaxing.ForeignRing")
+				.getConstructor(int.class, long.class, int.class, int.class, int.class, int.class)
+				.newInstance(queueDepth, flags, sqThreadCpu, sqThreadIdle, cqEntries, wqFd);
+		} catch (ClassNotFoundException | UnsupportedClassVersionError e) {
+			throw new UnsupportedOperationException("ffm backend need jdk22+ and a build by jdk22+", e);
+		} catch (ReflectiveOperationException e) {
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException("create ffm backend", cause);
+		}
+	}
+}
@@ -0,0 +1,371 @@
+package org.chinaxing;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of one {@link IoURing}, see {@link IoURing#enableMetrics()}
+ *
+ * recorded by the ring itself:
+ * 1) prepare time and opcode of each request, kept in arrays indexed by the request slot
+ * 2) prepare to completion latency per opcode, taken when the (last) CQE is reaped
+ * 3) SQEs per submit call, CQEs per reap call
+ * 4) failed completions by errno, a timeout firing (-ETIME) or cancelled (-ECANCELED) is not a failure
+ *
+ * recording is allocation free (a histogram is created on the first request of its opcode)
+ * and lock free, counters are LongAdder and histograms are striped.
+ * read them by {@link #snapshot()} or through JMX after {@link #registerMBean(String)}.
+ */
+public class RingMetrics implements RingMetricsMXBean {
+	private static final int MAX_OPCODE = 64;
+	private static final int MAX_ERRNO = 256;
+	private static final String[] OP_NAMES = opNames();
+	private static final long ETIME = 62;
+	private static final long ECANCELED = 125;
+
+	private final IoURing ring;
+	private final LongAdder prepared = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder submitCalls = new LongAdder();
+	private final LongAdder reapCalls = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final Histogram submitBatch = new Histogram();
+	private final Histogram reapBatch = new Histogram();
+	private final AtomicReferenceArray<Histogram> latency = new AtomicReferenceArray<>(MAX_OPCODE);
+	private final AtomicLongArray errnos = new AtomicLongArray(MAX_ERRNO);
+	// by request slot, written before the SQE is published and cleared when completed.
+	// opcode is written before the ordered store of the start time, and read after reading it
+	private final AtomicLongArray startNanos;
+	private final byte[] opcodes;
+	private volatile ObjectName objectName;
+
+	RingMetrics(IoURing ring, int slots) {
+		this.ring = ring;
+		this.startNanos = new AtomicLongArray(slots);
+		this.opcodes = new byte[slots];
+	}
+
+	/**
+	 * called before the SQE of reqId is published, so its CQE always find it
+	 */
+	void prepared(long reqId, int opcode) {
+		int slot = slot(reqId);
+		if (slot < 0) {
+			return;
+		}
+		opcodes[slot] = (byte) opcode;
+		// never 0, which means not recorded
+		startNanos.lazySet(slot, System.nanoTime() | 1);
+		prepared.increment();
+	}
+
+	/**
+	 * the SQE of reqId recorded by {@link #prepared} was not published after all
+	 */
+	void unprepared(long reqId) {
+		int slot = slot(reqId);
+		if (slot < 0) {
+			return;
+		}
+		long start = startNanos.get(slot);
+		if (start != 0 && startNanos.compareAndSet(slot, start, 0)) {
+			prepared.decrement();
+		}
+	}
+
+	void completed(long reqId, long res) {
+		int slot = slot(reqId);
+		if (slot < 0) {
+			return;
+		}
+		completed.increment();
+		long start = startNanos.get(slot);
+		int opcode = opcodes[slot] & 0xff;
+		// the slot may be prepared again by now, clear only our own start
+		if (start != 0 && startNanos.compareAndSet(slot, start, 0)) {
+			histogram(opcode).record(System.nanoTime() - start);
+		}
+		if (res < 0 && !isTimeout(opcode, res)) {
+			errors.increment();
+			errnos.incrementAndGet((int) Math.min(-res, MAX_ERRNO - 1));
+		}
+	}
+
+	private static boolean isTimeout(int opcode, long res) {
+		return (opcode == IoURing.Op.LINK_TIMEOUT || opcode == IoURing.Op.TIMEOUT) && (res == -ETIME || res == -ECANCELED);
+	}
+
+	/**
+	 * @return slot of reqId, -1 if not tracked
+	 */
+	private int slot(long reqId) {
+		int slot = RequestTable.slot(reqId);
+		// request-Id 0 is internal NOP
+		if (reqId <= 0 || slot < 0 || slot >= startNanos.length()) {
+			return -1;
+		}
+		return slot;
+	}
+
+	void submitted(int n) {
+		submitCalls.increment();
+		submitBatch.record(n);
+	}
+
+	void reaped(int n) {
+		reapCalls.increment();
+		reapBatch.record(n);
+	}
+
+	private Histogram histogram(int opcode) {
+		if (opcode >= MAX_OPCODE) {
+			opcode = MAX_OPCODE - 1;
+		}
+		Histogram h = latency.get(opcode);
+		if (h == null) {
+			latency.compareAndSet(opcode, null, new Histogram());
+			h = latency.get(opcode);
+		}
+		return h;
+	}
+
+	/**
+	 * register as org.chinaxing:type=IoURing,name=name to the platform MBean server
+	 */
+	public synchronized ObjectName registerMBean(String name) {
+		if (objectName != null) {
+			return objectName;
+		}
+		try {
+			ObjectName on = ObjectName.getInstance("org.chinaxing:type=IoURing,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+			objectName = on;
+			return on;
+		} catch (JMException e) {
+			throw new IllegalStateException("register mbean " + name, e);
+		}
+	}
+
+	public synchronized void unregisterMBean() {
+		if (objectName == null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(objectName);
+		} catch (JMException e) {
+			// already gone
+		}
+		objectName = null;
+	}
+
+	/**
+	 * pull a copy of everything recorded so far
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(prepared.sum(), completed.sum(), getSubmitQueueDepth(),
+			submitCalls.sum(), submitBatch.snapshot(), reapCalls.sum(), reapBatch.snapshot(),
+			errors.sum(), Collections.unmodifiableMap(errnoCounts()), Collections.unmodifiableMap(latencies()));
+	}
+
+	private Map<String, Histogram.Snapshot> latencies() {
+		Map<String, Histogram.Snapshot> lat = new LinkedHashMap<>();
+		for (int op = 0; op < MAX_OPCODE; op++) {
+			Histogram h = latency.get(op);
+			if (h != null) {
+				lat.put(opName(op), h.snapshot());
+			}
+		}
+		return lat;
+	}
+
+	private Map<Integer, Long> errnoCounts() {
+		Map<Integer, Long> err = new TreeMap<>();
+		for (int e = 0; e < MAX_ERRNO; e++) {
+			long c = errnos.get(e);
+			if (c != 0) {
+				err.put(e, c);
+			}
+		}
+		return err;
+	}
+
+	/**
+	 * point in time copy of {@link RingMetrics}, counters are not taken atomically together
+	 */
+	public static class Snapshot {
+		public final long prepared;
+		public final long completed;
+		// requests in the submit queue, not yet in the SQ
+		public final int submitQueueDepth;
+		public final long submitCalls;
+		// SQEs per submit
+		public final Histogram.Snapshot submitBatch;
+		public final long reapCalls;
+		// CQEs per reap
+		public final Histogram.Snapshot reapBatch;
+		public final long errors;
+		// errno to count, errno 255 count errno beyond it
+		public final Map<Integer, Long> errnos;
+		// opcode name to prepare-to-completion latency in ns
+		public final Map<String, Histogram.Snapshot> latency;
+
+		Snapshot(long prepared, long completed, int submitQueueDepth, long submitCalls, Histogram.Snapshot submitBatch,
+				 long reapCalls, Histogram.Snapshot reapBatch, long errors, Map<Integer, Long> errnos,
+				 Map<String, Histogram.Snapshot> latency) {
+			this.prepared = prepared;
+			this.completed = completed;
+			this.submitQueueDepth = submitQueueDepth;
+			this.submitCalls = submitCalls;
+			this.submitBatch = submitBatch;
+			this.reapCalls = reapCalls;
+			this.reapBatch = reapBatch;
+			this.errors = errors;
+			this.errnos = errnos;
+			this.latency = latency;
+		}
+
+		public long inFlight() {
+			return Math.max(0, prepared - completed);
+		}
+	}
+
+	@Override
+	public long getPrepared() {
+		return prepared.sum();
+	}
+
+	@Override
+	public long getCompleted() {
+		return completed.sum();
+	}
+
+	@Override
+	public long getInFlight() {
+		return Math.max(0, prepared.sum() - completed.sum());
+	}
+
+	@Override
+	public int getSubmitQueueDepth() {
+		SubmitQueue queue = ring.submitQueue();
+		return queue == null ? 0 : queue.size();
+	}
+
+	@Override
+	public long getSubmitCalls() {
+		return submitCalls.sum();
+	}
+
+	@Override
+	public double getMeanSubmitBatch() {
+		return submitBatch.snapshot().mean();
+	}
+
+	@Override
+	public long getReapCalls() {
+		return reapCalls.sum();
+	}
+
+	@Override
+	public double getMeanReapBatch() {
+		return reapBatch.snapshot().mean();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	@Override
+	public Map<String, Long> getErrnoCounts() {
+		Map<String, Long> m = new TreeMap<>();
+		for (Map.Entry<Integer, Long> e : errnoCounts().entrySet()) {
+			m.put(String.valueOf(e.getKey()), e.getValue());
+		}
+		return m;
+	}
+
+	@Override
+	public Map<String, Long> getLatencyCounts() {
+		Map<String, Long> m = new LinkedHashMap<>();
+		for (Map.Entry<String, Histogram.Snapshot> e : latencies().entrySet()) {
+			m.put(e.getKey(), e.getValue().count());
+		}
+		return m;
+	}
+
+	@Override
+	public Map<String, Double> getLatencyMeanNanos() {
+		Map<String, Double> m = new LinkedHashMap<>();
+		for (Map.Entry<String, Histogram.Snapshot> e : latencies().entrySet()) {
+			m.put(e.getKey(), e.getValue().mean());
+		}
+		return m;
+	}
+
+	@Override
+	public Map<String, Long> getLatencyP50Nanos() {
+		return percentiles(50);
+	}
+
+	@Override
+	public Map<String, Long> getLatencyP99Nanos() {
+		return percentiles(99);
+	}
+
+	@Override
+	public Map<String, Long> getLatencyP999Nanos() {
+		return percentiles(99.9);
+	}
+
+	@Override
+	public Map<String, Long> getLatencyMaxNanos() {
+		Map<String, Long> m = new LinkedHashMap<>();
+		for (Map.Entry<String, Histogram.Snapshot> e : latencies().entrySet()) {
+			m.put(e.getKey(), e.getValue().max());
+		}
+		return m;
+	}
+
+	private Map<String, Long> percentiles(double p) {
+		Map<String, Long> m = new LinkedHashMap<>();
+		for (Map.Entry<String, Histogram.Snapshot> e : latencies().entrySet()) {
+			m.put(e.getKey(), e.getValue().percentile(p));
+		}
+		return m;
+	}
+
+	static String opName(int opcode) {
+		String name = opcode < OP_NAMES.length ? OP_NAMES[opcode] : null;
+		return name != null ? name : "OP_" + opcode;
+	}
+
+	// constant names of IoURing.Op by opcode
+	private static String[] opNames() {
+		String[] names = new String[MAX_OPCODE];
+		for (Field f : IoURing.Op.class.getFields()) {
+			if (Modifier.isStatic(f.getModifiers()) && f.getType() == int.class) {
+				try {
+					int op = f.getInt(null);
+					if (op >= 0 && op < MAX_OPCODE) {
+						names[op] = f.getName();
+					}
+				} catch (IllegalAccessException e) {
+					// public constant
+				}
+			}
+		}
+		return names;
+	}
+}
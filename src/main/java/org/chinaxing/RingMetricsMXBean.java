@@ -0,0 +1,42 @@
+package org.chinaxing;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link RingMetrics}, registered as org.chinaxing:type=IoURing,name=...
+ *
+ * latency maps are keyed by opcode name, errno counts by errno
+ */
+public interface RingMetricsMXBean {
+	long getPrepared();
+
+	long getCompleted();
+
+	long getInFlight();
+
+	int getSubmitQueueDepth();
+
+	long getSubmitCalls();
+
+	double getMeanSubmitBatch();
+
+	long getReapCalls();
+
+	double getMeanReapBatch();
+
+	long getErrors();
+
+	Map<String, Long> getErrnoCounts();
+
+	Map<String, Long> getLatencyCounts();
+
+	Map<String, Double> getLatencyMeanNanos();
+
+	Map<String, Long> getLatencyP50Nanos();
+
+	Map<String, Long> getLatencyP99Nanos();
+
+	Map<String, Long> getLatencyP999Nanos();
+
+	Map<String, Long> getLatencyMaxNanos();
+}
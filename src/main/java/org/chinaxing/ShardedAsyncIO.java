@@ -0,0 +1,151 @@
+package org.chinaxing;
+
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AsyncIO front-end over N rings
+ *
+ * each shard is an {@link AsyncIO} with its own ring and completion thread,
+ * so submitters don't contend on one SQ and completions are reaped in parallel.
+ *
+ * requests are routed to a shard by:
+ * 1) {@link Routing#THREAD} : calling thread, threads are spread over shards round robin on first use
+ * 2) {@link Routing#FD}     : hash of the file descriptor, all io of a file goes to one ring
+ *
+ * with shareWorkers, all rings are created with IORING_SETUP_ATTACH_WQ to the first ring,
+ * so they share one kernel async worker pool instead of one per ring.
+ *
+ * threads routed to the same shard share its submit queue, sharding cut the contention on it.
+ */
+public class ShardedAsyncIO {
+	public enum Routing {
+		THREAD,
+		FD
+	}
+
+	private final AsyncIO[] shards;
+	private final Routing routing;
+	private final AtomicInteger nextShard = new AtomicInteger();
+	private final ThreadLocal<AsyncIO> threadShard = new ThreadLocal<AsyncIO>() {
+		@Override
+		protected AsyncIO initialValue() {
+			return shards[(nextShard.getAndIncrement() & Integer.MAX_VALUE) % shards.length];
+		}
+	};
+
+	/**
+	 * one shard per cpu, routing by thread, rings share async workers
+	 */
+	public ShardedAsyncIO(String name, int queueDepth, int flags) {
+		this(name, Runtime.getRuntime().availableProcessors(), queueDepth, flags, Routing.THREAD, true);
+	}
+
+	public ShardedAsyncIO(String name, int shardCount, int queueDepth, int flags, Routing routing, boolean shareWorkers) {
+		if (shardCount <= 0) {
+			throw new IllegalArgumentException("shardCount: " + shardCount);
+		}
+		this.routing = routing;
+		this.shards = new AsyncIO[shardCount];
+		IoURing first = new IoURing(queueDepth, flags);
+		int i = 0;
+		try {
+			shards[0] = start(name + "-0", first);
+			for (i = 1; i < shardCount; i++) {
+				IoURing ring = shareWorkers ? new IoURing(queueDepth, flags, first) : new IoURing(queueDepth, flags);
+				shards[i] = start(name + "-" + i, ring);
+			}
+		} catch (RuntimeException | Error e) {
+			// the shards started so far, the rings attached to the first one go before it
+			for (int k = i - 1; k >= 0; k--) {
+				shards[k].shutdown();
+			}
+			throw e;
+		}
+	}
+
+	// the ring is exited if its AsyncIO can't be started
+	private static AsyncIO start(String name, IoURing ring) {
+		try {
+			return new AsyncIO(name, ring);
+		} catch (RuntimeException | Error e) {
+			ring.shutdown();
+			throw e;
+		}
+	}
+
+	public int shardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * shard of the calling thread
+	 */
+	public AsyncIO shard() {
+		return threadShard.get();
+	}
+
+	/**
+	 * shard serve fd under the routing policy
+	 */
+	public AsyncIO shard(FileDescriptor fd) {
+		if (routing == Routing.THREAD) {
+			return threadShard.get();
+		}
+		int h = IoURing.fdOf(fd) * 0x9E3779B9;
+		return shards[(h >>> 16) % shards.length];
+	}
+
+	public CompletableFuture<Long> prepareRead(FileDescriptor fd, long offset, byte[] buf, int bufPos, int len) {
+		return shard(fd).prepareRead(fd, offset, buf, bufPos, len);
+	}
+
+	public CompletableFuture<Long> prepareReads(FileDescriptor fd, long offset, byte[][] buf, int[] bufPos, int[] len) {
+		return shard(fd).prepareReads(fd, offset, buf, bufPos, len);
+	}
+
+	public CompletableFuture<Long> prepareWrite(FileDescriptor fd, long offset, byte[] buf, int bufPos, int len) {
+		return shard(fd).prepareWrite(fd, offset, buf, bufPos, len);
+	}
+
+	public CompletableFuture<Long> prepareWrites(FileDescriptor fd, long offset, byte[][] buf, int[] bufPos, int[] len) {
+		return shard(fd).prepareWrites(fd, offset, buf, bufPos, len);
+	}
+
+	public CompletableFuture<Long> prepareRead(FileDescriptor fd, long offset, ByteBuffer dst) {
+		return shard(fd).prepareRead(fd, offset, dst);
+	}
+
+	public CompletableFuture<Long> prepareWrite(FileDescriptor fd, long offset, ByteBuffer src) {
+		return shard(fd).prepareWrite(fd, offset, src);
+	}
+
+	/**
+	 * submit requests of the calling thread's shard (THREAD routing), or of all shards (FD routing)
+	 */
+	public int submit() {
+		if (routing == Routing.THREAD) {
+			return threadShard.get().submit();
+		}
+		int n = 0;
+		for (AsyncIO shard : shards) {
+			n += shard.submit();
+		}
+		return n;
+	}
+
+	/**
+	 * submit requests of the shard serving fd
+	 */
+	public int submit(FileDescriptor fd) {
+		return shard(fd).submit();
+	}
+
+	public void shutdown() {
+		for (AsyncIO shard : shards) {
+			shard.shutdown();
+		}
+	}
+}
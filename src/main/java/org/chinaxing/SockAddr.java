@@ -0,0 +1,60 @@
+package org.chinaxing;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * struct sockaddr_in / sockaddr_in6 encoding for connect SQEs
+ */
+class SockAddr {
+	static final int AF_INET = 2;
+	static final int AF_INET6 = 10;
+	// sizeof(struct sockaddr_in6), large enough for both
+	static final int MAX_SIZE = 28;
+
+	/**
+	 * write address at the start of dst
+	 * @return length of the sockaddr
+	 */
+	static int write(ByteBuffer dst, InetSocketAddress address) {
+		if (address.isUnresolved()) {
+			throw new IllegalArgumentException("unresolved address: " + address);
+		}
+		ByteBuffer b = dst.duplicate().order(ByteOrder.nativeOrder());
+		InetAddress ia = address.getAddress();
+		int port = address.getPort();
+		if (ia instanceof Inet4Address) {
+			b.putShort(0, (short) AF_INET);
+			putPort(b, 2, port);
+			byte[] a = ia.getAddress();
+			for (int i = 0; i < 4; i++) {
+				b.put(4 + i, a[i]);
+			}
+			b.putLong(8, 0);
+			return 16;
+		}
+		if (ia instanceof Inet6Address) {
+			b.putShort(0, (short) AF_INET6);
+			putPort(b, 2, port);
+			// flowinfo
+			b.putInt(4, 0);
+			byte[] a = ia.getAddress();
+			for (int i = 0; i < 16; i++) {
+				b.put(8 + i, a[i]);
+			}
+			b.putInt(24, ((Inet6Address) ia).getScopeId());
+			return 28;
+		}
+		throw new IllegalArgumentException("unsupported address: " + address);
+	}
+
+	// network byte order
+	private static void putPort(ByteBuffer b, int index, int port) {
+		b.put(index, (byte) (port >>> 8));
+		b.put(index + 1, (byte) port);
+	}
+}
@@ -0,0 +1,163 @@
+package org.chinaxing;
+
+import java.io.FileDescriptor;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One {@link AsyncIO#transfer}: in -> pipe -> out in chunks of the pipe size, bytes never enter user space
+ *
+ * each step is either
+ * 1) a pair of linked splices, in -> pipe then pipe -> out, of min(CHUNK, remaining) bytes
+ * 2) a drain, pipe -> out of the bytes left in the pipe, when the first splice was short
+ *    (its link is cancelled then) or the second one moved less than the first
+ *
+ * steps after the first one are issued on the completion loop from the completions of the previous one,
+ * the future completes with the bytes moved (less than len only at end of input) or -errno.
+ */
+final class SpliceTransfer {
+	// default pipe capacity, a longer splice into an empty pipe would be short
+	static final int CHUNK = 64 << 10;
+	private static final int ECANCELED = 125;
+	private static final int EIO = 5;
+
+	private final AsyncIO io;
+	private final IoURing ring;
+	private final PipePool pipes;
+	private final FileDescriptor in;
+	private final FileDescriptor out;
+	private final CompletableFuture<Long> future = new CompletableFuture<>();
+	private final AsyncIO.CompletionHandler inDone = (res, flags) -> {
+		this.inRes = res;
+		completed();
+	};
+	private final AsyncIO.CompletionHandler outDone = (res, flags) -> {
+		this.outRes = res;
+		completed();
+	};
+	private long inOffset;
+	private long outOffset;
+	private long remaining;
+	private long transferred;
+	private PipePool.Entry pipe;
+	// bytes spliced into the pipe and not out yet
+	private long inPipe;
+	// CQEs of the step not reaped yet, and results of its splices
+	private int pending;
+	private long inRes;
+	private long outRes;
+	private boolean drain;
+
+	SpliceTransfer(AsyncIO io, PipePool pipes, FileDescriptor in, long inOffset, FileDescriptor out, long outOffset, long len) {
+		this.io = io;
+		this.ring = io.ring();
+		this.pipes = pipes;
+		this.in = in;
+		this.inOffset = inOffset;
+		this.out = out;
+		this.outOffset = outOffset;
+		this.remaining = len;
+	}
+
+	CompletableFuture<Long> start() {
+		if (remaining <= 0) {
+			future.complete(0L);
+			return future;
+		}
+		pipe = pipes.acquire();
+		next();
+		return future;
+	}
+
+	private void next() {
+		drain = inPipe > 0;
+		if (!drain && remaining == 0) {
+			pipes.release(pipe);
+			future.complete(transferred);
+			return;
+		}
+		pending = drain ? 1 : 2;
+		inRes = outRes = 0;
+		try {
+			io.admission().admit(pending, future, this::prepare);
+		} catch (RuntimeException e) {
+			// future completed by prepare
+			if (!io.inCompletionLoop()) {
+				throw e;
+			}
+		}
+	}
+
+	private void prepare() {
+		try {
+			if (drain) {
+				ring.prepareSplice(pipe.out, -1, out, outOffset, (int) inPipe, 0, outDone);
+			} else {
+				int len = (int) Math.min(CHUNK, remaining);
+				int outFlags = remaining > len ? IoURing.SpliceFlags.MORE : 0;
+				ring.prepareSplicePair(in, inOffset, pipe.in, pipe.out, out, outOffset, len, outFlags, inDone, outDone);
+			}
+		} catch (RuntimeException e) {
+			fail(e);
+			throw e;
+		}
+	}
+
+	private void completed() {
+		if (--pending > 0) {
+			return;
+		}
+		if (!drain) {
+			if (inRes < 0) {
+				// the pipe was empty and nothing went in
+				finish(inRes);
+				return;
+			}
+			if (inRes == 0) {
+				// end of input
+				remaining = 0;
+			} else {
+				remaining -= inRes;
+				inOffset = advance(inOffset, inRes);
+				inPipe += inRes;
+			}
+			// -ECANCELED when the first splice was short, the bytes are drained by the next step
+			if (outRes == -ECANCELED) {
+				outRes = 0;
+			}
+		} else if (outRes == 0) {
+			// out accept nothing, avoid spinning
+			outRes = -EIO;
+		}
+		if (outRes < 0) {
+			finish(outRes);
+			return;
+		}
+		outOffset = advance(outOffset, outRes);
+		transferred += outRes;
+		inPipe -= outRes;
+		next();
+	}
+
+	// offset -1 of a pipe or socket stays -1
+	private static long advance(long offset, long n) {
+		return offset < 0 ? offset : offset + n;
+	}
+
+	private void finish(long errno) {
+		release();
+		future.complete(errno);
+	}
+
+	private void fail(RuntimeException e) {
+		release();
+		future.completeExceptionally(e);
+	}
+
+	private void release() {
+		if (inPipe > 0) {
+			pipes.discard(pipe);
+		} else {
+			pipes.release(pipe);
+		}
+	}
+}
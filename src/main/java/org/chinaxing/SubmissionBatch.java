@@ -0,0 +1,340 @@
+package org.chinaxing;
+
+import org.chinaxing.FixedBufferPool.FixedBuffer;
+
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reusable off-heap array of SQE descriptors
+ *
+ * requests are filled from java side without crossing JNI,
+ * then {@link #submit()} turn all of them into SQEs and submit in a single native call.
+ *
+ * <h2>Descriptor layout (48 bytes, native order)</h2>
+ * <pre>
+ *  0 u8  opcode      1 u8  sqe flags     2 u16 buf_index   4 s32 fd
+ *  8 u64 addr       16 u32 len          20 u32 rw_flags
+ * 24 u64 offset     32 u64 user_data    40 u16 ioprio     44 s32 splice_fd_in
+ * </pre>
+ *
+ * buffers are handed to the kernel by address, caller must keep them alive until completion.
+ * a batch is bound to one ring and not thread safe.
+ */
+public class SubmissionBatch {
+	static final int DESC_SIZE = 48;
+	static final int OPCODE = 0, FLAGS = 1, BUF_INDEX = 2, FD = 4, ADDR = 8,
+		LEN = 16, RW_FLAGS = 20, OFFSET = 24, USER_DATA = 32, IOPRIO = 40, SPLICE_FD_IN = 44;
+
+	private final IoURing ring;
+	// result of io_uring_submit in the last native call
+	final int[] submitRet = new int[1];
+	private final ByteBuffer descs;
+	private final long address;
+	private final int capacity;
+	// descriptors whose request-Id was taken by the batch itself, released if dropped by clear
+	private final boolean[] owned;
+	private int size;
+
+	SubmissionBatch(IoURing ring, int capacity) {
+		this.ring = ring;
+		this.capacity = capacity;
+		this.owned = new boolean[capacity];
+		this.descs = ByteBuffer.allocateDirect(capacity * DESC_SIZE).order(ByteOrder.nativeOrder());
+		this.address = IoURing.address(descs);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public boolean isFull() {
+		return size == capacity;
+	}
+
+	long address() {
+		return address;
+	}
+
+	ByteBuffer descriptors() {
+		return descs;
+	}
+
+	/**
+	 * add a raw descriptor, passed to the kernel as is. READ/WRITE need kernel 5.6+, use readv/writev before it
+	 * @param opcode one of {@link IoURing.Op}
+	 * @param flags sqe flags, see {@link IoURing.SqeFlags}
+	 * @return index of the descriptor in the batch
+	 */
+	public int add(int opcode, int flags, int fd, long addr, int len, long offset, int rwFlags, int bufIndex, long userData) {
+		return add(opcode, flags, 0, fd, addr, len, offset, rwFlags, bufIndex, userData);
+	}
+
+	/**
+	 * add a raw descriptor with sqe ioprio, which also carry flags of accept/recv (e.g. multishot)
+	 */
+	public int add(int opcode, int flags, int ioprio, int fd, long addr, int len, long offset, int rwFlags, int bufIndex, long userData) {
+		if (size == capacity) {
+			throw new IllegalStateException("batch full: " + capacity);
+		}
+		write(descs, size * DESC_SIZE, opcode, flags, ioprio, fd, addr, len, offset, rwFlags, bufIndex, userData);
+		owned[size] = false;
+		return size++;
+	}
+
+	/**
+	 * link the last added descriptor to the next one (IOSQE_IO_LINK), the next start only after it succeed.
+	 * with hard, the next start even it failed (IOSQE_IO_HARDLINK).
+	 * a chain is turned into SQEs all or nothing, and must not be longer than the SQ
+	 */
+	public void link(boolean hard) {
+		if (size == 0) {
+			throw new IllegalStateException("nothing to link");
+		}
+		int base = (size - 1) * DESC_SIZE;
+		int flags = descs.get(base + FLAGS) & ~(IoURing.SqeFlags.IO_LINK | IoURing.SqeFlags.IO_HARDLINK);
+		descs.put(base + FLAGS, (byte) (flags | (hard ? IoURing.SqeFlags.IO_HARDLINK : IoURing.SqeFlags.IO_LINK)));
+	}
+
+	/**
+	 * number of descriptors of the chain start at index, 1 if not linked
+	 */
+	static int chainLength(ByteBuffer descs, int index, int size) {
+		int n = 1;
+		while (index + n <= size && isLinked(descs, index + n - 1)) {
+			n++;
+		}
+		return Math.min(n, size - index);
+	}
+
+	static int opcode(ByteBuffer descs, int index) {
+		return descs.get(index * DESC_SIZE + OPCODE) & 0xff;
+	}
+
+	static long userData(ByteBuffer descs, int index) {
+		return descs.getLong(index * DESC_SIZE + USER_DATA);
+	}
+
+	static boolean isLinked(ByteBuffer descs, int index) {
+		return (descs.get(index * DESC_SIZE + FLAGS) & (IoURing.SqeFlags.IO_LINK | IoURing.SqeFlags.IO_HARDLINK)) != 0;
+	}
+
+	/**
+	 * write one descriptor at base of a native order buffer
+	 */
+	static void write(ByteBuffer descs, int base, int opcode, int flags, int ioprio, int fd, long addr, int len, long offset, int rwFlags, int bufIndex, long userData) {
+		descs.put(base + OPCODE, (byte) opcode);
+		descs.put(base + FLAGS, (byte) flags);
+		descs.putShort(base + BUF_INDEX, (short) bufIndex);
+		descs.putInt(base + FD, fd);
+		descs.putLong(base + ADDR, addr);
+		descs.putInt(base + LEN, len);
+		descs.putInt(base + RW_FLAGS, rwFlags);
+		descs.putLong(base + OFFSET, offset);
+		descs.putLong(base + USER_DATA, userData);
+		descs.putShort(base + IOPRIO, (short) ioprio);
+		descs.putShort(base + IOPRIO + 2, (short) 0);
+		descs.putInt(base + SPLICE_FD_IN, 0);
+	}
+
+	/**
+	 * read into raw memory [address, address + len)
+	 * @return request-Id
+	 */
+	public long read(FileDescriptor fd, long offset, long address, int len) {
+		ring.checkAligned(offset, address, len);
+		return addFile(IoURing.Op.READ, fd, address, len, offset, 0, 0);
+	}
+
+	/**
+	 * write from raw memory [address, address + len)
+	 * @return request-Id
+	 */
+	public long write(FileDescriptor fd, long offset, long address, int len) {
+		ring.checkAligned(offset, address, len);
+		return addFile(IoURing.Op.WRITE, fd, address, len, offset, 0, 0);
+	}
+
+	/**
+	 * read into direct buffer [position, limit), position is not changed
+	 * @return request-Id
+	 */
+	public long read(FileDescriptor fd, long offset, ByteBuffer dst) {
+		return read(fd, offset, directAddress(dst), dst.remaining());
+	}
+
+	/**
+	 * write from direct buffer [position, limit), position is not changed
+	 * @return request-Id
+	 */
+	public long write(FileDescriptor fd, long offset, ByteBuffer src) {
+		return write(fd, offset, directAddress(src), src.remaining());
+	}
+
+	public long readFixed(FileDescriptor fd, long offset, FixedBuffer buf, int bufPos, int len) {
+		ring.checkAligned(offset, buf.address + bufPos, len);
+		return addFile(IoURing.Op.READ_FIXED, fd, buf.address + bufPos, len, offset, 0, buf.index);
+	}
+
+	public long writeFixed(FileDescriptor fd, long offset, FixedBuffer buf, int bufPos, int len) {
+		ring.checkAligned(offset, buf.address + bufPos, len);
+		return addFile(IoURing.Op.WRITE_FIXED, fd, buf.address + bufPos, len, offset, 0, buf.index);
+	}
+
+	/**
+	 * @param fsyncFlags 0 or IORING_FSYNC_DATASYNC
+	 */
+	public long fsync(FileDescriptor fd, int fsyncFlags) {
+		return addFile(IoURing.Op.FSYNC, fd, 0, 0, 0, fsyncFlags, 0);
+	}
+
+	/**
+	 * splice(2) len bytes from in to out, one of them must be a pipe
+	 * @param inOffset -1 for a pipe or socket, which have no offset
+	 * @param outOffset -1 for a pipe or socket
+	 * @param flags see {@link IoURing.SpliceFlags}
+	 * @return request-Id
+	 */
+	public long splice(FileDescriptor in, long inOffset, FileDescriptor out, long outOffset, int len, int flags) {
+		return addSplice(IoURing.Op.SPLICE, in, inOffset, out, outOffset, len, flags);
+	}
+
+	/**
+	 * tee(2) len bytes from pipe in to pipe out, without consuming them from in
+	 * @return request-Id
+	 */
+	public long tee(FileDescriptor in, FileDescriptor out, int len, int flags) {
+		return addSplice(IoURing.Op.TEE, in, 0, out, 0, len, flags);
+	}
+
+	// splice/tee with a request-Id of the batch, taken once both files are resolved
+	private long addSplice(int opcode, FileDescriptor in, long inOffset, FileDescriptor out, long outOffset, int len, int flags) {
+		checkRoom();
+		int inSlot = ring.fixedFileSlot(in);
+		int outSlot = ring.fixedFileSlot(out);
+		long reqId = ring.nextRequestId();
+		addResolved(opcode, out, outSlot, inOffset, len, outOffset, inSlot >= 0 ? flags | IoURing.SpliceFlags.FD_IN_FIXED : flags, 0, reqId);
+		descs.putInt((size - 1) * DESC_SIZE + SPLICE_FD_IN, inSlot >= 0 ? inSlot : IoURing.fdOf(in));
+		owned[size - 1] = true;
+		return reqId;
+	}
+
+	/**
+	 * add a splice/tee, the input offset goes in addr and the input fd in splice_fd_in,
+	 * each side by registered slot if the ring use fixed files
+	 */
+	long addSplice(int opcode, FileDescriptor in, long inOffset, FileDescriptor out, long outOffset, int len, int flags, long reqId) {
+		int inSlot = ring.fixedFileSlot(in);
+		if (inSlot >= 0) {
+			flags |= IoURing.SpliceFlags.FD_IN_FIXED;
+		}
+		addFile(opcode, out, inOffset, len, outOffset, flags, 0, reqId);
+		descs.putInt((size - 1) * DESC_SIZE + SPLICE_FD_IN, inSlot >= 0 ? inSlot : IoURing.fdOf(in));
+		return reqId;
+	}
+
+	/**
+	 * add a request against fd, by registered slot if the ring use fixed files
+	 */
+	private long addFile(int opcode, FileDescriptor fd, long addr, int len, long offset, int rwFlags, int bufIndex) {
+		checkRoom();
+		// resolving may throw (e.g. file table full), take the request-Id after it
+		int slot = ring.fixedFileSlot(fd);
+		long reqId = ring.nextRequestId();
+		addResolved(opcode, fd, slot, addr, len, offset, rwFlags, bufIndex, reqId);
+		owned[size - 1] = true;
+		return reqId;
+	}
+
+	long addFile(int opcode, FileDescriptor fd, long addr, int len, long offset, int rwFlags, int bufIndex, long reqId) {
+		addResolved(opcode, fd, ring.fixedFileSlot(fd), addr, len, offset, rwFlags, bufIndex, reqId);
+		return reqId;
+	}
+
+	private void addResolved(int opcode, FileDescriptor fd, int slot, long addr, int len, long offset, int rwFlags, int bufIndex, long reqId) {
+		if (!ring.rwSupported() && (opcode == IoURing.Op.READ || opcode == IoURing.Op.WRITE)) {
+			// kernel before 5.6
+			opcode = opcode == IoURing.Op.READ ? IoURing.Op.READV : IoURing.Op.WRITEV;
+			addr = ring.singleIovec(reqId, addr, len);
+			len = 1;
+		}
+		if (slot >= 0) {
+			add(opcode, IoURing.SqeFlags.FIXED_FILE, slot, addr, len, offset, rwFlags, bufIndex, reqId);
+		} else {
+			add(opcode, 0, IoURing.fdOf(fd), addr, len, offset, rwFlags, bufIndex, reqId);
+		}
+	}
+
+	private void checkRoom() {
+		if (size == capacity) {
+			throw new IllegalStateException("batch full: " + capacity);
+		}
+	}
+
+	private static long directAddress(ByteBuffer buf) {
+		if (!buf.isDirect()) {
+			throw new IllegalArgumentException("batch only accept direct buffer");
+		}
+		return IoURing.address(buf) + buf.position();
+	}
+
+	/**
+	 * turn descriptors into SQEs and submit, in one native call per SQ-full
+	 * @return number of requests submitted, requests not fit in the SQ are kept in the batch
+	 */
+	public int submit() {
+		int total = 0;
+		while (size > 0) {
+			int n = ring.prepareBatch(this, true);
+			if (n == 0) {
+				break;
+			}
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * turn descriptors into SQEs without submit, {@link IoURing#submit()} later
+	 * @return number of SQEs prepared, requests not fit in the SQ are kept in the batch
+	 */
+	public int prepare() {
+		return ring.prepareBatch(this, false);
+	}
+
+	/**
+	 * drop first n descriptors which turned into SQEs
+	 */
+	void consumed(int n) {
+		if (n >= size) {
+			size = 0;
+			return;
+		}
+		ByteBuffer src = descs.duplicate();
+		src.limit(size * DESC_SIZE).position(n * DESC_SIZE);
+		ByteBuffer dst = descs.duplicate();
+		dst.position(0);
+		dst.put(src);
+		System.arraycopy(owned, n, owned, 0, size - n);
+		size -= n;
+	}
+
+	/**
+	 * drop the descriptors not turned into SQEs, request-Ids taken by {@link #read}, {@link #write}, {@link #fsync},
+	 * {@link #splice} ... are released, user_data given to {@link #add} is the caller's
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			if (owned[i]) {
+				owned[i] = false;
+				ring.prepareFailed(userData(descs, i), 0);
+			}
+		}
+		size = 0;
+	}
+}
@@ -0,0 +1,293 @@
+package org.chinaxing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free MPSC queue of SQE descriptors in front of a ring
+ *
+ * liburing SQ is single producer, this queue let any thread prepare requests:
+ * 1) producers claim a slot by CAS, write the descriptor (same layout as {@link SubmissionBatch})
+ *    into off-heap memory and publish the slot
+ * 2) one submitter at a time (whoever call {@link #drain(IoURing)} and win the drain flag) turn
+ *    all published descriptors into SQEs and submit them once
+ *
+ * threads which find another thread draining return immediately, their requests are picked up
+ * by the drainer, so submits are batched naturally under load.
+ * a producer finding the queue full waits for that drainer, or drains itself, see {@link #makeRoom(IoURing)}.
+ *
+ * slot sequence follow the bounded queue of D. Vyukov:
+ * seq == pos : free for producer of pos, seq == pos + 1 : published, seq == pos + capacity : consumed
+ */
+public class SubmitQueue {
+	/**
+	 * request-Id of the NOPs padding the end of the array before a chain, never a valid request-Id
+	 * (they don't have the top bit set) nor the wakeup NOP of {@link AsyncIO}
+	 */
+	static final long PADDING_REQ_ID = -1;
+
+	private final int capacity;
+	private final int mask;
+	private final ByteBuffer descs;
+	private final long address;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	// next slot to consume, only written by the drainer
+	private volatile long head;
+	// slots before it are submitted to kernel, only written by the drainer
+	private volatile long submitted;
+	private final AtomicBoolean draining = new AtomicBoolean();
+	// last drain stopped by full SQ without any progress
+	private volatile boolean stalled;
+
+	/**
+	 * @param capacity rounded up to power of two
+	 */
+	public SubmitQueue(int capacity) {
+		int cap = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.capacity = cap;
+		this.mask = cap - 1;
+		this.descs = ByteBuffer.allocateDirect(cap * SubmissionBatch.DESC_SIZE).order(ByteOrder.nativeOrder());
+		this.address = IoURing.address(descs);
+		this.sequences = new AtomicLongArray(cap);
+		for (int i = 0; i < cap; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * number of descriptors queued and not drained yet
+	 */
+	public int size() {
+		return (int) (tail.get() - head);
+	}
+
+	/**
+	 * position of the next descriptor enqueued, descriptors enqueued so far are before it
+	 */
+	long position() {
+		return tail.get();
+	}
+
+	/**
+	 * descriptors before this position are submitted to kernel
+	 */
+	long submitted() {
+		return submitted;
+	}
+
+	/**
+	 * claim a slot
+	 * @return position of the slot, -1 if queue full
+	 */
+	private long claim() {
+		while (true) {
+			long pos = tail.get();
+			long seq = sequences.get((int) pos & mask);
+			if (seq == pos) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					return pos;
+				}
+			} else if (seq < pos) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * enqueue a descriptor, see {@link SubmissionBatch#add}
+	 * @return false if queue full
+	 */
+	public boolean offer(int opcode, int flags, int fd, long addr, int len, long offset, int rwFlags, int bufIndex, long userData) {
+		return offer(opcode, flags, 0, fd, addr, len, offset, rwFlags, bufIndex, userData);
+	}
+
+	public boolean offer(int opcode, int flags, int ioprio, int fd, long addr, int len, long offset, int rwFlags, int bufIndex, long userData) {
+		long pos = claim();
+		if (pos < 0) {
+			return false;
+		}
+		int base = ((int) pos & mask) * SubmissionBatch.DESC_SIZE;
+		SubmissionBatch.write(descs, base, opcode, flags, ioprio, fd, addr, len, offset, rwFlags, bufIndex, userData);
+		sequences.set((int) pos & mask, pos + 1);
+		return true;
+	}
+
+	/**
+	 * enqueue a descriptor copied from src at srcBase
+	 * @return false if queue full
+	 */
+	boolean offer(ByteBuffer src, int srcBase) {
+		long pos = claim();
+		if (pos < 0) {
+			return false;
+		}
+		int base = ((int) pos & mask) * SubmissionBatch.DESC_SIZE;
+		copy(src, srcBase, base);
+		sequences.set((int) pos & mask, pos + 1);
+		return true;
+	}
+
+	/**
+	 * enqueue n descriptors from src at srcBase into contiguous slots, all or nothing.
+	 * used for linked chains, which must reach the SQ in one prepare call.
+	 * when the slots would wrap around the end of the array, the end is filled with NOPs of {@link #PADDING_REQ_ID}
+	 * @return false if queue has no room for them
+	 */
+	boolean offerAll(ByteBuffer src, int srcBase, int n) {
+		if (n > capacity) {
+			throw new IllegalArgumentException("chain longer than submit queue: " + n);
+		}
+		while (true) {
+			long pos = tail.get();
+			int idx = (int) pos & mask;
+			int pad = idx + n > capacity ? capacity - idx : 0;
+			int k = pad > 0 ? pad : n;
+			long last = pos + k - 1;
+			long seq = sequences.get((int) last & mask);
+			if (seq == last) {
+				if (!tail.compareAndSet(pos, pos + k)) {
+					continue;
+				}
+				for (int i = 0; i < k; i++) {
+					int base = ((int) (pos + i) & mask) * SubmissionBatch.DESC_SIZE;
+					if (pad > 0) {
+						SubmissionBatch.write(descs, base, IoURing.Op.NOP, 0, 0, -1, 0, 0, 0, 0, 0, PADDING_REQ_ID);
+					} else {
+						copy(src, srcBase + i * SubmissionBatch.DESC_SIZE, base);
+					}
+				}
+				for (int i = 0; i < k; i++) {
+					sequences.set((int) (pos + i) & mask, pos + i + 1);
+				}
+				if (pad == 0) {
+					return true;
+				}
+			} else if (seq < last && tail.get() == pos) {
+				return false;
+			}
+		}
+	}
+
+	private void copy(ByteBuffer src, int srcBase, int base) {
+		for (int i = 0; i < SubmissionBatch.DESC_SIZE; i += 8) {
+			descs.putLong(base + i, src.getLong(srcBase + i));
+		}
+	}
+
+	/**
+	 * descriptors [idx, end) are all linked, the end of the chain is not published yet
+	 */
+	private boolean chainIncomplete(int idx, int end) {
+		for (int i = idx; i < end; i++) {
+			if (!SubmissionBatch.isLinked(descs, i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean hasPublished() {
+		long h = head;
+		return sequences.get((int) h & mask) == h + 1;
+	}
+
+	/**
+	 * turn published descriptors into SQEs and submit, if no other thread is doing it
+	 * @return number of requests submitted by this call
+	 */
+	public int drain(IoURing ring) {
+		int total = 0;
+		do {
+			if (!draining.compareAndSet(false, true)) {
+				return total;
+			}
+			boolean stop;
+			try {
+				total += drain0(ring);
+				stop = stalled;
+			} finally {
+				draining.set(false);
+			}
+			if (stop) {
+				// SQ can't take more now, left for next drain
+				return total;
+			}
+			// requests published after we stopped looking
+		} while (hasPublished());
+		return total;
+	}
+
+	/**
+	 * make room for a producer which found the queue full: wait for the thread draining it,
+	 * or drain it if nobody is
+	 * @return false if no room can be made now, the SQ is full
+	 */
+	boolean makeRoom(IoURing ring) {
+		long h = head;
+		if (draining.get()) {
+			while (draining.get() && head == h) {
+				Thread.yield();
+			}
+			// the drainer stopped without progress, next call drain itself
+			return true;
+		}
+		drain(ring);
+		if (head != h) {
+			return true;
+		}
+		if (stalled) {
+			return false;
+		}
+		// the head slot is claimed and not published yet
+		Thread.yield();
+		return true;
+	}
+
+	private int drain0(IoURing ring) {
+		int total = 0;
+		while (true) {
+			int prepared = 0;
+			boolean sqFull = false;
+			while (true) {
+				long h = head;
+				int idx = (int) h & mask;
+				int n = 0;
+				// contiguous published slots up to the end of the array
+				while (idx + n < capacity && sequences.get(idx + n) == h + n + 1) {
+					n++;
+				}
+				if (n == 0) {
+					break;
+				}
+				int k = ring.prepareDescriptors(address + (long) idx * SubmissionBatch.DESC_SIZE, n);
+				for (int i = 0; i < k; i++) {
+					sequences.set(idx + i, h + i + capacity);
+				}
+				head = h + k;
+				prepared += k;
+				if (k < n) {
+					// a chain still being published is not SQ full, drain retry until it's complete
+					sqFull = !chainIncomplete(idx + k, idx + n);
+					break;
+				}
+			}
+			if (prepared > 0) {
+				ring.submitPrepared();
+				submitted = head;
+				total += prepared;
+			}
+			if (!sqFull || prepared == 0) {
+				stalled = sqFull;
+				return total;
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package org.chinaxing;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * TCP connection served through the ring of an {@link AsyncIO}
+ *
+ * every recv/send is an SQE and completes its future on the completion loop,
+ * results follow the ring: bytes transferred, 0 for end of stream, -errno on error.
+ *
+ * requests issued from callbacks on the completion loop are submitted by the loop once per reap batch,
+ * requests from other threads are submitted right away.
+ */
+public class TcpConnection implements AutoCloseable {
+	private static final int ENOBUFS = 105;
+
+	/**
+	 * consumer of {@link #recvMultishot(BufferRing, Receiver)}, called on the completion loop
+	 */
+	public interface Receiver {
+		/**
+		 * data is valid only during the call, its buffer is recycled when returned
+		 */
+		void received(ByteBuffer data);
+
+		/**
+		 * receiving stopped, res is 0 for end of stream or -errno
+		 */
+		void stopped(long res);
+	}
+
+	private final AsyncIO io;
+	private final FileDescriptor fd;
+	// channel owning fd, null if fd is accepted by the ring and owned by this connection
+	private final SocketChannel channel;
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	TcpConnection(AsyncIO io, FileDescriptor fd, SocketChannel channel) {
+		this.io = io;
+		this.fd = fd;
+		this.channel = channel;
+	}
+
+	/**
+	 * connect to remote through the ring
+	 * @return future completed with the connection, or exceptionally with IOException
+	 */
+	public static CompletableFuture<TcpConnection> connect(AsyncIO io, InetSocketAddress remote) throws IOException {
+		SocketChannel ch = SocketChannel.open();
+		final TcpConnection conn = new TcpConnection(io, IoURing.descriptorOf(ch), ch);
+		return conn.submitted(io.prepareConnect(conn.fd, remote)).thenApply(res -> {
+			if (res < 0) {
+				conn.close();
+				throw new CompletionException(new IOException("connect " + remote + " errno: " + -res));
+			}
+			return conn;
+		});
+	}
+
+	public FileDescriptor fd() {
+		return fd;
+	}
+
+	/**
+	 * receive into dst [position, limit), position advanced by bytes received
+	 */
+	public CompletableFuture<Long> recv(ByteBuffer dst) {
+		return submitted(io.prepareRecv(fd, dst, 0));
+	}
+
+	/**
+	 * keep receiving into buffers picked by kernel from a shared {@link BufferRing}, with one SQE.
+	 * re-armed when the kernel stop it for running out of buffers
+	 */
+	public void recvMultishot(final BufferRing buffers, final Receiver receiver) {
+		io.prepareMultishotRecv(fd, buffers, new AsyncIO.CompletionHandler() {
+			@Override
+			public void completed(long res, int cqeFlags) {
+				if (res > 0 && (cqeFlags & IoURing.CqeFlags.BUFFER) != 0) {
+					int bid = IoURing.CqeFlags.bufferId(cqeFlags);
+					try {
+						receiver.received(buffers.buffer(bid, (int) res));
+					} finally {
+						buffers.recycle(bid);
+					}
+				}
+				if (IoURing.CqeFlags.hasMore(cqeFlags)) {
+					return;
+				}
+				if ((res > 0 || res == -ENOBUFS) && !closed.get()) {
+					recvMultishot(buffers, receiver);
+				} else {
+					receiver.stopped(res);
+				}
+			}
+		});
+		if (!io.inCompletionLoop()) {
+			io.submit();
+		}
+	}
+
+	/**
+	 * send src [position, limit) once, may be partial
+	 */
+	public CompletableFuture<Long> send(ByteBuffer src) {
+		return submitted(io.prepareSend(fd, src, 0));
+	}
+
+	/**
+	 * send until src has no remaining
+	 * @return future of total bytes sent, or the -errno of the failed send
+	 */
+	public CompletableFuture<Long> sendFully(ByteBuffer src) {
+		return sendFully(src, 0);
+	}
+
+	private CompletableFuture<Long> sendFully(ByteBuffer src, long sent) {
+		return send(src).thenCompose(res -> {
+			if (res < 0) {
+				return CompletableFuture.completedFuture(res);
+			}
+			if (!src.hasRemaining()) {
+				return CompletableFuture.completedFuture(sent + res);
+			}
+			return sendFully(src, sent + res);
+		});
+	}
+
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	/**
+	 * close the socket, requests in flight complete with error
+	 */
+	@Override
+	public void close() {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+		if (channel != null) {
+			// the slot would keep the socket open after close
+			FileTable files = io.ring().fileTable();
+			if (files != null) {
+				files.unregister(fd);
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		} else {
+			submitted(io.prepareClose(fd));
+		}
+	}
+
+	private <T> T submitted(T request) {
+		if (!io.inCompletionLoop()) {
+			io.submit();
+		}
+		return request;
+	}
+}
@@ -0,0 +1,210 @@
+package org.chinaxing;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Completion based TCP server on an {@link AsyncIO}
+ *
+ * the listening socket is bound by java, then accepts, receives and sends all go through the ring:
+ * 1) pendingAccepts accept SQEs are kept in flight, each completion re-arm one,
+ *    or one multishot accept SQE post a completion per connection (kernel 5.19+)
+ * 2) accepted connections are handed to the {@link Handler} on the completion loop
+ * 3) handler issue recv/send on the {@link TcpConnection}, they are submitted once per reap batch
+ * 4) an accept failing with a transient error (out of fds or memory, aborted connection) is re-armed
+ *    after a backoff timer in the ring, doubling up to 1s, any other error stops accepting
+ *
+ * completions of thousands of connections are reaped in batches by the one completion loop,
+ * there is no readiness notification and no per-connection syscall besides the io itself.
+ * handlers run on the completion loop and must not block.
+ */
+public class TcpServer implements AutoCloseable {
+	public interface Handler {
+		/**
+		 * called on the completion loop with a new connection
+		 */
+		void accepted(TcpConnection connection);
+
+		/**
+		 * accepting stopped by an error which is not transient, res is -errno. not called after {@link #close()}
+		 */
+		default void stopped(long res) {
+		}
+	}
+
+	private static final int EINTR = 4;
+	private static final int EAGAIN = 11;
+	private static final int ENOMEM = 12;
+	// a deferred accept or backoff timer failed to prepare, not retried
+	private static final int EBUSY = 16;
+	private static final int ENFILE = 23;
+	private static final int EMFILE = 24;
+	private static final int ECONNABORTED = 103;
+	private static final int ENOBUFS = 105;
+	private static final long MIN_BACKOFF_NANOS = 1000000L;
+	private static final long MAX_BACKOFF_NANOS = 1000000000L;
+
+	private final AsyncIO io;
+	private final ServerSocketChannel channel;
+	private final FileDescriptor fd;
+	private final Handler handler;
+	// single accepts in flight, cancelled by close
+	private final Set<CompletableFuture<Long>> pending = ConcurrentHashMap.newKeySet();
+	// request-Id of the armed multishot accept, -1 if none
+	private volatile long multishotId = -1;
+	private final AtomicBoolean stopped = new AtomicBoolean();
+	// delay before re-arming after a transient error, 0 after a success, touched on the completion loop
+	private long backoffNanos;
+	private volatile boolean closed;
+	// handler of the multishot accept CQEs
+	private final AsyncIO.CompletionHandler multishot = new AsyncIO.CompletionHandler() {
+		@Override
+		public void completed(long res, int cqeFlags) {
+			if (closed) {
+				if (res >= 0) {
+					io.prepareClose(IoURing.newDescriptor((int) res));
+				}
+				return;
+			}
+			if (res < 0) {
+				// an error always ends the multishot accept
+				acceptFailed(res, TcpServer.this::acceptMultishot);
+				return;
+			}
+			backoffNanos = 0;
+			if (!IoURing.CqeFlags.hasMore(cqeFlags)) {
+				acceptMultishot();
+			}
+			handler.accepted(new TcpConnection(io, IoURing.newDescriptor((int) res), null));
+		}
+	};
+
+	/**
+	 * bind and start accepting
+	 * @param backlog listen backlog
+	 * @param pendingAccepts accept SQEs kept in flight
+	 */
+	public TcpServer(AsyncIO io, InetSocketAddress bind, int backlog, int pendingAccepts, Handler handler) throws IOException {
+		this(io, bind, backlog, pendingAccepts, false, handler);
+	}
+
+	/**
+	 * bind and accept with one multishot accept SQE
+	 */
+	public static TcpServer multishot(AsyncIO io, InetSocketAddress bind, int backlog, Handler handler) throws IOException {
+		return new TcpServer(io, bind, backlog, 1, true, handler);
+	}
+
+	private TcpServer(AsyncIO io, InetSocketAddress bind, int backlog, int pendingAccepts, boolean multishot, Handler handler) throws IOException {
+		if (pendingAccepts <= 0) {
+			throw new IllegalArgumentException("pendingAccepts: " + pendingAccepts);
+		}
+		this.io = io;
+		this.handler = handler;
+		this.channel = ServerSocketChannel.open();
+		this.channel.bind(bind, backlog);
+		this.fd = IoURing.descriptorOf(channel);
+		if (multishot) {
+			acceptMultishot();
+		} else {
+			for (int i = 0; i < pendingAccepts; i++) {
+				accept();
+			}
+		}
+		if (!io.inCompletionLoop()) {
+			io.submit();
+		}
+	}
+
+	public InetSocketAddress localAddress() throws IOException {
+		return (InetSocketAddress) channel.getLocalAddress();
+	}
+
+	private void accept() {
+		CompletableFuture<Long> f = io.prepareAccept(fd);
+		pending.add(f);
+		f.thenAccept(res -> {
+			pending.remove(f);
+			accepted(res);
+		});
+		// raced with close
+		if (closed) {
+			f.cancel(false);
+		}
+	}
+
+	private void accepted(long res) {
+		if (closed) {
+			if (res >= 0) {
+				io.prepareClose(IoURing.newDescriptor((int) res));
+			}
+			return;
+		}
+		if (res < 0) {
+			acceptFailed(res, this::accept);
+			return;
+		}
+		backoffNanos = 0;
+		accept();
+		handler.accepted(new TcpConnection(io, IoURing.newDescriptor((int) res), null));
+	}
+
+	private void acceptMultishot() {
+		io.admission().admit(1, e -> acceptFailed(-EBUSY, this::acceptMultishot), () -> {
+			long id = multishotId = io.ring().prepareMultishotAccept(fd, multishot);
+			// raced with close
+			if (closed) {
+				io.cancelRequest(id);
+			}
+		});
+	}
+
+	/**
+	 * re-arm after a backoff if res is transient, else stop and tell the handler
+	 */
+	private void acceptFailed(long res, Runnable rearm) {
+		if (!isTransient(res)) {
+			if (stopped.compareAndSet(false, true)) {
+				handler.stopped(res);
+			}
+			return;
+		}
+		backoffNanos = backoffNanos == 0 ? MIN_BACKOFF_NANOS : Math.min(MAX_BACKOFF_NANOS, backoffNanos << 1);
+		long delay = backoffNanos;
+		// no timer, no re-arm: stop
+		io.admission().admit(1, e -> acceptFailed(-EBUSY, rearm), () -> io.ring().prepareTimeout(delay, (AsyncIO.CompletionHandler) (r, flags) -> {
+			if (!closed) {
+				rearm.run();
+			}
+		}));
+	}
+
+	private static boolean isTransient(long res) {
+		int errno = (int) -res;
+		return errno == EINTR || errno == EAGAIN || errno == ENOMEM || errno == ENFILE || errno == EMFILE
+			|| errno == ECONNABORTED || errno == ENOBUFS;
+	}
+
+	/**
+	 * stop accepting and close the listening socket, accepted connections are not affected.
+	 * accepts in flight are cancelled in the kernel, a connection accepted meanwhile is closed
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		long id = multishotId;
+		if (id >= 0) {
+			io.cancelRequest(id);
+		}
+		for (CompletableFuture<Long> f : pending) {
+			f.cancel(false);
+		}
+		channel.close();
+	}
+}
@@ -0,0 +1,7 @@
+package org.chinaxing.exception;
+
+public class RegisterException extends IoURingException {
+	public RegisterException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,400 @@
+package org.chinaxing;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.invoke.MethodHandle;
+
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT;
+
+/**
+ * {@link RingBackend} on the Foreign Function and Memory api, no liburing and no jni library
+ *
+ * the ring is set up by io_uring_setup(2) and mmap(2) called through libc downcalls,
+ * SQ/CQ are accessed from java by {@link DirectRing}, io_uring_enter(2) and io_uring_register(2) are raw syscalls.
+ * all downcalls are normal ones, none is critical: io_uring_enter may run requests inline or wait for SQ room
+ * even without IORING_ENTER_GETEVENTS, io_uring_register waits for the ring to quiesce, mmap populates the rings,
+ * so the thread must stay safepoint-safe in all of them.
+ *
+ * need kernel 5.6+ (IORING_OP_READ/WRITE, probe), timed waits need 5.11+ (IORING_FEAT_EXT_ARG).
+ * run with --enable-native-access=ALL-UNNAMED to silence the restricted method warning.
+ */
+public class ForeignRing implements RingBackend {
+	// same number on all architectures, io_uring came after the unified syscall table
+	private static final long SYS_IO_URING_SETUP = 425, SYS_IO_URING_ENTER = 426, SYS_IO_URING_REGISTER = 427;
+	private static final int REGISTER_BUFFERS = 0, UNREGISTER_BUFFERS = 1, REGISTER_FILES = 2, UNREGISTER_FILES = 3,
+		REGISTER_FILES_UPDATE = 6, REGISTER_PROBE = 8, REGISTER_PBUF_RING = 22, UNREGISTER_PBUF_RING = 23;
+	private static final long OFF_SQ_RING = 0, OFF_CQ_RING = 0x8000000L, OFF_SQES = 0x10000000L;
+	private static final int PROT_READ_WRITE = 0x1 | 0x2, MAP_SHARED_POPULATE = 0x1 | 0x8000;
+	private static final int PROBE_OPS = 256, PROBE_OP_SUPPORTED = 1;
+
+	// struct io_uring_params
+	private static final int PARAMS_SIZE = 120;
+	private static final long P_SQ_ENTRIES = 0, P_CQ_ENTRIES = 4, P_FLAGS = 8, P_SQ_THREAD_CPU = 12,
+		P_SQ_THREAD_IDLE = 16, P_FEATURES = 20, P_WQ_FD = 24, P_SQ_OFF = 40, P_CQ_OFF = 80;
+	// struct io_sqring_offsets, struct io_cqring_offsets
+	private static final long SO_HEAD = 0, SO_TAIL = 4, SO_RING_MASK = 8, SO_RING_ENTRIES = 12, SO_FLAGS = 16, SO_ARRAY = 24;
+	private static final long CO_HEAD = 0, CO_TAIL = 4, CO_RING_MASK = 8, CO_RING_ENTRIES = 12, CO_CQES = 20;
+
+	private static final Linker LINKER = Linker.nativeLinker();
+	private static final StructLayout CALL_STATE = Linker.Option.captureStateLayout();
+	private static final long ERRNO = CALL_STATE.byteOffset(MemoryLayout.PathElement.groupElement("errno"));
+	// long syscall(long number, ...), always passed 6 args
+	private static final MethodHandle SYSCALL = syscall();
+	private static final MethodHandle MMAP = downcall("mmap",
+		FunctionDescriptor.of(ADDRESS, ADDRESS, JAVA_LONG, JAVA_INT, JAVA_INT, JAVA_INT, JAVA_LONG));
+	private static final MethodHandle MUNMAP = downcall("munmap", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_LONG));
+	private static final MethodHandle CLOSE = downcall("close", FunctionDescriptor.of(JAVA_INT, JAVA_INT));
+	// errno captured by the syscalls of each thread
+	private static final ThreadLocal<MemorySegment> CALL_STATES =
+		ThreadLocal.withInitial(() -> Arena.ofAuto().allocate(CALL_STATE));
+
+	private final int queueDepth;
+	private final long flags;
+	private final int sqThreadCpu;
+	private final int sqThreadIdle;
+	private final int cqEntries;
+	private final int wqFd;
+	// params and other memory living as long as the ring
+	private final Arena arena = Arena.ofShared();
+	private MemorySegment params;
+	// copied from params at setup, params is gone after exit
+	private int features;
+	private int cqSize;
+	private int ringFd = -1;
+	private MemorySegment sqRing, cqRing, sqes;
+	private long sqRingSize, cqRingSize, sqesSize;
+	private boolean rwSupported;
+	private DirectRing direct;
+
+	public ForeignRing(int queueDepth, long flags, int sqThreadCpu, int sqThreadIdle, int cqEntries, int wqFd) {
+		this.queueDepth = queueDepth;
+		this.flags = flags;
+		this.sqThreadCpu = sqThreadCpu;
+		this.sqThreadIdle = sqThreadIdle;
+		this.cqEntries = cqEntries;
+		this.wqFd = wqFd;
+	}
+
+	private static MethodHandle syscall() {
+		FunctionDescriptor fd = FunctionDescriptor.of(JAVA_LONG,
+			JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_LONG, JAVA_LONG);
+		Linker.Option variadic = Linker.Option.firstVariadicArg(1);
+		Linker.Option errno = Linker.Option.captureCallState("errno");
+		return LINKER.downcallHandle(LINKER.defaultLookup().find("syscall").orElseThrow(), fd, variadic, errno);
+	}
+
+	private static MethodHandle downcall(String name, FunctionDescriptor fd) {
+		return LINKER.downcallHandle(LINKER.defaultLookup().find(name).orElseThrow(), fd);
+	}
+
+	/**
+	 * @return result of the syscall, or -errno
+	 */
+	private static long syscall(long nr, long a1, long a2, long a3, long a4, long a5, long a6) {
+		MemorySegment state = CALL_STATES.get();
+		long ret;
+		try {
+			ret = (long) SYSCALL.invokeExact(state, nr, a1, a2, a3, a4, a5, a6);
+		} catch (Throwable t) {
+			throw new IllegalStateException("syscall " + nr, t);
+		}
+		return ret == -1 ? -state.get(JAVA_INT, ERRNO) : ret;
+	}
+
+	private int register(int opcode, long arg, int nrArgs) {
+		return (int) syscall(SYS_IO_URING_REGISTER, ringFd, opcode, arg, nrArgs, 0, 0);
+	}
+
+	private static MemorySegment mmap(long size, int fd, long offset) {
+		MemorySegment m;
+		try {
+			m = (MemorySegment) MMAP.invokeExact(MemorySegment.NULL, size, PROT_READ_WRITE, MAP_SHARED_POPULATE, fd, offset);
+		} catch (Throwable t) {
+			throw new IllegalStateException("mmap", t);
+		}
+		// MAP_FAILED
+		return m.address() == -1L ? null : m.reinterpret(size);
+	}
+
+	/**
+	 * @return 0, or -1 if failed
+	 */
+	private static int munmap(MemorySegment m) {
+		if (m == null) {
+			return 0;
+		}
+		try {
+			return (int) MUNMAP.invokeExact(m, m.byteSize());
+		} catch (Throwable t) {
+			throw new IllegalStateException("munmap", t);
+		}
+	}
+
+	/**
+	 * @return 0, or -1 if failed
+	 */
+	private static int close(int fd) {
+		try {
+			return (int) CLOSE.invokeExact(fd);
+		} catch (Throwable t) {
+			throw new IllegalStateException("close", t);
+		}
+	}
+
+	@Override
+	public void init() {
+		params = arena.allocate(PARAMS_SIZE, 8);
+		params.set(JAVA_INT, P_FLAGS, (int) flags);
+		if (sqThreadCpu >= 0) {
+			params.set(JAVA_INT, P_SQ_THREAD_CPU, sqThreadCpu);
+		}
+		if (sqThreadIdle > 0) {
+			params.set(JAVA_INT, P_SQ_THREAD_IDLE, sqThreadIdle);
+		}
+		if (cqEntries > 0) {
+			params.set(JAVA_INT, P_CQ_ENTRIES, cqEntries);
+		}
+		if (wqFd >= 0) {
+			params.set(JAVA_INT, P_WQ_FD, wqFd);
+		}
+		long fd = syscall(SYS_IO_URING_SETUP, queueDepth, params.address(), 0, 0, 0, 0);
+		if (fd < 0) {
+			arena.close();
+			throw new RuntimeException("initialize ret :" + fd);
+		}
+		ringFd = (int) fd;
+		features = params.get(JAVA_INT, P_FEATURES);
+		cqSize = params.get(JAVA_INT, P_CQ_ENTRIES);
+		int sqEntries = params.get(JAVA_INT, P_SQ_ENTRIES);
+		sqRingSize = sqOff(SO_ARRAY) + 4L * sqEntries;
+		cqRingSize = cqOff(CO_CQES) + (long) DirectRing.CQE_SIZE * cqSize;
+		boolean single = (features & IoURing.Features.SINGLE_MMAP) != 0;
+		if (single) {
+			sqRingSize = cqRingSize = Math.max(sqRingSize, cqRingSize);
+		}
+		sqesSize = (long) DirectRing.SQE_SIZE * sqEntries;
+		sqRing = mmap(sqRingSize, ringFd, OFF_SQ_RING);
+		cqRing = single ? sqRing : sqRing == null ? null : mmap(cqRingSize, ringFd, OFF_CQ_RING);
+		sqes = cqRing == null ? null : mmap(sqesSize, ringFd, OFF_SQES);
+		if (sqes == null) {
+			exit();
+			throw new RuntimeException("initialize mmap of ring failed");
+		}
+		rwSupported = probe(IoURing.Op.READ) && probe(IoURing.Op.WRITE);
+		direct = DirectRing.create(this);
+		if (direct == null) {
+			exit();
+			throw new RuntimeException("ffm backend need IORING_OP_READ/WRITE (kernel 5.6+)");
+		}
+	}
+
+	private long sqOff(long field) {
+		return params.get(JAVA_INT, P_SQ_OFF + field) & 0xffffffffL;
+	}
+
+	private long cqOff(long field) {
+		return params.get(JAVA_INT, P_CQ_OFF + field) & 0xffffffffL;
+	}
+
+	private boolean probe(int opcode) {
+		try (Arena a = Arena.ofConfined()) {
+			// struct io_uring_probe, 16 bytes then struct io_uring_probe_op { u8 op; u8 resv; u16 flags; u32 resv2; }
+			MemorySegment probe = a.allocate(16 + 8L * PROBE_OPS, 8);
+			if (register(REGISTER_PROBE, probe.address(), PROBE_OPS) < 0) {
+				return false;
+			}
+			int last = probe.get(JAVA_BYTE, 0) & 0xff;
+			return opcode <= last && (probe.get(JAVA_SHORT, 16 + 8L * opcode + 2) & PROBE_OP_SUPPORTED) != 0;
+		}
+	}
+
+	@Override
+	public int ringFd() {
+		return ringFd;
+	}
+
+	@Override
+	public int features() {
+		return features;
+	}
+
+	@Override
+	public int cqEntries() {
+		return cqSize;
+	}
+
+	@Override
+	public int ringLayout(long[] layout) {
+		if (layout.length < DirectRing.LAYOUT_SIZE) {
+			return -22;
+		}
+		long sq = sqRing.address(), cq = cqRing.address();
+		layout[DirectRing.SQ_HEAD] = sq + sqOff(SO_HEAD);
+		layout[DirectRing.SQ_TAIL] = sq + sqOff(SO_TAIL);
+		layout[DirectRing.SQ_MASK] = sqRing.get(JAVA_INT, sqOff(SO_RING_MASK));
+		layout[DirectRing.SQ_ENTRIES] = sqRing.get(JAVA_INT, sqOff(SO_RING_ENTRIES));
+		layout[DirectRing.SQ_FLAGS] = sq + sqOff(SO_FLAGS);
+		layout[DirectRing.SQ_ARRAY] = sq + sqOff(SO_ARRAY);
+		layout[DirectRing.SQES] = sqes.address();
+		layout[DirectRing.CQ_HEAD] = cq + cqOff(CO_HEAD);
+		layout[DirectRing.CQ_TAIL] = cq + cqOff(CO_TAIL);
+		layout[DirectRing.CQ_MASK] = cqRing.get(JAVA_INT, cqOff(CO_RING_MASK));
+		layout[DirectRing.CQ_ENTRIES] = cqRing.get(JAVA_INT, cqOff(CO_RING_ENTRIES));
+		layout[DirectRing.CQES] = cq + cqOff(CO_CQES);
+		layout[DirectRing.SETUP_FLAGS] = params.get(JAVA_INT, P_FLAGS);
+		layout[DirectRing.RW_SUPPORTED] = rwSupported ? 1 : 0;
+		return 0;
+	}
+
+	@Override
+	public DirectRing directRing() {
+		return direct;
+	}
+
+	@Override
+	public int enter(int ringFd, int toSubmit, int minComplete, int flags, long arg, int argSize) {
+		return (int) syscall(SYS_IO_URING_ENTER, ringFd, toSubmit, minComplete, flags, arg, argSize);
+	}
+
+	@Override
+	public void exit() {
+		munmap(sqes);
+		if (cqRing != sqRing) {
+			munmap(cqRing);
+		}
+		munmap(sqRing);
+		sqes = cqRing = sqRing = null;
+		if (ringFd >= 0) {
+			close(ringFd);
+			ringFd = -1;
+		}
+		if (arena.scope().isAlive()) {
+			arena.close();
+		}
+	}
+
+	@Override
+	public int registerBuffers(long[] buffers, long[] bufferLengths) {
+		try (Arena a = Arena.ofConfined()) {
+			MemorySegment iov = a.allocate(16L * buffers.length, 8);
+			for (int i = 0; i < buffers.length; i++) {
+				iov.set(JAVA_LONG, 16L * i, buffers[i]);
+				iov.set(JAVA_LONG, 16L * i + 8, bufferLengths[i]);
+			}
+			return register(REGISTER_BUFFERS, iov.address(), buffers.length);
+		}
+	}
+
+	@Override
+	public int unregisterBuffers() {
+		return register(UNREGISTER_BUFFERS, 0, 0);
+	}
+
+	@Override
+	public int registerFiles(int[] fds) {
+		try (Arena a = Arena.ofConfined()) {
+			MemorySegment s = a.allocate(4L * Math.max(1, fds.length), 4);
+			MemorySegment.copy(fds, 0, s, JAVA_INT, 0, fds.length);
+			return register(REGISTER_FILES, s.address(), fds.length);
+		}
+	}
+
+	@Override
+	public int registerFilesUpdate(int offset, int[] fds) {
+		try (Arena a = Arena.ofConfined()) {
+			MemorySegment s = a.allocate(4L * Math.max(1, fds.length), 4);
+			MemorySegment.copy(fds, 0, s, JAVA_INT, 0, fds.length);
+			// struct io_uring_files_update { u32 offset; u32 resv; u64 fds; }
+			MemorySegment up = a.allocate(16, 8);
+			up.set(JAVA_INT, 0, offset);
+			up.set(JAVA_LONG, 8, s.address());
+			return register(REGISTER_FILES_UPDATE, up.address(), fds.length);
+		}
+	}
+
+	@Override
+	public int unregisterFiles() {
+		return register(UNREGISTER_FILES, 0, 0);
+	}
+
+	@Override
+	public int registerBufRing(long ringAddr, int entries, int bgid) {
+		return bufReg(REGISTER_PBUF_RING, ringAddr, entries, bgid);
+	}
+
+	@Override
+	public int unregisterBufRing(int bgid) {
+		return bufReg(UNREGISTER_PBUF_RING, 0, 0, bgid);
+	}
+
+	// struct io_uring_buf_reg { u64 ring_addr; u32 ring_entries; u16 bgid; u16 flags; u64 resv[3]; }
+	private int bufReg(int opcode, long ringAddr, int entries, int bgid) {
+		try (Arena a = Arena.ofConfined()) {
+			MemorySegment reg = a.allocate(40, 8);
+			reg.set(JAVA_LONG, 0, ringAddr);
+			reg.set(JAVA_INT, 8, entries);
+			reg.set(JAVA_SHORT, 12, (short) bgid);
+			return register(opcode, reg.address(), 1);
+		}
+	}
+
+	@Override
+	public int prepare(int opcode, int flags, int ioprio, int fd, long addr, int len, long offset, int rwFlags, int bufIndex, long reqId) {
+		return direct.prepare(opcode, flags, ioprio, fd, addr, len, offset, rwFlags, bufIndex, reqId) ? 0 : -1;
+	}
+
+	@Override
+	public int prepareBatch(long descs, int count, int[] submitRet) {
+		int n = direct.prepareBatch(descs, count);
+		if (submitRet != null && n > 0) {
+			submitRet[0] = direct.submit();
+		}
+		return n;
+	}
+
+	@Override
+	public int submit() {
+		return direct.submit();
+	}
+
+	@Override
+	public int waitCQEntryTimeout(long[] reqIds, long[] retCodes, long millis) {
+		int ret = direct.await(1, millis * 1000000L);
+		if (ret == 0) {
+			direct.peek(reqIds, retCodes, 1);
+		}
+		return ret;
+	}
+
+	@Override
+	public int waitCQEntries(long[] reqIds, long[] retCodes, int waitNr) {
+		int ret = direct.await(waitNr, -1);
+		if (ret == 0) {
+			direct.peek(reqIds, retCodes, 1);
+		}
+		return ret;
+	}
+
+	@Override
+	public int peekCQEntries(long[] reqIds, long[] retCodes, int count) {
+		return direct.peek(reqIds, retCodes, count);
+	}
+
+	@Override
+	public void advanceCQ(int nr) {
+		direct.advance(nr);
+	}
+
+	@Override
+	public int reapCQEntries(long[] reqIds, long[] retCodes, int[] cqeFlags, int count, int waitNr) {
+		return direct.reap(reqIds, retCodes, cqeFlags, count, waitNr);
+	}
+}
@@ -0,0 +1,166 @@
+package org.chinaxing;
+
+import org.chinaxing.exception.PrepareRWException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AdmissionControllerTest {
+	@Test
+	public void queueBeyondBudget() {
+		AtomicInteger flushes = new AtomicInteger();
+		AdmissionController ac = new AdmissionController(2, AdmissionController.Policy.QUEUE, flushes::incrementAndGet, () -> false);
+		final List<Integer> prepared = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			final int id = i;
+			ac.admit(1, new CompletableFuture<Long>(), () -> prepared.add(id));
+		}
+		Assert.assertEquals(2, ac.inFlight());
+		Assert.assertEquals(3, ac.overflowed());
+		Assert.assertEquals(2, prepared.size());
+
+		// overflowed requests are prepared in order as permits come back
+		Assert.assertEquals(2, ac.release(2));
+		Assert.assertEquals(1, ac.overflowed());
+		Assert.assertEquals(2, ac.inFlight());
+		ac.release(2);
+		Assert.assertEquals(0, ac.overflowed());
+		Assert.assertEquals(1, ac.inFlight());
+		Assert.assertEquals(5, prepared.size());
+		for (int i = 0; i < 5; i++) {
+			Assert.assertEquals(i, (int) prepared.get(i));
+		}
+	}
+
+	@Test
+	public void failedPrepareGivesBack() {
+		AdmissionController ac = new AdmissionController(2, AdmissionController.Policy.QUEUE, () -> { }, () -> false);
+		try {
+			ac.admit(2, new CompletableFuture<Long>(), () -> {
+				throw new IllegalStateException("boom");
+			});
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			// thrown to the caller when run now
+		}
+		Assert.assertEquals(0, ac.inFlight());
+
+		ac.admit(2, new CompletableFuture<Long>(), () -> { });
+		CompletableFuture<Long> later = new CompletableFuture<>();
+		ac.admit(1, later, () -> {
+			throw new IllegalStateException("boom");
+		});
+		ac.release(2);
+		Assert.assertTrue(later.isCompletedExceptionally());
+		Assert.assertEquals(0, ac.inFlight());
+	}
+
+	@Test
+	public void parkUntilReleased() throws Exception {
+		final AtomicInteger flushes = new AtomicInteger();
+		final AdmissionController ac = new AdmissionController(1, AdmissionController.Policy.PARK, flushes::incrementAndGet, () -> false);
+		ac.admit(1, new CompletableFuture<Long>(), () -> { });
+		final CountDownLatch admitted = new CountDownLatch(1);
+		Thread t = new Thread(() -> ac.admit(1, new CompletableFuture<Long>(), admitted::countDown));
+		t.start();
+		Assert.assertFalse(admitted.await(100, TimeUnit.MILLISECONDS));
+		// caller flushed before parking
+		Assert.assertEquals(1, flushes.get());
+		ac.release(1);
+		Assert.assertTrue(admitted.await(5, TimeUnit.SECONDS));
+		t.join();
+		Assert.assertEquals(1, ac.inFlight());
+	}
+
+	@Test
+	public void completionLoopNeverParks() {
+		AdmissionController ac = new AdmissionController(1, AdmissionController.Policy.PARK, () -> { }, () -> true);
+		ac.admit(1, new CompletableFuture<Long>(), () -> { });
+		ac.admit(1, new CompletableFuture<Long>(), () -> { });
+		Assert.assertEquals(1, ac.overflowed());
+	}
+
+	@Test
+	public void failedLaterWithoutFuture() {
+		AdmissionController ac = new AdmissionController(1, AdmissionController.Policy.QUEUE, () -> { }, () -> false);
+		ac.admit(1, new CompletableFuture<Long>(), () -> { });
+		List<RuntimeException> errors = new ArrayList<>();
+		ac.admit(1, errors::add, () -> {
+			throw new IllegalStateException("boom");
+		});
+		ac.release(1);
+		Assert.assertEquals(1, errors.size());
+		Assert.assertEquals("boom", errors.get(0).getMessage());
+		Assert.assertEquals(0, ac.inFlight());
+	}
+
+	@Test
+	public void parkedCallerNotOvertakeOverflow() throws Exception {
+		boolean[] loop = new boolean[1];
+		AdmissionController ac = new AdmissionController(2, AdmissionController.Policy.PARK, () -> { }, () -> loop[0]);
+		List<String> prepared = Collections.synchronizedList(new ArrayList<>());
+		ac.admit(1, new CompletableFuture<Long>(), () -> prepared.add("first"));
+		// the completion loop queues a request of 2 with 1 permit left
+		loop[0] = true;
+		ac.admit(2, new CompletableFuture<Long>(), () -> prepared.add("overflowed"));
+		loop[0] = false;
+		Assert.assertEquals(1, ac.overflowed());
+		CountDownLatch admitted = new CountDownLatch(1);
+		Thread t = new Thread(() -> ac.admit(1, new CompletableFuture<Long>(), () -> {
+			prepared.add("parked");
+			admitted.countDown();
+		}));
+		t.start();
+		// a permit is free but the overflow list was first
+		Assert.assertFalse(admitted.await(100, TimeUnit.MILLISECONDS));
+		ac.release(1);
+		Assert.assertFalse(admitted.await(100, TimeUnit.MILLISECONDS));
+		ac.release(2);
+		Assert.assertTrue(admitted.await(5, TimeUnit.SECONDS));
+		t.join();
+		Assert.assertEquals(Arrays.asList("first", "overflowed", "parked"), prepared);
+	}
+
+	@Test
+	public void shutdownFailWaiters() throws Exception {
+		AdmissionController park = new AdmissionController(1, AdmissionController.Policy.PARK, () -> { }, () -> false);
+		park.admit(1, new CompletableFuture<Long>(), () -> { });
+		CompletableFuture<Throwable> parked = new CompletableFuture<>();
+		Thread t = new Thread(() -> {
+			try {
+				park.admit(1, new CompletableFuture<Long>(), () -> { });
+				parked.complete(null);
+			} catch (RuntimeException e) {
+				parked.complete(e);
+			}
+		});
+		t.start();
+		Thread.sleep(100);
+		Assert.assertFalse(parked.isDone());
+		park.shutdown();
+		Assert.assertTrue(parked.get(5, TimeUnit.SECONDS) instanceof PrepareRWException);
+		t.join();
+
+		AdmissionController queue = new AdmissionController(1, AdmissionController.Policy.QUEUE, () -> { }, () -> false);
+		queue.admit(1, new CompletableFuture<Long>(), () -> { });
+		CompletableFuture<Long> overflowed = new CompletableFuture<>();
+		queue.admit(1, overflowed, () -> { });
+		queue.shutdown();
+		Assert.assertTrue(overflowed.isCompletedExceptionally());
+		Assert.assertEquals(0, queue.overflowed());
+		try {
+			queue.admit(1, new CompletableFuture<Long>(), () -> { });
+			Assert.fail();
+		} catch (PrepareRWException e) {
+			// nothing admitted after shutdown
+		}
+	}
+}
@@ -6,7 +6,13 @@ import org.junit.Assert;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.io.IOException;
 
 public class AsyncIOTest {
@@ -61,6 +67,51 @@ public class AsyncIOTest {
         src0.close();
     }
 
+    @Test
+    public void cancelCompletesByCqe() throws Exception {
+        AsyncIO io = Rings.asyncIO("test-cancel");
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+             SocketChannel client = SocketChannel.open(server.getLocalAddress());
+             SocketChannel peer = server.accept()) {
+            ByteBuffer dst = ByteBuffer.allocateDirect(16);
+            CompletableFuture<Long> f = io.prepareRecv(IoURing.descriptorOf(peer), dst, 0);
+            io.submit();
+            Assert.assertTrue(f.cancel(false));
+            try {
+                f.get(5, TimeUnit.SECONDS);
+                Assert.fail();
+            } catch (CancellationException e) {
+                Assert.assertTrue(f.isCancelled());
+            }
+            // done already
+            Assert.assertFalse(f.cancel(false));
+        }
+        io.shutdown();
+    }
+
+    @Test
+    public void shutdownDropOutstanding() throws Exception {
+        AsyncIO io = Rings.asyncIO("test-shutdown");
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+             SocketChannel client = SocketChannel.open(server.getLocalAddress());
+             SocketChannel peer = server.accept()) {
+            FileDescriptor fd = IoURing.descriptorOf(peer);
+            // nothing is sent, neither completes before shutdown
+            CompletableFuture<Long> f = io.prepareRecv(fd, ByteBuffer.allocateDirect(16), 0);
+            io.submit();
+            CompletableFuture<Long> blocked = new CompletableFuture<>();
+            Thread t = new Thread(() -> blocked.complete(new BlockingIO(io).recv(fd, ByteBuffer.allocateDirect(16), 0)));
+            t.start();
+            Thread.sleep(200);
+            Assert.assertFalse(f.isDone());
+            Assert.assertFalse(blocked.isDone());
+            io.shutdown();
+            Assert.assertTrue(f.isCancelled());
+            Assert.assertEquals(-125L, (long) blocked.get(5, TimeUnit.SECONDS));
+            t.join(5000);
+        }
+    }
+
     public CompletableFuture<Long> readFully(AsyncIO aio, byte[] out, int pos, int len, RandomAccessFile file, long offset) throws IOException {
         CompletableFuture<Long> f = new CompletableFuture<>();
         read(aio, out, pos, len, file, offset).whenComplete((r ,e) -> {
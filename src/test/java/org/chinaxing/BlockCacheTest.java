@@ -0,0 +1,174 @@
+package org.chinaxing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileDescriptor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * the loader plays the ring, reads complete when the test says so
+ */
+public class BlockCacheTest {
+	private static final int PAGE = 4096;
+
+	private final List<BlockCache.Frame> reads = new ArrayList<>();
+	private final List<Long> offsets = new ArrayList<>();
+
+	private BlockCache cache(int pages) {
+		return new BlockCache((fd, offset, address, len, done) -> {
+			Assert.assertEquals(PAGE, len);
+			Assert.assertTrue(DirectIO.isAligned(address, DirectBufferArena.ALIGNMENT));
+			reads.add(done);
+			offsets.add(offset);
+		}, PAGE, pages, 4);
+	}
+
+	// complete pending reads, the page hold its offset
+	private void completeReads() {
+		for (int i = 0; i < reads.size(); i++) {
+			reads.get(i).buf.putLong(0, offsets.get(i));
+			reads.get(i).completed(PAGE, 0);
+		}
+		reads.clear();
+		offsets.clear();
+	}
+
+	private BlockCache.Page get(BlockCache cache, int file, long pageNo) throws Exception {
+		CompletableFuture<BlockCache.Page> f = cache.acquire(file, pageNo);
+		completeReads();
+		return f.get();
+	}
+
+	@Test
+	public void singleFlight() throws Exception {
+		BlockCache cache = cache(8);
+		int file = cache.register(new FileDescriptor());
+		CompletableFuture<BlockCache.Page> a = cache.acquire(file, 3);
+		CompletableFuture<BlockCache.Page> b = cache.acquire(file, 3);
+		Assert.assertEquals(1, reads.size());
+		Assert.assertFalse(a.isDone());
+		completeReads();
+		Assert.assertEquals(3L * PAGE, a.get().buffer().getLong(0));
+		Assert.assertEquals(a.get().address(), b.get().address());
+		a.get().release();
+		b.get().release();
+		get(cache, file, 3).release();
+		BlockCache.Stats s = cache.stats();
+		Assert.assertEquals(1, s.misses);
+		Assert.assertEquals(1, s.joined);
+		Assert.assertEquals(1, s.hits);
+		cache.close();
+	}
+
+	@Test
+	public void scanResistant() throws Exception {
+		BlockCache cache = cache(10);
+		int file = cache.register(new FileDescriptor());
+		get(cache, file, 0).release();
+		get(cache, file, 0).release();
+		for (long p = 1; p <= 100; p++) {
+			get(cache, file, p).release();
+		}
+		// the hot page moved to main, the scan went through small
+		CompletableFuture<BlockCache.Page> hot = cache.acquire(file, 0);
+		Assert.assertTrue(reads.isEmpty());
+		Assert.assertEquals(0L, hot.get().buffer().getLong(0));
+		hot.get().release();
+		Assert.assertTrue(cache.stats().evictions >= 90);
+		cache.close();
+	}
+
+	@Test
+	public void pinnedNotEvicted() throws Exception {
+		BlockCache cache = cache(2);
+		int file = cache.register(new FileDescriptor());
+		BlockCache.Page p0 = get(cache, file, 0);
+		BlockCache.Page p1 = get(cache, file, 1);
+		try {
+			cache.acquire(file, 2).get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			// all pages pinned
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		Assert.assertTrue(reads.isEmpty());
+		p1.release();
+		BlockCache.Page p2 = get(cache, file, 2);
+		Assert.assertEquals(p1.address(), p2.address());
+		Assert.assertEquals(0L, p0.buffer().getLong(0));
+		p0.release();
+		p2.release();
+		cache.close();
+	}
+
+	@Test
+	public void pinnedSmallEvictFromMain() throws Exception {
+		// small FIFO of 1 page
+		BlockCache cache = cache(10);
+		int file = cache.register(new FileDescriptor());
+		for (long p = 0; p < 10; p++) {
+			get(cache, file, p).release();
+			get(cache, file, p).release();
+		}
+		// promoted to main one by one while new pages come in
+		for (long p = 10; p < 20; p++) {
+			get(cache, file, p).release();
+		}
+		BlockCache.Page pinned = get(cache, file, 20);
+		BlockCache.Page p21 = get(cache, file, 21);
+		Assert.assertEquals(20L * PAGE, pinned.buffer().getLong(0));
+		pinned.release();
+		p21.release();
+		cache.close();
+	}
+
+	@Test
+	public void failedReadNotCached() throws Exception {
+		BlockCache cache = cache(4);
+		int file = cache.register(new FileDescriptor());
+		CompletableFuture<BlockCache.Page> a = cache.acquire(file, 1);
+		CompletableFuture<BlockCache.Page> b = cache.acquire(file, 1);
+		reads.remove(0).completed(-5, 0);
+		offsets.clear();
+		for (CompletableFuture<BlockCache.Page> f : new CompletableFuture[]{a, b}) {
+			try {
+				f.get();
+				Assert.fail();
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause().getMessage().endsWith("errno: 5"));
+			}
+		}
+		BlockCache.Page p = get(cache, file, 1);
+		Assert.assertEquals(PAGE, p.length());
+		Assert.assertEquals(2, cache.stats().misses);
+		p.release();
+
+		get(cache, file, 2).release();
+		cache.invalidate(file, 2);
+		cache.acquire(file, 2);
+		Assert.assertEquals(1, reads.size());
+		cache.close();
+	}
+
+	@Test
+	public void invalidatedWhileLoading() throws Exception {
+		BlockCache cache = cache(4);
+		int file = cache.register(new FileDescriptor());
+		CompletableFuture<BlockCache.Page> f = cache.acquire(file, 3);
+		cache.invalidate(file, 3);
+		reads.remove(0).completed(-5, 0);
+		offsets.clear();
+		try {
+			f.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			// the page the read was for
+			Assert.assertEquals("read page of " + Long.toHexString(BlockCache.key(file, 3)) + " errno: 5", e.getCause().getMessage());
+		}
+		cache.close();
+	}
+}
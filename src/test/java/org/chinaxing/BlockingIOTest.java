@@ -0,0 +1,86 @@
+package org.chinaxing;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileDescriptor;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BlockingIOTest {
+	private static final long ECANCELED = 125;
+
+	private AsyncIO io;
+	private BlockingIO blocking;
+
+	@Before
+	public void setUp() {
+		io = Rings.asyncIO("blocking-io");
+		blocking = new BlockingIO(io);
+	}
+
+	@After
+	public void tearDown() {
+		if (io != null) {
+			io.shutdown();
+		}
+	}
+
+	@Test
+	public void writeReadFsync() throws Exception {
+		Path p = Files.createTempFile("uring-blocking", ".dat");
+		try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+			FileDescriptor fd = IoURing.descriptorOf(ch);
+			byte[] src = "blocking".getBytes("UTF-8");
+			Assert.assertEquals(8, blocking.write(fd, 4, src, 0, src.length));
+			Assert.assertEquals(0, blocking.fsync(fd, IoURing.FsyncFlags.DATASYNC));
+			ByteBuffer dst = ByteBuffer.allocateDirect(16);
+			Assert.assertEquals(8, blocking.read(fd, 4, dst));
+			Assert.assertEquals(8, dst.position());
+			Assert.assertEquals(0, blocking.read(fd, 12, dst));
+		}
+	}
+
+	@Test
+	public void interruptCancelRecv() throws Exception {
+		try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+			 SocketChannel client = SocketChannel.open(server.getLocalAddress());
+			 SocketChannel peer = server.accept()) {
+			FileDescriptor fd = IoURing.descriptorOf(peer);
+			AtomicLong res = new AtomicLong();
+			AtomicLong after = new AtomicLong();
+			boolean[] interrupted = new boolean[1];
+			Thread t = new Thread(() -> {
+				// nothing is sent, only the interrupt ends it
+				res.set(blocking.recv(fd, ByteBuffer.allocateDirect(16), 0));
+				interrupted[0] = Thread.interrupted();
+				// the waiter of the thread is reused by the next call
+				after.set(blocking.recv(fd, ByteBuffer.allocateDirect(16), 0));
+			});
+			t.start();
+			Thread.sleep(200);
+			Assert.assertTrue(t.isAlive());
+			t.interrupt();
+			// the first recv returns, the second waits for data
+			long deadline = System.currentTimeMillis() + 5000;
+			while (res.get() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			Assert.assertEquals(-ECANCELED, res.get());
+			client.write(ByteBuffer.wrap(new byte[3]));
+			t.join(5000);
+			Assert.assertFalse(t.isAlive());
+			Assert.assertTrue(interrupted[0]);
+			Assert.assertEquals(3, after.get());
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package org.chinaxing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class DirectBufferArenaTest {
+	@Test
+	public void sizeClass() {
+		Assert.assertEquals(0, DirectBufferArena.sizeClass(1));
+		Assert.assertEquals(0, DirectBufferArena.sizeClass(512));
+		Assert.assertEquals(1, DirectBufferArena.sizeClass(513));
+		Assert.assertEquals(3, DirectBufferArena.sizeClass(4096));
+		Assert.assertEquals(11, DirectBufferArena.sizeClass(1 << 20));
+		Assert.assertEquals(-1, DirectBufferArena.sizeClass((1 << 20) + 1));
+	}
+
+	@Test
+	public void aligned() {
+		DirectBufferArena arena = new DirectBufferArena(DirectBufferArena.DEFAULT_CHUNK_SIZE);
+		for (int len : new int[]{512, 1024, 4096, 8192, 1 << 20}) {
+			for (int i = 0; i < 3; i++) {
+				ByteBuffer b = arena.allocate(len);
+				Assert.assertTrue(DirectIO.isAligned(IoURing.address(b), Math.min(len, DirectBufferArena.ALIGNMENT)));
+			}
+		}
+		ByteBuffer b = DirectIO.allocate(10000, 4096);
+		Assert.assertEquals(10000, b.capacity());
+		Assert.assertTrue(DirectIO.isAligned(IoURing.address(b), 4096));
+	}
+
+	@Test
+	public void reuseAtSteadyState() {
+		DirectBufferArena arena = new DirectBufferArena(DirectBufferArena.DEFAULT_CHUNK_SIZE);
+		ByteBuffer b = arena.allocate(4000);
+		Assert.assertTrue(b.isDirect());
+		Assert.assertEquals(0, b.position());
+		Assert.assertEquals(4000, b.limit());
+		Assert.assertEquals(4096, b.capacity());
+		arena.free(b);
+		DirectBufferArena.Stats s0 = arena.stats();
+		Assert.assertEquals(1, s0.misses);
+		Assert.assertEquals(0, s0.outstandingBytes);
+
+		for (int i = 0; i < 10000; i++) {
+			ByteBuffer[] bufs = new ByteBuffer[100];
+			for (int j = 0; j < bufs.length; j++) {
+				bufs[j] = arena.allocate(4096);
+			}
+			for (ByteBuffer buf : bufs) {
+				arena.free(buf);
+			}
+		}
+		DirectBufferArena.Stats s1 = arena.stats();
+		Assert.assertEquals(s0.misses, s1.misses);
+		Assert.assertEquals(s0.reservedBytes, s1.reservedBytes);
+		Assert.assertEquals(0, s1.outstandingBytes);
+	}
+
+	@Test
+	public void crossThreadFree() throws Exception {
+		final DirectBufferArena arena = new DirectBufferArena(DirectBufferArena.DEFAULT_CHUNK_SIZE);
+		final ByteBuffer[] bufs = new ByteBuffer[5000];
+		for (int i = 0; i < bufs.length; i++) {
+			bufs[i] = arena.allocate(512);
+		}
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (ByteBuffer buf : bufs) {
+					arena.free(buf);
+				}
+			}
+		});
+		t.start();
+		t.join();
+		long misses = arena.stats().misses;
+		for (int i = 0; i < bufs.length; i++) {
+			bufs[i] = arena.allocate(512);
+		}
+		Assert.assertEquals(misses, arena.stats().misses);
+		Assert.assertEquals(512L * bufs.length, arena.stats().outstandingBytes);
+	}
+
+	@Test
+	public void deadThreadCacheReclaimed() throws Exception {
+		DirectBufferArena arena = new DirectBufferArena(DirectBufferArena.DEFAULT_CHUNK_SIZE);
+		// one chunk of 1MB buffers, all of them end in the cache of the thread
+		Thread t = new Thread(() -> {
+			ByteBuffer[] bufs = new ByteBuffer[4];
+			for (int i = 0; i < bufs.length; i++) {
+				bufs[i] = arena.allocate(1 << 20);
+			}
+			for (ByteBuffer b : bufs) {
+				arena.free(b);
+			}
+		});
+		t.start();
+		t.join();
+		long reserved = arena.stats().reservedBytes;
+		ByteBuffer[] bufs = new ByteBuffer[4];
+		for (int i = 0; i < bufs.length; i++) {
+			bufs[i] = arena.allocate(1 << 20);
+		}
+		// served by the buffers of the dead thread, no new chunk
+		Assert.assertEquals(reserved, arena.stats().reservedBytes);
+		for (ByteBuffer b : bufs) {
+			arena.free(b);
+		}
+	}
+
+	@Test
+	public void hugeFallback() {
+		DirectBufferArena arena = new DirectBufferArena(DirectBufferArena.DEFAULT_CHUNK_SIZE);
+		ByteBuffer b = arena.allocate((1 << 20) + 10);
+		Assert.assertEquals((1 << 20) + 10, b.capacity());
+		Assert.assertEquals(0, arena.stats().reservedBytes);
+		arena.free(b);
+		Assert.assertEquals(0, arena.stats().outstandingBytes);
+	}
+}
@@ -0,0 +1,139 @@
+package org.chinaxing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * rings laid out in a direct buffer, the test play the kernel by moving SQ head and CQ tail
+ */
+public class DirectRingTest {
+	private static final int ENTRIES = 4;
+	// head, tail, flags of SQ and CQ, then SQ array, SQEs, CQEs
+	private static final int SQ_HEAD = 0, SQ_TAIL = 4, SQ_FLAGS = 8, CQ_HEAD = 12, CQ_TAIL = 16,
+		SQ_ARRAY = 64, SQES = 128, CQES = SQES + ENTRIES * DirectRing.SQE_SIZE;
+
+	private final ByteBuffer mem = ByteBuffer.allocateDirect(CQES + 2 * ENTRIES * DirectRing.CQE_SIZE).order(ByteOrder.nativeOrder());
+	private final long base = IoURing.address(mem);
+
+	private DirectRing ring() {
+		long[] layout = new long[DirectRing.LAYOUT_SIZE];
+		layout[DirectRing.SQ_HEAD] = base + SQ_HEAD;
+		layout[DirectRing.SQ_TAIL] = base + SQ_TAIL;
+		layout[DirectRing.SQ_MASK] = ENTRIES - 1;
+		layout[DirectRing.SQ_ENTRIES] = ENTRIES;
+		layout[DirectRing.SQ_FLAGS] = base + SQ_FLAGS;
+		layout[DirectRing.SQ_ARRAY] = base + SQ_ARRAY;
+		layout[DirectRing.SQES] = base + SQES;
+		layout[DirectRing.CQ_HEAD] = base + CQ_HEAD;
+		layout[DirectRing.CQ_TAIL] = base + CQ_TAIL;
+		layout[DirectRing.CQ_MASK] = 2 * ENTRIES - 1;
+		layout[DirectRing.CQ_ENTRIES] = 2 * ENTRIES;
+		layout[DirectRing.CQES] = base + CQES;
+		layout[DirectRing.RW_SUPPORTED] = 1;
+		return new DirectRing(layout, null);
+	}
+
+	@Test
+	public void prepareUntilFull() {
+		DirectRing ring = ring();
+		for (int i = 0; i < ENTRIES; i++) {
+			Assert.assertTrue(ring.prepare(IoURing.Op.READ, IoURing.SqeFlags.ASYNC, 0, 7, 0x1000L * i, 512, 4096L * i, 0, 0, i + 1));
+		}
+		Assert.assertEquals(0, ring.spaceLeft());
+		Assert.assertFalse(ring.prepare(IoURing.Op.NOP, 0, 0, -1, 0, 0, 0, 0, 0, 9));
+
+		int sqe = SQES + 2 * DirectRing.SQE_SIZE;
+		Assert.assertEquals(IoURing.Op.READ, mem.get(sqe + DirectRing.SQE_OPCODE));
+		Assert.assertEquals(IoURing.SqeFlags.ASYNC, mem.get(sqe + DirectRing.SQE_FLAGS));
+		Assert.assertEquals(7, mem.getInt(sqe + DirectRing.SQE_FD));
+		Assert.assertEquals(0x2000L, mem.getLong(sqe + DirectRing.SQE_ADDR));
+		Assert.assertEquals(512, mem.getInt(sqe + DirectRing.SQE_LEN));
+		Assert.assertEquals(8192L, mem.getLong(sqe + DirectRing.SQE_OFF));
+		Assert.assertEquals(3L, mem.getLong(sqe + DirectRing.SQE_USER_DATA));
+		Assert.assertEquals(2, mem.getInt(SQ_ARRAY + 2 * 4));
+		// nothing published before submit
+		Assert.assertEquals(0, mem.getInt(SQ_TAIL));
+
+		// kernel consumed two
+		mem.putInt(SQ_HEAD, 2);
+		Assert.assertEquals(2, ring.spaceLeft());
+		Assert.assertTrue(ring.prepare(IoURing.Op.NOP, 0, 0, -1, 0, 0, 0, 0, 0, 5));
+		// wrapped to slot 0, stale fields cleared
+		Assert.assertEquals(IoURing.Op.NOP, mem.get(SQES + DirectRing.SQE_OPCODE));
+		Assert.assertEquals(0L, mem.getLong(SQES + DirectRing.SQE_ADDR));
+		Assert.assertEquals(5L, mem.getLong(SQES + DirectRing.SQE_USER_DATA));
+	}
+
+	@Test
+	public void chainAllOrNothing() {
+		DirectRing ring = ring();
+		SubmissionBatch batch = new SubmissionBatch(null, 8);
+		batch.add(IoURing.Op.NOP, 0, -1, 0, 0, 0, 0, 0, 1);
+		for (int i = 0; i < ENTRIES; i++) {
+			batch.add(IoURing.Op.NOP, 0, -1, 0, 0, 0, 0, 0, i + 2);
+			if (i < ENTRIES - 1) {
+				batch.link(false);
+			}
+		}
+		// the chain of 4 don't fit behind the first one
+		Assert.assertEquals(1, ring.prepareBatch(batch.address(), batch.size()));
+		mem.putInt(SQ_HEAD, 1);
+		Assert.assertEquals(ENTRIES, ring.prepareBatch(batch.address() + SubmissionBatch.DESC_SIZE, ENTRIES));
+		Assert.assertEquals(IoURing.SqeFlags.IO_LINK, mem.get(SQES + 3 * DirectRing.SQE_SIZE + DirectRing.SQE_FLAGS));
+		Assert.assertEquals(0, mem.get(SQES + DirectRing.SQE_FLAGS));
+		// a chain not terminated in the batch waits for the rest
+		SubmissionBatch open = new SubmissionBatch(null, 2);
+		open.add(IoURing.Op.NOP, 0, -1, 0, 0, 0, 0, 0, 9);
+		open.link(false);
+		mem.putInt(SQ_HEAD, 1 + ENTRIES);
+		Assert.assertEquals(0, ring.prepareBatch(open.address(), open.size()));
+	}
+
+	@Test
+	public void spliceFdIn() {
+		DirectRing ring = ring();
+		SubmissionBatch batch = new SubmissionBatch(null, 2);
+		batch.add(IoURing.Op.SPLICE, 0, 8, 4096L, 65536, -1L, IoURing.SpliceFlags.MORE, 0, 1);
+		batch.descriptors().putInt(SubmissionBatch.SPLICE_FD_IN, 7);
+		batch.add(IoURing.Op.NOP, 0, -1, 0, 0, 0, 0, 0, 2);
+		Assert.assertEquals(2, ring.prepareBatch(batch.address(), batch.size()));
+		Assert.assertEquals(IoURing.Op.SPLICE, mem.get(SQES + DirectRing.SQE_OPCODE));
+		Assert.assertEquals(7, mem.getInt(SQES + DirectRing.SQE_SPLICE_FD_IN));
+		// splice_off_in in addr, off_out in off
+		Assert.assertEquals(4096L, mem.getLong(SQES + DirectRing.SQE_ADDR));
+		Assert.assertEquals(-1L, mem.getLong(SQES + DirectRing.SQE_OFF));
+		Assert.assertEquals(8, mem.getInt(SQES + DirectRing.SQE_FD));
+		Assert.assertEquals(0, mem.getInt(SQES + DirectRing.SQE_SIZE + DirectRing.SQE_SPLICE_FD_IN));
+	}
+
+	@Test
+	public void reapAndWrap() {
+		DirectRing ring = ring();
+		long[] reqIds = new long[4], rets = new long[4];
+		int[] flags = new int[4];
+		Assert.assertEquals(0, ring.reap(reqIds, rets, flags, 4, 0));
+
+		int cqEntries = 2 * ENTRIES;
+		int head = cqEntries - 2;
+		mem.putInt(CQ_HEAD, head);
+		ring = ring();
+		for (int i = 0; i < 3; i++) {
+			int cqe = CQES + ((head + i) & (cqEntries - 1)) * DirectRing.CQE_SIZE;
+			mem.putLong(cqe + DirectRing.CQE_USER_DATA, 100 + i);
+			mem.putInt(cqe + DirectRing.CQE_RES, i == 1 ? -11 : 4096);
+			mem.putInt(cqe + DirectRing.CQE_FLAGS, i == 2 ? IoURing.CqeFlags.MORE : 0);
+		}
+		mem.putInt(CQ_TAIL, head + 3);
+		Assert.assertEquals(2, ring.reap(reqIds, rets, flags, 2, 0));
+		Assert.assertEquals(100, reqIds[0]);
+		Assert.assertEquals(-11, rets[1]);
+		Assert.assertEquals(head + 2, mem.getInt(CQ_HEAD));
+		Assert.assertEquals(1, ring.reap(reqIds, rets, null, 4, 0));
+		Assert.assertEquals(102, reqIds[0]);
+		Assert.assertEquals(4096, rets[0]);
+		Assert.assertEquals(head + 3, mem.getInt(CQ_HEAD));
+	}
+}
@@ -0,0 +1,85 @@
+package org.chinaxing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class FileTableTest {
+	private static final long EBADF = 9;
+
+	private static FileChannel open(String content) throws Exception {
+		Path p = Files.createTempFile("uring-table", ".dat");
+		Files.write(p, content.getBytes("UTF-8"));
+		return FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+	}
+
+	@Test
+	public void slotNotReusedBeforeQueueSubmitted() throws Exception {
+		AsyncIO io = Rings.asyncIO("file-table");
+		FileTable files = io.ring().enableFileTable(2);
+		try (FileChannel a = open("aaaa"); FileChannel b = open("bbbb"); FileChannel c = open("cccc")) {
+			FileDescriptor fa = IoURing.descriptorOf(a);
+			ByteBuffer dst = ByteBuffer.allocateDirect(4);
+			CompletableFuture<Long> read = new CompletableFuture<>();
+			int[] slots = new int[3];
+			// on the completion loop the read waits in the submit queue until the callback returns
+			CompletableFuture<Void> loop = io.prepareFsync(fa, 0).thenRun(() -> {
+				slots[0] = files.register(fa);
+				io.prepareRead(fa, 0, dst).whenComplete((res, e) -> {
+					if (e != null) {
+						read.completeExceptionally(e);
+					} else {
+						read.complete(res);
+					}
+				});
+				files.unregister(fa);
+				// another slot is free
+				slots[1] = files.register(b);
+				files.unregister(b);
+				// the table is full of cleared slots, the queue is submitted to free them
+				slots[2] = files.register(c);
+			});
+			io.submit();
+			loop.get(5, TimeUnit.SECONDS);
+			// the slot was cleared under the read, it must not read the file registered after
+			Assert.assertEquals(-EBADF, (long) read.get(5, TimeUnit.SECONDS));
+			Assert.assertEquals(0, dst.position());
+			Assert.assertEquals(0, slots[0]);
+			Assert.assertEquals(1, slots[1]);
+			Assert.assertEquals(0, slots[2]);
+			Assert.assertEquals(1, files.size());
+		}
+		io.shutdown();
+	}
+
+	@Test
+	public void slotNotReusedBeforeSQSubmitted() throws Exception {
+		IoURing ring = Rings.ring(new IoURing.Params(8));
+		FileTable files = ring.enableFileTable(1);
+		try (FileChannel a = open("aaaa"); FileChannel b = open("bbbb")) {
+			FileDescriptor fa = IoURing.descriptorOf(a);
+			Assert.assertEquals(0, files.register(fa));
+			ByteBuffer dst = ByteBuffer.allocateDirect(4);
+			// in the SQ with slot 0, not yet submitted
+			long reqId = ring.prepareRead(fa, 0, dst);
+			files.unregister(fa);
+			// the SQ is submitted before the cleared slot is handed out
+			Assert.assertEquals(0, files.register(b));
+			long[] reqIds = new long[1], res = new long[1];
+			Assert.assertEquals(1, ring.reapCQEntries(reqIds, res, new int[1], new Object[1], true));
+			Assert.assertEquals(reqId, reqIds[0]);
+			Assert.assertEquals(-EBADF, res[0]);
+			Assert.assertEquals(0, dst.position());
+		} finally {
+			ring.shutdown();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package org.chinaxing;
+
+import org.chinaxing.FixedBufferPool.FixedBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileDescriptor;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class FixedBufferPoolTest {
+	@Test
+	public void tooLargeRejected() {
+		// rejected before the ring is touched
+		int[][] sizes = { { 1 << 20, 4096 }, { Integer.MAX_VALUE, 1 }, { (1 << 30) + 1, 2 }, { Integer.MAX_VALUE - 4095, 1 } };
+		for (int[] s : sizes) {
+			try {
+				new FixedBufferPool(null, s[0], s[1]);
+				Assert.fail(s[0] + " * " + s[1]);
+			} catch (IllegalArgumentException e) {
+				Assert.assertTrue(e.getMessage().startsWith("pool too large"));
+			}
+		}
+	}
+
+	private static long complete(IoURing ring, long reqId) {
+		long[] reqIds = new long[1], res = new long[1];
+		ring.submit();
+		Assert.assertEquals(1, ring.reapCQEntries(reqIds, res, true));
+		Assert.assertEquals(reqId, reqIds[0]);
+		return res[0];
+	}
+
+	@Test
+	public void writeThenReadFixed() throws Exception {
+		IoURing ring = Rings.ring(new IoURing.Params(8));
+		Path p = Files.createTempFile("uring-fixed", ".dat");
+		try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			 FixedBufferPool pool = new FixedBufferPool(ring, 100, 2)) {
+			FileDescriptor fd = IoURing.descriptorOf(ch);
+			Assert.assertEquals(4096, pool.bufferSize());
+			FixedBuffer out = pool.lease();
+			FixedBuffer in = pool.lease();
+			Assert.assertNull(pool.lease());
+			Assert.assertNotEquals(out.index, in.index);
+			out.buffer().put("..hello fixed".getBytes("UTF-8"));
+			Assert.assertEquals(11, complete(ring, ring.prepareWriteFixed(fd, 3, out, 2, 11)));
+			Assert.assertEquals(5, complete(ring, ring.prepareReadFixed(fd, 9, in, 1, 5)));
+			byte[] b = new byte[5];
+			in.buffer().position(1);
+			in.buffer().get(b);
+			Assert.assertEquals("fixed", new String(b, "UTF-8"));
+			Assert.assertEquals(14, Files.size(p));
+			pool.release(out);
+			pool.release(in);
+			Assert.assertEquals(2, pool.available());
+			// released buffer comes back cleared
+			FixedBuffer again = pool.lease();
+			Assert.assertEquals(0, again.buffer().position());
+			pool.release(again);
+		} finally {
+			Files.delete(p);
+			ring.shutdown();
+		}
+	}
+
+	@Test
+	public void doubleReleaseRejected() {
+		IoURing ring = Rings.ring(new IoURing.Params(8));
+		try {
+			FixedBufferPool pool = new FixedBufferPool(ring, 4096, 2);
+			FixedBuffer buf = pool.lease();
+			pool.release(buf);
+			try {
+				pool.release(buf);
+				Assert.fail();
+			} catch (IllegalStateException e) {
+				// the pool still hands out each buffer once
+				Assert.assertEquals(2, pool.available());
+			}
+			buf = pool.lease();
+			pool.close();
+			try {
+				pool.release(buf);
+				Assert.fail();
+			} catch (IllegalStateException e) {
+				Assert.assertEquals(1, pool.available());
+			}
+		} finally {
+			ring.shutdown();
+		}
+	}
+}
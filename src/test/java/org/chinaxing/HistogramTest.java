@@ -0,0 +1,53 @@
+package org.chinaxing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+	@Test
+	public void buckets() {
+		for (long v : new long[]{0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789L, 1L << 40}) {
+			int i = Histogram.index(v);
+			Assert.assertTrue(v + " in bucket " + i, Histogram.lowest(i) <= v && v <= Histogram.highest(i));
+			// relative error within 1/16
+			Assert.assertTrue(Histogram.highest(i) - Histogram.lowest(i) <= Math.max(0, v / 16));
+		}
+		Assert.assertEquals(Histogram.BUCKETS - 1, Histogram.index(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void percentiles() {
+		Histogram h = new Histogram(4);
+		for (int i = 1; i <= 1000; i++) {
+			h.record(i * 1000L);
+		}
+		Histogram.Snapshot s = h.snapshot();
+		Assert.assertEquals(1000, s.count());
+		Assert.assertEquals(1000000, s.max());
+		Assert.assertEquals(500500.0, s.mean(), 0.001);
+		long p50 = s.percentile(50);
+		Assert.assertTrue("p50 " + p50, p50 >= 500000 && p50 <= 500000 * 17 / 16);
+		long p99 = s.percentile(99);
+		Assert.assertTrue("p99 " + p99, p99 >= 990000 && p99 <= 1000000);
+		Assert.assertEquals(1000000, s.percentile(100));
+		Assert.assertEquals(0, new Histogram(1).snapshot().percentile(99));
+	}
+
+	@Test
+	public void concurrentRecord() throws Exception {
+		final Histogram h = new Histogram(8);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 10000; i++) {
+					h.record(i);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		Assert.assertEquals(80000, h.snapshot().count());
+	}
+}
@@ -0,0 +1,141 @@
+package org.chinaxing;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class IoURingFileChannelTest {
+	private AsyncIO io;
+	private Path file;
+
+	@Before
+	public void setUp() throws Exception {
+		io = Rings.asyncIO("file-channel");
+		file = Files.createTempFile("uring-channel", ".dat");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (io != null) {
+			io.shutdown();
+		}
+		if (file != null) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void readWriteForce() throws Exception {
+		try (IoURingFileChannel ch = IoURingFileChannel.open(io, file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer src = ByteBuffer.wrap("hello ring".getBytes("UTF-8"));
+			Assert.assertEquals(10, (int) ch.write(src, 100).get(5, TimeUnit.SECONDS));
+			Assert.assertFalse(src.hasRemaining());
+			ch.force(true);
+			Assert.assertEquals(110, ch.size());
+
+			ByteBuffer dst = ByteBuffer.allocate(64);
+			Assert.assertEquals(10, (int) ch.read(dst, 100).get(5, TimeUnit.SECONDS));
+			Assert.assertEquals("hello ring", new String(dst.array(), 0, dst.position(), "UTF-8"));
+			dst.clear();
+			Assert.assertEquals(-1, (int) ch.read(dst, 110).get(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void closeWhileRequestsQueued() throws Exception {
+		int n = 32;
+		IoURingFileChannel ch = IoURingFileChannel.open(io, file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		LinkedBlockingQueue<Object> results = new LinkedBlockingQueue<>();
+		CompletionHandler<Integer, Void> collect = new CompletionHandler<Integer, Void>() {
+			@Override
+			public void completed(Integer res, Void attachment) {
+				results.add(res);
+			}
+
+			@Override
+			public void failed(Throwable e, Void attachment) {
+				results.add(e);
+			}
+		};
+		// on the completion loop the writes wait in the submit queue until the handler returns
+		ch.read(ByteBuffer.allocate(1), 0, null, new CompletionHandler<Integer, Void>() {
+			@Override
+			public void completed(Integer res, Void attachment) {
+				for (int i = 0; i < n; i++) {
+					ByteBuffer src = ByteBuffer.allocateDirect(4096);
+					src.put(0, (byte) (i + 1));
+					ch.write(src, i * 4096L, null, collect);
+				}
+				try {
+					ch.close();
+				} catch (Exception e) {
+					results.add(e);
+				}
+			}
+
+			@Override
+			public void failed(Throwable e, Void attachment) {
+				results.add(e);
+			}
+		});
+		for (int i = 0; i < n; i++) {
+			Assert.assertEquals(4096, results.poll(5, TimeUnit.SECONDS));
+		}
+		Assert.assertFalse(ch.isOpen());
+		byte[] data = Files.readAllBytes(file);
+		Assert.assertEquals(n * 4096, data.length);
+		for (int i = 0; i < n; i++) {
+			Assert.assertEquals(i + 1, data[i * 4096]);
+		}
+		try {
+			ch.write(ByteBuffer.allocate(1), 0).get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof ClosedChannelException);
+		}
+	}
+
+	@Test
+	public void cancelledAtOnce() throws Exception {
+		Path fifo = file.resolveSibling(file.getFileName() + ".fifo");
+		Assert.assertEquals(0, new ProcessBuilder("mkfifo", fifo.toString()).start().waitFor());
+		// opened read-write a fifo has a writer, reads wait for data instead of end of file
+		try (IoURingFileChannel ch = IoURingFileChannel.open(io, fifo, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer dst = ByteBuffer.allocate(16);
+			Future<Integer> read = ch.read(dst, 0);
+			Assert.assertTrue(read.cancel(false));
+			// no wait for the CQE
+			Assert.assertTrue(read.isCancelled());
+			Assert.assertTrue(read.isDone());
+			try {
+				read.get();
+				Assert.fail();
+			} catch (CancellationException e) {
+				// expected
+			}
+			Assert.assertTrue(read.cancel(false));
+			// the kernel cancelled the request too, the data goes to the next read
+			ByteBuffer next = ByteBuffer.allocate(16);
+			Future<Integer> again = ch.read(next, 0);
+			Assert.assertEquals(4, (int) ch.write(ByteBuffer.wrap("ring".getBytes("UTF-8")), 0).get(5, TimeUnit.SECONDS));
+			Assert.assertEquals(4, (int) again.get(5, TimeUnit.SECONDS));
+			Assert.assertEquals(0, dst.position());
+			Assert.assertFalse(again.cancel(false));
+		} finally {
+			Files.delete(fifo);
+		}
+	}
+}
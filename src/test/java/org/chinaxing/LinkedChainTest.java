@@ -0,0 +1,92 @@
+package org.chinaxing;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+public class LinkedChainTest {
+	private AsyncIO io;
+	private Path file;
+
+	@Before
+	public void setUp() throws Exception {
+		io = Rings.asyncIO("linked-chain");
+		file = Files.createTempFile("uring-chain", ".dat");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (io != null) {
+			io.shutdown();
+		}
+		if (file != null) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void writeWriteFsync() throws Exception {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			FileDescriptor fd = IoURing.descriptorOf(ch);
+			ByteBuffer header = ByteBuffer.wrap("head:".getBytes("UTF-8"));
+			ByteBuffer body = ByteBuffer.allocateDirect(4);
+			body.put("body".getBytes("UTF-8")).flip();
+			// the same chain shape many times, nothing is held between chains
+			for (int i = 0; i < 200; i++) {
+				header.rewind();
+				body.rewind();
+				long[] res = io.newChain(3)
+					.write(fd, i * 9L, header)
+					.write(fd, i * 9L + 5, body)
+					.fsync(fd, IoURing.FsyncFlags.DATASYNC)
+					.submit()
+					.get(5, TimeUnit.SECONDS);
+				Assert.assertArrayEquals(new long[]{ 5, 4, 0 }, res);
+				Assert.assertFalse(header.hasRemaining());
+				Assert.assertFalse(body.hasRemaining());
+			}
+		}
+		byte[] data = Files.readAllBytes(file);
+		Assert.assertEquals(200 * 9, data.length);
+		Assert.assertEquals("head:body", new String(data, 199 * 9, 9, "UTF-8"));
+	}
+
+	@Test
+	public void unsubmittedChainHoldNothing() throws Exception {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			FileDescriptor fd = IoURing.descriptorOf(ch);
+			// more chains than in-flight request-Ids, built but never submitted
+			LinkedChain[] built = new LinkedChain[1024];
+			for (int i = 0; i < built.length; i++) {
+				built[i] = io.newChain(1).write(fd, 0, ByteBuffer.wrap(new byte[512]));
+			}
+			long[] res = io.newChain(1).write(fd, 0, ByteBuffer.wrap(new byte[8])).submit().get(5, TimeUnit.SECONDS);
+			Assert.assertArrayEquals(new long[]{ 8 }, res);
+		}
+	}
+
+	@Test
+	public void failedLinkCancelRest() throws Exception {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			FileDescriptor fd = IoURing.descriptorOf(ch);
+			LinkedChain chain = io.newChain()
+				.write(fd, 0, ByteBuffer.wrap(new byte[16]))
+				.fsync(fd, 0);
+			Assert.assertEquals(2, chain.size());
+			long[] res = chain.submit().get(5, TimeUnit.SECONDS);
+			// write to a read only fd
+			Assert.assertEquals(-9, res[0]);
+			Assert.assertEquals(-LinkedChain.ECANCELED, res[1]);
+		}
+		Assert.assertEquals(0, Files.size(file));
+	}
+}
@@ -0,0 +1,114 @@
+package org.chinaxing;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class LogAppenderTest {
+	private AsyncIO io;
+	private Path file;
+
+	@Before
+	public void setUp() throws Exception {
+		io = Rings.asyncIO("log-appender");
+		file = Files.createTempFile("uring-log", ".dat");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (io != null) {
+			io.shutdown();
+		}
+		if (file != null) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static ByteBuffer record(int n) {
+		ByteBuffer r = ByteBuffer.allocate(8);
+		r.putInt(n).putInt(~n).flip();
+		return r;
+	}
+
+	@Test
+	public void groupCommit() throws Exception {
+		int threads = 4;
+		int perThread = 500;
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE);
+			 LogAppender log = new LogAppender(io, IoURing.descriptorOf(ch), 16, 1024)) {
+			List<CompletableFuture<Long>> futures = new ArrayList<>();
+			List<Thread> ts = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				int base = t * perThread;
+				Thread th = new Thread(() -> {
+					for (int i = 0; i < perThread; i++) {
+						CompletableFuture<Long> f = log.append(record(base + i));
+						synchronized (futures) {
+							futures.add(f);
+						}
+					}
+				});
+				ts.add(th);
+				th.start();
+			}
+			for (Thread th : ts) {
+				th.join();
+			}
+			for (CompletableFuture<Long> f : futures) {
+				f.get(5, TimeUnit.SECONDS);
+			}
+			Assert.assertEquals(16 + threads * perThread * 8, log.durablePosition());
+		}
+		// every record is in the log once, at the offset its future completed with
+		ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+		Assert.assertEquals(16 + threads * perThread * 8, data.limit());
+		boolean[] seen = new boolean[threads * perThread];
+		for (int pos = 16; pos < data.limit(); pos += 8) {
+			int n = data.getInt(pos);
+			Assert.assertEquals(~n, data.getInt(pos + 4));
+			Assert.assertFalse(seen[n]);
+			seen[n] = true;
+		}
+	}
+
+	@Test
+	public void failedWriteFailGroup() throws Exception {
+		// the log write completes with -EBADF
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+			 LogAppender log = new LogAppender(io, IoURing.descriptorOf(ch), 0, 1024)) {
+			List<CompletableFuture<Long>> futures = new ArrayList<>();
+			for (int i = 0; i < 16; i++) {
+				futures.add(log.append(record(i)));
+			}
+			for (CompletableFuture<Long> f : futures) {
+				try {
+					f.get(5, TimeUnit.SECONDS);
+					Assert.fail();
+				} catch (ExecutionException e) {
+					Assert.assertTrue(e.getCause() instanceof IOException);
+				}
+			}
+			Assert.assertEquals(0, log.durablePosition());
+			// the log stays failed
+			try {
+				log.append(record(16)).get(5, TimeUnit.SECONDS);
+				Assert.fail();
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause().getMessage().contains("ret: -9"));
+			}
+		}
+	}
+}
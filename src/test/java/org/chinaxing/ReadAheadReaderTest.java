@@ -0,0 +1,87 @@
+package org.chinaxing;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+public class ReadAheadReaderTest {
+	private static final int CHUNK = 4096;
+
+	private AsyncIO io;
+	private Path file;
+	private byte[] content;
+
+	@Before
+	public void setUp() throws Exception {
+		io = Rings.asyncIO("read-ahead");
+		file = Files.createTempFile("uring-read-ahead", ".dat");
+		// the last chunk is short
+		content = new byte[40 * CHUNK + 123];
+		new Random(7).nextBytes(content);
+		Files.write(file, content);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (io != null) {
+			io.shutdown();
+		}
+		if (file != null) {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void readAcrossEof() throws Exception {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+			 ReadAheadReader r = new ReadAheadReader(io, IoURing.descriptorOf(ch), 0, CHUNK, 8)) {
+			// reads not aligned to chunks
+			ByteBuffer dst = ByteBuffer.allocate(content.length + 1000);
+			ByteBuffer part = ByteBuffer.allocate(5000);
+			int n;
+			while ((n = r.read(part)) >= 0) {
+				Assert.assertTrue(n > 0);
+				part.flip();
+				dst.put(part);
+				part.clear();
+			}
+			Assert.assertEquals(content.length, dst.position());
+			Assert.assertEquals(content.length, r.position());
+			Assert.assertEquals(ByteBuffer.wrap(content), (ByteBuffer) dst.flip());
+			Assert.assertEquals(8, r.window());
+			// still end of file
+			Assert.assertEquals(-1, r.read(ByteBuffer.allocate(1)));
+		}
+	}
+
+	@Test
+	public void positionNearAndPastEof() throws Exception {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+			 ReadAheadReader r = new ReadAheadReader(io, IoURing.descriptorOf(ch), 0, CHUNK, 8)) {
+			InputStream in = r.asInputStream();
+			Assert.assertEquals(content[0] & 0xff, in.read());
+			r.position(content.length - 10);
+			byte[] tail = new byte[64];
+			Assert.assertEquals(10, in.read(tail));
+			for (int i = 0; i < 10; i++) {
+				Assert.assertEquals(content[content.length - 10 + i], tail[i]);
+			}
+			Assert.assertEquals(-1, in.read());
+			r.position(content.length + CHUNK);
+			Assert.assertEquals(-1, r.read(ByteBuffer.allocate(16)));
+			// back into the file after end of file
+			r.position(CHUNK - 1);
+			Assert.assertEquals(content[CHUNK - 1] & 0xff, in.read());
+			Assert.assertEquals(content[CHUNK] & 0xff, in.read());
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package org.chinaxing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RequestTableTest {
+	@Test
+	public void acquireRelease() {
+		RequestTable<String> table = new RequestTable<>(2);
+		long a = table.acquire("a");
+		long b = table.acquire("b");
+		Assert.assertTrue(a > 0 && b > 0 && a != b);
+		Assert.assertEquals(-1, table.acquire("c"));
+		Assert.assertEquals("a", table.get(a));
+		Assert.assertEquals("a", table.release(a));
+		// second release of same id is ignored
+		Assert.assertNull(table.release(a));
+		Assert.assertNull(table.get(a));
+
+		long c = table.acquire("c");
+		// slot reused with a new generation, stale id never match
+		Assert.assertEquals(RequestTable.slot(a), RequestTable.slot(c));
+		Assert.assertNotEquals(a, c);
+		Assert.assertNull(table.get(a));
+		Assert.assertNull(table.release(a));
+		Assert.assertEquals("c", table.get(c));
+	}
+
+	@Test
+	public void foreignId() {
+		RequestTable<String> table = new RequestTable<>(4);
+		table.acquire("a");
+		Assert.assertNull(table.get(0));
+		Assert.assertNull(table.release(0));
+		Assert.assertNull(table.release(-1));
+		Assert.assertNull(table.release(1000));
+	}
+
+	@Test
+	public void concurrent() throws Exception {
+		final RequestTable<Integer> table = new RequestTable<>(64);
+		final AtomicInteger errors = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int tid = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long[] ids = new long[8];
+					for (int round = 0; round < 20000; round++) {
+						for (int i = 0; i < ids.length; i++) {
+							ids[i] = table.acquire(tid * 8 + i);
+						}
+						for (int i = 0; i < ids.length; i++) {
+							Integer v = table.release(ids[i]);
+							if (v == null || v != tid * 8 + i) {
+								errors.incrementAndGet();
+							}
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		Assert.assertEquals(0, errors.get());
+		for (int i = 0; i < 64; i++) {
+			Assert.assertTrue(table.acquire(i) > 0);
+		}
+		Assert.assertEquals(-1, table.acquire(64));
+	}
+}
@@ -0,0 +1,67 @@
+package org.chinaxing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileDescriptor;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class RingMetricsTest {
+	@Test
+	public void linkTimeoutNotAnError() throws Exception {
+		AsyncIO io = Rings.asyncIO("metrics");
+		RingMetrics metrics = io.enableMetrics();
+		try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("127.0.0.1", 0));
+			 SocketChannel client = SocketChannel.open(server.getLocalAddress());
+			 SocketChannel peer = server.accept()) {
+			ByteBuffer dst = ByteBuffer.allocateDirect(16);
+			CompletableFuture<Long> recv = io.prepareRecv(IoURing.descriptorOf(peer), dst, 0, 10, TimeUnit.MILLISECONDS);
+			io.submit();
+			long res = recv.get(5, TimeUnit.SECONDS);
+			Assert.assertEquals(-125L, res);
+			// the recv and its LINK_TIMEOUT
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (metrics.getCompleted() < 2 && System.nanoTime() < deadline) {
+				Thread.sleep(1);
+			}
+			RingMetrics.Snapshot s = metrics.snapshot();
+			Assert.assertEquals(2, s.prepared);
+			Assert.assertEquals(2, s.completed);
+			// the recv timed out, the timeout firing is not an error itself
+			Assert.assertEquals(1, s.errors);
+			Assert.assertEquals(Long.valueOf(1), s.errnos.get(125));
+		} finally {
+			io.shutdown();
+		}
+	}
+
+	@Test
+	public void waitCQEntryCountedOnce() throws Exception {
+		IoURing ring = Rings.ring(new IoURing.Params(8));
+		RingMetrics metrics = ring.enableMetrics();
+		Path p = Files.createTempFile("uring-metrics", ".dat");
+		try (FileChannel ch = FileChannel.open(p, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+			FileDescriptor fd = IoURing.descriptorOf(ch);
+			long reqId = ring.prepareFsync(fd, 0);
+			ring.submit();
+			IoURing.IOResult r = ring.waitCQEntry();
+			ring.seenCQEntry(1);
+			Assert.assertEquals(reqId, r.reqId);
+			Assert.assertEquals(0, r.res);
+			Assert.assertEquals(1, metrics.getPrepared());
+			Assert.assertEquals(1, metrics.getCompleted());
+			Assert.assertEquals(0, metrics.getInFlight());
+		} finally {
+			ring.shutdown();
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package org.chinaxing;
+
+import org.junit.Assume;
+
+/**
+ * rings for tests, a test is skipped where no ring can be set up (no liburingjni nor ffm backend, old kernel)
+ */
+final class Rings {
+	private Rings() {
+	}
+
+	static IoURing ring(IoURing.Params params) {
+		try {
+			return new IoURing(params);
+		} catch (LinkageError | UnsupportedOperationException e) {
+			Assume.assumeNoException(e);
+			throw e;
+		}
+	}
+
+	static AsyncIO asyncIO(String name, IoURing.Params params) {
+		return new AsyncIO(name, ring(params));
+	}
+
+	static AsyncIO asyncIO(String name) {
+		return asyncIO(name, new IoURing.Params(64));
+	}
+}
@@ -0,0 +1,41 @@
+package org.chinaxing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class SockAddrTest {
+	@Test
+	public void inet4() throws Exception {
+		ByteBuffer b = ByteBuffer.allocate(SockAddr.MAX_SIZE);
+		int len = SockAddr.write(b, new InetSocketAddress(InetAddress.getByName("10.1.2.3"), 8080));
+		Assert.assertEquals(16, len);
+		Assert.assertEquals(SockAddr.AF_INET, b.duplicate().order(ByteOrder.nativeOrder()).getShort(0));
+		// port in network order
+		Assert.assertEquals(0x1f, b.get(2));
+		Assert.assertEquals((byte) 0x90, b.get(3));
+		Assert.assertEquals(10, b.get(4));
+		Assert.assertEquals(3, b.get(7));
+	}
+
+	@Test
+	public void inet6() throws Exception {
+		ByteBuffer b = ByteBuffer.allocate(SockAddr.MAX_SIZE);
+		int len = SockAddr.write(b, new InetSocketAddress(InetAddress.getByName("::1"), 443));
+		Assert.assertEquals(28, len);
+		Assert.assertEquals(SockAddr.AF_INET6, b.duplicate().order(ByteOrder.nativeOrder()).getShort(0));
+		Assert.assertEquals(1, b.get(2));
+		Assert.assertEquals((byte) 0xbb, b.get(3));
+		Assert.assertEquals(0, b.get(8));
+		Assert.assertEquals(1, b.get(23));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unresolved() {
+		SockAddr.write(ByteBuffer.allocate(SockAddr.MAX_SIZE), InetSocketAddress.createUnresolved("nowhere", 80));
+	}
+}
@@ -0,0 +1,100 @@
+package org.chinaxing;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class SpliceTransferTest {
+	private AsyncIO io;
+	private Path src;
+	private Path dst;
+
+	@Before
+	public void setUp() throws Exception {
+		io = Rings.asyncIO("splice-transfer");
+		src = Files.createTempFile("uring-splice-src", ".dat");
+		dst = Files.createTempFile("uring-splice-dst", ".dat");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (io != null) {
+			io.shutdown();
+		}
+		for (Path p : new Path[]{ src, dst }) {
+			if (p != null) {
+				Files.deleteIfExists(p);
+			}
+		}
+	}
+
+	@Test
+	public void fileToFileShortSource() throws Exception {
+		// several pipe sized chunks and a short last one
+		byte[] content = new byte[3 * SpliceTransfer.CHUNK + 1234];
+		new Random(11).nextBytes(content);
+		Files.write(src, content);
+		try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+			 FileChannel out = FileChannel.open(dst, StandardOpenOption.WRITE)) {
+			// asked for more than the source has
+			long n = io.transfer(IoURing.descriptorOf(in), 100, IoURing.descriptorOf(out), 10, content.length)
+				.get(5, TimeUnit.SECONDS);
+			Assert.assertEquals(content.length - 100, n);
+		}
+		byte[] data = Files.readAllBytes(dst);
+		Assert.assertEquals(10 + content.length - 100, data.length);
+		Assert.assertArrayEquals(Arrays.copyOfRange(content, 100, content.length), Arrays.copyOfRange(data, 10, data.length));
+	}
+
+	@Test
+	public void pipeReused() throws Exception {
+		byte[] content = new byte[SpliceTransfer.CHUNK + 1];
+		new Random(13).nextBytes(content);
+		Files.write(src, content);
+		try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+			 FileChannel out = FileChannel.open(dst, StandardOpenOption.WRITE)) {
+			for (int i = 0; i < 20; i++) {
+				long n = io.transfer(IoURing.descriptorOf(in), 0, IoURing.descriptorOf(out), (long) i * content.length, content.length)
+					.get(5, TimeUnit.SECONDS);
+				Assert.assertEquals(content.length, n);
+			}
+		}
+		byte[] data = Files.readAllBytes(dst);
+		Assert.assertEquals(20 * content.length, data.length);
+		Assert.assertArrayEquals(content, Arrays.copyOfRange(data, 19 * content.length, data.length));
+	}
+
+	@Test
+	public void closedPipeUnregistered() throws Exception {
+		FileTable files = io.ring().enableFileTable(256, true);
+		byte[] content = new byte[SpliceTransfer.CHUNK];
+		Files.write(src, content);
+		int n = 48;
+		try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+			 FileChannel out = FileChannel.open(dst, StandardOpenOption.WRITE)) {
+			// more transfers at once than idle pipes kept, the extra pipes are closed when given back
+			List<CompletableFuture<Long>> futures = new ArrayList<>();
+			for (int i = 0; i < n; i++) {
+				futures.add(io.transfer(IoURing.descriptorOf(in), 0, IoURing.descriptorOf(out), (long) i * content.length, content.length));
+			}
+			for (CompletableFuture<Long> f : futures) {
+				Assert.assertEquals(content.length, (long) f.get(5, TimeUnit.SECONDS));
+			}
+			// both files and both ends of every idle pipe
+			Assert.assertTrue("registered: " + files.size(), files.size() <= 2 + 2 * 16);
+		}
+		Assert.assertEquals(n * content.length, Files.size(dst));
+	}
+}
@@ -0,0 +1,40 @@
+package org.chinaxing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileDescriptor;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class SubmissionBatchTest {
+	@Test
+	public void clearReleaseRequestIds() throws Exception {
+		IoURing ring = Rings.ring(new IoURing.Params(8));
+		Path p = Files.createTempFile("uring-batch", ".dat");
+		try (FileChannel ch = FileChannel.open(p, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+			FileDescriptor fd = IoURing.descriptorOf(ch);
+			SubmissionBatch batch = ring.newBatch(4);
+			// many more dropped requests than in-flight request-Ids
+			for (int i = 0; i < 100; i++) {
+				for (int j = 0; j < 4; j++) {
+					batch.fsync(fd, 0);
+				}
+				batch.clear();
+			}
+			// the caller's user_data is not released
+			batch.add(IoURing.Op.NOP, 0, -1, 0, 0, 0, 0, 0, 0);
+			batch.clear();
+			long reqId = batch.fsync(fd, 0);
+			Assert.assertEquals(1, batch.submit());
+			long[] reqIds = new long[1], res = new long[1];
+			Assert.assertEquals(1, ring.reapCQEntries(reqIds, res, new int[1], new Object[1], true));
+			Assert.assertEquals(reqId, reqIds[0]);
+			Assert.assertEquals(0, res[0]);
+		} finally {
+			ring.shutdown();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package org.chinaxing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SubmitQueueTest {
+	@Test
+	public void capacity() {
+		Assert.assertEquals(2, new SubmitQueue(1).capacity());
+		Assert.assertEquals(8, new SubmitQueue(8).capacity());
+		Assert.assertEquals(16, new SubmitQueue(9).capacity());
+	}
+
+	@Test
+	public void offerUntilFull() {
+		SubmitQueue queue = new SubmitQueue(4);
+		for (int i = 0; i < 4; i++) {
+			Assert.assertTrue(queue.offer(IoURing.Op.NOP, 0, -1, 0, 0, 0, 0, 0, i + 1));
+		}
+		Assert.assertEquals(4, queue.size());
+		Assert.assertFalse(queue.offer(IoURing.Op.NOP, 0, -1, 0, 0, 0, 0, 0, 5));
+		Assert.assertEquals(4, queue.size());
+	}
+
+	@Test
+	public void offerChain() {
+		ByteBuffer chain = chain(3);
+		SubmitQueue queue = new SubmitQueue(8);
+		Assert.assertTrue(queue.offerAll(chain, 0, 3));
+		Assert.assertEquals(3, queue.size());
+		for (int i = 0; i < 3; i++) {
+			Assert.assertTrue(queue.offer(IoURing.Op.NOP, 0, -1, 0, 0, 0, 0, 0, i + 10));
+		}
+		// 2 slots left before the wrap are padded, no room for the chain after it
+		Assert.assertFalse(queue.offerAll(chain, 0, 3));
+		Assert.assertEquals(8, queue.size());
+	}
+
+	private static ByteBuffer chain(int n) {
+		ByteBuffer b = ByteBuffer.allocateDirect(n * SubmissionBatch.DESC_SIZE).order(ByteOrder.nativeOrder());
+		for (int i = 0; i < n; i++) {
+			int flags = i < n - 1 ? IoURing.SqeFlags.IO_LINK : 0;
+			SubmissionBatch.write(b, i * SubmissionBatch.DESC_SIZE, IoURing.Op.NOP, flags, 0, -1, 0, 0, 0, 0, 0, i + 1);
+		}
+		return b;
+	}
+
+	@Test
+	public void concurrentOffer() throws Exception {
+		final SubmitQueue queue = new SubmitQueue(1024);
+		final AtomicInteger accepted = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 200; i++) {
+						if (queue.offer(IoURing.Op.NOP, 0, -1, 0, 0, 0, 0, 0, i + 1)) {
+							accepted.incrementAndGet();
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		// 1600 offers into 1024 slots, every slot taken exactly once
+		Assert.assertEquals(1024, accepted.get());
+		Assert.assertEquals(1024, queue.size());
+	}
+
+	@Test
+	public void fullQueueWaitForDrainer() throws Exception {
+		IoURing ring = Rings.ring(new IoURing.Params(2));
+		// tiny queue, producers keep finding it full while another thread drains
+		ring.enableSubmitQueue(2);
+		final AsyncIO io = new AsyncIO("full-queue", ring);
+		Path file = Files.createTempFile("submit-queue", ".dat");
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+			final FileDescriptor fd = IoURing.descriptorOf(ch);
+			final AtomicInteger failed = new AtomicInteger();
+			Thread[] threads = new Thread[8];
+			for (int t = 0; t < threads.length; t++) {
+				threads[t] = new Thread(() -> {
+					for (int i = 0; i < 500; i++) {
+						try {
+							CompletableFuture<Long> f = io.prepareFsync(fd, IoURing.FsyncFlags.DATASYNC);
+							io.submit();
+							if (f.get(5, TimeUnit.SECONDS) < 0) {
+								failed.incrementAndGet();
+							}
+						} catch (Exception e) {
+							failed.incrementAndGet();
+						}
+					}
+				});
+				threads[t].start();
+			}
+			for (Thread t : threads) {
+				t.join();
+			}
+			Assert.assertEquals(0, failed.get());
+		} finally {
+			io.shutdown();
+		}
+	}
+}
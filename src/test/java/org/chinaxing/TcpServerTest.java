@@ -0,0 +1,68 @@
+package org.chinaxing;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class TcpServerTest {
+	@Test
+	public void closeCancelMultishotAccept() throws Exception {
+		AsyncIO io = Rings.asyncIO("tcp");
+		LinkedBlockingQueue<TcpConnection> accepted = new LinkedBlockingQueue<>();
+		TcpServer server = TcpServer.multishot(io, new InetSocketAddress("127.0.0.1", 0), 16, accepted::add);
+		InetSocketAddress addr = server.localAddress();
+		try (Socket s = new Socket(addr.getAddress(), addr.getPort())) {
+			TcpConnection c = accepted.poll(5, TimeUnit.SECONDS);
+			Assert.assertNotNull(c);
+			c.close();
+		}
+		server.close();
+		// the armed accept no longer hold the listening socket
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		boolean refused = false;
+		while (!refused && System.nanoTime() < deadline) {
+			try (Socket s = new Socket(addr.getAddress(), addr.getPort())) {
+				Thread.sleep(10);
+			} catch (IOException e) {
+				refused = true;
+			}
+		}
+		Assert.assertTrue(refused);
+		io.shutdown();
+	}
+
+	@Test
+	public void closeClearFileSlot() throws Exception {
+		AsyncIO io = Rings.asyncIO("tcp");
+		// auto table smaller than the cycles, stale slots would fill it
+		FileTable files = io.ring().enableFileTable(8, true);
+		LinkedBlockingQueue<TcpConnection> accepted = new LinkedBlockingQueue<>();
+		TcpServer server = TcpServer.multishot(io, new InetSocketAddress("127.0.0.1", 0), 16, accepted::add);
+		InetSocketAddress addr = server.localAddress();
+		// the listening socket
+		int listening = files.size();
+		for (int i = 0; i < 100; i++) {
+			try (Socket s = new Socket(addr.getAddress(), addr.getPort())) {
+				s.setSoTimeout(5000);
+				TcpConnection c = accepted.poll(5, TimeUnit.SECONDS);
+				Assert.assertNotNull(c);
+				s.getOutputStream().write(i);
+				ByteBuffer buf = ByteBuffer.allocateDirect(16);
+				Assert.assertEquals(1L, (long) c.recv(buf).get(5, TimeUnit.SECONDS));
+				Assert.assertEquals(listening + 1, files.size());
+				c.close();
+				// no slot hold the socket open
+				Assert.assertEquals(-1, s.getInputStream().read());
+				Assert.assertEquals(listening, files.size());
+			}
+		}
+		server.close();
+		io.shutdown();
+	}
+}